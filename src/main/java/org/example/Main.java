@@ -1,7 +1,7 @@
 package org.example;
 
 import org.example.util.RedisMap;
-import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.UnifiedJedis;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -9,14 +9,14 @@ import java.util.Map;
 import static org.example.config.RedisConfiguration.*;
 
 /**
- * Just for DEMO purposes
+ * Just for DEMO purposes, runs against the cluster, or against the single instance of redis with the argument single
  */
 public class Main {
 
     public static void main(String[] args) {
-        // try (Jedis jedis = new Jedis(LOCALHOST, 7001)) { // this line would be for running single instance of redis instead of cluster
-        try (JedisCluster cluster = new JedisCluster(NODES)) {
-            RedisMap map = new RedisMap(cluster, REDIS_HASH_KEY);
+        boolean single = args.length > 0 && args[0].equals("single");
+        try (UnifiedJedis commands = single ? CURRENT.createSingle() : CURRENT.createCluster()) {
+            RedisMap<String, Integer> map = RedisMap.of(commands, REDIS_HASH_KEY);
             System.out.println("Clearing out map (redis)");
             map.clear();
 
@@ -1,22 +1,405 @@
 package org.example.config;
 
-import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.*;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
 
 /**
- * Hardcoded values just for the sake of the test
- * In real life I would utilize properties to set this up
+ * Connection settings of redis, loaded by {@link #load()} from these sources, later ones override earlier ones:
+ * <ul>
+ *     <li>defaults below, a local cluster on ports 7001-7005 and a single instance on port 6379</li>
+ *     <li>redis.properties on the classpath</li>
+ *     <li>system properties, e.g. -Dredis.pool.max-total=32</li>
+ *     <li>environment variables, the property name upper cased with dots and dashes replaced by underscores,
+ *     e.g. REDIS_POOL_MAX_TOTAL=32</li>
+ * </ul>
+ * Timeouts are in milliseconds, a topology refresh of 0 disables periodic refreshes of the slot map
+ * and an empty protocol leaves the choice to the client, which is RESP2 without a HELLO handshake
  */
 public class RedisConfiguration {
     public static final String LOCALHOST = "127.0.0.1";
-    public static final Set<HostAndPort> NODES = new HashSet<>() {{
-        add(new HostAndPort(LOCALHOST, 7001));
-        add(new HostAndPort(LOCALHOST, 7002));
-        add(new HostAndPort(LOCALHOST, 7003));
-        add(new HostAndPort(LOCALHOST, 7004));
-        add(new HostAndPort(LOCALHOST, 7005));
-    }};
-    public static final String REDIS_HASH_KEY = "TEST_REDIS_MAP";
+
+    public static final String NODES_PROPERTY = "redis.nodes";
+    public static final String SINGLE_NODE_PROPERTY = "redis.single-node";
+    public static final String HASH_KEY_PROPERTY = "redis.hash-key";
+    public static final String USER_PROPERTY = "redis.user";
+    public static final String PASSWORD_PROPERTY = "redis.password";
+    public static final String CLIENT_NAME_PROPERTY = "redis.client-name";
+    public static final String PROTOCOL_PROPERTY = "redis.protocol";
+    public static final String CONNECTION_TIMEOUT_PROPERTY = "redis.connection-timeout";
+    public static final String SOCKET_TIMEOUT_PROPERTY = "redis.socket-timeout";
+    public static final String MAX_ATTEMPTS_PROPERTY = "redis.max-attempts";
+    public static final String MAX_TOTAL_RETRIES_DURATION_PROPERTY = "redis.max-total-retries-duration";
+    public static final String TOPOLOGY_REFRESH_PROPERTY = "redis.topology-refresh";
+    public static final String POOL_MAX_TOTAL_PROPERTY = "redis.pool.max-total";
+    public static final String POOL_MAX_IDLE_PROPERTY = "redis.pool.max-idle";
+    public static final String POOL_MIN_IDLE_PROPERTY = "redis.pool.min-idle";
+    public static final String POOL_MAX_WAIT_PROPERTY = "redis.pool.max-wait";
+    public static final String POOL_LIFO_PROPERTY = "redis.pool.lifo";
+    public static final String POOL_FAIRNESS_PROPERTY = "redis.pool.fairness";
+    public static final String WARM_UP_PROPERTY = "redis.warm-up";
+    public static final String WARM_UP_CONNECTIONS_PROPERTY = "redis.warm-up.connections";
+
+    private static final String RESOURCE = "redis.properties";
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry(NODES_PROPERTY, LOCALHOST + ":7001," + LOCALHOST + ":7002," + LOCALHOST + ":7003,"
+                    + LOCALHOST + ":7004," + LOCALHOST + ":7005"),
+            Map.entry(SINGLE_NODE_PROPERTY, LOCALHOST + ":6379"),
+            Map.entry(HASH_KEY_PROPERTY, "TEST_REDIS_MAP"),
+            Map.entry(PROTOCOL_PROPERTY, ""),
+            Map.entry(CONNECTION_TIMEOUT_PROPERTY, "2000"),
+            Map.entry(SOCKET_TIMEOUT_PROPERTY, "2000"),
+            Map.entry(MAX_ATTEMPTS_PROPERTY, "5"),
+            Map.entry(TOPOLOGY_REFRESH_PROPERTY, "0"),
+            Map.entry(POOL_MAX_TOTAL_PROPERTY, "8"),
+            Map.entry(POOL_MAX_IDLE_PROPERTY, "8"),
+            Map.entry(POOL_MIN_IDLE_PROPERTY, "0"),
+            Map.entry(POOL_MAX_WAIT_PROPERTY, "-1"),
+            Map.entry(POOL_LIFO_PROPERTY, "true"),
+            Map.entry(POOL_FAIRNESS_PROPERTY, "false"),
+            Map.entry(WARM_UP_PROPERTY, "false"),
+            Map.entry(WARM_UP_CONNECTIONS_PROPERTY, "1"));
+
+    /**
+     * Configuration of this process, see {@link #load()}
+     */
+    public static final RedisConfiguration CURRENT = load();
+    public static final Set<HostAndPort> NODES = CURRENT.nodes();
+    public static final HostAndPort SINGLE_NODE = CURRENT.singleNode();
+    public static final String REDIS_HASH_KEY = CURRENT.hashKey();
+
+    private final Set<HostAndPort> nodes;
+    private final HostAndPort singleNode;
+    private final String hashKey;
+    private final String user;
+    private final String password;
+    private final String clientName;
+    private final RedisProtocol protocol;
+    private final int connectionTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int maxAttempts;
+    private final Duration maxTotalRetriesDuration;
+    private final Duration topologyRefresh;
+    private final int poolMaxTotal;
+    private final int poolMaxIdle;
+    private final int poolMinIdle;
+    private final Duration poolMaxWait;
+    private final boolean poolLifo;
+    private final boolean poolFairness;
+    private final boolean warmUp;
+    private final int warmUpConnections;
+
+    private RedisConfiguration(Map<String, String> values) {
+        Source source = new Source(values);
+        this.nodes = Set.copyOf(source.list(NODES_PROPERTY, HostAndPort::from));
+        this.singleNode = source.get(SINGLE_NODE_PROPERTY, HostAndPort::from);
+        this.hashKey = source.get(HASH_KEY_PROPERTY, Function.identity());
+        this.user = source.optional(USER_PROPERTY);
+        this.password = source.optional(PASSWORD_PROPERTY);
+        this.clientName = source.optional(CLIENT_NAME_PROPERTY);
+        this.protocol = source.optional(PROTOCOL_PROPERTY) != null
+                ? source.get(PROTOCOL_PROPERTY, value -> RedisProtocol.valueOf(value.toUpperCase(Locale.ROOT)))
+                : null;
+        this.connectionTimeoutMillis = source.positive(CONNECTION_TIMEOUT_PROPERTY);
+        this.socketTimeoutMillis = source.positive(SOCKET_TIMEOUT_PROPERTY);
+        this.maxAttempts = source.positive(MAX_ATTEMPTS_PROPERTY);
+        this.maxTotalRetriesDuration = Duration.ofMillis(source.optional(MAX_TOTAL_RETRIES_DURATION_PROPERTY) != null
+                ? source.positive(MAX_TOTAL_RETRIES_DURATION_PROPERTY)
+                : (long) socketTimeoutMillis * maxAttempts);
+        int topologyRefresh = source.get(TOPOLOGY_REFRESH_PROPERTY, Integer::parseInt);
+        this.topologyRefresh = topologyRefresh > 0 ? Duration.ofMillis(topologyRefresh) : null;
+        this.poolMaxTotal = source.positive(POOL_MAX_TOTAL_PROPERTY);
+        this.poolMaxIdle = source.get(POOL_MAX_IDLE_PROPERTY, Integer::parseInt);
+        this.poolMinIdle = source.get(POOL_MIN_IDLE_PROPERTY, Integer::parseInt);
+        this.poolMaxWait = Duration.ofMillis(source.get(POOL_MAX_WAIT_PROPERTY, Long::parseLong));
+        this.poolLifo = source.get(POOL_LIFO_PROPERTY, Source::parseBoolean);
+        this.poolFairness = source.get(POOL_FAIRNESS_PROPERTY, Source::parseBoolean);
+        this.warmUp = source.get(WARM_UP_PROPERTY, Source::parseBoolean);
+        this.warmUpConnections = source.positive(WARM_UP_CONNECTIONS_PROPERTY);
+        if (poolMinIdle < 0 || poolMinIdle > poolMaxIdle || poolMaxIdle > poolMaxTotal) {
+            throw new IllegalArgumentException("Pool sizes have to satisfy 0 <= " + POOL_MIN_IDLE_PROPERTY + " <= "
+                    + POOL_MAX_IDLE_PROPERTY + " <= " + POOL_MAX_TOTAL_PROPERTY);
+        }
+    }
+
+    /**
+     * Loads the configuration from defaults, redis.properties on the classpath, system properties
+     * and environment variables
+     * @return loaded configuration
+     * @throws IllegalArgumentException if a value cannot be parsed
+     */
+    public static RedisConfiguration load() {
+        Properties properties = new Properties();
+        try (InputStream resource = RedisConfiguration.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (resource != null) {
+                properties.load(resource);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + RESOURCE, e);
+        }
+        properties.putAll(System.getProperties());
+        return from(properties, System.getenv());
+    }
+
+    /**
+     * Creates the configuration from the properties overridden by the environment, missing values are defaults
+     * @param properties values by property name
+     * @param environment values by environment variable name, e.g. REDIS_POOL_MAX_TOTAL for redis.pool.max-total
+     * @return configuration
+     * @throws IllegalArgumentException if a value cannot be parsed
+     */
+    public static RedisConfiguration from(Properties properties, Map<String, String> environment) {
+        Map<String, String> values = new HashMap<>(DEFAULTS);
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("redis.")) {
+                values.put(name, properties.getProperty(name).trim());
+            }
+        }
+        for (String name : DEFAULTS.keySet()) {
+            putFromEnvironment(values, environment, name);
+        }
+        for (String name : List.of(USER_PROPERTY, PASSWORD_PROPERTY, CLIENT_NAME_PROPERTY,
+                MAX_TOTAL_RETRIES_DURATION_PROPERTY)) {
+            putFromEnvironment(values, environment, name);
+        }
+        return new RedisConfiguration(values);
+    }
+
+    /**
+     * Returns the environment variable that overrides the property
+     * @param property property name, e.g. redis.pool.max-total
+     * @return environment variable name, e.g. REDIS_POOL_MAX_TOTAL
+     */
+    public static String environmentVariable(String property) {
+        return property.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static void putFromEnvironment(Map<String, String> values, Map<String, String> environment, String name) {
+        String value = environment.get(environmentVariable(name));
+        if (value != null) {
+            values.put(name, value.trim());
+        }
+    }
+
+    /**
+     * Creates a cluster client with the configured pool, timeouts and retries, warmed up if {@link #warmUp()} is set.
+     * The client fetches the slot map while it is created
+     * @return cluster client, has to be closed
+     */
+    public JedisCluster createCluster() {
+        JedisCluster cluster = new JedisCluster(nodes, clientConfig(), poolConfig(), topologyRefresh, maxAttempts,
+                maxTotalRetriesDuration);
+        if (warmUp) {
+            try {
+                WarmUp.cluster(cluster, warmUpConnections);
+            } catch (RuntimeException e) {
+                cluster.close();
+                throw e;
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * Creates a client of the single instance with the configured pool and timeouts,
+     * warmed up if {@link #warmUp()} is set. Every command borrows a connection from the pool, so unlike a
+     * {@link Jedis} the client, and a map over it, can be shared by any number of threads, virtual threads included
+     * @return client, has to be closed
+     */
+    public JedisPooled createSingle() {
+        JedisPooled pooled = new JedisPooled(singleNode, clientConfig(), poolConfig());
+        if (warmUp) {
+            try {
+                WarmUp.pooled(pooled, warmUpConnections);
+            } catch (RuntimeException e) {
+                pooled.close();
+                throw e;
+            }
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns settings of every connection: credentials, client name, protocol and timeouts
+     * @return settings of a connection
+     */
+    public JedisClientConfig clientConfig() {
+        return DefaultJedisClientConfig.builder()
+                .user(user)
+                .password(password)
+                .clientName(clientName)
+                .protocol(protocol)
+                .connectionTimeoutMillis(connectionTimeoutMillis)
+                .socketTimeoutMillis(socketTimeoutMillis)
+                .build();
+    }
+
+    /**
+     * Returns settings of the connection pool, a cluster client keeps such a pool per node
+     * @return settings of a pool
+     */
+    public ConnectionPoolConfig poolConfig() {
+        ConnectionPoolConfig config = new ConnectionPoolConfig();
+        config.setMaxTotal(poolMaxTotal);
+        config.setMaxIdle(poolMaxIdle);
+        config.setMinIdle(poolMinIdle);
+        config.setMaxWait(poolMaxWait);
+        config.setLifo(poolLifo);
+        config.setFairness(poolFairness);
+        return config;
+    }
+
+    public Set<HostAndPort> nodes() {
+        return nodes;
+    }
+
+    public HostAndPort singleNode() {
+        return singleNode;
+    }
+
+    public String hashKey() {
+        return hashKey;
+    }
+
+    /**
+     * Returns the protocol connections negotiate with HELLO
+     * @return protocol, or NULL if connections do not send HELLO and speak RESP2
+     */
+    public RedisProtocol protocol() {
+        return protocol;
+    }
+
+    public int connectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public int socketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    /**
+     * Returns how many times a cluster command is attempted, redirects and connection failures included
+     * @return attempts of a command
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration maxTotalRetriesDuration() {
+        return maxTotalRetriesDuration;
+    }
+
+    /**
+     * Returns the period of refreshes of the slot map
+     * @return period of refreshes, or NULL if the slot map is only refreshed on redirects
+     */
+    public Duration topologyRefresh() {
+        return topologyRefresh;
+    }
+
+    public int poolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    public int poolMaxIdle() {
+        return poolMaxIdle;
+    }
+
+    public int poolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public Duration poolMaxWait() {
+        return poolMaxWait;
+    }
+
+    /**
+     * Returns whether the pool lends the most recently returned connection first. Few connections then serve
+     * light load and stay warm while the rest go idle, otherwise all idle connections are used in turns
+     * @return whether the pool is last in, first out
+     */
+    public boolean poolLifo() {
+        return poolLifo;
+    }
+
+    /**
+     * Returns whether threads waiting for a connection of an exhausted pool get one in the order they asked,
+     * which bounds the wait of each thread when many more threads than connections share the pool
+     * @return whether waiting threads are served in order
+     */
+    public boolean poolFairness() {
+        return poolFairness;
+    }
+
+    /**
+     * Returns whether created clients open connections before they are returned, see {@link WarmUp}
+     * @return whether clients are warmed up
+     */
+    public boolean warmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Returns the number of connections opened per node by the warm-up, at most {@link #poolMaxIdle()} stay open
+     * @return connections per node
+     */
+    public int warmUpConnections() {
+        return warmUpConnections;
+    }
+
+    /**
+     * Values by property name with parsing that reports the property a bad value came from
+     */
+    private record Source(Map<String, String> values) {
+
+        <T> T get(String name, Function<String, T> parser) {
+            String value = values.get(name);
+            try {
+                return parser.apply(value);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid value of " + name + " (" + environmentVariable(name)
+                        + "): " + value, e);
+            }
+        }
+
+        <T> List<T> list(String name, Function<String, T> parser) {
+            List<T> items = new ArrayList<>();
+            for (String item : values.get(name).split(",")) {
+                if (!item.isBlank()) {
+                    items.add(get(name, ignored -> parser.apply(item.trim())));
+                }
+            }
+            if (items.isEmpty()) {
+                throw new IllegalArgumentException("No value of " + name + " (" + environmentVariable(name) + ")");
+            }
+            return items;
+        }
+
+        int positive(String name) {
+            int value = get(name, Integer::parseInt);
+            if (value <= 0) {
+                throw new IllegalArgumentException("Value of " + name + " (" + environmentVariable(name)
+                        + ") has to be positive: " + value);
+            }
+            return value;
+        }
+
+        static boolean parseBoolean(String value) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "true" -> true;
+                case "false" -> false;
+                default -> throw new IllegalArgumentException("Expected true or false");
+            };
+        }
+
+        String optional(String name) {
+            String value = values.get(name);
+            return value == null || value.isEmpty() ? null : value;
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package org.example.config;
+
+import redis.clients.jedis.*;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opens connections of a client before its first command, so the first requests after a start do not pay
+ * for TCP and TLS handshakes, AUTH and HELLO. A cluster client fetches the slot map while it is created,
+ * the warm-up then opens connections to every master owning slots and pings each of them
+ */
+public final class WarmUp {
+
+    /**
+     * Outcome of a warm-up
+     * @param nodes number of nodes connections were opened to
+     * @param connections number of idle connections to those nodes after the warm-up
+     * @param elapsed duration of the warm-up
+     */
+    public record Result(int nodes, int connections, Duration elapsed) {
+    }
+
+    private WarmUp() {
+    }
+
+    /**
+     * Opens connections to every master of the cluster
+     * @param cluster cluster client
+     * @param connectionsPerNode connections to be opened per master, capped by the max idle size of the pool
+     * @return number of masters and connections
+     */
+    public static Result cluster(JedisCluster cluster, int connectionsPerNode) {
+        long start = System.nanoTime();
+        Map<String, ConnectionPool> pools = cluster.getClusterNodes();
+        int nodes = 0;
+        int connections = 0;
+        for (String master : masters(cluster)) {
+            ConnectionPool pool = pools.get(master);
+            if (pool != null) {
+                nodes++;
+                connections += fill(pool, connectionsPerNode);
+            }
+        }
+        return new Result(nodes, connections, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Opens connections to a single instance
+     * @param pooled client of the instance
+     * @param connections connections to be opened, capped by the max idle size of the pool
+     * @return number of connections
+     */
+    public static Result pooled(JedisPooled pooled, int connections) {
+        long start = System.nanoTime();
+        int opened = fill(pooled.getPool(), connections);
+        return new Result(1, opened, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Reads addresses of masters owning slots with CLUSTER SLOTS, in the host:port form keys of
+     * {@link JedisCluster#getClusterNodes()} have
+     */
+    private static Set<String> masters(JedisCluster cluster) {
+        Set<String> masters = new LinkedHashSet<>();
+        try (Connection connection = cluster.getConnectionFromSlot(0)) {
+            List<?> ranges = (List<?>) connection.executeCommand(
+                    new CommandArguments(Protocol.Command.CLUSTER).add("SLOTS"));
+            for (Object range : ranges) {
+                List<?> master = (List<?>) ((List<?>) range).get(2);
+                String host = SafeEncoder.encode((byte[]) master.get(0));
+                int port = ((Long) master.get(1)).intValue();
+                masters.add(new HostAndPort(host, port).toString());
+            }
+        }
+        return masters;
+    }
+
+    /**
+     * Adds idle connections to the pool until it holds the requested number, then pings one of them
+     * @return number of idle connections
+     */
+    private static int fill(Pool<Connection> pool, int connections) {
+        int target = pool.getMaxIdle() < 0 ? connections : Math.min(connections, pool.getMaxIdle());
+        int missing = target - pool.getNumIdle();
+        if (missing > 0) {
+            pool.addObjects(missing);
+        }
+        try (Connection connection = pool.getResource()) {
+            connection.ping();
+        }
+        return pool.getNumIdle();
+    }
+}
@@ -0,0 +1,405 @@
+package org.example.util;
+
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Non-blocking companion of a redis map.
+ * Operations are queued and sent by a few dispatcher threads, every dispatcher drains whatever is queued and sends it
+ * as one pipeline, so many requests are in flight over a single connection and callers never wait for the network.
+ * Operations on the same key always go to the same dispatcher, so they are sent in the order they were submitted
+ * and e.g. a get after a put sees the put. Scripts are sent with EVAL rather than EVALSHA for the same reason,
+ * a script missing on the node would be retried after the operations queued behind it. Operations on the whole map,
+ * size, isEmpty and clear, are only ordered after operations whose futures completed before they were submitted.
+ * Dispatchers are virtual threads, futures are completed on them, so heavy continuations should use the async
+ * variants of CompletableFuture methods
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class AsyncRedisMap<K, V> implements AutoCloseable {
+    /**
+     * Number of dispatchers used unless configured otherwise
+     */
+    public static final int DEFAULT_PIPELINES = 4;
+    /**
+     * Maximum number of operations sent in one pipeline unless configured otherwise
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final RedisMap<K, V> map;
+    private final JedisBinaryCommands binary;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Shards shards;
+    private final int maxBatchSize;
+    private final List<BlockingQueue<Call<?, ?>>> queues = new ArrayList<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Initializes async map with default settings
+     * @param map redis map whose hash is accessed
+     * @throws IllegalArgumentException if commands of the map are not thread safe
+     */
+    public AsyncRedisMap(RedisMap<K, V> map) {
+        this(map, DEFAULT_PIPELINES, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Initializes async map.
+     * Dispatchers share the commands of the map with its blocking callers, so they have to be thread safe,
+     * e.g. JedisCluster or JedisPooled, a single Jedis connection would interleave their replies
+     * @param map redis map whose hash is accessed
+     * @param pipelines number of pipelines in flight at once, keys are spread over them
+     * @param maxBatchSize maximum number of operations sent in one pipeline
+     * @throws IllegalArgumentException if commands of the map are not thread safe
+     */
+    public AsyncRedisMap(RedisMap<K, V> map, int pipelines, int maxBatchSize) {
+        if (map.writeBehind() != null) {
+            throw new IllegalArgumentException("Map with write behind does not block on writes, use it directly");
+        }
+        if (map.companions() != null) {
+            throw new IllegalArgumentException(
+                    "Map with value index, content digest, expiry or bounds writes through scripts, they are not pipelined");
+        }
+        if (pipelines <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("pipelines and maxBatchSize must be positive");
+        }
+        if (!Pipelines.isThreadSafe(map.commands())) {
+            throw new IllegalArgumentException("Async map requires thread safe commands, e.g. JedisCluster or JedisPooled");
+        }
+        this.map = map;
+        this.binary = Pipelines.binary(map.commands());
+        this.keyCodec = map.keyCodec();
+        this.valueCodec = map.valueCodec();
+        this.shards = map.shards();
+        this.maxBatchSize = maxBatchSize;
+        for (int i = 0; i < pipelines; i++) {
+            BlockingQueue<Call<?, ?>> queue = new LinkedBlockingQueue<>();
+            queues.add(queue);
+            dispatchers.add(Thread.ofVirtual().name("redis-map-async-", i).start(() -> dispatch(queue)));
+        }
+    }
+
+    /**
+     * Returns value from an entry with that key
+     * @param key the key whose value is to be returned
+     * @return future of value from an entry with that key, or NULL if an entry with such key does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<V> get(K key) {
+        NearCache nearCache = map.nearCache();
+        if (nearCache == null) {
+            return fetch(key);
+        }
+        Object cached = nearCache.lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached != NearCache.ABSENT ? (V) cached : null);
+        }
+        long epoch = nearCache.epoch();
+        return fetch(key).thenApply(value -> {
+            nearCache.store(key, value, epoch);
+            return value;
+        });
+    }
+
+    private CompletableFuture<V> fetch(K key) {
+        byte[] field = keyCodec.encode(key);
+        byte[] shardKey = shards.keyFor(field);
+        return submit(dispatcherOf(field), p -> p.hget(shardKey, field), c -> c.hget(shardKey, field), this::decodeValue);
+    }
+
+    /**
+     * Returns value from an entry with that key
+     * @param key the key whose value is to be returned
+     * @param defaultValue value returned if an entry with such key does not exist
+     * @return future of value from an entry with that key, or default value if an entry with such key does not exist
+     */
+    public CompletableFuture<V> getOrDefault(K key, V defaultValue) {
+        return get(key).thenApply(value -> (value != null) ? value : defaultValue);
+    }
+
+    /**
+     * Checks whether redis has an entry with that key or not
+     * @param key key to be checked
+     * @return future of whether redis has an entry with that key or not
+     */
+    public CompletableFuture<Boolean> containsKey(K key) {
+        if (map.nearCache() != null) {
+            return get(key).thenApply(value -> value != null);
+        }
+        byte[] field = keyCodec.encode(key);
+        byte[] shardKey = shards.keyFor(field);
+        return submit(dispatcherOf(field), p -> p.hexists(shardKey, field), c -> c.hexists(shardKey, field),
+                Function.identity());
+    }
+
+    /**
+     * Creates a new entry with key value pair, atomically
+     * @param key key
+     * @param value value
+     * @return future of old value if an entry with such key previously existed, or NULL otherwise
+     */
+    public CompletableFuture<V> put(K key, V value) {
+        byte[] field = keyCodec.encode(key);
+        List<byte[]> keys = List.of(shards.keyFor(field));
+        List<byte[]> args = List.of(field, valueCodec.encode(value));
+        return invalidating(key, submit(dispatcherOf(field), p -> p.eval(Scripts.PUT.body(), keys, args),
+                c -> Scripts.PUT.eval(c, keys, args), old -> decodeValue((byte[]) old)));
+    }
+
+    /**
+     * Same as put but does not return the old value
+     * @param key key
+     * @param value value
+     * @return future completed when redis has the entry
+     */
+    public CompletableFuture<Void> set(K key, V value) {
+        byte[] field = keyCodec.encode(key);
+        byte[] shardKey = shards.keyFor(field);
+        byte[] v = valueCodec.encode(value);
+        return invalidating(key, submit(dispatcherOf(field), p -> p.hset(shardKey, field, v),
+                c -> c.hset(shardKey, field, v), reply -> null));
+    }
+
+    /**
+     * Removes an entry with that key, atomically
+     * @param key key of entry to be removed
+     * @return future of value of that entry, or NULL if an entry with such a key was not present
+     */
+    public CompletableFuture<V> remove(K key) {
+        byte[] field = keyCodec.encode(key);
+        List<byte[]> keys = List.of(shards.keyFor(field));
+        List<byte[]> args = List.of(field);
+        return invalidating(key, submit(dispatcherOf(field), p -> p.eval(Scripts.REMOVE.body(), keys, args),
+                c -> Scripts.REMOVE.eval(c, keys, args), old -> decodeValue((byte[]) old)));
+    }
+
+    /**
+     * Same as remove but does not return the old value
+     * @param key key of entry to be removed
+     * @return future completed when the entry is removed from redis
+     */
+    public CompletableFuture<Void> delete(K key) {
+        byte[] field = keyCodec.encode(key);
+        byte[] shardKey = shards.keyFor(field);
+        return invalidating(key, submit(dispatcherOf(field), p -> p.hdel(shardKey, field),
+                c -> c.hdel(shardKey, field), reply -> null));
+    }
+
+    /**
+     * Same as put but instead of single entry it enters a map of entries
+     * @param entries map to be inserted into the redis
+     * @return future completed when redis has all the entries
+     */
+    public CompletableFuture<Void> putAll(Map<? extends K, ? extends V> entries) {
+        // entries are grouped by shard and dispatcher, so every key is written by its own dispatcher
+        int groups = shards.count() * queues.size();
+        List<Map<byte[], byte[]>> toStore = new ArrayList<>(groups);
+        for (int i = 0; i < groups; i++) {
+            toStore.add(new HashMap<>());
+        }
+        entries.forEach((key, value) -> {
+            byte[] field = keyCodec.encode(key);
+            toStore.get(shards.indexOf(field) * queues.size() + dispatcherOf(field)).put(field, valueCodec.encode(value));
+        });
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < groups; i++) {
+            byte[] shardKey = shards.binaryKeys().get(i / queues.size());
+            Map<byte[], byte[]> shardEntries = toStore.get(i);
+            if (!shardEntries.isEmpty()) {
+                futures.add(submit(i % queues.size(), p -> p.hset(shardKey, shardEntries),
+                        c -> c.hset(shardKey, shardEntries), Function.identity()));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> invalidateAll());
+    }
+
+    /**
+     * Returns number of elements stored in redis
+     * @return future of number of elements stored in redis
+     */
+    public CompletableFuture<Integer> size() {
+        List<CompletableFuture<Long>> futures = new ArrayList<>(shards.count());
+        for (int i = 0; i < shards.count(); i++) {
+            byte[] shardKey = shards.binaryKeys().get(i);
+            futures.add(submit(i % queues.size(), p -> p.hlen(shardKey), c -> c.hlen(shardKey), Function.identity()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            long size = 0;
+            for (CompletableFuture<Long> future : futures) {
+                size += future.join();
+            }
+            return (int) size;
+        });
+    }
+
+    /**
+     * Checks whether redis is empty or not
+     * @return future of whether redis is empty or not
+     */
+    public CompletableFuture<Boolean> isEmpty() {
+        return size().thenApply(size -> size == 0);
+    }
+
+    /**
+     * Removes all values from redis
+     * @return future completed when all values are removed
+     */
+    public CompletableFuture<Void> clear() {
+        List<CompletableFuture<Long>> futures = new ArrayList<>(shards.count());
+        for (int i = 0; i < shards.count(); i++) {
+            byte[] shardKey = shards.binaryKeys().get(i);
+            futures.add(submit(i % queues.size(), p -> p.del(shardKey), c -> c.del(shardKey), Function.identity()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> invalidateAll());
+    }
+
+    private <T> CompletableFuture<T> invalidating(K key, CompletableFuture<T> future) {
+        NearCache nearCache = map.nearCache();
+        return nearCache == null ? future : future.whenComplete((ignored, e) -> nearCache.invalidate(key));
+    }
+
+    private void invalidateAll() {
+        NearCache nearCache = map.nearCache();
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
+    }
+
+    private V decodeValue(byte[] value) {
+        return (value != null) ? valueCodec.decode(value) : null;
+    }
+
+    private int dispatcherOf(byte[] field) {
+        return (Arrays.hashCode(field) & Integer.MAX_VALUE) % queues.size();
+    }
+
+    /**
+     * Queues an operation to a dispatcher
+     */
+    private <R, T> CompletableFuture<T> submit(int dispatcher, Function<AbstractPipeline, Response<R>> pipelined,
+                                               Function<JedisBinaryCommands, R> direct, Function<R, T> converter) {
+        Call<R, T> call = new Call<>(pipelined, direct, converter);
+        if (closed) {
+            call.future.completeExceptionally(new IllegalStateException("Async redis map is closed"));
+            return call.future;
+        }
+        BlockingQueue<Call<?, ?>> queue = queues.get(dispatcher);
+        queue.add(call);
+        // close may have drained the queue before the call was added, no dispatcher would take it then
+        if (closed && queue.remove(call)) {
+            call.future.completeExceptionally(new IllegalStateException("Async redis map is closed"));
+        }
+        return call.future;
+    }
+
+    private void dispatch(BlockingQueue<Call<?, ?>> queue) {
+        List<Call<?, ?>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            execute(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Sends a batch, a failure to get a connection or of the pipeline fails the futures of the batch only,
+     * so the dispatcher goes on with the next one
+     */
+    private void execute(List<Call<?, ?>> batch) {
+        List<Response<?>> responses = new ArrayList<>(batch.size());
+        try {
+            AbstractPipeline pipeline = Pipelines.open(map.commands());
+            if (pipeline == null) {
+                batch.forEach(call -> call.runDirectly(binary));
+                return;
+            }
+            try (pipeline) {
+                for (Call<?, ?> call : batch) {
+                    responses.add(call.send(pipeline));
+                }
+                pipeline.sync();
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(call -> call.future.completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(responses.get(i));
+        }
+    }
+
+    /**
+     * Fails queued operations and stops dispatchers, the map itself stays open
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatchers.forEach(Thread::interrupt);
+        for (BlockingQueue<Call<?, ?>> queue : queues) {
+            Call<?, ?> call;
+            while ((call = queue.poll()) != null) {
+                call.future.completeExceptionally(new IllegalStateException("Async redis map is closed"));
+            }
+        }
+    }
+
+    /**
+     * Queued operation
+     * @param <R> type of redis reply
+     * @param <T> type of result
+     */
+    private static final class Call<R, T> {
+        private final Function<AbstractPipeline, Response<R>> pipelined;
+        private final Function<JedisBinaryCommands, R> direct;
+        private final Function<R, T> converter;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Call(Function<AbstractPipeline, Response<R>> pipelined, Function<JedisBinaryCommands, R> direct,
+                     Function<R, T> converter) {
+            this.pipelined = pipelined;
+            this.direct = direct;
+            this.converter = converter;
+        }
+
+        private Response<R> send(AbstractPipeline pipeline) {
+            return pipelined.apply(pipeline);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Response<?> response) {
+            try {
+                future.complete(converter.apply(((Response<R>) response).get()));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        private void runDirectly(JedisBinaryCommands commands) {
+            try {
+                future.complete(converter.apply(direct.apply(commands)));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.util;
+
+/**
+ * Snapshot of counters of batches of writes, see {@link RedisMap#batch(int, java.util.function.Consumer)}
+ * @param batches batches applied
+ * @param attempts batches sent to redis, retries included
+ * @param conflicts attempts rejected because a value read by the batch had changed
+ * @param failed batches given up after their retries ran out
+ */
+public record BatchStats(long batches, long attempts, long conflicts, long failed) {
+
+    /**
+     * Returns share of attempts that ran into a concurrent write
+     * @return conflicts per attempt, 0 before any attempt
+     */
+    public double conflictRate() {
+        return attempts > 0 ? (double) conflicts / attempts : 0;
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.util;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Converts keys or values of a redis map to the bytes stored in redis and back.
+ * Codecs have to be thread safe and deterministic, i.e. equal objects have to be encoded into equal bytes,
+ * since redis compares fields and values byte by byte
+ * @param <T> type of converted objects
+ */
+public interface Codec<T> {
+
+    /**
+     * Encodes an object into bytes stored in redis
+     * @param value object to be encoded, never NULL
+     * @return encoded bytes, the array is handed over to redis client and must not be reused
+     */
+    byte[] encode(T value);
+
+    /**
+     * Decodes bytes read from redis
+     * @param bytes bytes read from redis, never NULL
+     * @return decoded object
+     */
+    T decode(byte[] bytes);
+
+    /**
+     * Creates codec from a pair of functions, e.g. methods of a serialization library
+     * @param encoder encodes an object into bytes
+     * @param decoder decodes bytes into an object
+     * @return codec
+     * @param <T> type of converted objects
+     */
+    static <T> Codec<T> of(Function<? super T, byte[]> encoder, Function<byte[], ? extends T> decoder) {
+        Objects.requireNonNull(encoder, "encoder");
+        Objects.requireNonNull(decoder, "decoder");
+        return new Codec<>() {
+            @Override
+            public byte[] encode(T value) {
+                return encoder.apply(value);
+            }
+
+            @Override
+            public T decode(byte[] bytes) {
+                return decoder.apply(bytes);
+            }
+        };
+    }
+}
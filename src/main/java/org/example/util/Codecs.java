@@ -0,0 +1,295 @@
+package org.example.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs shipped with redis map.
+ * Every codec writes straight into an array of the exact encoded length and reads straight from the array returned
+ * by redis client, so no intermediate Strings or buffers are created.
+ * Decimal codecs keep numbers readable by other clients and by HINCRBY, binary codecs make values smaller
+ */
+public final class Codecs {
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private static final Codec<String> UTF8 = new Codec<>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    private static final Codec<byte[]> BYTES = new Codec<>() {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    private static final IntCodec DECIMAL_INT = new IntCodec() {
+        @Override
+        public byte[] encodeInt(int value) {
+            return encodeDecimal(value);
+        }
+
+        @Override
+        public int decodeInt(byte[] bytes) {
+            long value = decodeDecimal(bytes);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw numberFormat(bytes);
+            }
+            return (int) value;
+        }
+    };
+
+    private static final Codec<Long> DECIMAL_LONG = new Codec<>() {
+        @Override
+        public byte[] encode(Long value) {
+            return encodeDecimal(value);
+        }
+
+        @Override
+        public Long decode(byte[] bytes) {
+            return decodeDecimal(bytes);
+        }
+    };
+
+    private static final IntCodec FIXED_INT = new IntCodec() {
+        @Override
+        public byte[] encodeInt(int value) {
+            byte[] bytes = new byte[Integer.BYTES];
+            INT.set(bytes, 0, value);
+            return bytes;
+        }
+
+        @Override
+        public int decodeInt(byte[] bytes) {
+            checkLength(bytes, Integer.BYTES);
+            return (int) INT.get(bytes, 0);
+        }
+    };
+
+    private static final Codec<Long> FIXED_LONG = new Codec<>() {
+        @Override
+        public byte[] encode(Long value) {
+            byte[] bytes = new byte[Long.BYTES];
+            LONG.set(bytes, 0, (long) value);
+            return bytes;
+        }
+
+        @Override
+        public Long decode(byte[] bytes) {
+            checkLength(bytes, Long.BYTES);
+            return (long) LONG.get(bytes, 0);
+        }
+    };
+
+    private static final IntCodec VAR_INT = new IntCodec() {
+        @Override
+        public byte[] encodeInt(int value) {
+            return encodeVar(zigZag(value));
+        }
+
+        @Override
+        public int decodeInt(byte[] bytes) {
+            long zigZag = decodeVar(bytes);
+            if (zigZag >>> 32 != 0) {
+                throw new IllegalArgumentException("Varint does not fit into int");
+            }
+            return (int) unZigZag(zigZag);
+        }
+    };
+
+    private static final Codec<Long> VAR_LONG = new Codec<>() {
+        @Override
+        public byte[] encode(Long value) {
+            return encodeVar(zigZag(value));
+        }
+
+        @Override
+        public Long decode(byte[] bytes) {
+            return unZigZag(decodeVar(bytes));
+        }
+    };
+
+    private Codecs() {
+    }
+
+    /**
+     * Returns UTF-8 codec of Strings
+     * @return UTF-8 codec of Strings
+     */
+    public static Codec<String> utf8() {
+        return UTF8;
+    }
+
+    /**
+     * Returns codec that stores byte arrays as they are
+     * @return codec that stores byte arrays as they are
+     */
+    public static Codec<byte[]> bytes() {
+        return BYTES;
+    }
+
+    /**
+     * Returns codec that stores ints as decimal ASCII, the format of HINCRBY and of redis map before codecs were added
+     * @return decimal codec of ints
+     */
+    public static IntCodec decimalInt() {
+        return DECIMAL_INT;
+    }
+
+    /**
+     * Returns codec that stores longs as decimal ASCII, the format of HINCRBY
+     * @return decimal codec of longs
+     */
+    public static Codec<Long> decimalLong() {
+        return DECIMAL_LONG;
+    }
+
+    /**
+     * Returns codec that stores ints as 4 bytes in big endian order
+     * @return fixed width codec of ints
+     */
+    public static IntCodec fixedInt() {
+        return FIXED_INT;
+    }
+
+    /**
+     * Returns codec that stores longs as 8 bytes in big endian order
+     * @return fixed width codec of longs
+     */
+    public static Codec<Long> fixedLong() {
+        return FIXED_LONG;
+    }
+
+    /**
+     * Returns codec that stores ints as zigzag varints, 1 byte for values in range [-64, 63], at most 5 bytes
+     * @return varint codec of ints
+     */
+    public static IntCodec varInt() {
+        return VAR_INT;
+    }
+
+    /**
+     * Returns codec that stores longs as zigzag varints, 1 byte for values in range [-64, 63], at most 10 bytes
+     * @return varint codec of longs
+     */
+    public static Codec<Long> varLong() {
+        return VAR_LONG;
+    }
+
+    static byte[] encodeDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return LONG_MIN_VALUE.clone();
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int length = negative ? 1 : 0;
+        for (long v = remaining; ; v /= 10) {
+            length++;
+            if (v < 10) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[length];
+        int position = length;
+        do {
+            bytes[--position] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses decimal ASCII the same way Long.parseLong does, accumulating negatively so Long.MIN_VALUE fits
+     */
+    static long decodeDecimal(byte[] bytes) {
+        int length = bytes.length;
+        if (length == 0) {
+            throw numberFormat(bytes);
+        }
+        boolean negative = bytes[0] == '-';
+        int i = (negative || bytes[0] == '+') ? 1 : 0;
+        if (i == length) {
+            throw numberFormat(bytes);
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplicationLimit = limit / 10;
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplicationLimit) {
+                throw numberFormat(bytes);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormat(bytes);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException numberFormat(byte[] bytes) {
+        return new NumberFormatException("For input string: \"" + new String(bytes, StandardCharsets.UTF_8) + "\"");
+    }
+
+    private static void checkLength(byte[] bytes, int expected) {
+        if (bytes.length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " bytes, got " + bytes.length);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] encodeVar(long value) {
+        int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+        byte[] bytes = new byte[Math.max(1, (bits + 6) / 7)];
+        for (int i = 0; i < bytes.length - 1; i++) {
+            bytes[i] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[bytes.length - 1] = (byte) value;
+        return bytes;
+    }
+
+    private static long decodeVar(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > 10) {
+            throw new IllegalArgumentException("Malformed varint of " + bytes.length + " bytes");
+        }
+        long value = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            boolean last = i == bytes.length - 1;
+            if (((b & 0x80) == 0) != last) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            value |= (long) (b & 0x7F) << (7 * i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.util;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * Picks the entry evicted from a map bounded by {@link RedisMap.Builder#maxEntries}. Redis samples a few entries and
+ * evicts the one used least, the same approximation redis makes for keys under maxmemory
+ */
+public enum EvictionPolicy {
+    /**
+     * Least recently used: every read and write records the time of the use
+     */
+    LRU("r"),
+    /**
+     * Least frequently used: every read and write counts the use, counts do not decay
+     */
+    LFU("f");
+
+    private final byte[] wire;
+
+    EvictionPolicy(String wire) {
+        this.wire = SafeEncoder.encode(wire);
+    }
+
+    byte[] wire() {
+        return wire;
+    }
+}
@@ -0,0 +1,10 @@
+package org.example.util;
+
+/**
+ * Snapshot of eviction counters of a bounded map
+ * @param evictions entries evicted since the hashes were created, entries that expired are not counted
+ * @param entries entries of the map
+ * @param maxEntries maximum number of entries of the map
+ */
+public record EvictionStats(long evictions, long entries, long maxEntries) {
+}
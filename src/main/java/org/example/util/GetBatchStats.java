@@ -0,0 +1,18 @@
+package org.example.util;
+
+/**
+ * Snapshot of counters of batched reads, see {@link RedisMap.Builder#batchGets}
+ * @param gets reads of single fields
+ * @param coalesced reads that shared the result of another read of the same field in their batch
+ * @param batches HMGETs sent
+ */
+public record GetBatchStats(long gets, long coalesced, long batches) {
+
+    /**
+     * Returns how many reads one HMGET answered on average
+     * @return reads per HMGET, 0 before any read
+     */
+    public double readsPerBatch() {
+        return batches > 0 ? (double) gets / batches : 0;
+    }
+}
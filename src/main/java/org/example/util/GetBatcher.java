@@ -0,0 +1,164 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects concurrent reads of single fields into one HMGET per hash.
+ * A read of an idle hash, one with no HMGET in flight, is sent right away. Otherwise the first read opens a batch and
+ * waits for the window, reads that arrive meanwhile join the batch, and reads of a field already in the batch share its
+ * result. The batch is sent by the thread that opened it when the window passes, or right away by the read that fills
+ * it up to the maximum size.
+ * <p>
+ * Reads only join a batch that was not sent yet, so every read is answered by an HMGET sent after the read started
+ * and sees writes that finished before it. Batches are sent by the threads that read, there is no background thread
+ */
+final class GetBatcher {
+    private final JedisBinaryCommands commands;
+    private final List<byte[]> keys;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Batch[] open;
+    private final int[] inFlight;
+    private final LongAdder gets = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Initializes batching of reads
+     * @param commands commands the batches are sent with
+     * @param keys redis hash keys of the map
+     * @param window time the first read of a batch waits for others
+     * @param maxBatch number of distinct fields that makes a batch be sent before its window passes
+     */
+    GetBatcher(JedisBinaryCommands commands, List<byte[]> keys, Duration window, int maxBatch) {
+        this.commands = commands;
+        this.keys = keys;
+        this.windowNanos = window.toNanos();
+        this.maxBatch = maxBatch;
+        this.open = new Batch[keys.size()];
+        this.inFlight = new int[keys.size()];
+    }
+
+    /**
+     * Reads a field as part of a batch, blocks until the batch is answered
+     * @param shard index of the hash
+     * @param field encoded field
+     * @return encoded value, or NULL if the field does not exist
+     */
+    byte[] get(int shard, byte[] field) {
+        gets.increment();
+        Batch batch;
+        CompletableFuture<byte[]> value;
+        boolean leader = false;
+        boolean full = false;
+        synchronized (this) {
+            batch = open[shard];
+            if (batch == null) {
+                batch = new Batch(Thread.currentThread());
+                open[shard] = batch;
+                leader = true;
+            }
+            int size = batch.fields.size();
+            value = batch.fields.computeIfAbsent(ByteBuffer.wrap(field), f -> new CompletableFuture<>());
+            if (batch.fields.size() == size) {
+                coalesced.increment();
+            } else if (batch.fields.size() >= maxBatch || leader && inFlight[shard] == 0) {
+                // nothing to wait for while the hash is idle, reads arriving meanwhile batch up behind this one
+                open[shard] = null;
+                inFlight[shard]++;
+                full = true;
+            }
+        }
+        if (full) {
+            send(shard, batch);
+            if (!leader) {
+                LockSupport.unpark(batch.leader);
+            }
+        } else if (leader) {
+            long deadline = System.nanoTime() + windowNanos;
+            for (long left = windowNanos; left > 0 && !value.isDone(); left = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(this, left);
+            }
+            boolean expired;
+            synchronized (this) {
+                expired = open[shard] == batch;
+                if (expired) {
+                    open[shard] = null;
+                    inFlight[shard]++;
+                }
+            }
+            if (expired) {
+                send(shard, batch);
+            }
+        }
+        return await(value);
+    }
+
+    /**
+     * Returns counters of batched reads
+     * @return counters of batched reads
+     */
+    GetBatchStats stats() {
+        return new GetBatchStats(gets.sum(), coalesced.sum(), batches.sum());
+    }
+
+    private void send(int shard, Batch batch) {
+        batches.increment();
+        List<byte[]> fields = new ArrayList<>(batch.fields.size());
+        batch.fields.keySet().forEach(field -> fields.add(field.array()));
+        try {
+            List<byte[]> values = commands.hmget(keys.get(shard), fields.toArray(new byte[0][]));
+            int i = 0;
+            for (CompletableFuture<byte[]> value : batch.fields.values()) {
+                value.complete(values.get(i++));
+            }
+        } catch (RuntimeException | Error e) {
+            batch.fields.values().forEach(value -> value.completeExceptionally(e));
+        } finally {
+            synchronized (this) {
+                inFlight[shard]--;
+            }
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> value) {
+        try {
+            return value.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batched read", e);
+        }
+    }
+
+    /**
+     * Fields of one HMGET in the order they joined, the batch stops taking fields once it is removed from open
+     */
+    private static final class Batch {
+        private final Thread leader;
+        private final Map<ByteBuffer, CompletableFuture<byte[]>> fields = new LinkedHashMap<>();
+
+        private Batch(Thread leader) {
+            this.leader = leader;
+        }
+    }
+}
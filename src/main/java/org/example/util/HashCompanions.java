@@ -0,0 +1,412 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Companion keys kept next to every hash of a map under the hash's slot, all writes of the map go through scripts
+ * that update the hash and its companions atomically.
+ * <p>
+ * The value index: a counting hash maps every value to the number of fields holding it, so checking whether a value
+ * is present is a single HEXISTS. A sorted set lists fields by value: numeric values are scores of their fields,
+ * so ranges of values can be queried, other values are prefixes of members that all have score 0,
+ * so fields of a value are found by prefix.
+ * <p>
+ * The content digest: a hash of fields to hash codes of their entries, i.e. key.hashCode() ^ value.hashCode(),
+ * and the sum of those hash codes, which is hashCode of the map as defined by java.util.Map.
+ * <p>
+ * Bounds: fields written by the scripts can expire with HPEXPIRE, and a hash bounded by a maximum number of fields
+ * keeps a hash of fields to the time of their last use or to the number of their uses,
+ * which the scripts sample to pick a field to evict, and the number of evicted fields.
+ * <p>
+ * The change feed: a capped stream every change of the hash is added to, together with a counter numbering
+ * the changes, so a reader of the feed notices changes it missed because the stream was trimmed.
+ * <p>
+ * Companions are only correct if every client writing the hash maintains them from the moment the hash is created
+ */
+final class HashCompanions {
+    private static final byte[] NO_INDEX = SafeEncoder.encode("-");
+    private static final byte[] NUMERIC_INDEX = SafeEncoder.encode("n");
+    private static final byte[] LEX_INDEX = SafeEncoder.encode("l");
+    private static final byte[] DIGEST = SafeEncoder.encode("1");
+    private static final byte[] NO_DIGEST = SafeEncoder.encode("0");
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] SET = SafeEncoder.encode("set");
+    private static final byte[] DELETE = SafeEncoder.encode("del");
+    private static final byte[] ALL_MEMBERS = SafeEncoder.encode("+");
+    private static final byte[] ZERO = SafeEncoder.encode("0");
+    private static final byte[] NO_POLICY = SafeEncoder.encode("-");
+
+    /**
+     * Condition of a write made by {@link #update}
+     */
+    enum Condition {
+        ANY, ABSENT, PRESENT, EQUALS;
+
+        private final byte[] wire = SafeEncoder.encode(name().toLowerCase());
+    }
+
+    /**
+     * Outcome of a write made by {@link #update}
+     * @param applied whether the condition held and the write was made
+     * @param old value before the write, or NULL if the field was missing
+     */
+    record Result(boolean applied, byte[] old) {
+    }
+
+    private final Shards shards;
+    private final Codec<?> keyCodec;
+    private final Codec<?> valueCodec;
+    private final boolean indexed;
+    private final boolean numeric;
+    private final boolean digest;
+    private final byte[] indexFlag;
+    private final byte[] digestFlag;
+    private final byte[] expireAfterWrite;
+    private final long maxEntries;
+    private final byte[] maxEntriesPerHash;
+    private final byte[] policyFlag;
+    private final byte[] changeFeedLength;
+    private final List<List<byte[]>> keys;
+
+    /**
+     * Initializes companions of the hashes
+     * @param shards hashes the map is stored in
+     * @param keyCodec codec of keys of the map, keys are decoded to calculate hash codes of entries
+     * @param valueCodec codec of values of the map, values are decoded to calculate hash codes of entries
+     * @param indexed whether values are indexed
+     * @param digest whether the content digest is kept
+     * @param expireAfterWrite time to live of written fields, or NULL if they do not expire
+     * @param maxEntries maximum number of entries of the map, spread evenly over the hashes, 0 if it is not bounded
+     * @param policy policy that picks the entries to evict, ignored unless the map is bounded
+     * @param changeFeedLength approximate number of changes the change feed of every hash keeps, 0 for no feed
+     */
+    HashCompanions(Shards shards, Codec<?> keyCodec, Codec<?> valueCodec, boolean indexed, boolean digest,
+                   Duration expireAfterWrite, long maxEntries, EvictionPolicy policy, long changeFeedLength) {
+        this.shards = shards;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.indexed = indexed;
+        this.numeric = valueCodec == Codecs.decimalInt() || valueCodec == Codecs.decimalLong();
+        this.digest = digest;
+        this.indexFlag = !indexed ? NO_INDEX : numeric ? NUMERIC_INDEX : LEX_INDEX;
+        this.digestFlag = digest ? DIGEST : NO_DIGEST;
+        this.expireAfterWrite = ttl(expireAfterWrite);
+        this.maxEntries = maxEntries;
+        this.maxEntriesPerHash = Codecs.encodeDecimal((maxEntries + shards.count() - 1) / shards.count());
+        this.policyFlag = maxEntries > 0 ? policy.wire() : NO_POLICY;
+        this.changeFeedLength = Codecs.encodeDecimal(changeFeedLength);
+        this.keys = new ArrayList<>(shards.count());
+        for (String key : shards.keys()) {
+            keys.add(List.of(SafeEncoder.encode(key),
+                    SafeEncoder.encode(Shards.companionKey(key, "value-counts")),
+                    SafeEncoder.encode(Shards.companionKey(key, "value-fields")),
+                    SafeEncoder.encode(Shards.companionKey(key, "entry-hashes")),
+                    SafeEncoder.encode(Shards.companionKey(key, "digest")),
+                    SafeEncoder.encode(Shards.companionKey(key, "access")),
+                    SafeEncoder.encode(Shards.companionKey(key, "evictions")),
+                    SafeEncoder.encode(Shards.companionKey(key, "changes")),
+                    SafeEncoder.encode(Shards.companionKey(key, "change-count"))));
+        }
+    }
+
+    /**
+     * Returns whether values are indexed
+     * @return whether values are indexed
+     */
+    boolean indexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns whether the content digest is kept
+     * @return whether the content digest is kept
+     */
+    boolean digest() {
+        return digest;
+    }
+
+    /**
+     * Returns whether the hashes are bounded, reads then go through scripts that record uses of fields
+     * @return whether the hashes are bounded
+     */
+    boolean bounded() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Returns maximum number of entries of the map
+     * @return maximum number of entries, 0 if the map is not bounded
+     */
+    long maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns whether every change is added to the change feed of its hash
+     * @return whether the change feed is kept
+     */
+    boolean changeFeed() {
+        return changeFeedLength[0] != '0';
+    }
+
+    /**
+     * Returns key of the change feed of a hash, a stream whose entries have a "seq" number of the change,
+     * a "field" unless the hash was cleared and a "value" unless the field was removed
+     * @param shard index of the hash
+     * @return key of the stream
+     */
+    byte[] changeFeedKey(int shard) {
+        return keys.get(shard).get(7);
+    }
+
+    /**
+     * Writes a field together with its companions
+     * @param field encoded field
+     * @param condition condition the current value has to meet
+     * @param expected expected encoded value for {@link Condition#EQUALS}, otherwise ignored
+     * @param value new encoded value, or NULL to remove the field
+     * @return whether the write was made, and the previous value
+     */
+    Result update(JedisBinaryCommands commands, byte[] field, Condition condition, byte[] expected, byte[] value) {
+        return update(commands, field, condition, expected, value, expireAfterWrite);
+    }
+
+    /**
+     * Same as {@link #update(JedisBinaryCommands, byte[], Condition, byte[], byte[])} with time to live of the field
+     * @param ttl time to live of the written field, it overrides the time to live of the hashes
+     */
+    Result update(JedisBinaryCommands commands, byte[] field, Condition condition, byte[] expected, byte[] value,
+                  Duration ttl) {
+        return update(commands, field, condition, expected, value, ttl(ttl));
+    }
+
+    private Result update(JedisBinaryCommands commands, byte[] field, Condition condition, byte[] expected, byte[] value,
+                          byte[] ttl) {
+        List<byte[]> args = new ArrayList<>(12);
+        addHeader(args, ttl);
+        args.add(field);
+        args.add(condition.wire);
+        args.add(expected != null ? expected : EMPTY);
+        if (value != null) {
+            args.add(SET);
+            args.add(value);
+            args.add(entryHash(field, value));
+        } else {
+            args.add(DELETE);
+        }
+        List<?> reply = (List<?>) Scripts.COMPANION_UPDATE.eval(commands, keys.get(shards.indexOf(field)), args);
+        return new Result((Long) reply.get(0) == 1, reply.size() > 1 ? (byte[]) reply.get(1) : null);
+    }
+
+    /**
+     * Sets fields of a single hash together with their companions
+     * @param shard index of the hash
+     * @param entries encoded fields and values
+     */
+    void setAll(JedisBinaryCommands commands, int shard, Map<byte[], byte[]> entries) {
+        List<byte[]> args = new ArrayList<>(entries.size() * 3 + 6);
+        addHeader(args, expireAfterWrite);
+        entries.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+            args.add(entryHash(field, value));
+        });
+        Scripts.COMPANION_SET_ALL.eval(commands, keys.get(shard), args);
+    }
+
+    /**
+     * Removes fields of a single hash together with their companions
+     * @param shard index of the hash
+     * @param fields encoded fields
+     * @return number of removed fields
+     */
+    long deleteAll(JedisBinaryCommands commands, int shard, List<byte[]> fields) {
+        List<byte[]> args = new ArrayList<>(fields.size() + 6);
+        addHeader(args, expireAfterWrite);
+        args.addAll(fields);
+        return (Long) Scripts.COMPANION_DELETE_ALL.eval(commands, keys.get(shard), args);
+    }
+
+    /**
+     * Adds delta to a field holding an int and updates its companions
+     * @param field encoded field
+     * @param delta value to be added
+     * @return value after the addition
+     */
+    long increment(JedisBinaryCommands commands, byte[] field, long delta) {
+        List<byte[]> args = new ArrayList<>(9);
+        addHeader(args, expireAfterWrite);
+        args.add(field);
+        args.add(Codecs.encodeDecimal(delta));
+        args.add(digest ? Codecs.encodeDecimal(keyCodec.decode(field).hashCode()) : EMPTY);
+        return (Long) Scripts.COMPANION_INCREMENT.eval(commands, keys.get(shards.indexOf(field)), args);
+    }
+
+    /**
+     * Reads a field and records its use, the hashes have to be bounded
+     * @param field encoded field
+     * @return encoded value, or NULL if the field is missing
+     */
+    byte[] get(JedisBinaryCommands commands, byte[] field) {
+        List<byte[]> args = new ArrayList<>(7);
+        addHeader(args, expireAfterWrite);
+        args.add(field);
+        return (byte[]) Scripts.COMPANION_GET.eval(commands, keys.get(shards.indexOf(field)), args);
+    }
+
+    /**
+     * Reads fields of a single hash and records their uses, the hashes have to be bounded
+     * @param shard index of the hash
+     * @param fields encoded fields
+     * @return encoded values in the order of fields, NULL for missing fields
+     */
+    @SuppressWarnings("unchecked")
+    List<byte[]> getAll(JedisBinaryCommands commands, int shard, List<byte[]> fields) {
+        List<byte[]> args = new ArrayList<>(fields.size() + 6);
+        addHeader(args, expireAfterWrite);
+        args.addAll(fields);
+        return (List<byte[]>) Scripts.COMPANION_GET_ALL.eval(commands, keys.get(shard), args);
+    }
+
+    /**
+     * Removes a hash together with its companions, the number of evicted fields and the change feed are kept,
+     * the feed gets a change that tells the hash was cleared
+     * @param shard index of the hash
+     */
+    void delete(JedisBinaryCommands commands, int shard) {
+        List<byte[]> shardKeys = keys.get(shard);
+        if (changeFeed()) {
+            List<byte[]> args = new ArrayList<>(6);
+            addHeader(args, expireAfterWrite);
+            Scripts.COMPANION_CLEAR.eval(commands, shardKeys, args);
+        } else {
+            commands.del(shardKeys.subList(0, 6).toArray(new byte[0][]));
+        }
+    }
+
+    /**
+     * Returns number of fields evicted from a hash
+     * @param shard index of the hash
+     * @return number of fields evicted since the hash was created
+     */
+    long evictions(JedisBinaryCommands commands, int shard) {
+        byte[] evictions = commands.get(keys.get(shard).get(6));
+        return evictions != null ? Codecs.decodeDecimal(evictions) : 0;
+    }
+
+    /**
+     * Checks whether any field of a hash holds the value, values have to be indexed
+     * @param shard index of the hash
+     * @param value encoded value
+     * @return whether any field of the hash holds the value
+     */
+    boolean contains(JedisBinaryCommands commands, int shard, byte[] value) {
+        return commands.hexists(keys.get(shard).get(1), value);
+    }
+
+    /**
+     * Returns fields of a hash holding the value, values have to be indexed
+     * @param shard index of the hash
+     * @param value encoded value
+     * @return encoded fields
+     */
+    List<byte[]> fieldsWith(JedisBinaryCommands commands, int shard, byte[] value) {
+        byte[] key = keys.get(shard).get(2);
+        if (numeric) {
+            return commands.zrangeByScore(key, value, value);
+        }
+        byte[] prefix = prefix(value);
+        byte[] max = successor(prefix);
+        byte[] min = concat(new byte[]{'['}, prefix);
+        List<byte[]> members = commands.zrangeByLex(key, min, max != null ? concat(new byte[]{'('}, max) : ALL_MEMBERS);
+        List<byte[]> fields = new ArrayList<>(members.size());
+        for (byte[] member : members) {
+            fields.add(Arrays.copyOfRange(member, prefix.length, member.length));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns fields of a hash holding values in the range, values have to be indexed and numeric
+     * @param shard index of the hash
+     * @param min encoded lower bound, inclusive
+     * @param max encoded upper bound, inclusive
+     * @return encoded fields ordered by value
+     */
+    List<byte[]> fieldsBetween(JedisBinaryCommands commands, int shard, byte[] min, byte[] max) {
+        if (!numeric) {
+            throw new UnsupportedOperationException("Ranges of values require values encoded as decimal numbers");
+        }
+        return commands.zrangeByScore(keys.get(shard).get(2), min, max);
+    }
+
+    /**
+     * Returns sum of hash codes of entries of a hash, the content digest has to be kept
+     * @param shard index of the hash
+     * @return sum of hash codes of entries, 0 for an empty hash
+     */
+    int digest(JedisBinaryCommands commands, int shard) {
+        byte[] sum = commands.get(keys.get(shard).get(4));
+        return sum != null ? (int) Codecs.decodeDecimal(sum) : 0;
+    }
+
+    /**
+     * Adds the arguments every companion script starts with
+     */
+    private void addHeader(List<byte[]> args, byte[] ttl) {
+        args.add(indexFlag);
+        args.add(digestFlag);
+        args.add(ttl);
+        args.add(maxEntriesPerHash);
+        args.add(policyFlag);
+        args.add(changeFeedLength);
+    }
+
+    private static byte[] ttl(Duration ttl) {
+        return ttl != null ? Codecs.encodeDecimal(ttl.toMillis()) : ZERO;
+    }
+
+    private byte[] entryHash(byte[] field, byte[] value) {
+        if (!digest) {
+            return EMPTY;
+        }
+        return Codecs.encodeDecimal(keyCodec.decode(field).hashCode() ^ valueCodec.decode(value).hashCode());
+    }
+
+    /**
+     * Prefix of index members of the value, the same "length:value" the scripts build
+     */
+    private static byte[] prefix(byte[] value) {
+        return concat((value.length + ":").getBytes(StandardCharsets.US_ASCII), value);
+    }
+
+    /**
+     * Returns the smallest byte string greater than every string starting with the prefix, or NULL if there is none
+     */
+    private static byte[] successor(byte[] prefix) {
+        int end = prefix.length;
+        while (end > 0 && prefix[end - 1] == (byte) 0xFF) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        byte[] successor = Arrays.copyOf(prefix, end);
+        successor[end - 1]++;
+        return successor;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
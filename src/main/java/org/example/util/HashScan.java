@@ -0,0 +1,94 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pages through redis hashes with HSCAN, so only one page of entries is held in memory at a time.
+ * Hashes are scanned one after another, splitting hands over hashes that were not started yet.
+ * Same as HSCAN itself the scan is weakly consistent: entries present during the whole scan are returned,
+ * entries added or removed during the scan may or may not be returned,
+ * and an entry may be returned more than once if redis resizes the hash in the middle of the scan
+ * @param <T> type of elements the entries are converted to
+ */
+final class HashScan<T> implements Spliterator<T> {
+    private final JedisBinaryCommands commands;
+    private final List<byte[]> keys;
+    private final ScanParams params;
+    private final Function<Map.Entry<byte[], byte[]>, T> mapper;
+    private int shard;
+    private int end;
+    private byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+    private Iterator<Map.Entry<byte[], byte[]>> page = Collections.emptyIterator();
+
+    /**
+     * Initializes scan over all the hashes
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param keys redis hash keys to be scanned
+     * @param count number of entries redis is asked to return per call
+     * @param mapper converts entries read from redis
+     */
+    HashScan(JedisBinaryCommands commands, List<byte[]> keys, int count, Function<Map.Entry<byte[], byte[]>, T> mapper) {
+        this(commands, keys, new ScanParams().count(count), mapper, 0, keys.size());
+    }
+
+    private HashScan(JedisBinaryCommands commands, List<byte[]> keys, ScanParams params,
+                     Function<Map.Entry<byte[], byte[]>, T> mapper, int shard, int end) {
+        this.commands = commands;
+        this.keys = keys;
+        this.params = params;
+        this.mapper = mapper;
+        this.shard = shard;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!page.hasNext()) {
+            if (shard >= end) {
+                return false;
+            }
+            ScanResult<Map.Entry<byte[], byte[]>> result = commands.hscan(keys.get(shard), cursor, params);
+            page = result.getResult().iterator();
+            if (result.isCompleteIteration()) {
+                shard++;
+                cursor = ScanParams.SCAN_POINTER_START_BINARY;
+            } else {
+                cursor = result.getCursorAsBytes();
+            }
+        }
+        action.accept(mapper.apply(page.next()));
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // the hash currently being scanned stays with this spliterator
+        int mid = shard + 1 + (end - shard - 1) / 2;
+        if (mid >= end) {
+            return null;
+        }
+        HashScan<T> split = new HashScan<>(commands, keys, params, mapper, mid, end);
+        end = mid;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+}
@@ -0,0 +1,271 @@
+package org.example.util;
+
+import org.example.util.RedisMapListener.Operation;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Measures operations of a redis map and reports them to a listener and as JFR events.
+ * An operation opens a scope on the calling thread, commands sent through {@link #wrap wrapped} commands are counted
+ * into the scope, including commands sent by shard tasks, since {@link Shards} hands the scope over to them.
+ * Operations called from within another operation of the same map are counted as part of the outer one.
+ * When disabled operations are run as they are and commands are not wrapped, so the only cost is a lambda per call
+ */
+final class Instrumentation {
+    /**
+     * Instrumentation of maps built without a listener and without JFR events
+     */
+    static final Instrumentation DISABLED = new Instrumentation(null, null, false);
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final String hashKey;
+    private final RedisMapListener listener;
+    private final boolean jfr;
+    private final boolean enabled;
+
+    /**
+     * Initializes instrumentation of a map
+     * @param hashKey redis hash key of the map, reported in JFR events
+     * @param listener listener of operations, or NULL
+     * @param jfr whether JFR events are emitted
+     */
+    Instrumentation(String hashKey, RedisMapListener listener, boolean jfr) {
+        this.hashKey = hashKey;
+        this.listener = listener;
+        this.jfr = jfr;
+        this.enabled = listener != null || jfr;
+    }
+
+    /**
+     * Runs an operation and reports it
+     * @param operation operation being run
+     * @param body the operation
+     * @return result of the operation
+     */
+    <T> T call(Operation operation, Supplier<T> body) {
+        if (!enabled) {
+            return body.get();
+        }
+        Scope outer = CURRENT.get();
+        if (outer != null && outer.owner == this) {
+            return body.get();
+        }
+        Scope scope = new Scope(this);
+        CURRENT.set(scope);
+        RedisMapEvent event = jfr ? new RedisMapEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long started = System.nanoTime();
+        Throwable error = null;
+        try {
+            return body.get();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            CURRENT.set(outer);
+            report(operation, elapsed, scope, error, event);
+        }
+    }
+
+    /**
+     * Same as {@link #call} for an operation whose result is an int. When disabled the body is only invoked,
+     * so neither the result is boxed nor, once this is inlined, the lambda of the caller allocated
+     * @param operation operation being run
+     * @param body the operation
+     * @return result of the operation
+     */
+    int callInt(Operation operation, IntSupplier body) {
+        if (!enabled) {
+            return body.getAsInt();
+        }
+        return call(operation, body::getAsInt);
+    }
+
+    /**
+     * Runs an operation that has no result and reports it
+     * @param operation operation being run
+     * @param body the operation
+     */
+    void run(Operation operation, Runnable body) {
+        if (!enabled) {
+            body.run();
+            return;
+        }
+        call(operation, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /**
+     * Wraps commands, so every command sent through them is counted into the current scope
+     * @param commands commands to be wrapped
+     * @param standalone operation reported for a command sent outside of any operation, or NULL to not report it
+     * @return counting commands, or the same commands if instrumentation is disabled
+     */
+    JedisBinaryCommands wrap(JedisBinaryCommands commands, Operation standalone) {
+        if (!enabled) {
+            return commands;
+        }
+        return (JedisBinaryCommands) Proxy.newProxyInstance(JedisBinaryCommands.class.getClassLoader(),
+                new Class<?>[]{JedisBinaryCommands.class},
+                (proxy, method, args) -> invoke(commands, standalone, method, args));
+    }
+
+    /**
+     * Returns scope of the operation running on this thread, so it can be handed over to other threads
+     * @return current scope, or NULL
+     */
+    static Scope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs a part of an operation on behalf of a scope taken on another thread
+     * @param scope scope of the operation, or NULL
+     * @param body part of the operation
+     * @return result of the body
+     */
+    static <T> T callIn(Scope scope, Supplier<T> body) {
+        if (scope == null) {
+            return body.get();
+        }
+        Scope previous = CURRENT.get();
+        CURRENT.set(scope);
+        try {
+            return body.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Counts a pipeline sent on behalf of the operation running on this thread, pipelines bypass wrapped commands
+     * @param sent payloads of all commands of the pipeline
+     * @param received replies of all commands of the pipeline
+     */
+    static void countPipeline(Object sent, Object received) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.roundTrips.incrementAndGet();
+            scope.bytesSent.addAndGet(sizeOf(sent));
+            scope.bytesReceived.addAndGet(sizeOf(received));
+        }
+    }
+
+    private Object invoke(Object target, Operation standalone, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return invoke(target, method, args);
+        }
+        Scope scope = CURRENT.get();
+        if (scope == null || scope.owner != this) {
+            return standalone != null
+                    ? call(standalone, () -> invoke(target, null, method, args))
+                    : invoke(target, method, args);
+        }
+        scope.roundTrips.incrementAndGet();
+        scope.bytesSent.addAndGet(sizeOf(args));
+        Object result = invoke(target, method, args);
+        scope.bytesReceived.addAndGet(sizeOf(result));
+        return result;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void report(Operation operation, long elapsed, Scope scope, Throwable error, RedisMapEvent event) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.hashKey = hashKey;
+                event.operation = operation.name();
+                event.roundTrips = scope.roundTrips.get();
+                event.bytesSent = scope.bytesSent.get();
+                event.bytesReceived = scope.bytesReceived.get();
+                event.error = error != null ? error.toString() : null;
+                event.commit();
+            }
+        }
+        if (listener != null) {
+            try {
+                listener.onOperation(new RedisMapListener.Event(operation, elapsed, scope.roundTrips.get(),
+                        scope.bytesSent.get(), scope.bytesReceived.get(), error));
+            } catch (RuntimeException e) {
+                // a broken listener must not fail operations of the map
+            }
+        }
+    }
+
+    /**
+     * Sums lengths of keys, fields, values and other payloads of a command or of its reply
+     */
+    static long sizeOf(Object o) {
+        if (o instanceof byte[] bytes) {
+            return bytes.length;
+        }
+        if (o instanceof String s) {
+            return s.length();
+        }
+        long size = 0;
+        if (o instanceof Object[] array) {
+            for (Object element : array) {
+                size += sizeOf(element);
+            }
+        } else if (o instanceof Collection<?> collection) {
+            for (Object element : collection) {
+                size += sizeOf(element);
+            }
+        } else if (o instanceof Map<?, ?> map) {
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                size += sizeOf(e);
+            }
+        } else if (o instanceof Map.Entry<?, ?> e) {
+            size = sizeOf(e.getKey()) + sizeOf(e.getValue());
+        } else if (o instanceof ScanResult<?> result) {
+            size = sizeOf(result.getResult());
+        }
+        return size;
+    }
+
+    /**
+     * Counters of one running operation
+     */
+    static final class Scope {
+        private final Instrumentation owner;
+        private final AtomicInteger roundTrips = new AtomicInteger();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private Scope(Instrumentation owner) {
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.util;
+
+/**
+ * Codec of ints that can convert them without boxing, it is what the primitive methods of redis map require
+ */
+public interface IntCodec extends Codec<Integer> {
+
+    /**
+     * Encodes an int into bytes stored in redis
+     * @param value int to be encoded
+     * @return encoded bytes, the array is handed over to redis client and must not be reused
+     */
+    byte[] encodeInt(int value);
+
+    /**
+     * Decodes bytes read from redis
+     * @param bytes bytes read from redis, never NULL
+     * @return decoded int
+     */
+    int decodeInt(byte[] bytes);
+
+    @Override
+    default byte[] encode(Integer value) {
+        return encodeInt(value);
+    }
+
+    @Override
+    default Integer decode(byte[] bytes) {
+        return decodeInt(bytes);
+    }
+}
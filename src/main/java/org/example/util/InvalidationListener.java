@@ -0,0 +1,321 @@
+package org.example.util;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a near cache in sync with redis.
+ * Listens for invalidation messages about every hash of the map on dedicated connections and drops the cached fields
+ * when a hash changes. While any of the subscriptions is down the near cache is disabled, so reads always go to redis.
+ * With client tracking the connection that turned tracking on is otherwise idle, so it is pinged every second,
+ * redis stops tracking when it is closed and the subscriber alone would never notice
+ */
+final class InvalidationListener implements AutoCloseable {
+    private static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+    private static final String KEYSPACE_FLAGS = "Kghxe";
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long HEALTH_CHECK_MILLIS = 1000;
+
+    private final NearCache cache;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private Thread healthCheck;
+    private volatile boolean closed;
+
+    /**
+     * Initializes invalidation listener, {@link #start()} has to be called to begin listening
+     * @param cache near cache to be invalidated
+     * @param redisHashKeys redis hash keys the cache holds fields of
+     * @param connections opens new connections to the node that owns the given hash key
+     * @param mode how invalidation messages are obtained from redis
+     */
+    InvalidationListener(NearCache cache, List<String> redisHashKeys, Function<String, Connection> connections,
+                         NearCache.Invalidation mode) {
+        this.cache = cache;
+        for (String redisHashKey : redisHashKeys) {
+            subscriptions.add(new Subscription(redisHashKey, () -> connections.apply(redisHashKey), mode));
+        }
+    }
+
+    /**
+     * Subscribes to invalidation messages and activates the cache.
+     * The first subscriptions are made synchronously so configuration problems are reported to the caller,
+     * subsequent resubscriptions after connection failures are made in background
+     */
+    void start() {
+        try {
+            for (Subscription subscription : subscriptions) {
+                subscription.subscribe();
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.thread = Thread.ofPlatform()
+                    .daemon()
+                    .name("redis-map-invalidation-" + subscription.redisHashKey)
+                    .start(subscription::run);
+        }
+        healthCheck = Thread.ofPlatform()
+                .daemon()
+                .name("redis-map-invalidation-health-check")
+                .start(this::checkTrackers);
+    }
+
+    private void checkTrackers() {
+        while (!closed) {
+            try {
+                Thread.sleep(HEALTH_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.checkTracker();
+            }
+        }
+    }
+
+    private synchronized void updateCacheState() {
+        boolean live = !closed;
+        for (Subscription subscription : subscriptions) {
+            live &= subscription.live;
+        }
+        if (live != cache.isActive()) {
+            cache.setActive(live);
+        }
+    }
+
+    /**
+     * Stops listening and disables the cache
+     */
+    @Override
+    public void close() {
+        closed = true;
+        cache.setActive(false);
+        for (Subscription subscription : subscriptions) {
+            subscription.releaseConnections();
+            if (subscription.thread != null) {
+                subscription.thread.interrupt();
+            }
+        }
+        if (healthCheck != null) {
+            healthCheck.interrupt();
+        }
+    }
+
+    /**
+     * Subscription to invalidation messages of a single hash
+     */
+    private final class Subscription {
+        private final String redisHashKey;
+        private final Supplier<Connection> connections;
+        private NearCache.Invalidation mode;
+        private volatile boolean live;
+        private volatile Connection subscriber;
+        private volatile Connection tracker;
+        private Thread thread;
+
+        private Subscription(String redisHashKey, Supplier<Connection> connections, NearCache.Invalidation mode) {
+            this.redisHashKey = redisHashKey;
+            this.connections = connections;
+            this.mode = mode;
+        }
+
+        private void run() {
+            while (!closed) {
+                try {
+                    if (subscriber == null) {
+                        subscribe();
+                    }
+                    listen();
+                } catch (JedisException e) {
+                    live = false;
+                    updateCacheState();
+                    releaseConnections();
+                    if (!closed) {
+                        sleepBeforeRetry();
+                    }
+                }
+            }
+        }
+
+        private void subscribe() {
+            if (mode == NearCache.Invalidation.KEYSPACE_NOTIFICATIONS) {
+                subscribeToKeyspace();
+            } else {
+                try {
+                    subscribeToTracking();
+                    mode = NearCache.Invalidation.TRACKING;
+                } catch (JedisDataException e) {
+                    releaseConnections();
+                    if (mode == NearCache.Invalidation.TRACKING) {
+                        throw e;
+                    }
+                    // server does not support client side caching, falling back to keyspace notifications
+                    mode = NearCache.Invalidation.KEYSPACE_NOTIFICATIONS;
+                    subscribeToKeyspace();
+                }
+            }
+            live = true;
+            updateCacheState();
+        }
+
+        private void subscribeToTracking() {
+            subscriber = connections.get();
+            long clientId = (Long) subscriber.executeCommand(new CommandArguments(Protocol.Command.CLIENT).add("ID"));
+            subscriber.sendCommand(Protocol.Command.SUBSCRIBE, INVALIDATE_CHANNEL);
+            subscriber.getOne();
+
+            Connection connection = connections.get();
+            try {
+                connection.executeCommand(new CommandArguments(Protocol.Command.CLIENT)
+                        .add("TRACKING").add("ON")
+                        .add("REDIRECT").add(clientId)
+                        .add("BCAST")
+                        .add("PREFIX").add(redisHashKey));
+            } catch (RuntimeException e) {
+                release(connection);
+                throw e;
+            }
+            // published only once tracking is on, so the health check never pings it concurrently
+            tracker = connection;
+        }
+
+        /**
+         * Pings the tracking connection, if it is gone the cache is disabled and the subscriber is disconnected,
+         * so the thread of the subscription resubscribes with a new pair of connections
+         */
+        private void checkTracker() {
+            Connection connection = tracker;
+            if (connection == null) {
+                return;
+            }
+            boolean alive;
+            try {
+                alive = connection.ping();
+            } catch (JedisException e) {
+                alive = false;
+            }
+            if (!alive && connection == tracker) {
+                live = false;
+                updateCacheState();
+                release(subscriber);
+            }
+        }
+
+        private void subscribeToKeyspace() {
+            subscriber = connections.get();
+            enableKeyspaceEvents(subscriber);
+            subscriber.sendCommand(Protocol.Command.PSUBSCRIBE, "__keyspace@*__:" + escapeGlob(redisHashKey));
+            subscriber.getOne();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void listen() {
+            Connection connection = subscriber;
+            connection.setTimeoutInfinite();
+            while (!closed) {
+                List<Object> message = (List<Object>) connection.getOne();
+                String type = SafeEncoder.encode((byte[]) message.get(0));
+                if ("message".equals(type)) {
+                    Object payload = message.get(2);
+                    // NULL payload means that the whole database was flushed
+                    if (payload == null || containsHashKey(payload)) {
+                        cache.invalidateAll();
+                    }
+                } else if ("pmessage".equals(type)) {
+                    cache.invalidateAll();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean containsHashKey(Object payload) {
+            if (payload instanceof List<?> keys) {
+                for (Object key : (List<Object>) keys) {
+                    if (redisHashKey.equals(SafeEncoder.encode((byte[]) key))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return redisHashKey.equals(SafeEncoder.encode((byte[]) payload));
+        }
+
+        private void sleepBeforeRetry() {
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+        }
+
+        private void releaseConnections() {
+            release(tracker);
+            release(subscriber);
+            tracker = null;
+            subscriber = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void enableKeyspaceEvents(Connection connection) {
+        List<Object> config = (List<Object>) connection.executeCommand(new CommandArguments(Protocol.Command.CONFIG)
+                .add("GET").add("notify-keyspace-events"));
+        String flags = config.size() > 1 ? SafeEncoder.encode((byte[]) config.get(1)) : "";
+        String expanded = flags.replace("A", "g$lshzxetd");
+        StringBuilder missing = new StringBuilder();
+        for (char flag : KEYSPACE_FLAGS.toCharArray()) {
+            if (expanded.indexOf(flag) < 0) {
+                missing.append(flag);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        try {
+            connection.executeCommand(new CommandArguments(Protocol.Command.CONFIG)
+                    .add("SET").add("notify-keyspace-events").add(flags + missing));
+        } catch (JedisDataException e) {
+            throw new JedisDataException("Near cache requires notify-keyspace-events to contain " + KEYSPACE_FLAGS, e);
+        }
+    }
+
+    private static String escapeGlob(String key) {
+        StringBuilder escaped = new StringBuilder(key.length());
+        for (char c : key.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Connections borrowed from a cluster pool are marked as broken, so the pool destroys them instead of reusing
+     * a connection that is still in subscribed state
+     */
+    private static void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.disconnect();
+            connection.setBroken();
+            connection.close();
+        } catch (RuntimeException ignored) {
+            // connection is being discarded anyway
+        }
+    }
+}
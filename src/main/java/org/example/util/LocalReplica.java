@@ -0,0 +1,323 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.XReadParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.KeyValue;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory mirror of the hashes of a map that serves reads without going to redis.
+ * Every hash is loaded with HSCAN, page by page, and then kept in sync by a single thread that follows the change feeds
+ * of all hashes, see {@link HashCompanions}, with XREAD. The feed is read from the change that was the last one
+ * when the load started, so changes made during the load are applied again after it. Reads do not block, a blocked
+ * read would hold a connection of the pool per hash for good, so feeds are read one after another and the thread
+ * waits {@link #POLL_INTERVAL} only when none of them had changes.
+ * <p>
+ * A hash whose feed skips a change, because the stream was trimmed before the mirror read it, or whose feed cannot
+ * be read, e.g. after a disconnect or a failover, is loaded again. A hash is fresh while its feed was read up to its
+ * end within the maximum staleness, reads of a hash that is not fresh go to redis.
+ * {@link #wrap Wrapped} commands serve HGET, HMGET, HEXISTS, HLEN, HGETALL and HSCAN of fresh hashes from memory,
+ * HSCAN returns a whole hash in one page
+ */
+final class LocalReplica implements AutoCloseable {
+    /**
+     * Time between reads of the change feeds while they have no changes, an idle hash is confirmed fresh this often
+     */
+    static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+    /**
+     * Approximate number of changes kept by the change feed of every hash
+     */
+    static final long CHANGE_FEED_LENGTH = 10_000;
+    private static final int CHANGES_PER_READ = 1000;
+    private static final Set<String> READS = Set.of("hget", "hmget", "hexists", "hlen", "hgetAll", "hscan");
+    private static final byte[] NEWEST = SafeEncoder.encode("+");
+    private static final byte[] OLDEST = SafeEncoder.encode("-");
+    private static final byte[] START = SafeEncoder.encode("0-0");
+    private static final ByteBuffer SEQ = ByteBuffer.wrap(SafeEncoder.encode("seq"));
+    private static final ByteBuffer FIELD = ByteBuffer.wrap(SafeEncoder.encode("field"));
+    private static final ByteBuffer VALUE = ByteBuffer.wrap(SafeEncoder.encode("value"));
+
+    /**
+     * Position in a change feed: id of the stream entry and number of the change
+     */
+    private record Position(byte[] id, long seq) {
+    }
+
+    private final JedisBinaryCommands commands;
+    private final Shards shards;
+    private final HashCompanions companions;
+    private final long maxStalenessNanos;
+    private final int scanCount;
+    private final Map<ByteBuffer, Integer> shardOf = new HashMap<>();
+    private final AtomicReferenceArray<Map<ByteBuffer, byte[]>> hashes;
+    private final AtomicReferenceArray<Position> positions;
+    private final AtomicLongArray confirmed;
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder localReads = new LongAdder();
+    private final LongAdder remoteReads = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Loads all hashes and starts following their change feeds
+     * @param commands commands the hashes and the feeds are read with
+     * @param shards hashes of the map
+     * @param companions companions of the hashes, they have to keep the change feed
+     * @param maxStaleness how long ago the feed of a hash may have been read for reads to be served from memory
+     * @param scanCount COUNT of HSCAN calls that load the hashes
+     */
+    LocalReplica(JedisBinaryCommands commands, Shards shards, HashCompanions companions, Duration maxStaleness,
+                 int scanCount) {
+        this.commands = commands;
+        this.shards = shards;
+        this.companions = companions;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.scanCount = scanCount;
+        this.hashes = new AtomicReferenceArray<>(shards.count());
+        this.positions = new AtomicReferenceArray<>(shards.count());
+        this.confirmed = new AtomicLongArray(shards.count());
+        for (int i = 0; i < shards.count(); i++) {
+            shardOf.put(ByteBuffer.wrap(shards.binaryKeys().get(i)), i);
+            load(i);
+            follow(i);
+        }
+        Thread.ofPlatform()
+                .daemon()
+                .name("redis-map-replica-" + shards.keys().get(0))
+                .start(this::followLoop);
+    }
+
+    /**
+     * Wraps commands, so reads of fresh hashes are served from memory
+     * @param commands commands that get other commands and reads of hashes that are not fresh
+     * @return commands reading from the mirror
+     */
+    JedisBinaryCommands wrap(JedisBinaryCommands commands) {
+        return (JedisBinaryCommands) Proxy.newProxyInstance(JedisBinaryCommands.class.getClassLoader(),
+                new Class<?>[]{JedisBinaryCommands.class}, (proxy, method, args) -> read(commands, method, args));
+    }
+
+    /**
+     * Waits until every change made to the hashes before the call is applied to the mirror, or until the hashes
+     * that lag behind are no longer fresh, so their reads go to redis. Either way reads that follow see the changes
+     */
+    void sync() {
+        for (int i = 0; i < shards.count(); i++) {
+            long last = lastChange(i).seq();
+            while (positions.get(i).seq() < last && isFresh(i) && !closed) {
+                LockSupport.parkNanos(Duration.ofMillis(1).toNanos());
+            }
+        }
+    }
+
+    /**
+     * Returns counters of the mirror
+     * @return counters of the mirror
+     */
+    LocalReplicaStats stats() {
+        long now = System.nanoTime();
+        long entries = 0;
+        long staleness = 0;
+        for (int i = 0; i < shards.count(); i++) {
+            entries += hashes.get(i).size();
+            long confirmedAt = confirmed.get(i);
+            staleness = Math.max(staleness, confirmedAt != 0 ? now - confirmedAt : Long.MAX_VALUE);
+        }
+        return new LocalReplicaStats(entries, changes.sum(), loads.sum(), localReads.sum(), remoteReads.sum(),
+                Duration.ofNanos(staleness));
+    }
+
+    private Object read(JedisBinaryCommands target, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class || !READS.contains(method.getName())
+                || !(args[0] instanceof byte[] key)) {
+            return invoke(target, method, args);
+        }
+        Integer shard = shardOf.get(ByteBuffer.wrap(key));
+        if (shard == null) {
+            return invoke(target, method, args);
+        }
+        if (!isFresh(shard)) {
+            remoteReads.increment();
+            return invoke(target, method, args);
+        }
+        localReads.increment();
+        Map<ByteBuffer, byte[]> hash = hashes.get(shard);
+        return switch (method.getName()) {
+            case "hget" -> hash.get(ByteBuffer.wrap((byte[]) args[1]));
+            case "hexists" -> hash.containsKey(ByteBuffer.wrap((byte[]) args[1]));
+            case "hlen" -> (long) hash.size();
+            case "hmget" -> {
+                List<byte[]> values = new ArrayList<>();
+                for (byte[] field : (byte[][]) args[1]) {
+                    values.add(hash.get(ByteBuffer.wrap(field)));
+                }
+                yield values;
+            }
+            case "hgetAll" -> {
+                Map<byte[], byte[]> entries = new HashMap<>();
+                hash.forEach((field, value) -> entries.put(field.array(), value));
+                yield entries;
+            }
+            default -> {
+                List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(hash.size());
+                hash.forEach((field, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(field.array(), value)));
+                yield new ScanResult<>(ScanParams.SCAN_POINTER_START_BINARY, entries);
+            }
+        };
+    }
+
+    private boolean isFresh(int shard) {
+        long confirmedAt = confirmed.get(shard);
+        return confirmedAt != 0 && System.nanoTime() - confirmedAt <= maxStalenessNanos;
+    }
+
+    /**
+     * Loads a hash, its feed is then read from the change that was the last one before the hash was scanned
+     */
+    private void load(int shard) {
+        confirmed.set(shard, 0);
+        Position last = lastChange(shard);
+        Map<ByteBuffer, byte[]> hash = new ConcurrentHashMap<>();
+        new HashScan<>(commands, List.of(shards.binaryKeys().get(shard)), scanCount, entry -> entry)
+                .forEachRemaining(entry -> hash.put(ByteBuffer.wrap(entry.getKey()), entry.getValue()));
+        hashes.set(shard, hash);
+        positions.set(shard, last);
+        loads.increment();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Position lastChange(int shard) {
+        List<Object> last = commands.xrevrange(companions.changeFeedKey(shard), NEWEST, OLDEST, 1);
+        if (last.isEmpty()) {
+            return new Position(START, 0);
+        }
+        List<Object> entry = (List<Object>) last.get(0);
+        return new Position((byte[]) entry.get(0), seq(fields((List<Object>) entry.get(1))));
+    }
+
+    private void followLoop() {
+        boolean[] reload = new boolean[shards.count()];
+        while (!closed) {
+            boolean idle = true;
+            for (int shard = 0; shard < shards.count() && !closed; shard++) {
+                try {
+                    if (reload[shard]) {
+                        load(shard);
+                        reload[shard] = false;
+                    }
+                    int read = follow(shard);
+                    reload[shard] = read < 0;
+                    idle &= read == 0;
+                } catch (RuntimeException e) {
+                    // the feed may have lost changes while it could not be read, e.g. in a failover
+                    reload[shard] = true;
+                }
+            }
+            if (idle) {
+                LockSupport.parkNanos(POLL_INTERVAL.toNanos());
+            }
+        }
+    }
+
+    /**
+     * Applies the changes of a hash made since its position in the feed
+     * @return number of changes read, -1 if the feed skipped changes, so the hash has to be loaded again
+     */
+    @SuppressWarnings("unchecked")
+    private int follow(int shard) {
+        Position position = positions.get(shard);
+        XReadParams params = XReadParams.xReadParams().count(CHANGES_PER_READ);
+        long sent = System.nanoTime();
+        List<Object> reply = commands.xread(params, Map.entry(companions.changeFeedKey(shard), position.id()));
+        List<Object> entries = reply == null || reply.isEmpty() ? List.of() : entriesOf(reply.get(0));
+        Map<ByteBuffer, byte[]> hash = hashes.get(shard);
+        for (Object e : entries) {
+            List<Object> entry = (List<Object>) e;
+            Map<ByteBuffer, byte[]> change = fields((List<Object>) entry.get(1));
+            long seq = seq(change);
+            if (seq > position.seq() + 1) {
+                return -1;
+            }
+            if (seq == position.seq() + 1) {
+                byte[] field = change.get(FIELD);
+                byte[] value = change.get(VALUE);
+                if (field == null) {
+                    hash.clear();
+                } else if (value == null) {
+                    hash.remove(ByteBuffer.wrap(field));
+                } else {
+                    hash.put(ByteBuffer.wrap(field), value);
+                }
+                changes.increment();
+            }
+            position = new Position((byte[]) entry.get(0), Math.max(seq, position.seq()));
+            positions.set(shard, position);
+        }
+        if (entries.size() < CHANGES_PER_READ) {
+            // everything changed before the read was sent has been applied
+            confirmed.set(shard, sent);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Returns entries of a stream in a reply of XREAD, RESP2 replies [key, entries], RESP3 a map of key to entries
+     */
+    private static List<Object> entriesOf(Object stream) {
+        Object entries = stream instanceof KeyValue<?, ?> keyValue ? keyValue.getValue() : ((List<?>) stream).get(1);
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) entries;
+        return list;
+    }
+
+    private static Map<ByteBuffer, byte[]> fields(List<Object> flat) {
+        Map<ByteBuffer, byte[]> fields = new HashMap<>();
+        for (int i = 0; i + 1 < flat.size(); i += 2) {
+            fields.put(ByteBuffer.wrap((byte[]) flat.get(i)), (byte[]) flat.get(i + 1));
+        }
+        return fields;
+    }
+
+    private static long seq(Map<ByteBuffer, byte[]> change) {
+        return Codecs.decodeDecimal(change.get(SEQ));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stops following the feeds
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,16 @@
+package org.example.util;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of counters of the in-memory mirror of a map, see {@link RedisMap.Builder#localReplica(Duration)}
+ * @param entries entries held in memory
+ * @param changes changes read from the change feed and applied to the mirror
+ * @param loads times a hash was loaded, the initial loads included
+ * @param localReads reads served from memory
+ * @param remoteReads reads sent to redis because their hash was not fresh
+ * @param staleness how long ago the change feed of the most lagging hash was read up to its end
+ */
+public record LocalReplicaStats(long entries, long changes, long loads, long localReads, long remoteReads,
+                                Duration staleness) {
+}
@@ -0,0 +1,78 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Lua script that is run by its SHA1 digest, so the script body is only sent to a node that does not have it cached yet
+ */
+final class LuaScript {
+    private final byte[] body;
+    private final String sha;
+    private final byte[] binarySha;
+
+    /**
+     * Initializes script, the digest is calculated locally the same way redis does it
+     * @param body lua source of the script
+     */
+    LuaScript(String body) {
+        this.body = SafeEncoder.encode(body);
+        this.sha = sha1(body);
+        this.binarySha = SafeEncoder.encode(sha);
+    }
+
+    /**
+     * Runs the script with EVALSHA, falling back to EVAL if the node does not have the script cached
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param keys keys the script touches, in a cluster they have to belong to the same slot
+     * @param args arguments of the script
+     * @return reply of the script
+     */
+    Object eval(JedisBinaryCommands commands, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return commands.evalsha(binarySha, keys, args);
+        } catch (JedisNoScriptException e) {
+            return commands.eval(body, keys, args);
+        }
+    }
+
+    /**
+     * Returns lua source of the script
+     * @return lua source of the script
+     */
+    byte[] body() {
+        return body;
+    }
+
+    /**
+     * Returns SHA1 digest of the script
+     * @return SHA1 digest of the script
+     */
+    String sha() {
+        return sha;
+    }
+
+    /**
+     * Returns SHA1 digest of the script in the form binary commands take
+     * @return SHA1 digest of the script
+     */
+    byte[] binarySha() {
+        return binarySha;
+    }
+
+    private static String sha1(String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
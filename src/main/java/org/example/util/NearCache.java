@@ -0,0 +1,179 @@
+package org.example.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded local cache of hash fields that sits in front of redis.
+ * Entries are evicted in least recently used order once the cache is full.
+ * Absent fields are cached as well, so repeated lookups of missing keys do not hit redis either.
+ * The cache is only consulted while it is active, i.e. while invalidation messages from redis are being received
+ */
+public class NearCache {
+    /**
+     * Marker stored for fields that are known to be absent in redis
+     */
+    static final Object ABSENT = new Object();
+
+    private final int maxEntries;
+    private final LinkedHashMap<Object, Object> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean active;
+    private long epoch;
+
+    /**
+     * Initializes near cache
+     * @param maxEntries maximum number of fields kept locally
+     */
+    public NearCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() > NearCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a field in the cache
+     * @param field field to look up
+     * @return cached value, {@link #ABSENT} if the field is known to be missing, or NULL if the field is not cached
+     */
+    Object lookup(Object field) {
+        if (!active) {
+            misses.increment();
+            return null;
+        }
+        Object value;
+        synchronized (this) {
+            value = entries.get(field);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns current invalidation epoch, it has to be taken before reading a field from redis
+     * @return current invalidation epoch
+     */
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Stores a value read from redis unless an invalidation happened since the read was started
+     * @param field field that was read
+     * @param value value that was read, or NULL if the field is absent
+     * @param readEpoch epoch taken before the read
+     */
+    synchronized void store(Object field, Object value, long readEpoch) {
+        if (active && readEpoch == epoch) {
+            entries.put(field, value != null ? value : ABSENT);
+        }
+    }
+
+    /**
+     * Drops a single field, used after local writes
+     * @param field field to be dropped
+     */
+    synchronized void invalidate(Object field) {
+        epoch++;
+        entries.remove(field);
+        invalidations.increment();
+    }
+
+    /**
+     * Drops all cached fields, used when redis reports that the hash has changed
+     */
+    synchronized void invalidateAll() {
+        epoch++;
+        entries.clear();
+        invalidations.increment();
+    }
+
+    /**
+     * Enables or disables the cache, disabling it also drops all cached fields
+     * @param active whether the cache can be used
+     */
+    void setActive(boolean active) {
+        synchronized (this) {
+            epoch++;
+            entries.clear();
+        }
+        this.active = active;
+    }
+
+    /**
+     * Checks whether the cache is currently used
+     * @return whether the cache is currently used
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns a snapshot of cache counters
+     * @return a snapshot of cache counters
+     */
+    public Stats stats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), invalidations.sum(), evictions.sum(), size, maxEntries);
+    }
+
+    /**
+     * How redis notifies the near cache about changes of the hash
+     */
+    public enum Invalidation {
+        /**
+         * Client side caching ({@code CLIENT TRACKING}) if the server supports it, keyspace notifications otherwise
+         */
+        AUTO,
+        /**
+         * Client side caching in broadcasting mode, requires redis 6 or newer
+         */
+        TRACKING,
+        /**
+         * Keyspace notifications, enabled on the server if they are not enabled yet
+         */
+        KEYSPACE_NOTIFICATIONS
+    }
+
+    /**
+     * Snapshot of near cache counters
+     * @param hits lookups served locally
+     * @param misses lookups that went to redis
+     * @param invalidations local and server side invalidations
+     * @param evictions entries evicted because the cache was full
+     * @param size number of cached fields
+     * @param maxEntries maximum number of cached fields
+     */
+    public record Stats(long hits, long misses, long invalidations, long evictions, int size, int maxEntries) {
+        /**
+         * Returns share of lookups served locally
+         * @return share of lookups served locally, 0 if there were no lookups
+         */
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.util;
+
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.commands.JedisCommands;
+
+/**
+ * Adapts the backends redis map supports
+ */
+final class Pipelines {
+
+    private Pipelines() {
+    }
+
+    /**
+     * Opens a pipeline, in a cluster commands of the pipeline are routed to the nodes owning their keys
+     * @param commands can be a cluster or can be a single instance of redis
+     * @return pipeline, or NULL if the backend does not support pipelining and commands have to be sent one by one
+     */
+    static AbstractPipeline open(JedisCommands commands) {
+        if (commands instanceof Jedis jedis) {
+            return jedis.pipelined();
+        }
+        if (commands instanceof UnifiedJedis unified) {
+            return unified.pipelined();
+        }
+        return null;
+    }
+
+    /**
+     * Returns binary commands of the backend, both a cluster and a single instance of redis implement them
+     * @param commands can be a cluster or can be a single instance of redis
+     * @return the same backend as binary commands
+     * @throws IllegalArgumentException if the backend does not support binary commands
+     */
+    static JedisBinaryCommands binary(JedisCommands commands) {
+        if (commands instanceof JedisBinaryCommands binary) {
+            return binary;
+        }
+        throw new IllegalArgumentException("Backend does not support binary commands: " + commands.getClass().getName());
+    }
+
+    /**
+     * Checks whether the backend can be used from several threads at once
+     * @param commands can be a cluster or can be a single instance of redis
+     * @return whether the backend is thread safe
+     */
+    static boolean isThreadSafe(JedisCommands commands) {
+        return commands instanceof UnifiedJedis;
+    }
+}
@@ -0,0 +1,20 @@
+package org.example.util;
+
+/**
+ * Nodes of a cluster that reads of a map are sent to, see {@link RedisMap.Builder#readFrom}.
+ * Replicas are updated asynchronously, so a read from a replica may miss the latest writes
+ */
+public enum ReadFrom {
+    /**
+     * Every read goes to the master owning the slot, reads see all writes that completed before them
+     */
+    MASTER,
+    /**
+     * Reads go to the replicas of the slot in turns, the master serves them only if no replica is available
+     */
+    PREFER_REPLICA,
+    /**
+     * Reads go to the master and the replicas of the slot in turns
+     */
+    ROUND_ROBIN
+}
@@ -1,25 +1,206 @@
 package org.example.util;
 
+import org.example.util.RedisMapListener.Operation;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.commands.JedisBinaryCommands;
 import redis.clients.jedis.commands.JedisCommands;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.Pool;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
- * Class that implements java.util.Map but utilizes redis to contain all the data
+ * Class that implements java.util.Map but utilizes redis to contain all the data.
+ * Keys and values are converted to the bytes stored in redis by codecs, see {@link Codecs}.
+ * <p>
+ * A map over a {@link redis.clients.jedis.JedisPooled} or a {@link JedisCluster} can be shared by any number of
+ * threads, virtual threads included, as every command borrows a connection from a pool. A map over a single
+ * {@link redis.clients.jedis.Jedis} connection has to be used by one thread at a time
+ * @param <K> type of keys
+ * @param <V> type of values
  */
-public class RedisMap implements Map<String,Integer> {
+public class RedisMap<K, V> implements Map<K, V>, AutoCloseable {
+    /**
+     * Number of entries requested from redis per HSCAN call unless configured otherwise
+     */
+    public static final int DEFAULT_SCAN_COUNT = 100;
+    /**
+     * Maximum number of fields sent in one HMGET or HDEL, larger inputs are split into chunks sent in one pipeline,
+     * so a single command does not block redis for long
+     */
+    static final int MAX_FIELDS_PER_COMMAND = 512;
+    /**
+     * Number of times a conditional batch is collected again after a conflict unless configured otherwise
+     */
+    public static final int DEFAULT_BATCH_RETRIES = 10;
+
     private final JedisCommands commands;
+    private final JedisBinaryCommands binary;
     private final String redisHashKey;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Shards shards;
+    private final int scanCount;
+    private final NearCache nearCache;
+    private final InvalidationListener invalidationListener;
+    private final WriteBehindBuffer<K> writeBehind;
+    private final HashCompanions companions;
+    private final Instrumentation instrumentation;
+    private final JedisBinaryCommands scanBinary;
+    private final ReplicaReads replicaReads;
+    private final JedisBinaryCommands reads;
+    private final Resilience resilience;
+    private final LocalReplica localReplica;
+    private final GetBatcher getBatcher;
+    private final RedisMapBatch.Counters batchCounters = new RedisMapBatch.Counters();
+    private volatile boolean hgetdelSupported = true;
 
     /**
      * Initializes redis map
      * @param commands can be a cluster or can be a single instance of redis
      * @param redisHashKey redis hash key
+     * @param keyCodec converts keys to hash fields and back
+     * @param valueCodec converts values to hash values and back
      */
-    public RedisMap(JedisCommands commands, String redisHashKey) {
+    public RedisMap(JedisCommands commands, String redisHashKey, Codec<K> keyCodec, Codec<V> valueCodec) {
         this.commands = commands;
+        this.instrumentation = Instrumentation.DISABLED;
+        this.binary = Pipelines.binary(commands);
+        this.scanBinary = binary;
+        this.replicaReads = null;
+        this.reads = binary;
+        this.resilience = null;
+        this.localReplica = null;
+        this.getBatcher = null;
         this.redisHashKey = redisHashKey;
+        this.keyCodec = Objects.requireNonNull(keyCodec, "keyCodec");
+        this.valueCodec = Objects.requireNonNull(valueCodec, "valueCodec");
+        this.shards = Shards.single(redisHashKey);
+        this.scanCount = DEFAULT_SCAN_COUNT;
+        this.nearCache = null;
+        this.invalidationListener = null;
+        this.writeBehind = null;
+        this.companions = null;
+    }
+
+    private RedisMap(Builder<K, V> builder) {
+        this.commands = builder.commands;
+        this.instrumentation = new Instrumentation(builder.redisHashKey, builder.listener, builder.jfrEvents);
+        this.replicaReads = builder.readFrom != ReadFrom.MASTER ? builder.replicaReads(Pipelines.binary(commands)) : null;
+        this.resilience = builder.deadline != null || builder.hedgeQuantile > 0 || builder.circuitFailures > 0
+                ? new Resilience(builder.deadline, builder.hedgeQuantile, builder.circuitFailures, builder.circuitOpenFor)
+                : null;
+        JedisBinaryCommands master = resilience != null
+                ? resilience.wrap(Pipelines.binary(commands))
+                : Pipelines.binary(commands);
+        JedisBinaryCommands routed = replicaReads == null ? master
+                : resilience != null ? resilience.wrap(replicaReads.commands()) : replicaReads.commands();
+        this.binary = instrumentation.wrap(master, null);
+        this.redisHashKey = builder.redisHashKey;
+        this.keyCodec = builder.keyCodec;
+        this.valueCodec = builder.valueCodec;
+        this.shards = Shards.of(redisHashKey, builder.shards, Pipelines.isThreadSafe(commands));
+        this.scanCount = builder.scanCount;
+        this.companions = builder.valueIndex || builder.contentDigest || builder.expireAfterWrite != null
+                || builder.maxEntries > 0 || builder.localReplicaStaleness != null
+                ? new HashCompanions(shards, keyCodec, valueCodec, builder.valueIndex, builder.contentDigest,
+                builder.expireAfterWrite, builder.maxEntries, builder.evictionPolicy,
+                builder.localReplicaStaleness != null ? LocalReplica.CHANGE_FEED_LENGTH : 0)
+                : null;
+        if (builder.localReplicaStaleness != null) {
+            try {
+                this.localReplica = new LocalReplica(Pipelines.binary(commands), shards, companions,
+                        builder.localReplicaStaleness, scanCount);
+            } catch (RuntimeException e) {
+                shards.close();
+                if (replicaReads != null) {
+                    replicaReads.close();
+                }
+                if (resilience != null) {
+                    resilience.close();
+                }
+                throw e;
+            }
+            // reads served from memory are not round trips, so they are not reported as such
+            this.reads = localReplica.wrap(replicaReads != null ? instrumentation.wrap(routed, null) : binary);
+            this.scanBinary = localReplica.wrap(instrumentation.wrap(routed, Operation.ITERATE));
+        } else {
+            this.localReplica = null;
+            this.reads = replicaReads != null ? instrumentation.wrap(routed, null) : binary;
+            this.scanBinary = instrumentation.wrap(routed, Operation.ITERATE);
+        }
+        this.getBatcher = builder.batchWindow != null
+                ? new GetBatcher(reads, shards.binaryKeys(), builder.batchWindow, builder.maxBatch)
+                : null;
+        if (builder.nearCacheMaxEntries > 0) {
+            this.nearCache = new NearCache(builder.nearCacheMaxEntries);
+            this.invalidationListener = new InvalidationListener(nearCache, shards.keys(),
+                    builder.invalidationConnections(), builder.invalidation);
+            try {
+                this.invalidationListener.start();
+            } catch (RuntimeException e) {
+                shards.close();
+                if (replicaReads != null) {
+                    replicaReads.close();
+                }
+                if (resilience != null) {
+                    resilience.close();
+                }
+                throw e;
+            }
+        } else {
+            this.nearCache = null;
+            this.invalidationListener = null;
+        }
+        this.writeBehind = builder.writeBehindBatchSize > 0
+                ? new WriteBehindBuffer<>(commands, keyCodec, shards, companions, builder.writeBehindBatchSize,
+                builder.writeBehindInterval)
+                : null;
+    }
+
+    /**
+     * Initializes redis map of String keys and Integer values stored as UTF-8 and decimal, the format HINCRBY works with
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param redisHashKey redis hash key
+     * @return redis map
+     */
+    public static RedisMap<String, Integer> of(JedisCommands commands, String redisHashKey) {
+        return new RedisMap<>(commands, redisHashKey, Codecs.utf8(), Codecs.decimalInt());
+    }
+
+    /**
+     * Starts building a redis map of String keys and Integer values with optional features enabled
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param redisHashKey redis hash key
+     * @return builder of redis map
+     */
+    public static Builder<String, Integer> builder(JedisCommands commands, String redisHashKey) {
+        return builder(commands, redisHashKey, Codecs.utf8(), Codecs.decimalInt());
+    }
+
+    /**
+     * Starts building a redis map with optional features enabled
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param redisHashKey redis hash key
+     * @param keyCodec converts keys to hash fields and back
+     * @param valueCodec converts values to hash values and back
+     * @return builder of redis map
+     */
+    public static <K, V> Builder<K, V> builder(JedisCommands commands, String redisHashKey,
+                                               Codec<K> keyCodec, Codec<V> valueCodec) {
+        return new Builder<>(commands, redisHashKey, keyCodec, valueCodec);
     }
 
     /**
@@ -28,8 +209,14 @@ public class RedisMap implements Map<String,Integer> {
      */
     @Override
     public int size() {
-        long len = commands.hlen(redisHashKey);
-        return (int) len;
+        return instrumentation.call(Operation.SIZE, () -> {
+            flush();
+            long len = 0;
+            for (long shardLen : shards.mapIndexed(i -> reads.hlen(shards.binaryKeys().get(i)))) {
+                len += shardLen;
+            }
+            return (int) len;
+        });
     }
 
     /**
@@ -48,17 +235,98 @@ public class RedisMap implements Map<String,Integer> {
      */
     @Override
     public boolean containsKey(Object key) {
-        return commands.hexists(redisHashKey, key.toString());
+        return instrumentation.call(Operation.CONTAINS_KEY, () -> {
+            if (nearCache != null || writeBehind != null || getBatcher != null) {
+                return get(key) != null;
+            }
+            byte[] field = encodeKey(key);
+            return reads.hexists(shards.keyFor(field), field);
+        });
     }
 
     /**
-     * Checks whether redis has an entry with that value or not
+     * Checks whether redis has an entry with that value or not, paging through redis with HSCAN until the value is found.
+     * With value index it is a single HEXISTS per hash
      * @param value value to be checked
-     * @return whether redis has an entry with that value or not
+     * @return whether redis has an entry with that value or not, false for values the codec cannot encode
      */
     @Override
     public boolean containsValue(Object value) {
-        return commands.hvals(redisHashKey).contains(value.toString());
+        return instrumentation.call(Operation.CONTAINS_VALUE, () -> {
+            byte[] v;
+            try {
+                @SuppressWarnings("unchecked")
+                V typed = (V) value;
+                v = valueCodec.encode(typed);
+            } catch (ClassCastException e) {
+                // a value of another type cannot be stored in the map
+                return false;
+            }
+            flush();
+            if (companions != null && companions.indexed()) {
+                return shards.mapIndexed(i -> companions.contains(binary, i, v)).contains(true);
+            }
+            return shards.mapIndexed(i -> {
+                Iterator<byte[]> values = Spliterators.iterator(
+                        new HashScan<>(binary, List.of(shards.binaryKeys().get(i)), scanCount, Entry::getValue));
+                while (values.hasNext()) {
+                    if (Arrays.equals(values.next(), v)) {
+                        return true;
+                    }
+                }
+                return false;
+            }).contains(true);
+        });
+    }
+
+    /**
+     * Returns keys of all entries with that value, requires value index
+     * @param value value to be looked up
+     * @return keys of entries with that value
+     * @throws IllegalStateException if the map was built without value index
+     */
+    public List<K> keysWithValue(V value) {
+        return instrumentation.call(Operation.KEYS_WITH_VALUE, () -> {
+            HashCompanions index = requireValueIndex();
+            byte[] v = valueCodec.encode(value);
+            flush();
+            return decodeKeys(shards.mapIndexed(i -> index.fieldsWith(binary, i, v)));
+        });
+    }
+
+    /**
+     * Returns keys of all entries with values in the range, requires value index over decimal values
+     * @param min lower bound of values, inclusive
+     * @param max upper bound of values, inclusive
+     * @return keys of entries with values in the range, ordered by value within every hash
+     * @throws IllegalStateException if the map was built without value index
+     * @throws UnsupportedOperationException if values are not encoded as decimal numbers
+     */
+    public List<K> keysWithValueBetween(V min, V max) {
+        return instrumentation.call(Operation.KEYS_WITH_VALUE, () -> {
+            HashCompanions index = requireValueIndex();
+            byte[] from = valueCodec.encode(min);
+            byte[] to = valueCodec.encode(max);
+            flush();
+            return decodeKeys(shards.mapIndexed(i -> index.fieldsBetween(binary, i, from, to)));
+        });
+    }
+
+    private HashCompanions requireValueIndex() {
+        if (companions == null || !companions.indexed()) {
+            throw new IllegalStateException("Value index is not enabled, see Builder.valueIndex()");
+        }
+        return companions;
+    }
+
+    private List<K> decodeKeys(List<List<byte[]>> fields) {
+        List<K> keys = new ArrayList<>();
+        for (List<byte[]> shardFields : fields) {
+            for (byte[] field : shardFields) {
+                keys.add(keyCodec.decode(field));
+            }
+        }
+        return keys;
     }
 
     /**
@@ -67,35 +335,462 @@ public class RedisMap implements Map<String,Integer> {
      * @return value from an entry with that key, or NULL if an entry with such key does not exist
      */
     @Override
-    public Integer get(Object key) {
-        String value = commands.hget(redisHashKey, key.toString());
-        return (value != null) ? Integer.valueOf(value) : null;
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        return instrumentation.call(Operation.GET, () -> {
+            if (writeBehind != null) {
+                Object buffered = writeBehind.lookup(key);
+                if (buffered != null) {
+                    return buffered != WriteBehindBuffer.TOMBSTONE ? valueCodec.decode((byte[]) buffered) : null;
+                }
+            }
+            if (nearCache == null) {
+                return fetch(key);
+            }
+            Object cached = nearCache.lookup(key);
+            if (cached != null) {
+                return cached != NearCache.ABSENT ? (V) cached : null;
+            }
+            long epoch = nearCache.epoch();
+            V value = fetch(key);
+            nearCache.store(key, value, epoch);
+            return value;
+        });
+    }
+
+    private V fetch(Object key) {
+        return decodeValue(fetchEncoded(key));
+    }
+
+    private byte[] fetchEncoded(Object key) {
+        byte[] field = encodeKey(key);
+        if (companions != null && companions.bounded()) {
+            return companions.get(binary, field);
+        }
+        if (getBatcher != null) {
+            return getBatcher.get(shards.indexOf(field), field);
+        }
+        return reads.hget(shards.keyFor(field), field);
+    }
+
+    /**
+     * Returns value from an entry with that key in a single round trip, since redis never stores NULL values
+     * @param key the key whose value is to be returned
+     * @param defaultValue value returned if an entry with such key does not exist
+     * @return value from an entry with that key, or default value if an entry with such key does not exist
+     */
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    /**
+     * Returns values of all the keys with one HMGET per hash, large inputs are split into chunks sent in a pipeline.
+     * Buffered writes and the near cache are consulted first, same as in get
+     * @param keys keys whose values are to be returned
+     * @return keys that have an entry mapped to their values, in the order of the given keys
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        return instrumentation.call(Operation.GET_ALL, () -> {
+            Map<K, V> result = new LinkedHashMap<>();
+            List<List<K>> toFetch = new ArrayList<>(shards.count());
+            List<List<byte[]>> fields = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                toFetch.add(new ArrayList<>());
+                fields.add(new ArrayList<>());
+            }
+            for (K key : keys) {
+                Object local = writeBehind != null ? writeBehind.lookup(key) : null;
+                if (local != null) {
+                    if (local != WriteBehindBuffer.TOMBSTONE) {
+                        result.put(key, valueCodec.decode((byte[]) local));
+                    }
+                    continue;
+                }
+                local = nearCache != null ? nearCache.lookup(key) : null;
+                if (local != null) {
+                    if (local != NearCache.ABSENT) {
+                        result.put(key, (V) local);
+                    }
+                    continue;
+                }
+                byte[] field = keyCodec.encode(key);
+                int shard = shards.indexOf(field);
+                toFetch.get(shard).add(key);
+                fields.get(shard).add(field);
+            }
+            long epoch = nearCache != null ? nearCache.epoch() : 0;
+            List<List<byte[]>> replies = shards.mapIndexed(i -> fields.get(i).isEmpty()
+                    ? List.<byte[]>of()
+                    : fetchAll(i, fields.get(i)));
+            for (int i = 0; i < shards.count(); i++) {
+                for (int j = 0; j < toFetch.get(i).size(); j++) {
+                    K key = toFetch.get(i).get(j);
+                    V value = decodeValue(replies.get(i).get(j));
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                    if (nearCache != null) {
+                        nearCache.store(key, value, epoch);
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    private List<byte[]> fetchAll(int shard, List<byte[]> fields) {
+        if (companions != null && companions.bounded()) {
+            List<byte[]> values = new ArrayList<>(fields.size());
+            for (int from = 0; from < fields.size(); from += MAX_FIELDS_PER_COMMAND) {
+                values.addAll(companions.getAll(binary, shard,
+                        fields.subList(from, Math.min(fields.size(), from + MAX_FIELDS_PER_COMMAND))));
+            }
+            return values;
+        }
+        byte[] shardKey = shards.binaryKeys().get(shard);
+        List<List<byte[]>> chunks = reads != binary
+                ? inChunks(fields, chunk -> reads.hmget(shardKey, chunk), null)
+                : inChunks(fields, chunk -> binary.hmget(shardKey, chunk),
+                (pipeline, chunk) -> pipeline.hmget(shardKey, chunk));
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        List<byte[]> values = new ArrayList<>(fields.size());
+        chunks.forEach(values::addAll);
+        return values;
     }
 
     /**
-     * Creates a new entry with key value pair
+     * Runs a multi-field command over fields of one hash, splitting them into chunks of
+     * {@link #MAX_FIELDS_PER_COMMAND} that are sent in one pipeline, or one by one if the backend cannot pipeline
+     * @param fields encoded fields
+     * @param direct runs the command over a chunk
+     * @param pipelined queues the command over a chunk into a pipeline, NULL if chunks are to be sent one by one
+     * @return replies in the order of chunks
+     */
+    private <T> List<T> inChunks(List<byte[]> fields, Function<byte[][], T> direct,
+                                 BiFunction<AbstractPipeline, byte[][], Response<T>> pipelined) {
+        List<byte[][]> chunks = new ArrayList<>();
+        for (int from = 0; from < fields.size(); from += MAX_FIELDS_PER_COMMAND) {
+            chunks.add(fields.subList(from, Math.min(fields.size(), from + MAX_FIELDS_PER_COMMAND)).toArray(new byte[0][]));
+        }
+        AbstractPipeline pipeline = chunks.size() > 1 && pipelined != null ? Pipelines.open(commands) : null;
+        List<T> replies = new ArrayList<>(chunks.size());
+        if (pipeline == null) {
+            for (byte[][] chunk : chunks) {
+                replies.add(direct.apply(chunk));
+            }
+            return replies;
+        }
+        try (pipeline) {
+            List<Response<T>> responses = new ArrayList<>(chunks.size());
+            for (byte[][] chunk : chunks) {
+                responses.add(pipelined.apply(pipeline, chunk));
+            }
+            pipeline.sync();
+            for (Response<T> response : responses) {
+                replies.add(response.get());
+            }
+        }
+        Instrumentation.countPipeline(fields, replies);
+        return replies;
+    }
+
+    /**
+     * Creates a new entry with key value pair, atomically and in a single round trip
      * @param key key
      * @param value value
      * @return old value if an entry with such key previously existed, or NULL otherwise
      */
     @Override
-    public Integer put(String key, Integer value) {
-        String old = commands.hget(redisHashKey, key);
-        commands.hset(redisHashKey, key, value.toString());
-        return (old != null) ? Integer.valueOf(old) : null;
+    public V put(K key, V value) {
+        return instrumentation.call(Operation.PUT, () -> {
+            if (writeBehind != null) {
+                V old = get(key);
+                set(key, value);
+                return old;
+            }
+            byte[] field = keyCodec.encode(key);
+            Object old = companions != null
+                    ? companions.update(binary, field, HashCompanions.Condition.ANY, null, valueCodec.encode(value)).old()
+                    : Scripts.PUT.eval(binary, List.of(shards.keyFor(field)), List.of(field, valueCodec.encode(value)));
+            invalidate(key);
+            return decodeValue((byte[]) old);
+        });
+    }
+
+    /**
+     * Creates a new entry with key value pair that redis removes once the time to live passes,
+     * atomically and in a single round trip. Requires redis 7.4 or newer, the version that added HPEXPIRE.
+     * Writing the entry again without a time to live makes it permanent unless the map expires every write
+     * @param key key
+     * @param value value
+     * @param ttl time to live of the entry, at least a millisecond
+     * @return old value if an entry with such key previously existed, or NULL otherwise
+     * @throws UnsupportedOperationException if the map keeps a value index or a content digest, redis does not update
+     * them when entries expire, if the map keeps a local replica, expirations are not in its change feed,
+     * or if the map buffers writes
+     */
+    public V put(K key, V value, Duration ttl) {
+        if (ttl.toMillis() <= 0) {
+            throw new IllegalArgumentException("ttl must be at least a millisecond: " + ttl);
+        }
+        return instrumentation.call(Operation.PUT, () -> {
+            if (writeBehind != null) {
+                throw new UnsupportedOperationException("Entries with time to live cannot be buffered by write behind");
+            }
+            byte[] field = keyCodec.encode(key);
+            Object old;
+            if (companions == null) {
+                old = Scripts.PUT_EXPIRING.eval(binary, List.of(shards.keyFor(field)),
+                        List.of(field, valueCodec.encode(value), Codecs.encodeDecimal(ttl.toMillis())));
+            } else if (companions.indexed() || companions.digest()) {
+                throw new UnsupportedOperationException("Entries with time to live cannot be kept in a value index"
+                        + " or a content digest");
+            } else if (companions.changeFeed()) {
+                throw new UnsupportedOperationException("Entries with time to live cannot be kept in a local replica");
+            } else {
+                old = companions.update(binary, field, HashCompanions.Condition.ANY, null, valueCodec.encode(value), ttl)
+                        .old();
+            }
+            invalidate(key);
+            return decodeValue((byte[]) old);
+        });
+    }
+
+    /**
+     * Same as put but does not return the old value, so it is a plain HSET
+     * @param key key
+     * @param value value
+     */
+    public void set(K key, V value) {
+        instrumentation.run(Operation.SET, () -> {
+            setEncoded(key, valueCodec.encode(value));
+        });
+    }
+
+    private void setEncoded(K key, byte[] value) {
+        if (writeBehind != null) {
+            writeBehind.write(key, value);
+        } else if (companions != null) {
+            companions.update(binary, keyCodec.encode(key), HashCompanions.Condition.ANY, null, value);
+        } else {
+            byte[] field = keyCodec.encode(key);
+            binary.hset(shards.keyFor(field), field, value);
+        }
+        invalidate(key);
     }
 
     /**
-     * Removes an entry with that key
+     * Removes an entry with that key, atomically and in a single round trip.
+     * Uses HGETDEL on servers that support it, a lua script otherwise
      * @param key key of entry to be removed
      * @return value of that entry, or NULL if an entry with such a key was not present
      */
     @Override
-    public Integer remove(Object key) {
-        String k = key.toString();
-        String old = commands.hget(redisHashKey, k);
-        commands.hdel(redisHashKey, k);
-        return (old != null) ? Integer.valueOf(old) : null;
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        return instrumentation.call(Operation.REMOVE, () -> {
+            if (writeBehind != null) {
+                V old = get(key);
+                delete((K) key);
+                return old;
+            }
+            byte[] field = encodeKey(key);
+            byte[] shardKey = shards.keyFor(field);
+            byte[] old = null;
+            boolean removed = false;
+            if (companions != null) {
+                old = companions.update(binary, field, HashCompanions.Condition.ANY, null, null).old();
+                removed = true;
+            } else if (hgetdelSupported) {
+                try {
+                    old = binary.hgetdel(shardKey, field).get(0);
+                    removed = true;
+                } catch (JedisDataException e) {
+                    if (!isUnknownCommand(e)) {
+                        throw e;
+                    }
+                    hgetdelSupported = false;
+                }
+            }
+            if (!removed) {
+                old = (byte[]) Scripts.REMOVE.eval(binary, List.of(shardKey), List.of(field));
+            }
+            invalidate(key);
+            return decodeValue(old);
+        });
+    }
+
+    /**
+     * Same as remove but does not return the old value, so it is a plain HDEL
+     * @param key key of entry to be removed
+     */
+    public void delete(K key) {
+        instrumentation.run(Operation.DELETE, () -> {
+            if (writeBehind != null) {
+                writeBehind.write(key, WriteBehindBuffer.TOMBSTONE);
+                invalidate(key);
+            } else {
+                deleteField(key);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean deleteField(Object key) {
+        return instrumentation.call(Operation.DELETE, () -> {
+            if (writeBehind != null) {
+                boolean present = containsKey(key);
+                delete((K) key);
+                return present;
+            }
+            byte[] field = encodeKey(key);
+            boolean deleted = companions != null
+                    ? companions.update(binary, field, HashCompanions.Condition.ANY, null, null).old() != null
+                    : binary.hdel(shards.keyFor(field), field) > 0;
+            invalidate(key);
+            return deleted;
+        });
+    }
+
+    /**
+     * Removes entries with all the keys with one multi-field HDEL per hash,
+     * large inputs are split into chunks sent in a pipeline
+     * @param keys keys of entries to be removed
+     * @return number of removed entries
+     */
+    public long removeAll(Collection<?> keys) {
+        return instrumentation.call(Operation.REMOVE_ALL, () -> {
+            if (writeBehind != null) {
+                long removed = 0;
+                for (Object key : keys) {
+                    removed += deleteField(key) ? 1 : 0;
+                }
+                return removed;
+            }
+            List<List<byte[]>> fields = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                fields.add(new ArrayList<>());
+            }
+            for (Object key : keys) {
+                byte[] field = encodeKey(key);
+                fields.get(shards.indexOf(field)).add(field);
+            }
+            long removed = 0;
+            for (long shardRemoved : shards.mapIndexed(i -> fields.get(i).isEmpty() ? 0L : deleteAll(i, fields.get(i)))) {
+                removed += shardRemoved;
+            }
+            if (nearCache != null) {
+                nearCache.invalidateAll();
+            }
+            return removed;
+        });
+    }
+
+    private long deleteAll(int shard, List<byte[]> fields) {
+        long removed = 0;
+        if (companions != null) {
+            for (int from = 0; from < fields.size(); from += MAX_FIELDS_PER_COMMAND) {
+                removed += companions.deleteAll(binary, shard,
+                        fields.subList(from, Math.min(fields.size(), from + MAX_FIELDS_PER_COMMAND)));
+            }
+            return removed;
+        }
+        byte[] shardKey = shards.binaryKeys().get(shard);
+        for (long chunkRemoved : inChunks(fields, chunk -> binary.hdel(shardKey, chunk),
+                (pipeline, chunk) -> pipeline.hdel(shardKey, chunk))) {
+            removed += chunkRemoved;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes entries matching the filter while paging through redis with HSCAN.
+     * Matching fields are collected per hash and removed in batches of {@link #MAX_FIELDS_PER_COMMAND}
+     * @param filter tests entries read from redis
+     * @param byValue whether the filter looks at values, then an entry is removed only if it still has the value
+     *                the filter saw, otherwise it is removed by its key
+     * @return whether any entry was removed
+     */
+    private boolean removeMatching(Predicate<Entry<byte[], byte[]>> filter, boolean byValue) {
+        Objects.requireNonNull(filter, "filter");
+        return instrumentation.call(Operation.REMOVE_ALL, () -> {
+            List<List<byte[]>> batches = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                batches.add(new ArrayList<>());
+            }
+            long removed = 0;
+            Iterator<Entry<byte[], byte[]>> entries = Spliterators.iterator(scan(e -> e));
+            while (entries.hasNext()) {
+                Entry<byte[], byte[]> e = entries.next();
+                if (!filter.test(e)) {
+                    continue;
+                }
+                if (writeBehind != null) {
+                    K key = keyCodec.decode(e.getKey());
+                    removed += (byValue ? remove(key, valueCodec.decode(e.getValue())) : deleteField(key)) ? 1 : 0;
+                    continue;
+                }
+                int shard = shards.indexOf(e.getKey());
+                List<byte[]> batch = batches.get(shard);
+                batch.add(e.getKey());
+                if (byValue) {
+                    batch.add(e.getValue());
+                }
+                if (batch.size() >= (byValue ? 2 : 1) * MAX_FIELDS_PER_COMMAND) {
+                    removed += removeBatch(shard, batch, byValue);
+                }
+            }
+            for (int i = 0; i < shards.count(); i++) {
+                if (!batches.get(i).isEmpty()) {
+                    removed += removeBatch(i, batches.get(i), byValue);
+                }
+            }
+            return removed > 0;
+        });
+    }
+
+    /**
+     * Removes a batch of fields, or of field and expected value pairs, from one hash
+     */
+    private long removeBatch(int shard, List<byte[]> batch, boolean byValue) {
+        long removed = 0;
+        if (!byValue) {
+            removed = deleteAll(shard, batch);
+        } else if (companions != null) {
+            for (int i = 0; i < batch.size(); i += 2) {
+                removed += companions.update(binary, batch.get(i), HashCompanions.Condition.EQUALS, batch.get(i + 1), null)
+                        .applied() ? 1 : 0;
+            }
+        } else {
+            removed = (Long) Scripts.COMPARE_AND_DELETE_ALL.eval(binary, List.of(shards.binaryKeys().get(shard)), batch);
+        }
+        batch.clear();
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] encodeKey(Object key) {
+        return keyCodec.encode((K) key);
+    }
+
+    private V decodeValue(byte[] value) {
+        return (value != null) ? valueCodec.decode(value) : null;
+    }
+
+    private static boolean isUnknownCommand(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("ERR unknown command");
+    }
+
+    private static boolean isOverflow(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("OVERFLOW");
     }
 
     /**
@@ -103,12 +798,45 @@ public class RedisMap implements Map<String,Integer> {
      * @param map map to be inserted into the redis
      */
     @Override
-    public void putAll(Map<? extends String, ? extends Integer> map) {
-        Map<String, String> toStore = new HashMap<>();
-        for (Entry<? extends String, ? extends Integer> e : map.entrySet()) {
-            toStore.put(e.getKey(), e.getValue().toString());
+    public void putAll(Map<? extends K, ? extends V> map) {
+        instrumentation.run(Operation.PUT_ALL, () -> {
+            if (map.isEmpty()) {
+                return;
+            }
+            if (writeBehind != null) {
+                map.forEach(this::set);
+                return;
+            }
+            List<Map<byte[], byte[]>> toStore = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                toStore.add(new HashMap<>());
+            }
+            for (Entry<? extends K, ? extends V> e : map.entrySet()) {
+                byte[] field = keyCodec.encode(e.getKey());
+                toStore.get(shards.indexOf(field)).put(field, valueCodec.encode(e.getValue()));
+            }
+            setAll(toStore);
+        });
+    }
+
+    /**
+     * Writes entries grouped by hash, every hash with a single command
+     */
+    private void setAll(List<Map<byte[], byte[]>> toStore) {
+        shards.mapIndexed(i -> {
+            if (toStore.get(i).isEmpty()) {
+                return null;
+            }
+            if (companions != null) {
+                companions.setAll(binary, i, toStore.get(i));
+            } else {
+                binary.hset(shards.binaryKeys().get(i), toStore.get(i));
+            }
+            return null;
+        });
+        if (nearCache != null) {
+            nearCache.invalidateAll();
         }
-        commands.hset(redisHashKey, toStore);
     }
 
     /**
@@ -116,49 +844,1556 @@ public class RedisMap implements Map<String,Integer> {
      */
     @Override
     public void clear() {
-        commands.del(redisHashKey);
+        instrumentation.run(Operation.CLEAR, () -> {
+            if (writeBehind != null) {
+                writeBehind.discardAndRun(this::deleteHashes);
+            } else {
+                deleteHashes();
+            }
+            if (nearCache != null) {
+                nearCache.invalidateAll();
+            }
+        });
+    }
+
+    private void deleteHashes() {
+        if (companions != null) {
+            shards.mapIndexed(i -> {
+                companions.delete(binary, i);
+                return null;
+            });
+        } else {
+            shards.mapIndexed(i -> binary.del(shards.binaryKeys().get(i)));
+        }
+    }
+
+    private void invalidate(Object key) {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Creates an entry unless an entry with that key exists, atomically and in a single round trip
+     * @param key key
+     * @param value value
+     * @return current value if an entry with such key exists, or NULL if the entry was created
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return instrumentation.call(Operation.PUT_IF_ABSENT, () -> {
+            return runScript(Scripts.PUT_IF_ABSENT, HashCompanions.Condition.ABSENT, key, valueCodec.encode(value));
+        });
+    }
+
+    /**
+     * Replaces value of an existing entry, atomically and in a single round trip
+     * @param key key
+     * @param value new value
+     * @return previous value, or NULL if an entry with such key does not exist and nothing was changed
+     */
+    @Override
+    public V replace(K key, V value) {
+        return instrumentation.call(Operation.REPLACE, () -> {
+            return runScript(Scripts.REPLACE, HashCompanions.Condition.PRESENT, key, valueCodec.encode(value));
+        });
+    }
+
+    /**
+     * Replaces value of an entry only if it currently has the expected value, it is a compare-and-set run by redis
+     * @param key key
+     * @param oldValue expected value
+     * @param newValue new value
+     * @return whether the value was replaced
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return instrumentation.call(Operation.REPLACE, () -> {
+            flushIfBuffered(key);
+            byte[] field = keyCodec.encode(key);
+            return compareAndSet(key, field, shards.keyFor(field), valueCodec.encode(oldValue), newValue);
+        });
     }
 
     /**
-     * Returns a set of keys that are present in redis
-     * @return a set of keys that are present in redis
+     * Removes an entry only if it currently has the expected value, it is a compare-and-delete run by redis
+     * @param key key of entry to be removed
+     * @param value expected value
+     * @return whether the entry was removed
      */
     @Override
-    public Set<String> keySet() {
-        return commands.hkeys(redisHashKey);
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        return instrumentation.call(Operation.REMOVE, () -> {
+            if (value == null) {
+                return false;
+            }
+            flushIfBuffered(key);
+            byte[] field = encodeKey(key);
+            return compareAndSet((K) key, field, shards.keyFor(field), valueCodec.encode((V) value), null);
+        });
     }
 
     /**
-     * Returns a collection of values that are present in redis
-     * @return a collection of values that are present in redis
+     * Computes a value for a missing entry, the value is stored with HSETNX, so a value stored concurrently by another
+     * client is never overwritten and is returned instead. The function may be called again if that happens
+     * @param key key
+     * @param mappingFunction computes the value, returning NULL leaves the entry missing
+     * @return current value of the entry, or NULL if it is missing
      */
     @Override
-    public Collection<Integer> values() {
-        return commands.hvals(redisHashKey).stream()
-                .map(Integer::valueOf)
-                .collect(Collectors.toList());
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return instrumentation.call(Operation.COMPUTE, () -> {
+            flushIfBuffered(key);
+            byte[] field = keyCodec.encode(key);
+            byte[] shardKey = shards.keyFor(field);
+            while (true) {
+                byte[] current = binary.hget(shardKey, field);
+                if (current != null) {
+                    return valueCodec.decode(current);
+                }
+                V value = mappingFunction.apply(key);
+                if (value == null || compareAndSet(key, field, shardKey, null, value)) {
+                    return value;
+                }
+            }
+        });
     }
 
     /**
-     * Returns a set of entries that are present in redis
-     * @return a set of entries that are present in redis
+     * Computes a new value for an existing entry with an optimistic compare-and-set,
+     * the function is called again with a fresh value if the entry was modified concurrently
+     * @param key key
+     * @param remappingFunction computes the new value from the current one, returning NULL removes the entry
+     * @return new value, or NULL if the entry is missing or was removed
      */
     @Override
-    public Set<Entry<String,Integer>> entrySet() {
-        return commands.hgetAll(redisHashKey).entrySet().stream()
-                .map(e -> new AbstractMap.SimpleEntry<>(e.getKey(), Integer.valueOf(e.getValue())))
-                .collect(Collectors.toSet());
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return instrumentation.call(Operation.COMPUTE, () -> {
+            return update(key, (k, current) -> current == null ? null : remappingFunction.apply(k, current), true);
+        });
     }
 
+    /**
+     * Computes a new value of an entry with an optimistic compare-and-set,
+     * the function is called again with a fresh value if the entry was modified concurrently
+     * @param key key
+     * @param remappingFunction computes the new value from the current one or NULL, returning NULL removes the entry
+     * @return new value, or NULL if the entry is missing
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return instrumentation.call(Operation.COMPUTE, () -> {
+            return update(key, remappingFunction, false);
+        });
+    }
+
+    /**
+     * Merges the value into an entry with an optimistic compare-and-set,
+     * the function is called again with a fresh value if the entry was modified concurrently.
+     * Numbers stored with {@link Codecs#decimalInt()} are added without any retries by {@link #addAndGet(Object, int)}
+     * @param key key
+     * @param value value stored if the entry is missing
+     * @param remappingFunction merges the current value with the given one, returning NULL removes the entry
+     * @return new value, or NULL if the entry was removed
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return instrumentation.call(Operation.MERGE, () -> {
+            Objects.requireNonNull(value, "value");
+            return update(key, (k, current) -> current == null ? value : remappingFunction.apply(current, value), false);
+        });
+    }
+
+    /**
+     * Replaces every value while paging through redis with HSCAN. New values of a page are written with a single
+     * compare-and-set script per hash, entries modified concurrently are recomputed one by one
+     * @param function computes the new value of an entry
+     */
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        instrumentation.run(Operation.REPLACE_ALL, () -> {
+            Objects.requireNonNull(function, "function");
+            List<List<byte[]>> batches = new ArrayList<>(shards.count());
+            List<List<K>> batchKeys = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                batches.add(new ArrayList<>());
+                batchKeys.add(new ArrayList<>());
+            }
+            scan(e -> e).forEachRemaining(e -> {
+                K key = keyCodec.decode(e.getKey());
+                V value = Objects.requireNonNull(function.apply(key, valueCodec.decode(e.getValue())), "new value");
+                int shard = shards.indexOf(e.getKey());
+                List<byte[]> batch = batches.get(shard);
+                batch.add(e.getKey());
+                batch.add(e.getValue());
+                batch.add(valueCodec.encode(value));
+                batchKeys.get(shard).add(key);
+                if (batchKeys.get(shard).size() >= scanCount) {
+                    replaceBatch(shard, batch, batchKeys.get(shard), function);
+                }
+            });
+            for (int i = 0; i < shards.count(); i++) {
+                if (!batchKeys.get(i).isEmpty()) {
+                    replaceBatch(i, batches.get(i), batchKeys.get(i), function);
+                }
+            }
+            if (nearCache != null) {
+                nearCache.invalidateAll();
+            }
+        });
+    }
+
+    private void replaceBatch(int shard, List<byte[]> batch, List<K> keys,
+                              BiFunction<? super K, ? super V, ? extends V> function) {
+        List<?> replaced = companions != null
+                ? replaceIndexed(batch)
+                : (List<?>) Scripts.COMPARE_AND_SET_ALL.eval(binary, List.of(shards.binaryKeys().get(shard)), batch);
+        for (int i = 0; i < keys.size(); i++) {
+            if ((Long) replaced.get(i) == 0) {
+                computeIfPresent(keys.get(i), function);
+            }
+        }
+        batch.clear();
+        keys.clear();
+    }
+
+    /**
+     * Replaces field/expected/value triplets one by one, since index scripts update a single field
+     */
+    private List<Long> replaceIndexed(List<byte[]> batch) {
+        List<Long> replaced = new ArrayList<>(batch.size() / 3);
+        for (int i = 0; i < batch.size(); i += 3) {
+            boolean applied = companions.update(binary, batch.get(i), HashCompanions.Condition.EQUALS, batch.get(i + 1),
+                    batch.get(i + 2)).applied();
+            replaced.add(applied ? 1L : 0L);
+        }
+        return replaced;
+    }
+
+    /**
+     * Optimistic loop: reads the current value, computes the new one and stores it only if the value is still the same
+     */
+    private V update(K key, BiFunction<? super K, ? super V, ? extends V> function, boolean onlyIfPresent) {
+        flushIfBuffered(key);
+        byte[] field = keyCodec.encode(key);
+        byte[] shardKey = shards.keyFor(field);
+        while (true) {
+            byte[] current = binary.hget(shardKey, field);
+            if (current == null && onlyIfPresent) {
+                return null;
+            }
+            V value = function.apply(key, decodeValue(current));
+            if (compareAndSet(key, field, shardKey, current, value)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Stores the value only if the field still has the expected value
+     * @param expected expected encoded value, NULL if the field is expected to be missing
+     * @param value new value, NULL to remove the field
+     * @return whether redis had the expected value
+     */
+    private boolean compareAndSet(K key, byte[] field, byte[] shardKey, byte[] expected, V value) {
+        boolean success;
+        if (expected == null && value == null) {
+            return true;
+        } else if (companions != null) {
+            success = companions.update(binary, field,
+                    expected == null ? HashCompanions.Condition.ABSENT : HashCompanions.Condition.EQUALS, expected,
+                    value == null ? null : valueCodec.encode(value)).applied();
+        } else if (expected == null) {
+            success = binary.hsetnx(shardKey, field, valueCodec.encode(value)) == 1;
+        } else if (value == null) {
+            success = (Long) Scripts.COMPARE_AND_DELETE.eval(binary, List.of(shardKey), List.of(field, expected)) == 1;
+        } else {
+            success = (Long) Scripts.COMPARE_AND_SET.eval(binary, List.of(shardKey),
+                    List.of(field, expected, valueCodec.encode(value))) == 1;
+        }
+        if (success) {
+            invalidate(key);
+        }
+        return success;
+    }
+
+    private V runScript(LuaScript script, HashCompanions.Condition condition, K key, byte[] value) {
+        flushIfBuffered(key);
+        byte[] field = keyCodec.encode(key);
+        Object old = companions != null
+                ? companions.update(binary, field, condition, null, value).old()
+                : script.eval(binary, List.of(shards.keyFor(field)), List.of(field, value));
+        invalidate(key);
+        return decodeValue((byte[]) old);
+    }
+
+    /**
+     * Compound operations are run by redis, so a buffered write of the key has to get there first
+     */
+    private void flushIfBuffered(Object key) {
+        if (writeBehind != null && writeBehind.lookup(key) != null) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns int value from an entry with that key without boxing it
+     * @param key the key whose value is to be returned
+     * @param defaultValue value returned if an entry with such key does not exist
+     * @return value from an entry with that key, or default value if an entry with such key does not exist
+     * @throws UnsupportedOperationException if values are not encoded with an {@link IntCodec}
+     */
+    public int getInt(K key, int defaultValue) {
+        return instrumentation.callInt(Operation.GET_INT, () -> {
+            IntCodec codec = intCodec();
+            if (writeBehind != null) {
+                Object buffered = writeBehind.lookup(key);
+                if (buffered != null) {
+                    return buffered != WriteBehindBuffer.TOMBSTONE ? codec.decodeInt((byte[]) buffered) : defaultValue;
+                }
+            }
+            if (nearCache == null) {
+                byte[] value = fetchEncoded(key);
+                return (value != null) ? codec.decodeInt(value) : defaultValue;
+            }
+            Object cached = nearCache.lookup(key);
+            if (cached != null) {
+                return cached != NearCache.ABSENT ? (Integer) cached : defaultValue;
+            }
+            long epoch = nearCache.epoch();
+            byte[] value = fetchEncoded(key);
+            // the cache holds objects, so only the cached copy is boxed
+            nearCache.store(key, (value != null) ? codec.decode(value) : null, epoch);
+            return (value != null) ? codec.decodeInt(value) : defaultValue;
+        });
+    }
+
+    /**
+     * Same as set but takes an int, so it is a plain HSET without boxing
+     * @param key key
+     * @param value value
+     * @throws UnsupportedOperationException if values are not encoded with an {@link IntCodec}
+     */
+    public void putInt(K key, int value) {
+        instrumentation.run(Operation.PUT_INT, () -> {
+            setEncoded(key, intCodec().encodeInt(value));
+        });
+    }
+
+    /**
+     * Adds delta to the value of an entry with that key atomically, with HINCRBY in a script that checks the sum first,
+     * a missing entry counts as 0.
+     * With write behind a buffered write of the key is flushed first, so it does not overwrite the result later
+     * @param key key
+     * @param delta value to be added, can be negative
+     * @return value after the addition
+     * @throws UnsupportedOperationException if values are not encoded with {@link Codecs#decimalInt()}, the format of HINCRBY
+     * @throws ArithmeticException if the result does not fit into an int, nothing is written then
+     */
+    public int addAndGet(K key, int delta) {
+        return instrumentation.callInt(Operation.ADD_AND_GET, () -> {
+            if (valueCodec != Codecs.decimalInt()) {
+                throw new UnsupportedOperationException("HINCRBY requires values encoded with Codecs.decimalInt()");
+            }
+            flushIfBuffered(key);
+            byte[] field = keyCodec.encode(key);
+            long result;
+            try {
+                result = companions != null
+                        ? companions.increment(binary, field, delta)
+                        : (Long) Scripts.INCREMENT.eval(binary, List.of(shards.keyFor(field)),
+                                List.of(field, Codecs.encodeDecimal(delta)));
+            } catch (JedisDataException e) {
+                if (isOverflow(e)) {
+                    throw new ArithmeticException("Value of " + key + " overflows int");
+                }
+                throw e;
+            }
+            invalidate(key);
+            return (int) result;
+        });
+    }
+
+    /**
+     * Same as {@link #batch(int, Consumer)} with {@link #DEFAULT_BATCH_RETRIES} retries
+     * @param writes collects the writes of the batch, it may be called several times
+     * @return old values of the keys in the order of writes, NULL for keys that did not exist
+     */
+    public List<V> batch(Consumer<RedisMapBatch<K, V>> writes) {
+        return batch(DEFAULT_BATCH_RETRIES, writes);
+    }
+
+    /**
+     * Applies puts, removes and increments collected by writes atomically, in one Lua script and a single round trip.
+     * Values read through {@link RedisMapBatch#get} make the batch conditional, optimistic like WATCH but per field:
+     * if another client changed one of them before the batch arrived, nothing is written and writes are called again
+     * on a new batch, so they should have no other side effects. With write behind buffered writes are flushed first.
+     * See {@link #batchStats()} for how often batches conflict
+     * @param maxRetries number of times a conflicting batch is collected again
+     * @param writes collects the writes of the batch, all keys of a batch have to be in the same redis hash
+     * @return old values of the keys in the order of writes, NULL for keys that did not exist
+     * @throws java.util.ConcurrentModificationException if the batch still conflicts after maxRetries retries
+     * @throws ArithmeticException if an increment does not fit into an int, nothing is written then
+     * @throws UnsupportedOperationException if the map keeps companions, i.e. a value index, a content digest,
+     * expiry, bounds or a local replica, batches write the hash only
+     */
+    public List<V> batch(int maxRetries, Consumer<RedisMapBatch<K, V>> writes) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+        }
+        return instrumentation.call(Operation.BATCH, () -> {
+            if (companions != null) {
+                throw new UnsupportedOperationException("Batches cannot keep a value index, a content digest, expiry,"
+                        + " bounds or a local replica up to date");
+            }
+            flush();
+            for (int attempt = 0; ; attempt++) {
+                RedisMapBatch<K, V> batch = new RedisMapBatch<>(binary, shards, keyCodec, valueCodec);
+                writes.accept(batch);
+                if (batch.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                batchCounters.attempts.increment();
+                List<byte[]> old;
+                try {
+                    old = batch.apply();
+                } catch (JedisDataException e) {
+                    if (isOverflow(e)) {
+                        throw new ArithmeticException("Value of " + e.getMessage().substring("OVERFLOW ".length())
+                                + " overflows int");
+                    }
+                    throw e;
+                }
+                if (old != null) {
+                    batch.writtenKeys().forEach(this::invalidate);
+                    batchCounters.batches.increment();
+                    List<V> values = new ArrayList<>(old.size());
+                    for (byte[] value : old) {
+                        values.add(decodeValue(value));
+                    }
+                    return values;
+                }
+                batchCounters.conflicts.increment();
+                if (attempt >= maxRetries) {
+                    batchCounters.failed.increment();
+                    throw new ConcurrentModificationException("Values read by the batch kept changing, gave up after "
+                            + maxRetries + " retries");
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs the action for each entry while paging through redis with HSCAN, values are passed without boxing
+     * @param action the action to be performed for each entry
+     * @throws UnsupportedOperationException if values are not encoded with an {@link IntCodec}
+     */
+    public void forEachInt(ObjIntConsumer<? super K> action) {
+        instrumentation.run(Operation.FOR_EACH, () -> {
+            IntCodec codec = intCodec();
+            scan(e -> e).forEachRemaining(e -> action.accept(keyCodec.decode(e.getKey()), codec.decodeInt(e.getValue())));
+        });
+    }
+
+    /**
+     * Returns int values of entries with those keys, reading every hash with a single HMGET
+     * @param keys keys whose values are to be returned
+     * @param defaultValue value returned for keys that do not have an entry
+     * @return values in the order of keys
+     * @throws UnsupportedOperationException if values are not encoded with an {@link IntCodec}
+     */
+    public int[] getAllInt(List<? extends K> keys, int defaultValue) {
+        return instrumentation.call(Operation.GET_ALL_INT, () -> {
+            IntCodec codec = intCodec();
+            int[] values = new int[keys.size()];
+            byte[][] fields = new byte[keys.size()][];
+            int[] shardOf = new int[keys.size()];
+            int[] counts = new int[shards.count()];
+            for (int i = 0; i < keys.size(); i++) {
+                Object buffered = writeBehind != null ? writeBehind.lookup(keys.get(i)) : null;
+                if (buffered != null) {
+                    values[i] = buffered != WriteBehindBuffer.TOMBSTONE ? codec.decodeInt((byte[]) buffered) : defaultValue;
+                    shardOf[i] = -1;
+                    continue;
+                }
+                fields[i] = keyCodec.encode(keys.get(i));
+                shardOf[i] = shards.indexOf(fields[i]);
+                counts[shardOf[i]]++;
+            }
+            int[][] positions = new int[shards.count()][];
+            for (int s = 0; s < shards.count(); s++) {
+                positions[s] = new int[counts[s]];
+                counts[s] = 0;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (shardOf[i] >= 0) {
+                    positions[shardOf[i]][counts[shardOf[i]]++] = i;
+                }
+            }
+            List<List<byte[]>> replies = shards.mapIndexed(s -> {
+                if (positions[s].length == 0) {
+                    return List.of();
+                }
+                byte[][] shardFields = new byte[positions[s].length][];
+                for (int j = 0; j < shardFields.length; j++) {
+                    shardFields[j] = fields[positions[s][j]];
+                }
+                return companions != null && companions.bounded()
+                        ? companions.getAll(binary, s, Arrays.asList(shardFields))
+                        : reads.hmget(shards.binaryKeys().get(s), shardFields);
+            });
+            for (int s = 0; s < shards.count(); s++) {
+                List<byte[]> reply = replies.get(s);
+                for (int j = 0; j < positions[s].length; j++) {
+                    byte[] value = reply.get(j);
+                    values[positions[s][j]] = (value != null) ? codec.decodeInt(value) : defaultValue;
+                }
+            }
+            return values;
+        });
+    }
+
+    /**
+     * Same as putAll but takes ints, every hash is written with a single HSET
+     * @param keys keys
+     * @param values values in the order of keys
+     * @throws UnsupportedOperationException if values are not encoded with an {@link IntCodec}
+     * @throws IllegalArgumentException if there are not as many values as keys
+     */
+    public void putAllInt(List<? extends K> keys, int[] values) {
+        instrumentation.run(Operation.PUT_ALL_INT, () -> {
+            if (keys.size() != values.length) {
+                throw new IllegalArgumentException(keys.size() + " keys but " + values.length + " values");
+            }
+            IntCodec codec = intCodec();
+            if (writeBehind != null) {
+                for (int i = 0; i < values.length; i++) {
+                    setEncoded(keys.get(i), codec.encodeInt(values[i]));
+                }
+                return;
+            }
+            List<Map<byte[], byte[]>> toStore = new ArrayList<>(shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                toStore.add(new HashMap<>());
+            }
+            for (int i = 0; i < values.length; i++) {
+                byte[] field = keyCodec.encode(keys.get(i));
+                toStore.get(shards.indexOf(field)).put(field, codec.encodeInt(values[i]));
+            }
+            setAll(toStore);
+        });
+    }
+
+    private IntCodec intCodec() {
+        if (valueCodec instanceof IntCodec codec) {
+            return codec;
+        }
+        throw new UnsupportedOperationException("Values of " + redisHashKey + " are not encoded with an IntCodec");
+    }
+
+    /**
+     * Returns a live view of keys that are present in redis.
+     * The view does not hold any data, iteration pages through redis with HSCAN
+     * @return a live view of keys that are present in redis
+     */
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    /**
+     * Returns a live view of values that are present in redis.
+     * The view does not hold any data, iteration pages through redis with HSCAN
+     * @return a live view of values that are present in redis
+     */
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    /**
+     * Returns a live view of entries that are present in redis.
+     * The view does not hold any data, iteration pages through redis with HSCAN
+     * @return a live view of entries that are present in redis
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    /**
+     * Performs the action for each entry while paging through redis with HSCAN
+     * @param action the action to be performed for each entry
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        instrumentation.run(Operation.FOR_EACH, () -> {
+            scan(e -> e).forEachRemaining(e -> action.accept(keyCodec.decode(e.getKey()), valueCodec.decode(e.getValue())));
+        });
+    }
+
+    private <T> HashScan<T> scan(Function<Entry<byte[], byte[]>, T> mapper) {
+        flush();
+        return new HashScan<>(scanBinary, shards.binaryKeys(), scanCount, mapper);
+    }
+
+    /**
+     * Returns near cache counters
+     * @return near cache counters
+     * @throws IllegalStateException if the map was built without near cache
+     */
+    public NearCache.Stats nearCacheStats() {
+        if (nearCache == null) {
+            throw new IllegalStateException("Near cache is not enabled for " + redisHashKey);
+        }
+        return nearCache.stats();
+    }
+
+    /**
+     * Returns a non-blocking companion of this map that pipelines concurrent operations
+     * @return async map, it has to be closed separately from this map
+     * @throws IllegalArgumentException if commands of this map are not thread safe, e.g. a single Jedis connection
+     */
+    public AsyncRedisMap<K, V> async() {
+        return new AsyncRedisMap<>(this);
+    }
+
+    /**
+     * Returns a streaming bulk importer and exporter of this map
+     * @return transfer with default settings
+     */
+    public RedisMapTransfer<K, V> transfer() {
+        return new RedisMapTransfer<>(this);
+    }
+
+    JedisCommands commands() {
+        return commands;
+    }
+
+    Codec<K> keyCodec() {
+        return keyCodec;
+    }
+
+    Codec<V> valueCodec() {
+        return valueCodec;
+    }
+
+    Shards shards() {
+        return shards;
+    }
+
+    NearCache nearCache() {
+        return nearCache;
+    }
+
+    WriteBehindBuffer<K> writeBehind() {
+        return writeBehind;
+    }
+
+    HashCompanions companions() {
+        return companions;
+    }
+
+    /**
+     * Writes all buffered writes to redis, it is a durability barrier for all writes made through this map before the call.
+     * Does nothing unless write behind is enabled
+     */
+    public void flush() {
+        instrumentation.run(Operation.FLUSH, () -> {
+            if (writeBehind != null) {
+                writeBehind.flush();
+            }
+        });
+    }
+
+    /**
+     * Returns write behind counters
+     * @return write behind counters
+     * @throws IllegalStateException if the map was built without write behind
+     */
+    public WriteBehindStats writeBehindStats() {
+        if (writeBehind == null) {
+            throw new IllegalStateException("Write behind is not enabled for " + redisHashKey);
+        }
+        return writeBehind.stats();
+    }
+
+    /**
+     * Returns eviction counters of a bounded map, read from redis, so they include evictions caused by other clients
+     * @return eviction counters
+     * @throws IllegalStateException if the map was built without maxEntries
+     */
+    public EvictionStats evictionStats() {
+        if (companions == null || !companions.bounded()) {
+            throw new IllegalStateException("Eviction is not enabled for " + redisHashKey);
+        }
+        long evictions = 0;
+        for (long shardEvictions : shards.mapIndexed(i -> companions.evictions(binary, i))) {
+            evictions += shardEvictions;
+        }
+        return new EvictionStats(evictions, size(), companions.maxEntries());
+    }
+
+    /**
+     * Returns counters of reads routed to replicas and masters
+     * @return replica read counters
+     * @throws IllegalStateException if the map was built to read from masters only
+     */
+    public ReplicaReadStats replicaReadStats() {
+        if (replicaReads == null) {
+            throw new IllegalStateException("Replica reads are not enabled for " + redisHashKey);
+        }
+        return replicaReads.stats();
+    }
+
+    /**
+     * Returns counters of deadlines, hedged reads and circuit breakers, including the 99th percentile of read latency
+     * with and without hedging
+     * @return resilience counters
+     * @throws IllegalStateException if the map was built without deadline, hedged reads and circuit breaker
+     */
+    public ResilienceStats resilienceStats() {
+        if (resilience == null) {
+            throw new IllegalStateException("Deadlines, hedged reads and circuit breaker are not enabled for "
+                    + redisHashKey);
+        }
+        return resilience.stats();
+    }
+
+    /**
+     * Returns counters of batches of writes, including how many attempts conflicted with other clients
+     * @return batch counters
+     */
+    public BatchStats batchStats() {
+        return batchCounters.stats();
+    }
+
+    /**
+     * Returns counters of batched reads, including how many reads one HMGET answered on average
+     * @return batching counters
+     * @throws IllegalStateException if the map was built without batching of gets
+     */
+    public GetBatchStats getBatchStats() {
+        if (getBatcher == null) {
+            throw new IllegalStateException("Batching of gets is not enabled for " + redisHashKey);
+        }
+        return getBatcher.stats();
+    }
+
+    /**
+     * Returns counters of the in-memory mirror of the map, including how stale its most lagging hash is
+     * @return local replica counters
+     * @throws IllegalStateException if the map was built without a local replica
+     */
+    public LocalReplicaStats localReplicaStats() {
+        return requireLocalReplica().stats();
+    }
+
+    /**
+     * Waits until the in-memory mirror has applied every change made to the map before the call, by any client,
+     * so reads that follow see them. Costs a round trip per hash and as long as the changes take to arrive,
+     * at most the maximum staleness, after which reads go to redis until the mirror catches up
+     * @throws IllegalStateException if the map was built without a local replica
+     */
+    public void syncReplica() {
+        requireLocalReplica().sync();
+    }
+
+    private LocalReplica requireLocalReplica() {
+        if (localReplica == null) {
+            throw new IllegalStateException("Local replica is not enabled for " + redisHashKey);
+        }
+        return localReplica;
+    }
+
+    /**
+     * Flushes buffered writes and releases resources held by optional features, the data in redis stays untouched.
+     * Resources are released even if the final flush fails, its exception is thrown afterwards
+     */
+    @Override
+    public void close() {
+        try {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+        } finally {
+            if (replicaReads != null) {
+                replicaReads.close();
+            }
+            if (resilience != null) {
+                resilience.close();
+            }
+            if (localReplica != null) {
+                localReplica.close();
+            }
+            if (invalidationListener != null) {
+                invalidationListener.close();
+            }
+            shards.close();
+        }
+    }
+
+    /**
+     * Compares entries while paging through redis with HSCAN.
+     * With content digest maps of different hash codes are told apart before any entry is read, the hash code of
+     * another map is only asked for if it is cheap, i.e. the other map is not a redis map without content digest
+     * @param o object to be compared with
+     * @return whether the object is a map with the same entries
+     */
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof Map map)) return false;
-        return Objects.equals(entrySet(), map.entrySet());
+        return instrumentation.call(Operation.EQUALS, () -> {
+            if (o == this) return true;
+            if (!(o instanceof Map<?, ?> map)) return false;
+            if (map.size() != size()) return false;
+            boolean cheapHashCodes = hasDigest() && (!(o instanceof RedisMap<?, ?> other) || other.hasDigest());
+            if (cheapHashCodes && map.hashCode() != hashCode()) {
+                return false;
+            }
+            Iterator<Entry<byte[], byte[]>> entries = Spliterators.iterator(scan(e -> e));
+            while (entries.hasNext()) {
+                Entry<byte[], byte[]> e = entries.next();
+                if (!valueCodec.decode(e.getValue()).equals(map.get(keyCodec.decode(e.getKey())))) {
+                    return false;
+                }
+            }
+            return true;
+        });
     }
 
+    /**
+     * Sums hash codes of entries while paging through redis with HSCAN, with content digest reads the sum kept by redis
+     * @return hash code as defined by java.util.Map
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(entrySet().hashCode());
+        return instrumentation.call(Operation.HASH_CODE, () -> {
+            if (hasDigest()) {
+                flush();
+                int sum = 0;
+                for (int shardSum : shards.mapIndexed(i -> companions.digest(binary, i))) {
+                    sum += shardSum;
+                }
+                return sum;
+            }
+            int[] hash = {0};
+            scan(e -> e).forEachRemaining(e ->
+                    hash[0] += keyCodec.decode(e.getKey()).hashCode() ^ valueCodec.decode(e.getValue()).hashCode());
+            return hash[0];
+        });
+    }
+
+    private boolean hasDigest() {
+        return companions != null && companions.digest();
+    }
+
+    /**
+     * Iterator over a scan that removes entries from redis
+     */
+    private class ScanIterator<T> implements Iterator<T> {
+        private final HashScan<Entry<byte[], byte[]>> scan = scan(e -> e);
+        private final Function<Entry<byte[], byte[]>, T> mapper;
+        private Entry<byte[], byte[]> next;
+        private Entry<byte[], byte[]> last;
+
+        private ScanIterator(Function<Entry<byte[], byte[]>, T> mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null || scan.tryAdvance(e -> next = e);
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = null;
+            return mapper.apply(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            deleteField(keyCodec.decode(last.getKey()));
+            last = null;
+        }
+    }
+
+    /**
+     * Entry whose value is written through to redis
+     */
+    private class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private WriteThroughEntry(Entry<byte[], byte[]> e) {
+            super(keyCodec.decode(e.getKey()), valueCodec.decode(e.getValue()));
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new ScanIterator<>(e -> keyCodec.decode(e.getKey()));
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return scan(e -> keyCodec.decode(e.getKey()));
+        }
+
+        @Override
+        public int size() {
+            return RedisMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return RedisMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return deleteField(o);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return RedisMap.this.removeAll(c) > 0;
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            Objects.requireNonNull(c, "c");
+            return removeMatching(e -> !c.contains(keyCodec.decode(e.getKey())), false);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super K> filter) {
+            Objects.requireNonNull(filter, "filter");
+            return removeMatching(e -> filter.test(keyCodec.decode(e.getKey())), false);
+        }
+
+        @Override
+        public void clear() {
+            RedisMap.this.clear();
+        }
+    }
+
+    /**
+     * Values are exposed as a list so they keep order in which redis returns them,
+     * the list can only be traversed forward
+     */
+    private class Values extends AbstractSequentialList<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ScanIterator<>(e -> valueCodec.decode(e.getValue()));
+        }
+
+        @Override
+        public ListIterator<V> listIterator(int index) {
+            Iterator<V> iterator = iterator();
+            for (int i = 0; i < index; i++) {
+                if (!iterator.hasNext()) {
+                    throw new IndexOutOfBoundsException("Index: " + index);
+                }
+                iterator.next();
+            }
+            return new ForwardListIterator<>(iterator, index);
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return scan(e -> valueCodec.decode(e.getValue()));
+        }
+
+        @Override
+        public int size() {
+            return RedisMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return RedisMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            Objects.requireNonNull(c, "c");
+            return removeMatching(e -> c.contains(valueCodec.decode(e.getValue())), true);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            Objects.requireNonNull(c, "c");
+            return removeMatching(e -> !c.contains(valueCodec.decode(e.getValue())), true);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super V> filter) {
+            Objects.requireNonNull(filter, "filter");
+            return removeMatching(e -> filter.test(valueCodec.decode(e.getValue())), true);
+        }
+
+        @Override
+        public void clear() {
+            RedisMap.this.clear();
+        }
     }
 
+    private class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new ScanIterator<>(WriteThroughEntry::new);
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            return scan(WriteThroughEntry::new);
+        }
+
+        @Override
+        public int size() {
+            return RedisMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return RedisMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Entry<?, ?> e && e.getValue() != null && e.getValue().equals(get(e.getKey()));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return o instanceof Entry<?, ?> e && e.getValue() != null && RedisMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            Objects.requireNonNull(c, "c");
+            return removeMatching(e -> c.contains(new WriteThroughEntry(e)), true);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            Objects.requireNonNull(c, "c");
+            return removeMatching(e -> !c.contains(new WriteThroughEntry(e)), true);
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Entry<K, V>> filter) {
+            Objects.requireNonNull(filter, "filter");
+            return removeMatching(e -> filter.test(new WriteThroughEntry(e)), true);
+        }
+
+        @Override
+        public void clear() {
+            RedisMap.this.clear();
+        }
+    }
+
+    /**
+     * List iterator that supports only forward traversal
+     */
+    private static class ForwardListIterator<T> implements ListIterator<T> {
+        private final Iterator<T> iterator;
+        private int index;
+
+        private ForwardListIterator(Iterator<T> iterator, int index) {
+            this.iterator = iterator;
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            T next = iterator.next();
+            index++;
+            return next;
+        }
+
+        @Override
+        public int nextIndex() {
+            return index;
+        }
+
+        @Override
+        public int previousIndex() {
+            return index - 1;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            throw new UnsupportedOperationException("Values can only be traversed forward");
+        }
+
+        @Override
+        public T previous() {
+            throw new UnsupportedOperationException("Values can only be traversed forward");
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+            index--;
+        }
+
+        @Override
+        public void set(T t) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(T t) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Builder of redis map with optional features
+     * @param <K> type of keys
+     * @param <V> type of values
+     */
+    public static class Builder<K, V> {
+        private final JedisCommands commands;
+        private final String redisHashKey;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private int nearCacheMaxEntries;
+        private NearCache.Invalidation invalidation = NearCache.Invalidation.AUTO;
+        private Supplier<Connection> invalidationConnections;
+        private int shards = 1;
+        private int scanCount = DEFAULT_SCAN_COUNT;
+        private int writeBehindBatchSize;
+        private Duration writeBehindInterval;
+        private boolean valueIndex;
+        private boolean contentDigest;
+        private Duration expireAfterWrite;
+        private long maxEntries;
+        private EvictionPolicy evictionPolicy;
+        private ReadFrom readFrom = ReadFrom.MASTER;
+        private long maxReplicaLagBytes = -1;
+        private Supplier<? extends Map<String, ? extends Pool<Connection>>> replicaNodes;
+        private Supplier<Connection> replicaControl;
+        private Duration deadline;
+        private double hedgeQuantile;
+        private int circuitFailures;
+        private Duration circuitOpenFor;
+        private Duration localReplicaStaleness;
+        private Duration batchWindow;
+        private int maxBatch;
+        private RedisMapListener listener;
+        private boolean jfrEvents;
+
+        private Builder(JedisCommands commands, String redisHashKey, Codec<K> keyCodec, Codec<V> valueCodec) {
+            this.commands = Objects.requireNonNull(commands, "commands");
+            this.redisHashKey = Objects.requireNonNull(redisHashKey, "redisHashKey");
+            this.keyCodec = Objects.requireNonNull(keyCodec, "keyCodec");
+            this.valueCodec = Objects.requireNonNull(valueCodec, "valueCodec");
+        }
+
+        /**
+         * Enables near cache that serves get, getOrDefault and containsKey locally.
+         * The cache is invalidated by redis, so it stays correct even if other clients modify the hash
+         * @param maxEntries maximum number of fields kept locally
+         * @return this builder
+         */
+        public Builder<K, V> nearCache(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+            }
+            this.nearCacheMaxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets how near cache gets notified about changes, {@link NearCache.Invalidation#AUTO} by default
+         * @param invalidation invalidation mode
+         * @return this builder
+         */
+        public Builder<K, V> nearCacheInvalidation(NearCache.Invalidation invalidation) {
+            this.invalidation = Objects.requireNonNull(invalidation, "invalidation");
+            return this;
+        }
+
+        /**
+         * Sets a factory of dedicated connections used to receive invalidation messages.
+         * Required for a single instance of redis, for a cluster connections to the node owning the hash are used by default
+         * @param connections opens new connections to the node that owns the hash key
+         * @return this builder
+         */
+        public Builder<K, V> invalidationConnections(Supplier<Connection> connections) {
+            this.invalidationConnections = Objects.requireNonNull(connections, "connections");
+            return this;
+        }
+
+        /**
+         * Splits the map into several redis hashes placed into different slots, so in a cluster the data and the traffic
+         * are spread over all masters instead of the one owning the hash key.
+         * Keys are routed to hashes by their CRC16, operations over the whole map are run against all hashes in parallel.
+         * Hashes are stored under keys derived from the hash key, so the number of shards cannot be changed for existing data
+         * @param count number of redis hashes, 1 by default
+         * @return this builder
+         */
+        public Builder<K, V> shards(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("count must be positive: " + count);
+            }
+            this.shards = count;
+            return this;
+        }
+
+        /**
+         * Sets number of entries requested from redis per HSCAN call when iterating over the map.
+         * Higher values mean fewer round trips but longer calls that block redis and more entries held in memory
+         * @param count COUNT hint of HSCAN, {@link #DEFAULT_SCAN_COUNT} by default
+         * @return this builder
+         */
+        public Builder<K, V> scanCount(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("count must be positive: " + count);
+            }
+            this.scanCount = count;
+            return this;
+        }
+
+        /**
+         * Enables write behind: writes are buffered locally, coalesced per key and flushed to redis in pipelined batches.
+         * Reads made through the map see buffered writes, operations over the whole map flush the buffer first.
+         * put and remove still read the old value, use set and delete to avoid any round trip.
+         * Buffered writes are lost if the process dies before they are flushed, {@link RedisMap#flush()} and
+         * {@link RedisMap#close()} wait until everything is written.
+         * A single Jedis connection is not thread safe, so there is no background flush and the writing thread
+         * flushes instead, the last writes before an idle period stay buffered until the next write or flush
+         * @param batchSize number of buffered writes that triggers a flush
+         * @param flushInterval maximum time a write stays buffered with thread safe commands, e.g. JedisCluster or
+         * JedisPooled, with a single Jedis connection the time after which the next write flushes
+         * @return this builder
+         */
+        public Builder<K, V> writeBehind(int batchSize, Duration flushInterval) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+            }
+            if (flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+            }
+            this.writeBehindBatchSize = batchSize;
+            this.writeBehindInterval = flushInterval;
+            return this;
+        }
+
+        /**
+         * Enables reverse index of values kept next to every hash, so containsValue is a single HEXISTS per hash and
+         * {@link RedisMap#keysWithValue} does not scan the map. Values encoded with {@link Codecs#decimalInt()} or
+         * {@link Codecs#decimalLong()} are indexed by number, which also enables {@link RedisMap#keysWithValueBetween}.
+         * Every write becomes a script that updates the index too. The index is correct only if every client writing
+         * the hash enables it from the moment the hash is created, an existing hash is not indexed retroactively
+         * @return this builder
+         */
+        public Builder<K, V> valueIndex() {
+            this.valueIndex = true;
+            return this;
+        }
+
+        /**
+         * Keeps hash code of every entry and their sum next to every hash, so hashCode is a single GET per hash
+         * and equals tells apart maps of different hash codes without reading their entries.
+         * Every write becomes a script that updates the digest too, hash codes of entries are calculated by decoding
+         * the written keys and values. The digest is correct only if every client writing the hash enables it from
+         * the moment the hash is created, an existing hash is not digested retroactively
+         * @return this builder
+         */
+        public Builder<K, V> contentDigest() {
+            this.contentDigest = true;
+            return this;
+        }
+
+        /**
+         * Makes redis remove every entry once the time to live passes since it was last written, with HPEXPIRE,
+         * which requires redis 7.4 or newer. {@link RedisMap#put(Object, Object, Duration)} sets the time to live
+         * of a single entry. Every write becomes a script that sets the expiry too.
+         * Redis removes expired entries without running any script, so it cannot be combined with value index
+         * or content digest
+         * @param ttl time to live of entries, at least a millisecond
+         * @return this builder
+         */
+        public Builder<K, V> expireAfterWrite(Duration ttl) {
+            if (ttl.toMillis() <= 0) {
+                throw new IllegalArgumentException("ttl must be at least a millisecond: " + ttl);
+            }
+            this.expireAfterWrite = ttl;
+            return this;
+        }
+
+        /**
+         * Bounds the number of entries, a write that exceeds the bound evicts an entry picked by the policy in the same
+         * script. Every hash of the map is bounded separately by its share of maxEntries, so with shards the map can
+         * start evicting a little before it holds maxEntries. Reads through get and getAll become scripts that
+         * record the use of entries, entries served by the near cache are not recorded.
+         * Evictions are counted by redis, see {@link RedisMap#evictionStats()}
+         * @param maxEntries maximum number of entries
+         * @param policy policy that picks the entry to evict
+         * @return this builder
+         */
+        public Builder<K, V> maxEntries(long maxEntries, EvictionPolicy policy) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+            }
+            this.maxEntries = maxEntries;
+            this.evictionPolicy = Objects.requireNonNull(policy, "policy");
+            return this;
+        }
+
+        /**
+         * Sends get, getAll, containsKey and size to replicas of a cluster, see {@link ReadFrom}.
+         * Iteration stays on masters, the cursor of HSCAN is only valid on the node that returned it.
+         * Replicas are asynchronous copies, so reads may miss the latest writes, even those made by this thread.
+         * Writes, scripts and reads of bounded maps, which record the use of entries, go to masters.
+         * Cannot be combined with near cache, which is invalidated by masters only
+         * @param readFrom nodes reads are sent to, {@link ReadFrom#MASTER} by default
+         * @return this builder
+         */
+        public Builder<K, V> readFrom(ReadFrom readFrom) {
+            this.readFrom = Objects.requireNonNull(readFrom, "readFrom");
+            this.maxReplicaLagBytes = -1;
+            return this;
+        }
+
+        /**
+         * Same as {@link #readFrom(ReadFrom)} but skips replicas that are more than maxLagBytes of the replication
+         * stream behind their master, the difference of master_repl_offset and the offset of the replica reported by
+         * INFO replication of the master. Offsets are checked every {@link ReplicaReads#REFRESH_INTERVAL}, so a replica
+         * that falls behind in between is still read from until the next check
+         * @param readFrom nodes reads are sent to
+         * @param maxLagBytes maximum number of bytes a replica may be behind, 0 to read only replicas that caught up
+         * @return this builder
+         */
+        public Builder<K, V> readFrom(ReadFrom readFrom, long maxLagBytes) {
+            if (maxLagBytes < 0) {
+                throw new IllegalArgumentException("maxLagBytes must not be negative: " + maxLagBytes);
+            }
+            this.readFrom = Objects.requireNonNull(readFrom, "readFrom");
+            this.maxReplicaLagBytes = maxLagBytes;
+            return this;
+        }
+
+        /**
+         * Sets where replicas are found when reads are routed to replicas of something else than a {@link JedisCluster},
+         * e.g. a fake of a cluster in tests
+         */
+        Builder<K, V> replicaNodes(Supplier<? extends Map<String, ? extends Pool<Connection>>> nodes,
+                                   Supplier<Connection> control) {
+            this.replicaNodes = Objects.requireNonNull(nodes, "nodes");
+            this.replicaControl = Objects.requireNonNull(control, "control");
+            return this;
+        }
+
+        private ReplicaReads replicaReads(JedisBinaryCommands master) {
+            if (replicaNodes != null) {
+                return new ReplicaReads(redisHashKey, master, replicaNodes, replicaControl, readFrom, maxReplicaLagBytes);
+            }
+            JedisCluster cluster = (JedisCluster) commands;
+            return new ReplicaReads(redisHashKey, master, cluster::getClusterNodes,
+                    () -> cluster.getConnectionFromSlot(JedisClusterCRC16.getSlot(redisHashKey)), readFrom, maxReplicaLagBytes);
+        }
+
+        /**
+         * Makes every command of the map fail with a JedisConnectionException once it takes longer than the deadline,
+         * instead of waiting up to the socket timeout. The command is not cancelled, like after a socket timeout it is
+         * unknown whether a write was applied. Commands run on virtual threads, which requires thread safe commands,
+         * i.e. a JedisCluster or a JedisPooled. Pipelines, used by putAll, write behind and async, have no deadline
+         * @param deadline time a command may take
+         * @return this builder
+         */
+        public Builder<K, V> deadline(Duration deadline) {
+            if (deadline.isNegative() || deadline.isZero()) {
+                throw new IllegalArgumentException("deadline must be positive: " + deadline);
+            }
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Sends a read once more if it has not been answered within the given percentile of read latency, the first
+         * answer wins. The duplicate borrows another connection, with {@link #readFrom} it goes to another node.
+         * Hedging starts after {@link Resilience#MIN_SAMPLES} reads, so roughly 1 - quantile of reads are sent twice.
+         * Requires thread safe commands, like {@link #deadline}, see {@link RedisMap#resilienceStats()} for
+         * how often hedging fires and what it does to the 99th percentile
+         * @param quantile percentile of read latency, e.g. 0.95
+         * @return this builder
+         */
+        public Builder<K, V> hedgeReads(double quantile) {
+            if (!(quantile > 0 && quantile < 1)) {
+                throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+            }
+            this.hedgeQuantile = quantile;
+            return this;
+        }
+
+        /**
+         * Fails commands fast while the node of their hash keeps failing: after the given number of connection
+         * failures or exceeded deadlines in a row commands of the hash fail right away for openFor, then a single
+         * command is let through to try the node again. Every hash lives on one node, so a failing node opens
+         * the circuits of all hashes it holds
+         * @param failures connection failures in a row that open the circuit
+         * @param openFor time the circuit stays open
+         * @return this builder
+         */
+        public Builder<K, V> circuitBreaker(int failures, Duration openFor) {
+            if (failures <= 0) {
+                throw new IllegalArgumentException("failures must be positive: " + failures);
+            }
+            if (openFor.isNegative() || openFor.isZero()) {
+                throw new IllegalArgumentException("openFor must be positive: " + openFor);
+            }
+            this.circuitFailures = failures;
+            this.circuitOpenFor = openFor;
+            return this;
+        }
+
+        /**
+         * Keeps a copy of the whole map in memory that serves get, getAll, containsKey, size and iteration without
+         * going to redis. The copy is loaded when the map is built and then follows a change feed, a redis stream of
+         * at most about {@link LocalReplica#CHANGE_FEED_LENGTH} entries per hash that every write of the map appends to
+         * in the same script, so writes of other clients are seen only if they go through a map with the feed.
+         * A hash whose feed was not read up to its end within maxStaleness is read from redis until it catches up,
+         * a hash that missed changes, e.g. after a disconnect, is loaded again. See {@link RedisMap#syncReplica()}
+         * for reading own writes. Requires thread safe commands, i.e. a JedisCluster or a JedisPooled,
+         * and cannot be combined with near cache, write behind, expiration or eviction
+         * @param maxStaleness how old the copy of a hash may be for reads to be served from memory, at least twice
+         * {@link LocalReplica#POLL_INTERVAL}
+         * @return this builder
+         */
+        public Builder<K, V> localReplica(Duration maxStaleness) {
+            if (maxStaleness.compareTo(LocalReplica.POLL_INTERVAL.multipliedBy(2)) < 0) {
+                throw new IllegalArgumentException("maxStaleness must be at least "
+                        + LocalReplica.POLL_INTERVAL.multipliedBy(2) + ": " + maxStaleness);
+            }
+            this.localReplicaStaleness = maxStaleness;
+            return this;
+        }
+
+        /**
+         * Collects get, getOrDefault, getInt and containsKey calls made by concurrent threads into one HMGET per hash.
+         * A call is sent right away while no HMGET of its hash is in flight, otherwise it waits for the window, calls
+         * that arrive meanwhile join it, calls for the same key share one result, and a batch that reaches maxBatch
+         * distinct keys is sent right away. Only calls that started before the HMGET was sent join it, so they see
+         * writes finished before them. Batching trades the window for fewer round trips, it pays off when round trips
+         * are the bottleneck, e.g. many threads sharing few connections, see {@link RedisMap#getBatchStats()} for how
+         * many calls one HMGET answers
+         * @param window time the first call of a batch waits for others, e.g. 100 µs
+         * @param maxBatch distinct keys that make a batch be sent before its window passes, at most
+         * 512, the most fields sent in one HMGET
+         * @return this builder
+         */
+        public Builder<K, V> batchGets(Duration window, int maxBatch) {
+            if (window.isNegative() || window.isZero()) {
+                throw new IllegalArgumentException("window must be positive: " + window);
+            }
+            if (maxBatch < 2 || maxBatch > MAX_FIELDS_PER_COMMAND) {
+                throw new IllegalArgumentException("maxBatch must be between 2 and " + MAX_FIELDS_PER_COMMAND + ": "
+                        + maxBatch);
+            }
+            this.batchWindow = window;
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        /**
+         * Reports every operation of the map to the listener: its duration, round trips, bytes and error.
+         * Use {@link RedisMapMetrics} for call counts and latency percentiles per operation
+         * @param listener listener of operations, called by the thread that made the operation
+         * @return this builder
+         */
+        public Builder<K, V> listener(RedisMapListener listener) {
+            this.listener = Objects.requireNonNull(listener, "listener");
+            return this;
+        }
+
+        /**
+         * Emits a JFR event named org.example.RedisMapOperation for every operation of the map.
+         * A recording with a threshold set for the event, e.g. 10 ms, shows only the slow calls with their stack traces
+         * @return this builder
+         */
+        public Builder<K, V> jfrEvents() {
+            this.jfrEvents = true;
+            return this;
+        }
+
+        private Function<String, Connection> invalidationConnections() {
+            if (invalidationConnections != null) {
+                return key -> invalidationConnections.get();
+            }
+            if (commands instanceof JedisCluster cluster) {
+                return key -> cluster.getConnectionFromSlot(JedisClusterCRC16.getSlot(key));
+            }
+            throw new IllegalStateException("Near cache over a single instance of redis requires invalidationConnections");
+        }
+
+        /**
+         * Creates redis map, enabling near cache subscribes to invalidation messages right away
+         * @return redis map
+         */
+        public RedisMap<K, V> build() {
+            if (expireAfterWrite != null && (valueIndex || contentDigest)) {
+                throw new IllegalStateException("expireAfterWrite cannot be combined with valueIndex or contentDigest");
+            }
+            if (readFrom != ReadFrom.MASTER && replicaNodes == null && !(commands instanceof JedisCluster)) {
+                throw new IllegalStateException("Reads can be routed to replicas of a JedisCluster only");
+            }
+            if (readFrom != ReadFrom.MASTER && nearCacheMaxEntries > 0) {
+                throw new IllegalStateException("Near cache cannot be combined with reads from replicas, "
+                        + "a miss would cache a stale value of a replica after the invalidation of a newer one");
+            }
+            if ((deadline != null || hedgeQuantile > 0) && !Pipelines.isThreadSafe(commands)) {
+                throw new IllegalStateException("Deadlines and hedged reads require thread safe commands, "
+                        + "e.g. JedisCluster or JedisPooled");
+            }
+            if (batchWindow != null && maxEntries > 0) {
+                throw new IllegalStateException("Batching of gets cannot be combined with maxEntries, "
+                        + "reads of bounded maps are scripts");
+            }
+            if (localReplicaStaleness != null) {
+                if (nearCacheMaxEntries > 0 || writeBehindBatchSize > 0 || expireAfterWrite != null || maxEntries > 0) {
+                    throw new IllegalStateException("Local replica cannot be combined with near cache, write behind, "
+                            + "expireAfterWrite or maxEntries");
+                }
+                if (!Pipelines.isThreadSafe(commands)) {
+                    throw new IllegalStateException("Local replica requires thread safe commands, "
+                            + "e.g. JedisCluster or JedisPooled");
+                }
+            }
+            return new RedisMap<>(this);
+        }
+    }
 }
@@ -0,0 +1,141 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes collected by {@link RedisMap#batch} and applied together, atomically, in a single round trip.
+ * Values read through {@link #get} are conditions of the batch: it is applied only if they did not change meanwhile,
+ * otherwise the whole batch is collected again. All keys of a batch have to be in the same redis hash
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public final class RedisMapBatch<K, V> {
+    private static final byte[] PRESENT = {'1'};
+    private static final byte[] ABSENT = {'0'};
+    private static final byte[] NONE = {};
+    private static final byte[] SET = {'s'};
+    private static final byte[] DELETE = {'d'};
+    private static final byte[] INCREMENT = {'i'};
+
+    private final JedisBinaryCommands commands;
+    private final Shards shards;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final List<byte[]> conditions = new ArrayList<>();
+    private final List<byte[]> writes = new ArrayList<>();
+    private final List<K> writtenKeys = new ArrayList<>();
+    private int shard = -1;
+
+    RedisMapBatch(JedisBinaryCommands commands, Shards shards, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.commands = commands;
+        this.shards = shards;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Reads the current value of a key from redis, the batch is applied only if the value is still the same then.
+     * Writes queued before in the same batch are not visible yet
+     * @param key key whose value is to be returned
+     * @return value of the key, or NULL if it does not exist
+     */
+    public V get(K key) {
+        byte[] field = field(key);
+        byte[] value = commands.hget(shards.binaryKeys().get(shard), field);
+        conditions.add(field);
+        conditions.add(value != null ? PRESENT : ABSENT);
+        conditions.add(value != null ? value : NONE);
+        return value != null ? valueCodec.decode(value) : null;
+    }
+
+    /**
+     * Queues a write of a value, its old value is returned by the batch
+     * @param key key
+     * @param value value
+     * @return this batch
+     */
+    public RedisMapBatch<K, V> put(K key, V value) {
+        return write(SET, key, valueCodec.encode(value));
+    }
+
+    /**
+     * Queues a removal of a key, its old value is returned by the batch
+     * @param key key of entry to be removed
+     * @return this batch
+     */
+    public RedisMapBatch<K, V> remove(K key) {
+        return write(DELETE, key, NONE);
+    }
+
+    /**
+     * Queues an addition to the value of a key, a missing key counts as 0, its old value is returned by the batch.
+     * Requires values encoded with {@link Codecs#decimalInt()}
+     * @param key key
+     * @param delta number to be added
+     * @return this batch
+     * @throws UnsupportedOperationException if values are not encoded with {@link Codecs#decimalInt()}
+     */
+    public RedisMapBatch<K, V> incr(K key, int delta) {
+        if (valueCodec != Codecs.decimalInt()) {
+            throw new UnsupportedOperationException("incr requires values encoded with Codecs.decimalInt()");
+        }
+        return write(INCREMENT, key, Codecs.encodeDecimal(delta));
+    }
+
+    private RedisMapBatch<K, V> write(byte[] operation, K key, byte[] argument) {
+        writes.add(operation);
+        writes.add(field(key));
+        writes.add(argument);
+        writtenKeys.add(key);
+        return this;
+    }
+
+    private byte[] field(K key) {
+        byte[] field = keyCodec.encode(key);
+        int keyShard = shards.indexOf(field);
+        if (shard >= 0 && keyShard != shard) {
+            throw new IllegalArgumentException("Keys of a batch have to be in the same redis hash, " + key + " is not");
+        }
+        shard = keyShard;
+        return field;
+    }
+
+    boolean isEmpty() {
+        return writes.isEmpty();
+    }
+
+    List<K> writtenKeys() {
+        return writtenKeys;
+    }
+
+    /**
+     * Sends the batch
+     * @return old values in the order of writes, or NULL if a value read by the batch has changed
+     */
+    @SuppressWarnings("unchecked")
+    List<byte[]> apply() {
+        List<byte[]> args = new ArrayList<>(1 + conditions.size() + writes.size());
+        args.add(Codecs.encodeDecimal(conditions.size() / 3));
+        args.addAll(conditions);
+        args.addAll(writes);
+        return (List<byte[]>) Scripts.BATCH.eval(commands, List.of(shards.binaryKeys().get(shard)), args);
+    }
+
+    /**
+     * Counters of the batches of a map
+     */
+    static final class Counters {
+        final LongAdder batches = new LongAdder();
+        final LongAdder attempts = new LongAdder();
+        final LongAdder conflicts = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        BatchStats stats() {
+            return new BatchStats(batches.sum(), attempts.sum(), conflicts.sum(), failed.sum());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of an operation made through a redis map, see {@link RedisMap.Builder#jfrEvents()}.
+ * Recorded with the default JFR threshold, so a recording configured with a threshold shows only the slow calls
+ */
+@Name("org.example.RedisMapOperation")
+@Label("Redis Map Operation")
+@Category({"Redis", "RedisMap"})
+@Description("Operation made through a redis map, with the commands it sent to redis")
+@StackTrace(true)
+final class RedisMapEvent extends Event {
+    @Label("Hash Key")
+    String hashKey;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Round Trips")
+    int roundTrips;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,58 @@
+package org.example.util;
+
+import redis.clients.jedis.exceptions.JedisClusterOperationException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * Receives an event for every operation made through a redis map, see {@link RedisMap.Builder#listener}.
+ * Events are delivered synchronously by the calling thread right after the operation finishes,
+ * so a listener has to be thread safe and fast, {@link RedisMapMetrics} only bumps counters.
+ * Exceptions thrown by a listener are ignored
+ */
+@FunctionalInterface
+public interface RedisMapListener {
+
+    /**
+     * Called after an operation finished, successfully or not
+     * @param event what the operation did and how long it took
+     */
+    void onOperation(Event event);
+
+    /**
+     * Operations of a redis map. Operations that are variants of one another share a constant,
+     * e.g. getOrDefault is {@link #GET}, computeIfPresent is {@link #COMPUTE},
+     * removeIf and retainAll of keySet, values and entrySet are {@link #REMOVE_ALL}
+     */
+    enum Operation {
+        GET, GET_ALL, CONTAINS_KEY, CONTAINS_VALUE, KEYS_WITH_VALUE, SIZE, PUT, SET, REMOVE, DELETE, REMOVE_ALL,
+        PUT_ALL, CLEAR, PUT_IF_ABSENT, REPLACE, COMPUTE, MERGE, REPLACE_ALL, GET_INT, PUT_INT, ADD_AND_GET, GET_ALL_INT,
+        PUT_ALL_INT, FOR_EACH, EQUALS, HASH_CODE, FLUSH, BATCH,
+        /**
+         * A page of HSCAN fetched by an iterator or a spliterator of keySet, values or entrySet
+         */
+        ITERATE
+    }
+
+    /**
+     * Finished operation. Round trips and bytes count the commands the operation sent to redis,
+     * bytes are payloads, i.e. keys, fields, values and script arguments, without protocol framing
+     * @param operation operation that was made
+     * @param durationNanos wall clock duration of the operation
+     * @param roundTrips number of commands sent to redis, 0 if the operation was served locally
+     * @param bytesSent bytes of payloads sent to redis
+     * @param bytesReceived bytes of payloads received from redis
+     * @param error exception the operation failed with, or NULL
+     */
+    record Event(Operation operation, long durationNanos, int roundTrips, long bytesSent, long bytesReceived,
+                 Throwable error) {
+
+        /**
+         * Checks whether the operation failed because the cluster kept redirecting it, i.e. the slot was being moved
+         * or the topology known to the client was stale for longer than its retries
+         * @return whether the operation failed on redirects
+         */
+        public boolean redirected() {
+            return error instanceof JedisRedirectionException || error instanceof JedisClusterOperationException;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.util;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener that aggregates events per operation: calls, errors, round trips, bytes and a latency histogram.
+ * Recording an event only bumps lock free counters, so one instance can be shared by many maps under load
+ */
+public class RedisMapMetrics implements RedisMapListener {
+    private final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+
+    /**
+     * Initializes empty metrics
+     */
+    public RedisMapMetrics() {
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new Counters());
+        }
+    }
+
+    @Override
+    public void onOperation(Event event) {
+        Counters c = counters.get(event.operation());
+        c.calls.increment();
+        if (event.error() != null) {
+            c.errors.increment();
+            if (event.redirected()) {
+                c.redirects.increment();
+            }
+        }
+        c.roundTrips.add(event.roundTrips());
+        c.bytesSent.add(event.bytesSent());
+        c.bytesReceived.add(event.bytesReceived());
+        c.maxNanos.accumulate(event.durationNanos());
+        c.latency.record(event.durationNanos());
+    }
+
+    /**
+     * Returns a snapshot of counters of the operation
+     * @param operation operation of a redis map
+     * @return a snapshot of counters of the operation
+     */
+    public Stats stats(Operation operation) {
+        Counters c = counters.get(operation);
+        return new Stats(c.calls.sum(), c.errors.sum(), c.redirects.sum(), c.roundTrips.sum(), c.bytesSent.sum(),
+                c.bytesReceived.sum(), Duration.ofNanos(c.latency.valueAt(0.5)), Duration.ofNanos(c.latency.valueAt(0.9)),
+                Duration.ofNanos(c.latency.valueAt(0.99)), Duration.ofNanos(c.latency.valueAt(0.999)),
+                Duration.ofNanos(c.maxNanos.get()));
+    }
+
+    /**
+     * Returns snapshots of counters of all operations that were called at least once
+     * @return snapshots by operation
+     */
+    public Map<Operation, Stats> stats() {
+        Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            if (counters.get(operation).calls.sum() > 0) {
+                stats.put(operation, stats(operation));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Drops all counters, events recorded concurrently with the reset may be partially kept
+     */
+    public void reset() {
+        for (Counters c : counters.values()) {
+            c.calls.reset();
+            c.errors.reset();
+            c.redirects.reset();
+            c.roundTrips.reset();
+            c.bytesSent.reset();
+            c.bytesReceived.reset();
+            c.maxNanos.reset();
+            c.latency.reset();
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder redirects = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /**
+     * Snapshot of counters of one operation, percentiles are accurate within about 3%
+     * @param calls finished calls
+     * @param errors calls that threw an exception
+     * @param redirects calls that failed because the cluster kept redirecting them
+     * @param roundTrips commands sent to redis
+     * @param bytesSent bytes of payloads sent to redis
+     * @param bytesReceived bytes of payloads received from redis
+     * @param p50 median latency
+     * @param p90 90th percentile of latency
+     * @param p99 99th percentile of latency
+     * @param p999 99.9th percentile of latency
+     * @param max highest latency
+     */
+    public record Stats(long calls, long errors, long redirects, long roundTrips, long bytesSent, long bytesReceived,
+                        Duration p50, Duration p90, Duration p99, Duration p999, Duration max) {
+        /**
+         * Returns mean number of round trips per call
+         * @return mean number of round trips per call, 0 if there were no calls
+         */
+        public double roundTripsPerCall() {
+            return calls == 0 ? 0 : (double) roundTrips / calls;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package org.example.util;
+
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Streams entries into and out of a redis map, so maps larger than the heap can be loaded and saved.
+ * Imports group entries into batches of multi-field HSET per hash and send up to maxInFlight batches in one pipeline,
+ * the source is not read while a pipeline waits for its replies, so at most maxInFlight batches are held in memory.
+ * Exports page through the hashes with HSCAN and write entries through a direct buffer of a file channel.
+ * <p>
+ * The binary format keeps keys and values as encoded by the codecs: a header "RMAP" followed by format version 1,
+ * then for every entry the length of the key as an unsigned LEB128 varint, the key, the length of the value and the value.
+ * Files written with {@link Format#CSV} are meant for other tools, they cannot be imported back.
+ * <p>
+ * Settings are not thread safe, a transfer object is meant to be configured and used by one thread
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class RedisMapTransfer<K, V> {
+    /**
+     * Number of entries per HSET unless configured otherwise
+     */
+    public static final int DEFAULT_BATCH_SIZE = RedisMap.MAX_FIELDS_PER_COMMAND;
+    /**
+     * Number of batches sent in one pipeline unless configured otherwise
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEADER = {'R', 'M', 'A', 'P', 1};
+
+    /**
+     * Format of an exported file
+     */
+    public enum Format {
+        /**
+         * Encoded keys and values prefixed with their lengths, the format {@link #importFrom(Path)} reads
+         */
+        BINARY,
+        /**
+         * UTF-8 text of a "key,value" header and a line per entry, keys and values are decoded and converted with
+         * toString, fields containing commas, quotes or line breaks are quoted as RFC 4180 specifies
+         */
+        CSV
+    }
+
+    private final RedisMap<K, V> map;
+    private final JedisBinaryCommands binary;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private Duration progressInterval;
+    private Consumer<TransferStats> progressListener;
+
+    /**
+     * Initializes transfer with default settings
+     * @param map redis map entries are imported into and exported from
+     */
+    public RedisMapTransfer(RedisMap<K, V> map) {
+        this.map = Objects.requireNonNull(map, "map");
+        this.binary = Pipelines.binary(map.commands());
+    }
+
+    /**
+     * Sets number of entries per HSET of an import and per HSCAN of an export
+     * @param batchSize number of entries, {@link #DEFAULT_BATCH_SIZE} by default
+     * @return this transfer
+     */
+    public RedisMapTransfer<K, V> batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets number of batches sent in one pipeline, which is also the number of batches an import holds in memory
+     * @param maxInFlight number of batches, {@link #DEFAULT_MAX_IN_FLIGHT} by default
+     * @return this transfer
+     */
+    public RedisMapTransfer<K, V> maxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Reports progress of transfers to the listener, at most once per interval and once when a transfer completes
+     * @param interval minimum time between two reports
+     * @param listener receives progress, called by the thread running the transfer
+     * @return this transfer
+     */
+    public RedisMapTransfer<K, V> progress(Duration interval, Consumer<TransferStats> listener) {
+        this.progressInterval = Objects.requireNonNull(interval, "interval");
+        this.progressListener = Objects.requireNonNull(listener, "listener");
+        return this;
+    }
+
+    /**
+     * Writes entries of the stream into the map, entries of the same key are written in the order of the stream
+     * @param entries entries to be written, consumed sequentially, the stream is not closed
+     * @return number of written entries and the throughput
+     */
+    public TransferStats importFrom(Stream<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        Codec<K> keyCodec = map.keyCodec();
+        Codec<V> valueCodec = map.valueCodec();
+        Loader loader = new Loader();
+        entries.sequential().forEachOrdered(e -> loader.add(keyCodec.encode(e.getKey()), valueCodec.encode(e.getValue())));
+        return loader.finish();
+    }
+
+    /**
+     * Writes entries of a file exported in the {@link Format#BINARY} format into the map, entries are not decoded
+     * @param file exported file
+     * @return number of written entries and the throughput
+     * @throws IOException if the file cannot be read or is not an export of a redis map
+     */
+    public TransferStats importFrom(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input input = new Input(channel);
+            if (channel.size() < HEADER.length || !Arrays.equals(input.read(HEADER.length), HEADER)) {
+                throw new IOException("Not a binary export of a redis map: " + file);
+            }
+            Loader loader = new Loader();
+            while (!input.atEnd()) {
+                byte[] field = input.read(input.readLength());
+                byte[] value = input.read(input.readLength());
+                loader.add(field, value);
+            }
+            return loader.finish();
+        }
+    }
+
+    /**
+     * Writes all entries of the map into a file, replacing its content. The export is as consistent as HSCAN is:
+     * entries present during the whole export are written, entries changed during the export may or may not be
+     * @param file file to be written
+     * @param format format of the file
+     * @return number of exported entries and the throughput
+     * @throws IOException if the file cannot be written
+     */
+    public TransferStats exportTo(Path file, Format format) throws IOException {
+        Objects.requireNonNull(format, "format");
+        map.flush();
+        Progress progress = new Progress();
+        Iterator<Map.Entry<byte[], byte[]>> entries = Spliterators.iterator(
+                new HashScan<>(binary, map.shards().binaryKeys(), batchSize, e -> e));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            if (format == Format.BINARY) {
+                output.write(HEADER);
+            } else {
+                output.write("key,value\n".getBytes(StandardCharsets.UTF_8));
+            }
+            while (entries.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = entries.next();
+                if (format == Format.BINARY) {
+                    output.writeLength(entry.getKey().length);
+                    output.write(entry.getKey());
+                    output.writeLength(entry.getValue().length);
+                    output.write(entry.getValue());
+                } else {
+                    output.write(csvLine(map.keyCodec().decode(entry.getKey()), map.valueCodec().decode(entry.getValue())));
+                }
+                progress.add(1, entry.getKey().length + entry.getValue().length);
+            }
+            output.flush();
+        }
+        return progress.complete();
+    }
+
+    private static byte[] csvLine(Object key, Object value) {
+        return (csvField(key) + "," + csvField(value) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String csvField(Object value) {
+        String text = String.valueOf(value);
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Collects encoded entries into batches per hash and sends full batches in pipelines of up to maxInFlight batches
+     */
+    private final class Loader {
+        private final Shards shards = map.shards();
+        private final HashCompanions companions = map.companions();
+        private final List<Map<byte[], byte[]>> batches = new ArrayList<>(shards.count());
+        private final List<Integer> pendingShards = new ArrayList<>(maxInFlight);
+        private final List<Map<byte[], byte[]>> pending = new ArrayList<>(maxInFlight);
+        private final Progress progress = new Progress();
+        private long pendingBytes;
+
+        Loader() {
+            // buffered writes of the keys would overwrite the imported entries later
+            map.flush();
+            for (int i = 0; i < shards.count(); i++) {
+                batches.add(new LinkedHashMap<>());
+            }
+        }
+
+        void add(byte[] field, byte[] value) {
+            int shard = shards.indexOf(field);
+            Map<byte[], byte[]> batch = batches.get(shard);
+            batch.put(field, value);
+            pendingBytes += field.length + value.length;
+            if (batch.size() >= batchSize) {
+                enqueue(shard);
+                if (pending.size() >= maxInFlight) {
+                    send();
+                }
+            }
+        }
+
+        TransferStats finish() {
+            for (int i = 0; i < shards.count(); i++) {
+                if (!batches.get(i).isEmpty()) {
+                    enqueue(i);
+                }
+            }
+            if (!pending.isEmpty()) {
+                send();
+            }
+            return progress.complete();
+        }
+
+        private void enqueue(int shard) {
+            pendingShards.add(shard);
+            pending.add(batches.get(shard));
+            batches.set(shard, new LinkedHashMap<>());
+        }
+
+        private void send() {
+            AbstractPipeline pipeline = companions == null ? Pipelines.open(map.commands()) : null;
+            if (pipeline != null) {
+                try (pipeline) {
+                    for (int i = 0; i < pending.size(); i++) {
+                        pipeline.hset(shards.binaryKeys().get(pendingShards.get(i)), pending.get(i));
+                    }
+                    pipeline.sync();
+                }
+            } else {
+                for (int i = 0; i < pending.size(); i++) {
+                    if (companions != null) {
+                        companions.setAll(binary, pendingShards.get(i), pending.get(i));
+                    } else {
+                        binary.hset(shards.binaryKeys().get(pendingShards.get(i)), pending.get(i));
+                    }
+                }
+            }
+            long entries = 0;
+            for (Map<byte[], byte[]> batch : pending) {
+                entries += batch.size();
+            }
+            pendingShards.clear();
+            pending.clear();
+            if (map.nearCache() != null) {
+                map.nearCache().invalidateAll();
+            }
+            progress.add(entries, pendingBytes);
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * Counts transferred entries and reports them to the progress listener
+     */
+    private final class Progress {
+        private final long start = System.nanoTime();
+        private long lastReport = start;
+        private long entries;
+        private long bytes;
+
+        void add(long entries, long bytes) {
+            this.entries += entries;
+            this.bytes += bytes;
+            if (progressListener != null && System.nanoTime() - lastReport >= progressInterval.toNanos()) {
+                lastReport = System.nanoTime();
+                progressListener.accept(stats());
+            }
+        }
+
+        TransferStats complete() {
+            TransferStats stats = stats();
+            if (progressListener != null) {
+                progressListener.accept(stats);
+            }
+            return stats;
+        }
+
+        private TransferStats stats() {
+            return new TransferStats(entries, bytes, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Writes through a direct buffer, arrays larger than the buffer are written straight to the channel
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeLength(int length) throws IOException {
+            if (buffer.remaining() < 5) {
+                flush();
+            }
+            while ((length & ~0x7F) != 0) {
+                buffer.put((byte) ((length & 0x7F) | 0x80));
+                length >>>= 7;
+            }
+            buffer.put((byte) length);
+        }
+
+        void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.remaining()) {
+                flush();
+            }
+            if (bytes.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    /**
+     * Reads through a direct buffer that is refilled from the channel whenever it runs out
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip();
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        boolean atEnd() throws IOException {
+            return !buffer.hasRemaining() && !fill();
+        }
+
+        int readLength() throws IOException {
+            int length = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (atEnd()) {
+                    throw new EOFException("Export ends in the middle of an entry");
+                }
+                byte b = buffer.get();
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    if (length < 0) {
+                        break;
+                    }
+                    return length;
+                }
+            }
+            throw new IOException("Malformed length of an entry");
+        }
+
+        byte[] read(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (atEnd()) {
+                    throw new EOFException("Export ends in the middle of an entry");
+                }
+                int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        /**
+         * Reads more bytes into the empty buffer
+         * @return whether any byte was read
+         */
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            return read > 0;
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.commands.JedisCommands;
+import redis.clients.jedis.params.ZRangeParams;
+import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Class that implements java.util.NavigableMap of strings to integers but utilizes redis sorted sets to contain all
+ * the data. Keys are members of a sorted set where all of them have the same score, so redis orders them by their
+ * UTF-8 bytes and answers ranges of keys with ZRANGE BYLEX. Values are scores of the keys in a second sorted set,
+ * which answers queries by value with ZRANGE BYSCORE. Both sorted sets are in the same slot, so the map can be stored
+ * in a cluster.
+ * <p>
+ * Ranges are read in pages, so iterating transfers only the entries iterated over. Views returned by subMap, headMap,
+ * tailMap and descendingMap are backed by redis as well
+ */
+public class RedisSortedMap extends AbstractMap<String, Integer> implements NavigableMap<String, Integer> {
+    /**
+     * Number of entries requested from redis per ZRANGE call unless configured otherwise
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Order redis keeps members of equal score in, by their UTF-8 bytes compared as unsigned numbers
+     */
+    private static final Comparator<String> KEY_ORDER = (a, b) -> Arrays.compareUnsigned(
+            a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    private static final byte[] TRUE = {'1'};
+    private static final byte[] FALSE = {'0'};
+
+    private final JedisCommands commands;
+    private final JedisBinaryCommands binary;
+    private final String keysKey;
+    private final String valuesKey;
+    private final List<byte[]> scriptKeys;
+    private final int pageSize;
+    private final String lo;
+    private final boolean loInclusive;
+    private final String hi;
+    private final boolean hiInclusive;
+    private final boolean descending;
+
+    /**
+     * Initializes redis sorted map
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param name name of the map, the sorted sets are stored under keys derived from it
+     */
+    public RedisSortedMap(JedisCommands commands, String name) {
+        this(commands, name, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Initializes redis sorted map
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param name name of the map, the sorted sets are stored under keys derived from it
+     * @param pageSize number of entries requested from redis per ZRANGE call while iterating
+     * @throws IllegalArgumentException if the page size is not positive
+     */
+    public RedisSortedMap(JedisCommands commands, String name, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.commands = commands;
+        this.binary = Pipelines.binary(commands);
+        this.keysKey = Shards.companionKey(name, "keys");
+        this.valuesKey = Shards.companionKey(name, "values");
+        this.scriptKeys = List.of(SafeEncoder.encode(keysKey), SafeEncoder.encode(valuesKey));
+        this.pageSize = pageSize;
+        this.lo = null;
+        this.loInclusive = true;
+        this.hi = null;
+        this.hiInclusive = true;
+        this.descending = false;
+    }
+
+    /**
+     * Initializes a view of a range of keys, bounds are in ascending order whatever the order of the view
+     */
+    private RedisSortedMap(RedisSortedMap map, String lo, boolean loInclusive, String hi, boolean hiInclusive,
+                           boolean descending) {
+        this.commands = map.commands;
+        this.binary = map.binary;
+        this.keysKey = map.keysKey;
+        this.valuesKey = map.valuesKey;
+        this.scriptKeys = map.scriptKeys;
+        this.pageSize = map.pageSize;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /**
+     * Returns the number of keys in the range of this map, counted by redis without transferring them
+     * @return the number of keys
+     */
+    @Override
+    public int size() {
+        return (int) commands.zlexcount(keysKey, lexMin(), lexMax());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns value of a key, read with ZSCORE
+     * @param key key whose value is to be returned
+     * @return value of the key, or NULL if it does not exist or is outside the range of this map
+     */
+    @Override
+    public Integer get(Object key) {
+        Objects.requireNonNull(key);
+        if (!(key instanceof String k) || !inRange(k, true)) {
+            return null;
+        }
+        Double score = commands.zscore(valuesKey, k);
+        return score != null ? score.intValue() : null;
+    }
+
+    /**
+     * Sets value of a key, both sorted sets are updated atomically
+     * @param key key
+     * @param value value
+     * @return previous value of the key, or NULL if it did not exist
+     * @throws IllegalArgumentException if the key is outside the range of this map
+     */
+    @Override
+    public Integer put(String key, Integer value) {
+        Objects.requireNonNull(value);
+        if (!inRange(Objects.requireNonNull(key), true)) {
+            throw new IllegalArgumentException("Key out of range: " + key);
+        }
+        return decode(Scripts.SORTED_PUT.eval(binary, scriptKeys,
+                List.of(SafeEncoder.encode(key), Codecs.encodeDecimal(value))));
+    }
+
+    /**
+     * Removes a key from both sorted sets atomically
+     * @param key key of entry to be removed
+     * @return value of the key, or NULL if it did not exist or is outside the range of this map
+     */
+    @Override
+    public Integer remove(Object key) {
+        Objects.requireNonNull(key);
+        if (!(key instanceof String k) || !inRange(k, true)) {
+            return null;
+        }
+        return decode(Scripts.SORTED_REMOVE.eval(binary, scriptKeys, List.of(SafeEncoder.encode(k))));
+    }
+
+    /**
+     * Removes all keys in the range of this map, the whole map is deleted with one DEL, a view is removed page by page
+     */
+    @Override
+    public void clear() {
+        if (lo == null && hi == null) {
+            commands.del(keysKey, valuesKey);
+            return;
+        }
+        List<Entry<String, Integer>> removed;
+        do {
+            removed = range(firstBound(), lastBound(), descending, pageSize, true);
+        } while (removed.size() == pageSize);
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return descending ? KEY_ORDER.reversed() : KEY_ORDER;
+    }
+
+    @Override
+    public Entry<String, Integer> firstEntry() {
+        return first(range(firstBound(), lastBound(), descending, 1, false));
+    }
+
+    @Override
+    public Entry<String, Integer> lastEntry() {
+        return first(range(lastBound(), firstBound(), !descending, 1, false));
+    }
+
+    @Override
+    public Entry<String, Integer> pollFirstEntry() {
+        return first(range(firstBound(), lastBound(), descending, 1, true));
+    }
+
+    @Override
+    public Entry<String, Integer> pollLastEntry() {
+        return first(range(lastBound(), firstBound(), !descending, 1, true));
+    }
+
+    @Override
+    public String firstKey() {
+        return key(firstEntry());
+    }
+
+    @Override
+    public String lastKey() {
+        return key(lastEntry());
+    }
+
+    @Override
+    public Entry<String, Integer> lowerEntry(String key) {
+        return clip(null, true, Objects.requireNonNull(key), false).lastEntry();
+    }
+
+    @Override
+    public String lowerKey(String key) {
+        return keyOrNull(lowerEntry(key));
+    }
+
+    @Override
+    public Entry<String, Integer> floorEntry(String key) {
+        return clip(null, true, Objects.requireNonNull(key), true).lastEntry();
+    }
+
+    @Override
+    public String floorKey(String key) {
+        return keyOrNull(floorEntry(key));
+    }
+
+    @Override
+    public Entry<String, Integer> ceilingEntry(String key) {
+        return clip(Objects.requireNonNull(key), true, null, true).firstEntry();
+    }
+
+    @Override
+    public String ceilingKey(String key) {
+        return keyOrNull(ceilingEntry(key));
+    }
+
+    @Override
+    public Entry<String, Integer> higherEntry(String key) {
+        return clip(Objects.requireNonNull(key), false, null, true).firstEntry();
+    }
+
+    @Override
+    public String higherKey(String key) {
+        return keyOrNull(higherEntry(key));
+    }
+
+    @Override
+    public RedisSortedMap subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+        if (comparator().compare(Objects.requireNonNull(fromKey), Objects.requireNonNull(toKey)) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        checkInRange(fromKey, fromInclusive);
+        checkInRange(toKey, toInclusive);
+        return clip(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public RedisSortedMap subMap(String fromKey, String toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public RedisSortedMap headMap(String toKey, boolean inclusive) {
+        checkInRange(Objects.requireNonNull(toKey), inclusive);
+        return clip(null, true, toKey, inclusive);
+    }
+
+    @Override
+    public RedisSortedMap headMap(String toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public RedisSortedMap tailMap(String fromKey, boolean inclusive) {
+        checkInRange(Objects.requireNonNull(fromKey), inclusive);
+        return clip(fromKey, inclusive, null, true);
+    }
+
+    @Override
+    public RedisSortedMap tailMap(String fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public RedisSortedMap descendingMap() {
+        return new RedisSortedMap(this, lo, loInclusive, hi, hiInclusive, !descending);
+    }
+
+    @Override
+    public NavigableSet<String> navigableKeySet() {
+        return new KeySet(this);
+    }
+
+    @Override
+    public NavigableSet<String> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<String> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        return new EntrySet();
+    }
+
+    /**
+     * Returns entries of the greatest values, read with one ZRANGE REV of the sorted set of values
+     * @param n maximum number of entries
+     * @return entries ordered from the greatest value down, keys of equal values in descending order
+     * @throws IllegalArgumentException if n is not positive
+     * @throws UnsupportedOperationException if this is a view of a range of keys
+     */
+    public Map<String, Integer> topByValue(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of entries must be positive: " + n);
+        }
+        requireWholeMap();
+        return entries(commands.zrangeWithScores(valuesKey, ZRangeParams.zrangeParams(0, n - 1).rev()));
+    }
+
+    /**
+     * Returns entries of the least values, read with one ZRANGE of the sorted set of values
+     * @param n maximum number of entries
+     * @return entries ordered from the least value up, keys of equal values in ascending order
+     * @throws IllegalArgumentException if n is not positive
+     * @throws UnsupportedOperationException if this is a view of a range of keys
+     */
+    public Map<String, Integer> bottomByValue(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of entries must be positive: " + n);
+        }
+        requireWholeMap();
+        return entries(commands.zrangeWithScores(valuesKey, ZRangeParams.zrangeParams(0, n - 1)));
+    }
+
+    /**
+     * Returns a page of the entries whose values are in a range, read with one ZRANGE BYSCORE of the sorted set of
+     * values, so only the page is transferred
+     * @param from least value, inclusive
+     * @param to greatest value, inclusive
+     * @param offset number of matching entries to skip
+     * @param count maximum number of entries
+     * @return entries ordered by value, keys of equal values in ascending order
+     * @throws IllegalArgumentException if offset is negative or count is not positive
+     * @throws UnsupportedOperationException if this is a view of a range of keys
+     */
+    public Map<String, Integer> byValue(int from, int to, int offset, int count) {
+        if (offset < 0 || count < 1) {
+            throw new IllegalArgumentException("Offset must not be negative and count must be positive: "
+                    + offset + ", " + count);
+        }
+        requireWholeMap();
+        return entries(commands.zrangeWithScores(valuesKey,
+                ZRangeParams.zrangeByScoreParams(from, to).limit(offset, count)));
+    }
+
+    private void requireWholeMap() {
+        if (lo != null || hi != null) {
+            throw new UnsupportedOperationException("Queries by value are only supported by the whole map, not by a range of its keys");
+        }
+    }
+
+    private static Map<String, Integer> entries(List<Tuple> tuples) {
+        Map<String, Integer> entries = new LinkedHashMap<>();
+        for (Tuple tuple : tuples) {
+            entries.put(tuple.getElement(), (int) tuple.getScore());
+        }
+        return entries;
+    }
+
+    /**
+     * Reads keys and values of a range of keys with SORTED_RANGE
+     * @param from lex bound the range starts from
+     * @param to lex bound the range ends at
+     * @param reverse whether keys are read in descending order, from is then the upper bound
+     * @param count maximum number of entries
+     * @param remove whether the entries read are removed
+     * @return entries in the order they were read
+     */
+    @SuppressWarnings("unchecked")
+    private List<Entry<String, Integer>> range(String from, String to, boolean reverse, int count, boolean remove) {
+        List<byte[]> reply = (List<byte[]>) Scripts.SORTED_RANGE.eval(binary, scriptKeys, List.of(
+                SafeEncoder.encode(from), SafeEncoder.encode(to), reverse ? TRUE : FALSE,
+                Codecs.encodeDecimal(count), remove ? TRUE : FALSE));
+        List<Entry<String, Integer>> entries = new ArrayList<>(reply.size() / 2);
+        for (int i = 0; i < reply.size(); i += 2) {
+            entries.add(new SimpleImmutableEntry<>(SafeEncoder.encode(reply.get(i)), decode(reply.get(i + 1))));
+        }
+        return entries;
+    }
+
+    private static Integer decode(Object score) {
+        return score != null ? (int) Double.parseDouble(SafeEncoder.encode((byte[]) score)) : null;
+    }
+
+    private String lexMin() {
+        return lo == null ? "-" : (loInclusive ? "[" : "(") + lo;
+    }
+
+    private String lexMax() {
+        return hi == null ? "+" : (hiInclusive ? "[" : "(") + hi;
+    }
+
+    /**
+     * Returns lex bound of the first key in the order of this map
+     */
+    private String firstBound() {
+        return descending ? lexMax() : lexMin();
+    }
+
+    /**
+     * Returns lex bound of the last key in the order of this map
+     */
+    private String lastBound() {
+        return descending ? lexMin() : lexMax();
+    }
+
+    /**
+     * Checks whether a key is in the range of this map, a key that is not inclusive may be equal to an exclusive bound
+     */
+    private boolean inRange(String key, boolean inclusive) {
+        if (lo != null) {
+            int compared = KEY_ORDER.compare(key, lo);
+            if (compared < 0 || (compared == 0 && !loInclusive && inclusive)) {
+                return false;
+            }
+        }
+        if (hi != null) {
+            int compared = KEY_ORDER.compare(key, hi);
+            return compared < 0 || (compared == 0 && (hiInclusive || !inclusive));
+        }
+        return true;
+    }
+
+    private void checkInRange(String key, boolean inclusive) {
+        if (!inRange(key, inclusive)) {
+            throw new IllegalArgumentException("Key out of range: " + key);
+        }
+    }
+
+    /**
+     * Returns a view of the intersection of this map with a range, bounds are in the order of this map
+     * @param from first key of the range, or NULL if the range is not bounded there
+     * @param to last key of the range, or NULL if the range is not bounded there
+     */
+    private RedisSortedMap clip(String from, boolean fromInclusive, String to, boolean toInclusive) {
+        String newLo = descending ? to : from;
+        boolean newLoInclusive = descending ? toInclusive : fromInclusive;
+        String newHi = descending ? from : to;
+        boolean newHiInclusive = descending ? fromInclusive : toInclusive;
+        String l = lo;
+        boolean loIncl = loInclusive;
+        if (newLo != null) {
+            int compared = lo == null ? 1 : KEY_ORDER.compare(newLo, lo);
+            if (compared > 0 || (compared == 0 && !newLoInclusive)) {
+                l = newLo;
+                loIncl = newLoInclusive;
+            }
+        }
+        String h = hi;
+        boolean hiIncl = hiInclusive;
+        if (newHi != null) {
+            int compared = hi == null ? -1 : KEY_ORDER.compare(newHi, hi);
+            if (compared < 0 || (compared == 0 && !newHiInclusive)) {
+                h = newHi;
+                hiIncl = newHiInclusive;
+            }
+        }
+        return new RedisSortedMap(this, l, loIncl, h, hiIncl, descending);
+    }
+
+    private static Entry<String, Integer> first(List<Entry<String, Integer>> entries) {
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    private static String key(Entry<String, Integer> entry) {
+        if (entry == null) {
+            throw new NoSuchElementException();
+        }
+        return entry.getKey();
+    }
+
+    private static String keyOrNull(Entry<String, Integer> entry) {
+        return entry != null ? entry.getKey() : null;
+    }
+
+    private <T> Iterator<T> iterator(Function<Entry<String, Integer>, T> mapper) {
+        return new RangeIterator<>(mapper);
+    }
+
+    /**
+     * Iterates over the range of this map page by page, each page starts after the last key of the previous one
+     */
+    private class RangeIterator<T> implements Iterator<T> {
+        private final Function<Entry<String, Integer>, T> mapper;
+        private List<Entry<String, Integer>> page;
+        private int next;
+        private Entry<String, Integer> last;
+
+        private RangeIterator(Function<Entry<String, Integer>, T> mapper) {
+            this.mapper = mapper;
+            this.page = range(firstBound(), lastBound(), descending, pageSize, false);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == page.size() && page.size() == pageSize) {
+                page = range("(" + page.get(next - 1).getKey(), lastBound(), descending, pageSize, false);
+                next = 0;
+            }
+            return next < page.size();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = page.get(next++);
+            return mapper.apply(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            RedisSortedMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    /**
+     * Entry whose value is written through to redis
+     */
+    private class WriteThroughEntry extends SimpleEntry<String, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private WriteThroughEntry(Entry<String, Integer> e) {
+            super(e);
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Integer>> {
+        @Override
+        public Iterator<Entry<String, Integer>> iterator() {
+            return RedisSortedMap.this.iterator(WriteThroughEntry::new);
+        }
+
+        @Override
+        public int size() {
+            return RedisSortedMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Entry<?, ?> e && e.getKey() != null && e.getValue() != null
+                    && e.getValue().equals(get(e.getKey()));
+        }
+
+        @Override
+        public void clear() {
+            RedisSortedMap.this.clear();
+        }
+    }
+
+    private static final class KeySet extends AbstractSet<String> implements NavigableSet<String> {
+        private final RedisSortedMap map;
+
+        private KeySet(RedisSortedMap map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return map.iterator(Entry::getKey);
+        }
+
+        @Override
+        public Iterator<String> descendingIterator() {
+            return map.descendingMap().iterator(Entry::getKey);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return map.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public String first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public String last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public String lower(String key) {
+            return map.lowerKey(key);
+        }
+
+        @Override
+        public String floor(String key) {
+            return map.floorKey(key);
+        }
+
+        @Override
+        public String ceiling(String key) {
+            return map.ceilingKey(key);
+        }
+
+        @Override
+        public String higher(String key) {
+            return map.higherKey(key);
+        }
+
+        @Override
+        public String pollFirst() {
+            return keyOrNull(map.pollFirstEntry());
+        }
+
+        @Override
+        public String pollLast() {
+            return keyOrNull(map.pollLastEntry());
+        }
+
+        @Override
+        public NavigableSet<String> descendingSet() {
+            return new KeySet(map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<String> subSet(String fromElement, boolean fromInclusive, String toElement, boolean toInclusive) {
+            return new KeySet(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<String> headSet(String toElement, boolean inclusive) {
+            return new KeySet(map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<String> tailSet(String fromElement, boolean inclusive) {
+            return new KeySet(map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<String> subSet(String fromElement, String toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<String> headSet(String toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<String> tailSet(String fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.example.util;
+
+/**
+ * Snapshot of counters of reads routed by {@link ReadFrom}
+ * @param replicaReads reads served by a replica
+ * @param masterReads reads sent to the master, fallbacks included
+ * @param fallbacks reads a replica failed and the master served instead
+ * @param replicas replicas reads can currently be sent to, those lagging behind their master too much are not counted
+ */
+public record ReplicaReadStats(long replicaReads, long masterReads, long fallbacks, int replicas) {
+}
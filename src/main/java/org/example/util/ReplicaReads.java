@@ -0,0 +1,265 @@
+package org.example.util;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Routes reads of hashes to replicas of a cluster according to {@link ReadFrom}, other commands go to the master.
+ * Replicas of every slot are read from CLUSTER SLOTS and refreshed periodically. With a bounded lag the replication
+ * offsets every master reports in INFO replication are checked too: a replica whose offset is more bytes behind
+ * master_repl_offset than allowed is skipped.
+ * Connections to replicas come from the pools of the cluster client, READONLY is sent once per connection.
+ * A read a replica fails to serve, e.g. because it is down or no longer serves the slot, is sent to the master.
+ * HSCAN goes to the master too: a cursor is only valid on the node that returned it, and routes change with every
+ * refresh and every fallback, so the pages of one scan could come from different nodes and skip or repeat entries
+ */
+final class ReplicaReads implements AutoCloseable {
+    static final Duration REFRESH_INTERVAL = Duration.ofSeconds(1);
+    private static final int SLOTS = 16384;
+    private static final Set<String> READS = Set.of("hget", "hmget", "hexists", "hlen", "hstrlen", "hgetAll", "hkeys",
+            "hvals");
+
+    private final JedisBinaryCommands master;
+    private final Supplier<? extends Map<String, ? extends Pool<Connection>>> nodes;
+    private final Supplier<Connection> control;
+    private final ReadFrom readFrom;
+    private final long maxLagBytes;
+    private final Set<Connection> readOnly = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final AtomicLong turn = new AtomicLong();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder masterReads = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final ScheduledExecutorService refresher;
+    private volatile Routes routes = new Routes(Collections.nCopies(SLOTS, List.of()), 0);
+
+    /**
+     * Replicas reads can be sent to by slot
+     */
+    private record Routes(List<List<Pool<Connection>>> bySlot, int replicas) {
+    }
+
+    /**
+     * Initializes routing and reads the replicas of every slot right away
+     * @param name name of the refresh thread
+     * @param master commands the cluster client routes to masters
+     * @param nodes pools of connections of the cluster client by "host:port" of the node
+     * @param control opens a connection to any node of the cluster, used to read the slots
+     * @param readFrom nodes reads are sent to, other than {@link ReadFrom#MASTER}
+     * @param maxLagBytes maximum number of bytes of the replication stream a replica may be behind its master,
+     * negative if the lag is not checked
+     */
+    ReplicaReads(String name, JedisBinaryCommands master, Supplier<? extends Map<String, ? extends Pool<Connection>>> nodes,
+                 Supplier<Connection> control, ReadFrom readFrom, long maxLagBytes) {
+        this.master = master;
+        this.nodes = nodes;
+        this.control = control;
+        this.readFrom = readFrom;
+        this.maxLagBytes = maxLagBytes;
+        refresh();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(task -> Thread.ofPlatform()
+                .daemon()
+                .name("redis-map-replicas-" + name)
+                .unstarted(task));
+        long interval = REFRESH_INTERVAL.toNanos();
+        this.refresher.scheduleWithFixedDelay(this::refreshQuietly, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns commands that send reads of hashes to replicas and everything else to the master
+     * @return routed commands
+     */
+    JedisBinaryCommands commands() {
+        return (JedisBinaryCommands) Proxy.newProxyInstance(JedisBinaryCommands.class.getClassLoader(),
+                new Class<?>[]{JedisBinaryCommands.class}, (proxy, method, args) -> route(method, args));
+    }
+
+    /**
+     * Returns counters of routed reads
+     * @return counters of routed reads
+     */
+    ReplicaReadStats stats() {
+        return new ReplicaReadStats(replicaReads.sum(), masterReads.sum(), fallbacks.sum(), routes.replicas());
+    }
+
+    /**
+     * Reads replicas of every slot, and their lags if the lag is bounded
+     */
+    @SuppressWarnings("unchecked")
+    void refresh() {
+        Map<String, ? extends Pool<Connection>> pools = nodes.get();
+        List<Object> slots;
+        try (Connection connection = control.get()) {
+            slots = (List<Object>) connection.executeCommand(new CommandArguments(Protocol.Command.CLUSTER).add("SLOTS"));
+        }
+        List<List<Pool<Connection>>> bySlot = new ArrayList<>(Collections.nCopies(SLOTS, List.of()));
+        Set<Pool<Connection>> replicas = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object slotRange : slots) {
+            List<Object> range = (List<Object>) slotRange;
+            Map<String, Long> lags = maxLagBytes >= 0 ? lags(pools.get(node(range.get(2)))) : null;
+            List<Pool<Connection>> rangeReplicas = new ArrayList<>();
+            for (Object replica : range.subList(3, range.size())) {
+                String node = node(replica);
+                Pool<Connection> pool = pools.get(node);
+                Long lag = lags != null ? lags.get(node) : null;
+                if (pool != null && (lags == null || (lag != null && lag <= maxLagBytes))) {
+                    rangeReplicas.add(pool);
+                }
+            }
+            List<Pool<Connection>> route = List.copyOf(rangeReplicas);
+            for (int slot = ((Long) range.get(0)).intValue(); slot <= ((Long) range.get(1)).intValue(); slot++) {
+                bySlot.set(slot, route);
+            }
+            replicas.addAll(route);
+        }
+        routes = new Routes(bySlot, replicas.size());
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // the previous routes stay until the cluster answers again, failing replicas fall back to masters
+        }
+    }
+
+    /**
+     * Returns "host:port" of a node listed by CLUSTER SLOTS
+     */
+    @SuppressWarnings("unchecked")
+    private static String node(Object info) {
+        List<Object> node = (List<Object>) info;
+        return SafeEncoder.encode((byte[]) node.get(0)) + ":" + node.get(1);
+    }
+
+    /**
+     * Reads lags in bytes of online replicas of a master: master_repl_offset minus the offset of lines like
+     * "slave0:ip=127.0.0.1,port=7004,state=online,offset=1234,lag=0" of INFO replication. The lag field there is
+     * seconds since the last acknowledgement of the replica, which says it is alive, not how far behind it is
+     */
+    private static Map<String, Long> lags(Pool<Connection> master) {
+        if (master == null) {
+            return Map.of();
+        }
+        String info;
+        try (Connection connection = master.getResource()) {
+            info = new Jedis(connection).info("replication");
+        }
+        long masterOffset = -1;
+        Map<String, Long> offsets = new HashMap<>();
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith("master_repl_offset:")) {
+                masterOffset = Long.parseLong(line.substring("master_repl_offset:".length()).trim());
+                continue;
+            }
+            if (!line.startsWith("slave") || line.indexOf(':') < 0) {
+                continue;
+            }
+            Map<String, String> fields = new HashMap<>();
+            for (String field : line.substring(line.indexOf(':') + 1).split(",")) {
+                int eq = field.indexOf('=');
+                if (eq > 0) {
+                    fields.put(field.substring(0, eq), field.substring(eq + 1));
+                }
+            }
+            if ("online".equals(fields.get("state")) && fields.containsKey("offset")) {
+                offsets.put(fields.get("ip") + ":" + fields.get("port"), Long.parseLong(fields.get("offset")));
+            }
+        }
+        if (masterOffset < 0) {
+            return Map.of();
+        }
+        Map<String, Long> lags = new HashMap<>();
+        for (Map.Entry<String, Long> offset : offsets.entrySet()) {
+            lags.put(offset.getKey(), Math.max(0, masterOffset - offset.getValue()));
+        }
+        return lags;
+    }
+
+    private Object route(Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class || !READS.contains(method.getName())
+                || !(args[0] instanceof byte[] key)) {
+            return invoke(master, method, args);
+        }
+        Pool<Connection> replica = pick(JedisClusterCRC16.getSlot(key));
+        if (replica != null) {
+            try (Connection connection = replica.getResource()) {
+                Jedis jedis = new Jedis(connection);
+                if (readOnly.add(connection)) {
+                    try {
+                        jedis.readonly();
+                    } catch (RuntimeException e) {
+                        readOnly.remove(connection);
+                        throw e;
+                    }
+                }
+                Object result = invoke(jedis, method, args);
+                replicaReads.increment();
+                return result;
+            } catch (JedisException e) {
+                if (e instanceof JedisDataException && !(e instanceof JedisRedirectionException)) {
+                    throw e;
+                }
+                fallbacks.increment();
+                refresher.execute(this::refreshQuietly);
+            }
+        }
+        masterReads.increment();
+        return invoke(master, method, args);
+    }
+
+    /**
+     * Picks a replica of the slot, or NULL if the master should serve the read
+     */
+    private Pool<Connection> pick(int slot) {
+        List<Pool<Connection>> replicas = routes.bySlot().get(slot);
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        int choices = readFrom == ReadFrom.ROUND_ROBIN ? replicas.size() + 1 : replicas.size();
+        int choice = (int) Math.floorMod(turn.getAndIncrement(), (long) choices);
+        return choice < replicas.size() ? replicas.get(choice) : null;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,295 @@
+package org.example.util;
+
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the time commands of a map take: every command fails once its deadline passes, a read that takes longer than
+ * a percentile of recent reads is sent once more and the first answer wins, and a hash whose node keeps failing is
+ * not sent any command for a while, so callers fail fast instead of waiting for the socket timeout.
+ * <p>
+ * With a deadline or hedging commands run on virtual threads, the caller waits for them at most until the deadline.
+ * A command left behind is not interrupted, it finishes in the background and its connection goes back to the pool.
+ * A duplicate read borrows another connection, with replica reads it goes to the next node of the slot.
+ * Circuits are kept per redis hash, which lives on one node, so a failing node opens the circuits of all its hashes.
+ * Pipelines bypass all of it
+ */
+final class Resilience implements AutoCloseable {
+    /**
+     * Number of reads measured before hedging starts, so the percentile means something
+     */
+    static final int MIN_SAMPLES = 100;
+    private static final Set<String> READS = Set.of("hget", "hmget", "hexists", "hlen", "hstrlen", "hscan", "hgetAll",
+            "hkeys", "hvals", "get");
+
+    private final Duration deadline;
+    private final double hedgeQuantile;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final ExecutorService executor;
+    private final Map<ByteBuffer, Circuit> circuits = new ConcurrentHashMap<>();
+    private final LatencyHistogram answered = new LatencyHistogram();
+    private final LatencyHistogram primaries = new LatencyHistogram();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder deadlinesExceeded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Initializes guards of commands
+     * @param deadline time a command may take, or NULL
+     * @param hedgeQuantile percentile of read latency after which a read is sent again, e.g. 0.95, or 0 not to hedge
+     * @param failureThreshold connection failures in a row that open the circuit of a hash, or 0 for no circuits
+     * @param openFor time an open circuit rejects commands before it lets one through to try the node again
+     */
+    Resilience(Duration deadline, double hedgeQuantile, int failureThreshold, Duration openFor) {
+        this.deadline = deadline;
+        this.hedgeQuantile = hedgeQuantile;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openFor != null ? openFor.toNanos() : 0;
+        this.executor = deadline != null || hedgeQuantile > 0 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    /**
+     * Wraps commands, so every command sent through them is guarded
+     * @param commands commands to be wrapped
+     * @return guarded commands
+     */
+    JedisBinaryCommands wrap(JedisBinaryCommands commands) {
+        return (JedisBinaryCommands) Proxy.newProxyInstance(JedisBinaryCommands.class.getClassLoader(),
+                new Class<?>[]{JedisBinaryCommands.class}, (proxy, method, args) -> guard(commands, method, args));
+    }
+
+    /**
+     * Returns counters of guarded commands
+     * @return counters of guarded commands
+     */
+    ResilienceStats stats() {
+        long now = System.nanoTime();
+        int open = (int) circuits.values().stream().filter(circuit -> circuit.isOpen(now)).count();
+        return new ResilienceStats(reads.sum(), hedges.sum(), hedgeWins.sum(), deadlinesExceeded.sum(), rejected.sum(),
+                open, Duration.ofNanos(answered.valueAt(0.99)), Duration.ofNanos(primaries.valueAt(0.99)));
+    }
+
+    private Object guard(JedisBinaryCommands target, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) {
+            return invoke(target, method, args);
+        }
+        long started = System.nanoTime();
+        Circuit circuit = circuitOf(method, args);
+        if (circuit != null && !circuit.tryAcquire(started)) {
+            rejected.increment();
+            throw new JedisConnectionException("Circuit of " + circuit.name + " is open, the node failed "
+                    + failureThreshold + " times in a row");
+        }
+        boolean read = READS.contains(method.getName());
+        try {
+            Object result = executor != null
+                    ? await(target, method, args, read, started)
+                    : invoke(target, method, args);
+            if (circuit != null) {
+                circuit.success();
+            }
+            if (read) {
+                reads.increment();
+                answered.record(System.nanoTime() - started);
+                if (executor == null) {
+                    primaries.record(System.nanoTime() - started);
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            if (circuit != null && e instanceof JedisConnectionException) {
+                circuit.failure(System.nanoTime());
+            } else if (circuit != null) {
+                // the node answered, with an error of the command
+                circuit.success();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a command on a virtual thread, sends a read once more if it is slow, and waits until the deadline
+     */
+    private Object await(JedisBinaryCommands target, Method method, Object[] args, boolean read, long started) {
+        CompletableFuture<Object> primary = CompletableFuture.supplyAsync(() -> invoke(target, method, args), executor);
+        if (read) {
+            primary.whenComplete((result, error) -> primaries.record(System.nanoTime() - started));
+        }
+        long deadlineAt = deadline != null ? started + deadline.toNanos() : Long.MAX_VALUE;
+        CompletableFuture<Object> first = primary;
+        long hedgeAfter = read ? hedgeDelay() : -1;
+        if (hedgeAfter >= 0 && started + hedgeAfter < deadlineAt) {
+            try {
+                return primary.get(hedgeAfter, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                hedges.increment();
+                first = firstSuccess(primary,
+                        CompletableFuture.supplyAsync(() -> invoke(target, method, args), executor));
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JedisConnectionException("Interrupted while waiting for " + method.getName(), e);
+            }
+        }
+        try {
+            return deadlineAt == Long.MAX_VALUE
+                    ? first.get()
+                    : first.get(deadlineAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            deadlinesExceeded.increment();
+            throw new JedisConnectionException("Deadline of " + deadline + " exceeded by " + method.getName(), e);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException("Interrupted while waiting for " + method.getName(), e);
+        }
+    }
+
+    /**
+     * Returns time after which a read is sent once more, or -1 if reads are not hedged yet
+     */
+    private long hedgeDelay() {
+        if (hedgeQuantile <= 0 || reads.sum() < MIN_SAMPLES) {
+            return -1;
+        }
+        return primaries.valueAt(hedgeQuantile);
+    }
+
+    /**
+     * Completes with the first successful answer, or with the failure of the hedge if both fail
+     */
+    private CompletableFuture<Object> firstSuccess(CompletableFuture<Object> primary, CompletableFuture<Object> hedge) {
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((result, error) -> {
+            if (error == null) {
+                first.complete(result);
+            } else if (failures.incrementAndGet() == 2) {
+                first.completeExceptionally(error);
+            }
+        });
+        hedge.whenComplete((result, error) -> {
+            if (error == null) {
+                // counted before completing, so the caller that wakes up sees the win
+                hedgeWins.increment();
+                if (!first.complete(result)) {
+                    hedgeWins.decrement();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                first.completeExceptionally(error);
+            }
+        });
+        return first;
+    }
+
+    /**
+     * Returns circuit of the hash a command is sent to, the first key of a script, or NULL for commands of no hash
+     */
+    private Circuit circuitOf(Method method, Object[] args) {
+        if (failureThreshold <= 0 || args == null || args.length == 0) {
+            return null;
+        }
+        Object key = args[0];
+        if (method.getName().startsWith("eval")) {
+            key = args.length > 1 && args[1] instanceof List<?> keys && !keys.isEmpty() ? keys.get(0) : null;
+        }
+        if (!(key instanceof byte[] bytes)) {
+            return null;
+        }
+        return circuits.computeIfAbsent(ByteBuffer.wrap(bytes), k -> new Circuit(new String(bytes)));
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+            return cause;
+        }
+        if (e.getCause() instanceof Error cause) {
+            throw cause;
+        }
+        return new UndeclaredThrowableException(e.getCause());
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Circuit breaker of one hash: closed until failureThreshold connection failures in a row, then open for openFor,
+     * then half open, letting a single command through whose outcome closes or opens it again
+     */
+    private final class Circuit {
+        private final String name;
+        private int failures;
+        private long openUntil;
+        private boolean trying;
+
+        private Circuit(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            if (failures < failureThreshold) {
+                return true;
+            }
+            if (now - openUntil < 0 || trying) {
+                return false;
+            }
+            trying = true;
+            return true;
+        }
+
+        synchronized void success() {
+            failures = 0;
+            trying = false;
+        }
+
+        synchronized void failure(long now) {
+            failures++;
+            trying = false;
+            if (failures >= failureThreshold) {
+                openUntil = now + openNanos;
+            }
+        }
+
+        synchronized boolean isOpen(long now) {
+            return failures >= failureThreshold && now - openUntil < 0;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.util;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of counters of deadlines, hedged reads and circuit breakers of a map, see
+ * {@link RedisMap.Builder#hedgeReads(double)}
+ * @param reads reads answered
+ * @param hedges reads sent once more because the first attempt was slow
+ * @param hedgeWins hedges that answered before the first attempt
+ * @param deadlinesExceeded commands that failed because their deadline passed
+ * @param rejected commands failed fast because the circuit of their hash was open
+ * @param openCircuits circuits open right now
+ * @param p99 99th percentile of read latency as seen by callers
+ * @param p99WithoutHedging 99th percentile of latency of first attempts of reads, what callers would see without hedging
+ */
+public record ResilienceStats(long reads, long hedges, long hedgeWins, long deadlinesExceeded, long rejected,
+                             int openCircuits, Duration p99, Duration p99WithoutHedging) {
+
+    /**
+     * Returns share of reads that were hedged
+     * @return hedges per read, 0 before any read
+     */
+    public double hedgeRate() {
+        return reads > 0 ? (double) hedges / reads : 0;
+    }
+
+    /**
+     * Returns how much hedging cut the 99th percentile of read latency
+     * @return difference of the percentiles without and with hedging
+     */
+    public Duration p99Improvement() {
+        return p99WithoutHedging.minus(p99);
+    }
+}
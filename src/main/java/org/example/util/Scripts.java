@@ -0,0 +1,505 @@
+package org.example.util;
+
+/**
+ * Lua scripts that make compound hash operations atomic and take a single round trip.
+ * Every script touches only KEYS[1] and its companion keys, which share its slot, so it can be run against any hash in a cluster
+ */
+final class Scripts {
+    /**
+     * Sets ARGV[2] under field ARGV[1] and returns the previous value
+     */
+    static final LuaScript PUT = new LuaScript("""
+            local old = redis.call('HGET', KEYS[1], ARGV[1])
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            return old
+            """);
+
+    /**
+     * Removes field ARGV[1] and returns its value, used when the server does not support HGETDEL
+     */
+    static final LuaScript REMOVE = new LuaScript("""
+            local old = redis.call('HGET', KEYS[1], ARGV[1])
+            if old then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+            end
+            return old
+            """);
+
+    /**
+     * Sets ARGV[2] under field ARGV[1] unless the field exists, returns the current value
+     */
+    static final LuaScript PUT_IF_ABSENT = new LuaScript("""
+            local old = redis.call('HGET', KEYS[1], ARGV[1])
+            if not old then
+                redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            end
+            return old
+            """);
+
+    /**
+     * Sets ARGV[2] under field ARGV[1] only if the field exists, returns the previous value
+     */
+    static final LuaScript REPLACE = new LuaScript("""
+            local old = redis.call('HGET', KEYS[1], ARGV[1])
+            if old then
+                redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            end
+            return old
+            """);
+
+    /**
+     * Sets ARGV[3] under field ARGV[1] only if its value is ARGV[2], returns 1 if it was set
+     */
+    static final LuaScript COMPARE_AND_SET = new LuaScript("""
+            if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+                redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])
+                return 1
+            end
+            return 0
+            """);
+
+    /**
+     * Removes field ARGV[1] only if its value is ARGV[2], returns 1 if it was removed
+     */
+    static final LuaScript COMPARE_AND_DELETE = new LuaScript("""
+            if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+                return 1
+            end
+            return 0
+            """);
+
+    /**
+     * Same as COMPARE_AND_SET for every triplet of field, expected value and new value in ARGV,
+     * returns 1 or 0 for every triplet
+     */
+    static final LuaScript COMPARE_AND_SET_ALL = new LuaScript("""
+            local result = {}
+            for i = 1, #ARGV, 3 do
+                if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then
+                    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 2])
+                    result[#result + 1] = 1
+                else
+                    result[#result + 1] = 0
+                end
+            end
+            return result
+            """);
+
+    /**
+     * Same as COMPARE_AND_DELETE for every pair of field and expected value in ARGV, returns number of deleted fields
+     */
+    static final LuaScript COMPARE_AND_DELETE_ALL = new LuaScript("""
+            local removed = 0
+            for i = 1, #ARGV, 2 do
+                if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then
+                    redis.call('HDEL', KEYS[1], ARGV[i])
+                    removed = removed + 1
+                end
+            end
+            return removed
+            """);
+
+    /**
+     * Applies a batch of writes to KEYS[1] if the fields it read still have the values it saw.
+     * ARGV[1] is the number of conditions, they follow as triplets of field, '1' if the field was present or '0' if not,
+     * and its value. Writes follow as triplets of 's' to set a field to a value, 'd' to delete a field, or 'i' to add
+     * a delta to the decimal value of a field. Returns nil if a condition does not hold, otherwise the values fields
+     * had before every write, in the order of writes. A delta that does not fit into 32 bits or a value that is
+     * not decimal fails the whole batch before anything is written
+     */
+    static final LuaScript BATCH = new LuaScript("""
+            local conditions = tonumber(ARGV[1])
+            for i = 2, 1 + 3 * conditions, 3 do
+                local actual = redis.call('HGET', KEYS[1], ARGV[i])
+                if (ARGV[i + 1] == '1') ~= (actual ~= false) or (actual and actual ~= ARGV[i + 2]) then
+                    return nil
+                end
+            end
+            local pending = {}
+            local old = {}
+            for i = 2 + 3 * conditions, #ARGV, 3 do
+                local field = ARGV[i + 1]
+                local value = pending[field]
+                if value == nil then
+                    value = redis.call('HGET', KEYS[1], field)
+                end
+                old[#old + 1] = value
+                if ARGV[i] == 's' then
+                    pending[field] = ARGV[i + 2]
+                elseif ARGV[i] == 'd' then
+                    pending[field] = false
+                else
+                    if value and not string.match(value, '^%-?%d+$') then
+                        return redis.error_reply('ERR hash value is not an integer')
+                    end
+                    local new = tonumber(value or '0') + tonumber(ARGV[i + 2])
+                    if new > 2147483647 or new < -2147483648 then
+                        return redis.error_reply('OVERFLOW ' .. field)
+                    end
+                    pending[field] = string.format('%d', new)
+                end
+            end
+            for field, value in pairs(pending) do
+                if value then
+                    redis.call('HSET', KEYS[1], field, value)
+                else
+                    redis.call('HDEL', KEYS[1], field)
+                end
+            end
+            return old
+            """);
+
+    /**
+     * Adds ARGV[2] to the decimal value of field ARGV[1] with HINCRBY and returns the new value, unless the sum does not
+     * fit into 32 bits: then nothing is written and the error is OVERFLOW followed by the field
+     */
+    static final LuaScript INCREMENT = new LuaScript("""
+            local sum = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0')
+            if sum then
+                sum = sum + tonumber(ARGV[2])
+                if sum > 2147483647 or sum < -2147483648 then
+                    return redis.error_reply('OVERFLOW ' .. ARGV[1])
+                end
+            end
+            return redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+            """);
+
+    /**
+     * Sets the value of key ARGV[1] of a sorted map to ARGV[2] and returns the previous value. KEYS[1] is the sorted set
+     * of keys, all scored 0 so they are ordered by their bytes, KEYS[2] is the sorted set of keys scored by their values
+     */
+    static final LuaScript SORTED_PUT = new LuaScript("""
+            local old = redis.call('ZSCORE', KEYS[2], ARGV[1])
+            redis.call('ZADD', KEYS[1], 0, ARGV[1])
+            redis.call('ZADD', KEYS[2], ARGV[2], ARGV[1])
+            return old
+            """);
+
+    /**
+     * Removes key ARGV[1] of a sorted map, see SORTED_PUT, and returns its value
+     */
+    static final LuaScript SORTED_REMOVE = new LuaScript("""
+            local old = redis.call('ZSCORE', KEYS[2], ARGV[1])
+            if old then
+                redis.call('ZREM', KEYS[1], ARGV[1])
+                redis.call('ZREM', KEYS[2], ARGV[1])
+            end
+            return old
+            """);
+
+    /**
+     * Returns up to ARGV[4] keys of a sorted map, see SORTED_PUT, between lex bounds ARGV[1] and ARGV[2], each followed
+     * by its value. With ARGV[3] = '1' keys are returned in reverse order, ARGV[1] is then the upper bound.
+     * With ARGV[5] = '1' the returned keys are removed
+     */
+    static final LuaScript SORTED_RANGE = new LuaScript("""
+            local members
+            if ARGV[3] == '1' then
+                members = redis.call('ZRANGE', KEYS[1], ARGV[1], ARGV[2], 'BYLEX', 'REV', 'LIMIT', 0, ARGV[4])
+            else
+                members = redis.call('ZRANGE', KEYS[1], ARGV[1], ARGV[2], 'BYLEX', 'LIMIT', 0, ARGV[4])
+            end
+            local entries = {}
+            for i, member in ipairs(members) do
+                entries[2 * i - 1] = member
+                entries[2 * i] = redis.call('ZSCORE', KEYS[2], member)
+            end
+            if ARGV[5] == '1' and #members > 0 then
+                redis.call('ZREM', KEYS[1], unpack(members))
+                redis.call('ZREM', KEYS[2], unpack(members))
+            end
+            return entries
+            """);
+
+    /**
+     * Maintains companions of KEYS[1]. ARGV[1] is the index mode: 'n' if values are numbers, members of KEYS[3]
+     * are then fields scored by their values, 'l' if values are indexed by their bytes, members of KEYS[3] then have
+     * score 0 and are "length:value" followed by the field, so they can be found by prefix, '-' if values are not indexed.
+     * KEYS[2] counts fields per value. With ARGV[2] = '1' KEYS[4] maps fields to hash codes of their entries
+     * and KEYS[5] holds the sum of those hash codes, wrapped to 32 bits the way Java int arithmetic does.
+     * ARGV[3] is the time to live of written fields in milliseconds, '0' if they do not expire. Unless it is '0'
+     * the use of a field recorded in KEYS[6] expires with the field, which takes HPTTL, so that is the only case
+     * in which a companion script needs redis 7.4 or newer.
+     * ARGV[4] is the maximum number of fields of KEYS[1], '0' if it is not bounded, ARGV[5] is then the eviction policy:
+     * 'r' if KEYS[6] maps fields to the time they were last used in microseconds, 'f' if it counts uses of fields.
+     * A write over the bound evicts the field of the lowest score among a few fields sampled from KEYS[6],
+     * the way redis approximates LRU and LFU of keys, and adds the number of evicted fields to KEYS[7].
+     * ARGV[6] is the maximum length of the change feed, '0' if there is none: every change of KEYS[1] is then added
+     * to the stream KEYS[8] as the number of the change counted by KEYS[9], the field and the new value, a removed
+     * field has no value and a cleared hash has no field.
+     * Script specific arguments start at ARGV[7]
+     */
+    private static final String COMPANION_FUNCTIONS = """
+            local function member(value, field)
+                if ARGV[1] == 'n' then
+                    return field
+                end
+                return string.len(value) .. ':' .. value .. field
+            end
+            local function index(value, field)
+                if ARGV[1] ~= '-' then
+                    redis.call('HINCRBY', KEYS[2], value, 1)
+                    redis.call('ZADD', KEYS[3], ARGV[1] == 'n' and value or 0, member(value, field))
+                end
+            end
+            local function unindex(value, field)
+                if ARGV[1] ~= '-' then
+                    if redis.call('HINCRBY', KEYS[2], value, -1) <= 0 then
+                        redis.call('HDEL', KEYS[2], value)
+                    end
+                    redis.call('ZREM', KEYS[3], member(value, field))
+                end
+            end
+            local function digest(field, hash)
+                if ARGV[2] ~= '1' then
+                    return
+                end
+                local delta = 0
+                local old = redis.call('HGET', KEYS[4], field)
+                if old then
+                    delta = -tonumber(old)
+                end
+                if hash then
+                    redis.call('HSET', KEYS[4], field, hash)
+                    delta = delta + tonumber(hash)
+                elseif old then
+                    redis.call('HDEL', KEYS[4], field)
+                end
+                if delta ~= 0 then
+                    local sum = tonumber(redis.call('GET', KEYS[5]) or '0')
+                    redis.call('SET', KEYS[5], tostring(bit.tobit(sum + delta)))
+                end
+            end
+            local function expire(field)
+                if ARGV[3] ~= '0' then
+                    redis.call('HPEXPIRE', KEYS[1], ARGV[3], 'FIELDS', 1, field)
+                end
+            end
+            local function touch(field)
+                if ARGV[4] == '0' then
+                    return
+                end
+                if ARGV[5] == 'f' then
+                    redis.call('HINCRBY', KEYS[6], field, 1)
+                else
+                    local now = redis.call('TIME')
+                    redis.call('HSET', KEYS[6], field, now[1] .. string.format('%06d', tonumber(now[2])))
+                end
+                if ARGV[3] == '0' then
+                    return
+                end
+                local ttl = redis.call('HPTTL', KEYS[1], 'FIELDS', 1, field)[1]
+                if ttl > 0 then
+                    redis.call('HPEXPIRE', KEYS[6], ttl, 'FIELDS', 1, field)
+                else
+                    redis.call('HPERSIST', KEYS[6], 'FIELDS', 1, field)
+                end
+            end
+            local function forget(field)
+                if ARGV[4] ~= '0' then
+                    redis.call('HDEL', KEYS[6], field)
+                end
+            end
+            local function publish(field, value)
+                if ARGV[6] == '0' then
+                    return
+                end
+                local change = {'seq', redis.call('INCR', KEYS[9])}
+                if field then
+                    change[3], change[4] = 'field', field
+                end
+                if value then
+                    change[5], change[6] = 'value', value
+                end
+                redis.call('XADD', KEYS[8], 'MAXLEN', '~', ARGV[6], '*', unpack(change))
+            end
+            local function evict(protected)
+                local max = tonumber(ARGV[4])
+                if max == 0 then
+                    return
+                end
+                local evicted = 0
+                while redis.call('HLEN', KEYS[1]) > max do
+                    local victim, lowest
+                    local sample = redis.call('HRANDFIELD', KEYS[6], 5, 'WITHVALUES')
+                    for i = 1, #sample, 2 do
+                        local score = tonumber(sample[i + 1])
+                        if sample[i] ~= protected and (not lowest or score < lowest) then
+                            victim, lowest = sample[i], score
+                        end
+                    end
+                    if not victim then
+                        for _, field in ipairs(redis.call('HRANDFIELD', KEYS[1], 2)) do
+                            if field ~= protected then
+                                victim = field
+                                break
+                            end
+                        end
+                    end
+                    local old = redis.call('HGET', KEYS[1], victim)
+                    if old then
+                        unindex(old, victim)
+                        redis.call('HDEL', KEYS[1], victim)
+                        digest(victim, nil)
+                        publish(victim, nil)
+                        evicted = evicted + 1
+                    end
+                    redis.call('HDEL', KEYS[6], victim)
+                end
+                if evicted > 0 then
+                    redis.call('INCRBY', KEYS[7], evicted)
+                end
+            end
+            """;
+
+    /**
+     * Writes field ARGV[7] of a hash with companions if the condition ARGV[8] holds: 'any', 'absent', 'present',
+     * or 'equals' to ARGV[9]. ARGV[10] is 'set' to set ARGV[11] whose entry hash code is ARGV[12],
+     * or 'del' to remove the field. Returns 1 or 0 depending on whether the write was made, followed by the previous value
+     */
+    static final LuaScript COMPANION_UPDATE = new LuaScript(COMPANION_FUNCTIONS + """
+            local field = ARGV[7]
+            local condition = ARGV[8]
+            local old = redis.call('HGET', KEYS[1], field)
+            if (condition == 'absent' and old) or (condition == 'present' and not old)
+                    or (condition == 'equals' and old ~= ARGV[9]) then
+                return {0, old}
+            end
+            if old then
+                unindex(old, field)
+            end
+            if ARGV[10] == 'set' then
+                redis.call('HSET', KEYS[1], field, ARGV[11])
+                index(ARGV[11], field)
+                digest(field, ARGV[12])
+                publish(field, ARGV[11])
+                expire(field)
+                touch(field)
+                evict(field)
+            elseif old then
+                redis.call('HDEL', KEYS[1], field)
+                digest(field, nil)
+                publish(field, nil)
+                forget(field)
+            end
+            return {1, old}
+            """);
+
+    /**
+     * Sets every triplet of field, value and entry hash code that follows ARGV[6] in a hash with companions
+     */
+    static final LuaScript COMPANION_SET_ALL = new LuaScript(COMPANION_FUNCTIONS + """
+            for i = 7, #ARGV, 3 do
+                local old = redis.call('HGET', KEYS[1], ARGV[i])
+                if old then
+                    unindex(old, ARGV[i])
+                end
+                redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+                index(ARGV[i + 1], ARGV[i])
+                digest(ARGV[i], ARGV[i + 2])
+                publish(ARGV[i], ARGV[i + 1])
+                expire(ARGV[i])
+                touch(ARGV[i])
+            end
+            evict(nil)
+            return 0
+            """);
+
+    /**
+     * Removes every field that follows ARGV[6] from a hash with companions, returns number of removed fields
+     */
+    static final LuaScript COMPANION_DELETE_ALL = new LuaScript(COMPANION_FUNCTIONS + """
+            local removed = 0
+            for i = 7, #ARGV do
+                local old = redis.call('HGET', KEYS[1], ARGV[i])
+                if old then
+                    unindex(old, ARGV[i])
+                    redis.call('HDEL', KEYS[1], ARGV[i])
+                    digest(ARGV[i], nil)
+                    publish(ARGV[i], nil)
+                    forget(ARGV[i])
+                    removed = removed + 1
+                end
+            end
+            return removed
+            """);
+
+    /**
+     * Adds ARGV[8] to field ARGV[7] of a hash with companions and returns the new value, see INCREMENT for a sum
+     * that does not fit into 32 bits. Values are ints, so hash code of the entry is hash code of the key ARGV[9]
+     * XOR the new value
+     */
+    static final LuaScript COMPANION_INCREMENT = new LuaScript(COMPANION_FUNCTIONS + """
+            local old = redis.call('HGET', KEYS[1], ARGV[7])
+            local sum = tonumber(old or '0')
+            if sum then
+                sum = sum + tonumber(ARGV[8])
+                if sum > 2147483647 or sum < -2147483648 then
+                    return redis.error_reply('OVERFLOW ' .. ARGV[7])
+                end
+            end
+            local new = redis.call('HINCRBY', KEYS[1], ARGV[7], ARGV[8])
+            if old then
+                unindex(old, ARGV[7])
+            end
+            index(tostring(new), ARGV[7])
+            if ARGV[2] == '1' then
+                digest(ARGV[7], tostring(bit.bxor(tonumber(ARGV[9]), bit.tobit(new))))
+            end
+            publish(ARGV[7], tostring(new))
+            expire(ARGV[7])
+            touch(ARGV[7])
+            evict(ARGV[7])
+            return new
+            """);
+
+    /**
+     * Reads field ARGV[7] of a hash with companions and records the use for the eviction policy
+     */
+    static final LuaScript COMPANION_GET = new LuaScript(COMPANION_FUNCTIONS + """
+            local value = redis.call('HGET', KEYS[1], ARGV[7])
+            if value then
+                touch(ARGV[7])
+            end
+            return value
+            """);
+
+    /**
+     * Reads every field that follows ARGV[6] from a hash with companions and records the uses for the eviction policy
+     */
+    static final LuaScript COMPANION_GET_ALL = new LuaScript(COMPANION_FUNCTIONS + """
+            local values = {}
+            for i = 7, #ARGV do
+                local value = redis.call('HGET', KEYS[1], ARGV[i])
+                if value then
+                    touch(ARGV[i])
+                end
+                values[i - 6] = value or false
+            end
+            return values
+            """);
+
+    /**
+     * Removes a hash with companions, the change feed and the number of evictions stay, the feed gets a clear
+     */
+    static final LuaScript COMPANION_CLEAR = new LuaScript(COMPANION_FUNCTIONS + """
+            redis.call('DEL', KEYS[1], KEYS[2], KEYS[3], KEYS[4], KEYS[5], KEYS[6])
+            publish(nil, nil)
+            return 0
+            """);
+
+    /**
+     * Sets ARGV[2] under field ARGV[1] that expires in ARGV[3] milliseconds and returns the previous value,
+     * requires redis 7.4 or newer
+     */
+    static final LuaScript PUT_EXPIRING = new LuaScript("""
+            local old = redis.call('HGET', KEYS[1], ARGV[1])
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('HPEXPIRE', KEYS[1], ARGV[3], 'FIELDS', 1, ARGV[1])
+            return old
+            """);
+
+    private Scripts() {
+    }
+}
@@ -0,0 +1,197 @@
+package org.example.util;
+
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Redis hashes that together hold the data of one map.
+ * Fields are routed to a hash by CRC16 of the field, so every client computes the same placement.
+ * Hash keys carry hash tags that put them into evenly spread slots, so in a cluster with evenly distributed slots
+ * every master gets its share of the hashes
+ */
+final class Shards implements AutoCloseable {
+    private static final int SLOTS = 16384;
+
+    private final List<String> keys;
+    private final List<byte[]> binaryKeys;
+    private final ExecutorService executor;
+
+    private Shards(List<String> keys, ExecutorService executor) {
+        this.keys = keys;
+        this.binaryKeys = keys.stream().map(SafeEncoder::encode).toList();
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a single hash, so the map is stored exactly under the given key
+     * @param redisHashKey redis hash key
+     * @return single shard
+     */
+    static Shards single(String redisHashKey) {
+        return new Shards(List.of(redisHashKey), null);
+    }
+
+    /**
+     * Creates sharded hashes
+     * @param redisHashKey redis hash key the shard keys are derived from
+     * @param count number of shards
+     * @param parallel whether operations over all shards can be run concurrently
+     * @return shards
+     */
+    static Shards of(String redisHashKey, int count, boolean parallel) {
+        if (count == 1) {
+            return single(redisHashKey);
+        }
+        if (redisHashKey.indexOf('{') >= 0) {
+            throw new IllegalArgumentException("Sharded map key cannot contain a hash tag: " + redisHashKey);
+        }
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(shardKey(redisHashKey, i, count));
+        }
+        ExecutorService executor = parallel ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        return new Shards(List.copyOf(keys), executor);
+    }
+
+    /**
+     * Picks the first key of the shard whose slot falls into the shard's part of the slot range
+     */
+    private static String shardKey(String redisHashKey, int index, int count) {
+        int from = (int) ((long) SLOTS * index / count);
+        int to = (int) ((long) SLOTS * (index + 1) / count);
+        for (int salt = 0; ; salt++) {
+            String tag = index + "." + salt;
+            int slot = JedisClusterCRC16.getSlot(tag);
+            if (slot >= from && slot < to) {
+                return redisHashKey + ":{" + tag + "}";
+            }
+        }
+    }
+
+    /**
+     * Derives a key that lives in the same slot as the given key, so a script can touch both in a cluster.
+     * A key without a hash tag is wrapped into one, since the slot of "{key}" is the slot of "key"
+     * @param key redis key
+     * @param suffix distinguishes companion keys of the same key
+     * @return companion key
+     * @throws IllegalArgumentException if the key has no hash tag but contains '}', so it cannot be wrapped
+     */
+    static String companionKey(String key, String suffix) {
+        int open = key.indexOf('{');
+        int close = open >= 0 ? key.indexOf('}', open + 1) : -1;
+        if (close > open + 1) {
+            return key + ":" + suffix;
+        }
+        if (key.indexOf('}') >= 0) {
+            throw new IllegalArgumentException("Key without a hash tag cannot contain '}': " + key);
+        }
+        return "{" + key + "}:" + suffix;
+    }
+
+    /**
+     * Returns number of shards
+     * @return number of shards
+     */
+    int count() {
+        return keys.size();
+    }
+
+    /**
+     * Returns keys of all shards
+     * @return keys of all shards
+     */
+    List<String> keys() {
+        return keys;
+    }
+
+    /**
+     * Returns keys of all shards in the form binary commands take
+     * @return keys of all shards
+     */
+    List<byte[]> binaryKeys() {
+        return binaryKeys;
+    }
+
+    /**
+     * Returns index of the shard that holds the field
+     * @param field encoded field of the map
+     * @return index of the shard
+     */
+    int indexOf(byte[] field) {
+        return keys.size() == 1 ? 0 : JedisClusterCRC16.getCRC16(field) % keys.size();
+    }
+
+    /**
+     * Returns key of the shard that holds the field
+     * @param field encoded field of the map
+     * @return redis hash key of the shard
+     */
+    byte[] keyFor(byte[] field) {
+        return binaryKeys.get(indexOf(field));
+    }
+
+    /**
+     * Runs an operation against every shard
+     * @param operation operation that takes redis hash key of a shard
+     * @return results in the order of shards
+     */
+    <T> List<T> map(Function<String, T> operation) {
+        return mapIndexed(i -> operation.apply(keys.get(i)));
+    }
+
+    /**
+     * Runs an operation against every shard
+     * @param operation operation that takes index of a shard
+     * @return results in the order of shards
+     */
+    <T> List<T> mapIndexed(IntFunction<T> operation) {
+        if (executor == null) {
+            List<T> results = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                results.add(operation.apply(i));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(keys.size());
+        Instrumentation.Scope scope = Instrumentation.current();
+        for (int i = 0; i < keys.size(); i++) {
+            int index = i;
+            futures.add(executor.submit(() -> Instrumentation.callIn(scope, () -> operation.apply(index))));
+        }
+        List<T> results = new ArrayList<>(keys.size());
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
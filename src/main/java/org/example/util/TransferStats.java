@@ -0,0 +1,33 @@
+package org.example.util;
+
+import java.time.Duration;
+
+/**
+ * Progress of a bulk import or export, see {@link RedisMapTransfer}
+ * @param entries entries transferred so far
+ * @param bytes bytes of encoded keys and values transferred so far
+ * @param elapsed time since the transfer started
+ */
+public record TransferStats(long entries, long bytes, Duration elapsed) {
+
+    /**
+     * Returns the throughput in entries
+     * @return entries per second, 0 before any time elapsed
+     */
+    public double entriesPerSecond() {
+        return perSecond(entries);
+    }
+
+    /**
+     * Returns the throughput in bytes of encoded keys and values
+     * @return bytes per second, 0 before any time elapsed
+     */
+    public double bytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    private double perSecond(long count) {
+        long nanos = elapsed.toNanos();
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+}
@@ -0,0 +1,300 @@
+package org.example.util;
+
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.commands.JedisCommands;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers writes of a map locally and flushes them to redis in batches.
+ * Repeated writes of the same field are coalesced, so only the last one reaches redis.
+ * A batch is written as one multi-field HSET and one multi-field HDEL per hash, all sent in a single pipeline.
+ * Batches are flushed by a background thread when enough writes are buffered or the flush interval elapses.
+ * A batch that fails goes back to the buffer and is retried by the next flush, the failure is counted in the stats.
+ * A single instance of redis is not thread safe, so with it flushes are made by the writing thread instead.
+ * With companion keys, e.g. value index or bounds, every hash is written by companion scripts, one call per hash, instead of the pipeline
+ * @param <K> type of keys of the map
+ */
+final class WriteBehindBuffer<K> implements AutoCloseable {
+    /**
+     * Marker of a buffered removal
+     */
+    static final Object TOMBSTONE = new Object();
+
+    private final JedisCommands commands;
+    private final JedisBinaryCommands binary;
+    private final Codec<K> keyCodec;
+    private final Shards shards;
+    private final HashCompanions companions;
+    private final int batchSize;
+    private final int maxPending;
+    private final long intervalNanos;
+    private final Map<K, Object> pending = new ConcurrentHashMap<>();
+    private final Map<K, Object> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedWrites = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private volatile RuntimeException lastFailure;
+    private volatile long lastFlushStarted = System.nanoTime();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private long totalFlushNanos;
+
+    /**
+     * Initializes write behind buffer
+     * @param commands can be a cluster or can be a single instance of redis
+     * @param keyCodec codec of keys of the map
+     * @param shards hashes the map is stored in
+     * @param companions companion keys of the hashes, or NULL
+     * @param batchSize number of buffered writes that triggers a flush, also the maximum number of writes per pipeline
+     * @param interval maximum time a write stays buffered
+     */
+    WriteBehindBuffer(JedisCommands commands, Codec<K> keyCodec, Shards shards, HashCompanions companions, int batchSize,
+                      Duration interval) {
+        this.commands = commands;
+        this.binary = Pipelines.binary(commands);
+        this.keyCodec = keyCodec;
+        this.shards = shards;
+        this.companions = companions;
+        this.batchSize = batchSize;
+        this.maxPending = batchSize * 4;
+        this.intervalNanos = interval.toNanos();
+        if (Pipelines.isThreadSafe(commands)) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(task -> Thread.ofPlatform()
+                    .daemon()
+                    .name("redis-map-write-behind-" + shards.keys().get(0))
+                    .unstarted(task));
+            this.flusher.scheduleWithFixedDelay(this::flushInBackground, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Looks up a buffered write of the field
+     * @param field key of the map
+     * @return buffered encoded value, {@link #TOMBSTONE} if removal of the field is buffered, or NULL if nothing is buffered
+     */
+    Object lookup(Object field) {
+        Object value = pending.get(field);
+        return value != null ? value : inFlight.get(field);
+    }
+
+    /**
+     * Buffers a write of the field
+     * @param field key of the map
+     * @param value encoded value, or {@link #TOMBSTONE} to remove the field
+     */
+    void write(K field, Object value) {
+        pending.put(field, value);
+        int size = pending.size();
+        if (size >= maxPending) {
+            // redis does not keep up, making the writer wait for a flush
+            flushBatch();
+        } else if (flusher == null) {
+            if (size >= batchSize || System.nanoTime() - lastFlushStarted >= intervalNanos) {
+                flushBatch();
+            }
+        } else if (size >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushInBackground);
+        }
+    }
+
+    /**
+     * Drops all buffered writes and runs the action while no flush is in progress, used to clear the map
+     * @param action action to be run
+     */
+    void discardAndRun(Runnable action) {
+        flushLock.lock();
+        try {
+            pending.clear();
+            action.run();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all buffered writes to redis, it is a durability barrier for all writes made before the call
+     */
+    void flush() {
+        while (!pending.isEmpty()) {
+            flushBatch();
+        }
+    }
+
+    private void flushInBackground() {
+        flushRequested.set(false);
+        try {
+            while (!pending.isEmpty()) {
+                flushBatch();
+                if (pending.size() < batchSize && System.nanoTime() - lastFlushStarted < intervalNanos) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // writes were returned to the buffer and the failure recorded, next run retries them
+        }
+    }
+
+    private void flushBatch() {
+        flushLock.lock();
+        try {
+            long started = System.nanoTime();
+            lastFlushStarted = started;
+            Map<K, Object> batch = takeBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeToRedis(batch);
+            } catch (RuntimeException e) {
+                failedFlushes.increment();
+                lastFailure = e;
+                // newer writes of the same fields win over the returned ones
+                batch.forEach(pending::putIfAbsent);
+                throw e;
+            } finally {
+                batch.forEach(inFlight::remove);
+            }
+            long elapsed = System.nanoTime() - started;
+            flushes.increment();
+            flushedWrites.add(batch.size());
+            lastFlushNanos = elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+            totalFlushNanos += elapsed;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to a batch of writes to the in flight buffer, so they stay visible to readers until redis has them
+     */
+    private Map<K, Object> takeBatch() {
+        Map<K, Object> batch = new HashMap<>();
+        Iterator<K> fields = pending.keySet().iterator();
+        while (fields.hasNext() && batch.size() < batchSize) {
+            K field = fields.next();
+            Object value = pending.get(field);
+            if (value == null) {
+                continue;
+            }
+            inFlight.put(field, value);
+            if (pending.remove(field, value)) {
+                batch.put(field, value);
+            } else {
+                inFlight.remove(field, value);
+            }
+        }
+        return batch;
+    }
+
+    private void writeToRedis(Map<K, Object> batch) {
+        List<Map<byte[], byte[]>> sets = new ArrayList<>(shards.count());
+        List<List<byte[]>> deletes = new ArrayList<>(shards.count());
+        for (int i = 0; i < shards.count(); i++) {
+            sets.add(new HashMap<>());
+            deletes.add(new ArrayList<>());
+        }
+        batch.forEach((key, value) -> {
+            byte[] field = keyCodec.encode(key);
+            int shard = shards.indexOf(field);
+            if (value == TOMBSTONE) {
+                deletes.get(shard).add(field);
+            } else {
+                sets.get(shard).put(field, (byte[]) value);
+            }
+        });
+        if (companions != null) {
+            for (int i = 0; i < shards.count(); i++) {
+                if (!sets.get(i).isEmpty()) {
+                    companions.setAll(binary, i, sets.get(i));
+                }
+                if (!deletes.get(i).isEmpty()) {
+                    companions.deleteAll(binary, i, deletes.get(i));
+                }
+            }
+            return;
+        }
+        AbstractPipeline pipeline = Pipelines.open(commands);
+        if (pipeline == null) {
+            for (int i = 0; i < shards.count(); i++) {
+                byte[] key = shards.binaryKeys().get(i);
+                if (!sets.get(i).isEmpty()) {
+                    binary.hset(key, sets.get(i));
+                }
+                if (!deletes.get(i).isEmpty()) {
+                    binary.hdel(key, deletes.get(i).toArray(new byte[0][]));
+                }
+            }
+            return;
+        }
+        List<Response<Long>> replies = new ArrayList<>();
+        try (pipeline) {
+            for (int i = 0; i < shards.count(); i++) {
+                byte[] key = shards.binaryKeys().get(i);
+                if (!sets.get(i).isEmpty()) {
+                    replies.add(pipeline.hset(key, sets.get(i)));
+                }
+                if (!deletes.get(i).isEmpty()) {
+                    replies.add(pipeline.hdel(key, deletes.get(i).toArray(new byte[0][])));
+                }
+            }
+            pipeline.sync();
+        }
+        // sync does not throw error replies, e.g. OOM, they fail the batch here
+        replies.forEach(Response::get);
+    }
+
+    /**
+     * Returns a snapshot of buffer counters
+     * @return a snapshot of buffer counters
+     */
+    WriteBehindStats stats() {
+        long flushCount = flushes.sum();
+        long total;
+        flushLock.lock();
+        try {
+            total = totalFlushNanos;
+        } finally {
+            flushLock.unlock();
+        }
+        return new WriteBehindStats(pending.size(), inFlight.size(), flushCount, flushedWrites.sum(), failedFlushes.sum(),
+                lastFailure, Duration.ofNanos(lastFlushNanos), Duration.ofNanos(maxFlushNanos),
+                Duration.ofNanos(flushCount == 0 ? 0 : total / flushCount));
+    }
+
+    /**
+     * Flushes all buffered writes and stops the background flushes
+     */
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+}
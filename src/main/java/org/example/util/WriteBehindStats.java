@@ -0,0 +1,20 @@
+package org.example.util;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of write behind counters
+ * @param pendingWrites writes waiting to be flushed, i.e. the queue depth
+ * @param inFlightWrites writes being flushed right now
+ * @param flushes successful flushes
+ * @param flushedWrites writes that reached redis
+ * @param failedFlushes flushes that failed, their writes stay buffered and are retried by the next flush
+ * @param lastFailure exception of the most recent failed flush, or NULL if no flush failed
+ * @param lastFlushLatency duration of the last successful flush
+ * @param maxFlushLatency duration of the slowest successful flush
+ * @param meanFlushLatency mean duration of successful flushes
+ */
+public record WriteBehindStats(int pendingWrites, int inFlightWrites, long flushes, long flushedWrites, long failedFlushes,
+                               RuntimeException lastFailure, Duration lastFlushLatency, Duration maxFlushLatency,
+                               Duration meanFlushLatency) {
+}
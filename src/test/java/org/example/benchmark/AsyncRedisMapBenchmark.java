@@ -0,0 +1,74 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.AsyncRedisMap;
+import org.example.util.RedisMap;
+import redis.clients.jedis.JedisCluster;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares throughput of blocking and async map at high concurrency, every caller is a virtual thread
+ * Requires redis cluster to be running, arguments are number of callers and duration of every run in seconds
+ */
+public class AsyncRedisMapBenchmark {
+    private static final int KEYS = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int callers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        Duration duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 10);
+        try (JedisCluster cluster = RedisConfiguration.CURRENT.createCluster();
+             RedisMap<String, Integer> map = RedisMap.of(cluster, RedisConfiguration.REDIS_HASH_KEY);
+             AsyncRedisMap<String, Integer> asyncMap = map.async()) {
+            map.clear();
+            for (int i = 0; i < KEYS; i++) {
+                map.set(String.valueOf(i), i);
+            }
+            // first runs only warm up the JIT and the connection pools
+            run("blocking", callers, duration, () -> blockingCall(map), false);
+            run("async", callers, duration, () -> asyncCall(asyncMap), false);
+            run("blocking", callers, duration, () -> blockingCall(map), true);
+            run("async", callers, duration, () -> asyncCall(asyncMap), true);
+            map.clear();
+        }
+    }
+
+    private static void blockingCall(RedisMap<String, Integer> map) {
+        String key = String.valueOf(ThreadLocalRandom.current().nextInt(KEYS));
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            map.put(key, 1);
+        } else {
+            map.get(key);
+        }
+    }
+
+    private static void asyncCall(AsyncRedisMap<String, Integer> map) {
+        String key = String.valueOf(ThreadLocalRandom.current().nextInt(KEYS));
+        CompletableFuture<Integer> future = ThreadLocalRandom.current().nextInt(10) == 0 ? map.put(key, 1) : map.get(key);
+        future.join();
+    }
+
+    private static void run(String name, int callers, Duration duration, Runnable call, boolean report)
+            throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                executor.execute(() -> {
+                    while (System.nanoTime() < deadline) {
+                        call.run();
+                        operations.increment();
+                    }
+                });
+            }
+        }
+        if (report) {
+            System.out.printf("%s: %d callers, %.0f ops/s%n", name, callers, operations.sum() / (double) duration.toSeconds());
+        }
+    }
+}
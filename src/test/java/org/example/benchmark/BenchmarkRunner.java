@@ -0,0 +1,30 @@
+package org.example.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH benchmarks once per thread count, since a single JMH run uses a single thread count
+ * Accepts regular JMH arguments, if -t is passed only that thread count is run
+ */
+public class BenchmarkRunner {
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        if (options.getThreads().hasValue()) {
+            new Runner(options).run();
+            return;
+        }
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder().parent(options).threads(threads).build()).run();
+        }
+    }
+}
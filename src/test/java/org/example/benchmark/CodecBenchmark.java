@@ -0,0 +1,74 @@
+package org.example.benchmark;
+
+import org.example.util.Codecs;
+import org.example.util.IntCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting values without redis, run with -prof gc to see what every conversion allocates
+ * The string benchmarks are the conversions redis map made before codecs were added
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    public enum Format { DECIMAL, FIXED, VAR }
+
+    @Param
+    public Format format;
+
+    @Param({"7", "1234567"})
+    public int value;
+
+    private IntCodec intCodec;
+    private byte[] encoded;
+    private byte[] decimal;
+
+    @Setup
+    public void setUp() {
+        intCodec = switch (format) {
+            case DECIMAL -> Codecs.decimalInt();
+            case FIXED -> Codecs.fixedInt();
+            case VAR -> Codecs.varInt();
+        };
+        encoded = intCodec.encodeInt(value);
+        decimal = Integer.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeString() {
+        return Integer.valueOf(value).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Integer decodeString() {
+        return Integer.valueOf(new String(decimal, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return intCodec.encode(value);
+    }
+
+    @Benchmark
+    public Integer decode() {
+        return intCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeInt() {
+        return intCodec.encodeInt(value);
+    }
+
+    @Benchmark
+    public int decodeInt() {
+        return intCodec.decodeInt(encoded);
+    }
+}
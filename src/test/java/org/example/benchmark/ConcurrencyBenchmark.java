@@ -0,0 +1,146 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.FakeRedis;
+import org.example.util.RedisMap;
+import org.openjdk.jmh.annotations.*;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of one map shared by all threads, {@link BenchmarkRunner} runs it with 1, 4 and 16 threads, more threads
+ * are added with e.g. -t 64, so scaling from 1 to N threads is read off the runs. mixed is 80% get, 10% put and
+ * 10% addAndGet, virtualThreads runs 256 addAndGets on as many virtual threads per call and is meant for -t 1.
+ * Every trial checks that the counters in redis add up to the increments made, so lost updates fail the run
+ * Requires a single instance of redis for SINGLE and the redis cluster for CLUSTER, FAKE runs against the in-process
+ * fake of redis with fakeLatency microseconds per round trip. pool is the size of the connection pool, per node of
+ * a cluster, lifo and fairness are the settings of the pool, see {@link RedisConfiguration#poolLifo()}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrencyBenchmark {
+    private static final String KEY = RedisConfiguration.REDIS_HASH_KEY + "_BENCHMARK";
+    private static final int VIRTUAL_THREADS = 256;
+
+    public enum Backend { SINGLE, CLUSTER, FAKE }
+
+    @Param
+    public Backend backend;
+
+    @Param({"8", "64"})
+    public int pool;
+
+    @Param({"true"})
+    public boolean lifo;
+
+    @Param({"false"})
+    public boolean fairness;
+
+    @Param({"10000"})
+    public int keys;
+
+    @Param({"200"})
+    public int fakeLatency;
+
+    private final LongAdder increments = new LongAdder();
+    private UnifiedJedis commands;
+    private RedisMap<String, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RedisConfiguration configuration = RedisConfiguration.CURRENT;
+        ConnectionPoolConfig poolConfig = configuration.poolConfig();
+        poolConfig.setMaxTotal(pool);
+        poolConfig.setMaxIdle(pool);
+        poolConfig.setMinIdle(Math.min(poolConfig.getMinIdle(), pool));
+        poolConfig.setLifo(lifo);
+        poolConfig.setFairness(fairness);
+        commands = switch (backend) {
+            case SINGLE -> new JedisPooled(configuration.singleNode(), configuration.clientConfig(), poolConfig);
+            case CLUSTER -> new JedisCluster(configuration.nodes(), configuration.clientConfig(),
+                    configuration.maxAttempts(), configuration.maxTotalRetriesDuration(), poolConfig);
+            case FAKE -> new FakeRedis().latency(Duration.ofNanos(fakeLatency * 1000L), Duration.ZERO).client(poolConfig);
+        };
+        map = RedisMap.of(commands, KEY);
+        map.clear();
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            entries.put("c" + i, 0);
+        }
+        map.putAll(entries);
+        increments.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            long counted = 0;
+            for (Map.Entry<String, Integer> e : map.entrySet()) {
+                if (e.getKey().startsWith("c")) {
+                    counted += e.getValue();
+                }
+            }
+            if (counted != increments.sum()) {
+                throw new IllegalStateException("Counters add up to " + counted + " after " + increments.sum()
+                        + " increments");
+            }
+            System.out.printf("%n%d increments, all counted%n", counted);
+        } finally {
+            map.clear();
+            map.close();
+            commands.close();
+        }
+    }
+
+    @Benchmark
+    public Integer mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(keys);
+        int operation = random.nextInt(10);
+        if (operation < 8) {
+            return map.get("c" + key);
+        }
+        if (operation == 8) {
+            return map.put("p" + key, key);
+        }
+        int value = map.addAndGet("c" + key, 1);
+        increments.increment();
+        return value;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VIRTUAL_THREADS)
+    public void virtualThreads() throws InterruptedException, ExecutionException {
+        List<Future<?>> futures = new ArrayList<>(VIRTUAL_THREADS);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < VIRTUAL_THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    map.addAndGet("c" + ThreadLocalRandom.current().nextInt(keys), 1);
+                    increments.increment();
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.FakeRedis;
+import org.example.util.RedisMap;
+import org.openjdk.jmh.annotations.*;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent gets with and without batching, {@link BenchmarkRunner} runs it with 1, 4 and 16 threads,
+ * more threads are added with e.g. -t 64. With few keys most gets of a batch share their result
+ * Requires redis cluster to be running, FAKE runs against the in-process fake of redis with fakeLatency microseconds
+ * per round trip. The fake serves round trips in parallel, so there batching wins only once threads outnumber the
+ * 8 connections of the pool, against redis also once the server is busy
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetBatchingBenchmark {
+    private static final String KEY = RedisConfiguration.REDIS_HASH_KEY + "_BENCHMARK";
+
+    public enum Backend { CLUSTER, FAKE }
+
+    @Param
+    public Backend backend;
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    @Param({"10", "10000"})
+    public int keys;
+
+    @Param({"100"})
+    public int windowMicros;
+
+    @Param({"64"})
+    public int maxBatch;
+
+    @Param({"200"})
+    public int fakeLatency;
+
+    private UnifiedJedis commands;
+    private RedisMap<String, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        commands = switch (backend) {
+            case CLUSTER -> RedisConfiguration.CURRENT.createCluster();
+            case FAKE -> new FakeRedis().latency(Duration.ofNanos(fakeLatency * 1000L), Duration.ZERO).client();
+        };
+        RedisMap.Builder<String, Integer> builder = RedisMap.builder(commands, KEY);
+        if (batching) {
+            builder.batchGets(Duration.ofNanos(windowMicros * 1000L), maxBatch);
+        }
+        map = builder.build();
+        map.clear();
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            entries.put(String.valueOf(i), i);
+        }
+        map.putAll(entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (batching) {
+            System.out.printf("%n%s%n", map.getBatchStats());
+        }
+        map.clear();
+        map.close();
+        commands.close();
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(String.valueOf(ThreadLocalRandom.current().nextInt(keys)));
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares boxed and primitive methods of the map, run with -prof gc: gc.alloc.rate.norm of the primitive methods
+ * only includes the wire buffers of the redis client, the boxed ones add Integers, and values above 127 are not cached
+ * Requires redis cluster to be running
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntApiBenchmark {
+    private static final String KEY = RedisConfiguration.REDIS_HASH_KEY + "_INT_BENCHMARK";
+    private static final int SIZE = 1000;
+    private static final int BATCH = 100;
+
+    private JedisCluster cluster;
+    private RedisMap<String, Integer> map;
+    private List<String> keys;
+    private List<String> batch;
+    private int[] batchValues;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cluster = RedisConfiguration.CURRENT.createCluster();
+        map = RedisMap.of(cluster, KEY);
+        map.clear();
+        keys = new ArrayList<>(SIZE);
+        int[] values = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            keys.add(String.valueOf(i));
+            values[i] = 1_000_000 + i;
+        }
+        map.putAllInt(keys, values);
+        batch = keys.subList(0, BATCH);
+        batchValues = new int[BATCH];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.clear();
+        cluster.close();
+    }
+
+    private String randomKey() {
+        return keys.get(ThreadLocalRandom.current().nextInt(SIZE));
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public int getInt() {
+        return map.getInt(randomKey(), 0);
+    }
+
+    @Benchmark
+    public void set() {
+        map.set(randomKey(), 1_000_000);
+    }
+
+    @Benchmark
+    public void putInt() {
+        map.putInt(randomKey(), 1_000_000);
+    }
+
+    @Benchmark
+    public int addAndGet() {
+        return map.addAndGet(randomKey(), 1);
+    }
+
+    @Benchmark
+    public void forEach(Blackhole blackhole) {
+        map.forEach((key, value) -> blackhole.consume(value));
+    }
+
+    @Benchmark
+    public void forEachInt(Blackhole blackhole) {
+        map.forEachInt((key, value) -> blackhole.consume(value));
+    }
+
+    @Benchmark
+    public int[] getAllInt() {
+        return map.getAllInt(batch, 0);
+    }
+
+    @Benchmark
+    public void putAllInt() {
+        map.putAllInt(batch, batchValues);
+    }
+}
@@ -0,0 +1,157 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.Codec;
+import org.example.util.Codecs;
+import org.example.util.FakeRedis;
+import org.example.util.RedisMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of map operations, SampleTime mode reports percentiles, run with -prof gc to see allocation rate
+ * Requires redis cluster to be running, and a single instance of redis for the SINGLE backend
+ * A single connection is not thread safe, so SINGLE uses a pool of connections to one node
+ * FAKE runs against the in-process fake of redis with fakeLatency microseconds per round trip, it needs no redis,
+ * with the default latency of 0 it measures the overhead of the map and the client alone
+ * Only the decimal codec is run by default, binary codecs are compared with -p codec=DECIMAL,FIXED,VAR
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisMapBenchmark {
+    private static final String KEY = RedisConfiguration.REDIS_HASH_KEY + "_BENCHMARK";
+
+    public enum Backend { CLUSTER, SINGLE, FAKE }
+
+    /**
+     * How values are spread, it changes the encoded length of values and how often containsValue finds a match
+     */
+    public enum Values {
+        SMALL {
+            @Override
+            int next(int size) {
+                return ThreadLocalRandom.current().nextInt(10);
+            }
+        },
+        UNIQUE {
+            @Override
+            int next(int size) {
+                return ThreadLocalRandom.current().nextInt(size, Integer.MAX_VALUE);
+            }
+        };
+
+        abstract int next(int size);
+    }
+
+    /**
+     * How values are encoded, decimal is the format HINCRBY works with, binary ones are shorter
+     */
+    public enum ValueCodec {
+        DECIMAL(Codecs.decimalInt()),
+        FIXED(Codecs.fixedInt()),
+        VAR(Codecs.varInt());
+
+        private final Codec<Integer> codec;
+
+        ValueCodec(Codec<Integer> codec) {
+            this.codec = codec;
+        }
+    }
+
+    @Param
+    public Backend backend;
+
+    @Param({"100", "10000"})
+    public int size;
+
+    @Param
+    public Values values;
+
+    @Param({"DECIMAL"})
+    public ValueCodec codec;
+
+    @Param({"0"})
+    public int fakeLatency;
+
+    private UnifiedJedis commands;
+    private RedisMap<String, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        commands = switch (backend) {
+            case CLUSTER -> RedisConfiguration.CURRENT.createCluster();
+            case SINGLE -> RedisConfiguration.CURRENT.createSingle();
+            case FAKE -> new FakeRedis().latency(Duration.ofNanos(fakeLatency * 1000L), Duration.ZERO).client();
+        };
+        map = new RedisMap<>(commands, KEY, Codecs.utf8(), codec.codec);
+        map.clear();
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            entries.put(String.valueOf(i), values.next(size));
+        }
+        map.putAll(entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.clear();
+        map.close();
+        commands.close();
+    }
+
+    private String randomKey() {
+        return String.valueOf(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return map.containsKey(randomKey());
+    }
+
+    @Benchmark
+    public Integer put() {
+        return map.put(randomKey(), values.next(size));
+    }
+
+    @Benchmark
+    public Integer removeAndPut() {
+        String key = randomKey();
+        Integer old = map.remove(key);
+        map.set(key, old != null ? old : values.next(size));
+        return old;
+    }
+
+    @Benchmark
+    public int size() {
+        return map.size();
+    }
+
+    @Benchmark
+    public boolean containsValueMiss() {
+        // a value that is never stored, so the whole hash is scanned
+        return map.containsValue(-1);
+    }
+
+    @Benchmark
+    public void entrySet(Blackhole blackhole) {
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            blackhole.consume(entry);
+        }
+    }
+}
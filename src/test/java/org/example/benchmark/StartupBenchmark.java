@@ -0,0 +1,75 @@
+package org.example.benchmark;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import redis.clients.jedis.JedisCluster;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a cold start with and without the warm-up. startup measures creating a cluster client, which fetches
+ * the slot map, plus the warm-up, firstGet measures the first get of a map made right after the client was created.
+ * Every invocation uses a new client, so each one is a cold start as far as connections are concerned
+ * Requires redis cluster to be running
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 50)
+@Fork(2)
+@State(Scope.Thread)
+public class StartupBenchmark {
+    private static final String KEY = RedisConfiguration.REDIS_HASH_KEY + "_STARTUP_BENCHMARK";
+
+    @Param({"false", "true"})
+    public boolean warmUp;
+
+    @Param({"1"})
+    public int connections;
+
+    private RedisConfiguration configuration;
+    private JedisCluster cluster;
+    private RedisMap<String, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        properties.setProperty(RedisConfiguration.WARM_UP_PROPERTY, String.valueOf(warmUp));
+        properties.setProperty(RedisConfiguration.WARM_UP_CONNECTIONS_PROPERTY, String.valueOf(connections));
+        configuration = RedisConfiguration.from(properties, System.getenv());
+        try (JedisCluster cluster = configuration.createCluster()) {
+            RedisMap.of(cluster, KEY).put("1", 1);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration(BenchmarkParams params) {
+        if (params.getBenchmark().endsWith("firstGet")) {
+            cluster = configuration.createCluster();
+            map = RedisMap.of(cluster, KEY);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        if (cluster != null) {
+            cluster.close();
+            cluster = null;
+        }
+    }
+
+    @Benchmark
+    public JedisCluster startup() {
+        cluster = configuration.createCluster();
+        return cluster;
+    }
+
+    @Benchmark
+    public Integer firstGet() {
+        return map.get("1");
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.config;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.RedisProtocol;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+public class RedisConfigurationTest {
+
+    @Test
+    @DisplayName("Tests that missing values fall back to the local cluster and the client defaults")
+    public void from_empty_defaults() {
+        RedisConfiguration configuration = RedisConfiguration.from(new Properties(), Map.of());
+
+        Assertions.assertEquals(5, configuration.nodes().size());
+        Assertions.assertTrue(configuration.nodes().contains(new HostAndPort(RedisConfiguration.LOCALHOST, 7001)));
+        Assertions.assertEquals(new HostAndPort(RedisConfiguration.LOCALHOST, 6379), configuration.singleNode());
+        Assertions.assertNull(configuration.protocol());
+        Assertions.assertNull(configuration.topologyRefresh());
+        Assertions.assertEquals(Duration.ofMillis(10_000), configuration.maxTotalRetriesDuration());
+        Assertions.assertFalse(configuration.warmUp());
+        Assertions.assertEquals(8, configuration.poolConfig().getMaxTotal());
+        Assertions.assertTrue(configuration.poolConfig().getLifo());
+        Assertions.assertFalse(configuration.poolConfig().getFairness());
+    }
+
+    @Test
+    @DisplayName("Tests that environment variables override properties")
+    public void from_environment_overridesProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("redis.nodes", "10.0.0.1:6379, 10.0.0.2:6379");
+        properties.setProperty("redis.pool.max-total", "16");
+        properties.setProperty("redis.protocol", "resp3");
+
+        RedisConfiguration configuration = RedisConfiguration.from(properties, Map.of(
+                "REDIS_POOL_MAX_TOTAL", "32",
+                "REDIS_TOPOLOGY_REFRESH", "5000",
+                "REDIS_WARM_UP", "true",
+                "REDIS_POOL_LIFO", "false",
+                "REDIS_POOL_FAIRNESS", "true",
+                "REDIS_MAX_TOTAL_RETRIES_DURATION", "300"));
+
+        Assertions.assertEquals(Set.of(new HostAndPort("10.0.0.1", 6379), new HostAndPort("10.0.0.2", 6379)),
+                configuration.nodes());
+        Assertions.assertEquals(32, configuration.poolMaxTotal());
+        Assertions.assertEquals(RedisProtocol.RESP3, configuration.protocol());
+        Assertions.assertEquals(RedisProtocol.RESP3, configuration.clientConfig().getRedisProtocol());
+        Assertions.assertEquals(Duration.ofSeconds(5), configuration.topologyRefresh());
+        Assertions.assertEquals(Duration.ofMillis(300), configuration.maxTotalRetriesDuration());
+        Assertions.assertTrue(configuration.warmUp());
+        Assertions.assertFalse(configuration.poolConfig().getLifo());
+        Assertions.assertTrue(configuration.poolConfig().getFairness());
+    }
+
+    @Test
+    @DisplayName("Tests that a bad value is reported with its property and environment variable")
+    public void from_badValue_throws() {
+        IllegalArgumentException exception = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisConfiguration.from(new Properties(), Map.of("REDIS_SOCKET_TIMEOUT", "soon")));
+
+        Assertions.assertTrue(exception.getMessage().contains("redis.socket-timeout"));
+        Assertions.assertTrue(exception.getMessage().contains("REDIS_SOCKET_TIMEOUT"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisConfiguration.from(new Properties(), Map.of("REDIS_POOL_MIN_IDLE", "9")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisConfiguration.from(new Properties(), Map.of("REDIS_WARM_UP", "yes")));
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class CodecsTest {
+
+    private static final List<Long> LONGS = List.of(0L, 1L, -1L, 9L, 10L, -10L, 63L, -64L, 64L, 123456789L,
+            Integer.MAX_VALUE + 0L, Integer.MIN_VALUE + 0L, Long.MAX_VALUE, Long.MIN_VALUE);
+
+    @Test
+    @DisplayName("Tests that decimal codecs write the same bytes as Long.toString, so HINCRBY can work with them")
+    public void decimal_matchesToString() {
+        for (long value : LONGS) {
+            byte[] expected = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            Assertions.assertArrayEquals(expected, Codecs.decimalLong().encode(value));
+            Assertions.assertEquals(value, Codecs.decimalLong().decode(expected));
+            if (value == (int) value) {
+                Assertions.assertArrayEquals(expected, Codecs.decimalInt().encode((int) value));
+                Assertions.assertEquals((int) value, Codecs.decimalInt().decode(expected));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that decimal codecs reject malformed and overflowing numbers")
+    public void decimal_malformed_throws() {
+        for (String malformed : List.of("", "-", "+", "1a", " 1", "9223372036854775808", "-9223372036854775809")) {
+            byte[] bytes = malformed.getBytes(StandardCharsets.US_ASCII);
+            Assertions.assertThrows(NumberFormatException.class, () -> Codecs.decimalLong().decode(bytes), malformed);
+        }
+        Assertions.assertThrows(NumberFormatException.class,
+                () -> Codecs.decimalInt().decode("2147483648".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    @DisplayName("Tests that binary codecs decode what they encode")
+    public void binary_roundTrip() {
+        for (long value : LONGS) {
+            Assertions.assertEquals(value, Codecs.fixedLong().decode(Codecs.fixedLong().encode(value)));
+            Assertions.assertEquals(value, Codecs.varLong().decode(Codecs.varLong().encode(value)));
+            if (value == (int) value) {
+                Assertions.assertEquals((int) value, Codecs.fixedInt().decode(Codecs.fixedInt().encode((int) value)));
+                Assertions.assertEquals((int) value, Codecs.varInt().decode(Codecs.varInt().encode((int) value)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that varints of small numbers take a single byte and fixed width numbers take their size")
+    public void binary_length() {
+        Assertions.assertEquals(1, Codecs.varInt().encode(63).length);
+        Assertions.assertEquals(1, Codecs.varInt().encode(-64).length);
+        Assertions.assertEquals(2, Codecs.varInt().encode(64).length);
+        Assertions.assertEquals(5, Codecs.varInt().encode(Integer.MIN_VALUE).length);
+        Assertions.assertEquals(10, Codecs.varLong().encode(Long.MIN_VALUE).length);
+        Assertions.assertEquals(4, Codecs.fixedInt().encode(0).length);
+        Assertions.assertEquals(8, Codecs.fixedLong().encode(0L).length);
+    }
+
+    @Test
+    @DisplayName("Tests that malformed binary numbers are rejected")
+    public void binary_malformed_throws() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Codecs.fixedInt().decode(new byte[3]));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Codecs.varInt().decode(new byte[0]));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Codecs.varInt().decode(new byte[]{(byte) 0x80}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Codecs.varInt().decode(Codecs.varLong().encode(Long.MAX_VALUE)));
+    }
+
+    @Test
+    @DisplayName("Tests that UTF-8 codec handles characters outside of ASCII")
+    public void utf8_roundTrip() {
+        String value = "ключ-😀";
+        Assertions.assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), Codecs.utf8().encode(value));
+        Assertions.assertEquals(value, Codecs.utf8().decode(Codecs.utf8().encode(value)));
+    }
+
+    @Test
+    @DisplayName("Tests that a codec can be made of a pair of functions")
+    public void of_functions() {
+        Codec<Boolean> codec = Codec.of(b -> new byte[]{(byte) (b ? 1 : 0)}, bytes -> bytes[0] == 1);
+        Assertions.assertTrue(codec.decode(codec.encode(true)));
+        Assertions.assertFalse(codec.decode(codec.encode(false)));
+    }
+
+    @Test
+    @DisplayName("Tests that int codecs convert primitives the same way as boxed values")
+    public void intCodecs_primitiveMatchesBoxed() {
+        for (IntCodec codec : List.of(Codecs.decimalInt(), Codecs.fixedInt(), Codecs.varInt())) {
+            for (int value : new int[]{0, 1, -1, 1000, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                Assertions.assertArrayEquals(codec.encode(value), codec.encodeInt(value));
+                Assertions.assertEquals(value, codec.decodeInt(codec.encode(value)));
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.example.util;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaInteger;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Lua interpreter of {@link FakeRedisData}, runs scripts the way redis does: KEYS and ARGV are global tables of
+ * strings, redis.call and redis.pcall execute commands and convert between replies and Lua values by the rules of
+ * redis. An integer reply is a number, a bulk string a string, a missing value false, an array a table, a status
+ * a table with field ok and an error a table with field err, raised by redis.call and returned by redis.pcall.
+ * Back the other way a number is truncated to an integer, true is 1, false is a missing value and a table is
+ * an array up to its first nil, unless it has a field err or ok.
+ * <p>
+ * Redis runs Lua 5.1, the interpreter is 5.2, so unpack is aliased to table.unpack and bit provides the functions
+ * of the bit library of redis that scripts use. Not thread safe, the lock of the keyspace guards it
+ */
+final class FakeLua {
+    private final Globals globals = JsePlatform.standardGlobals();
+
+    /**
+     * Initializes the interpreter
+     * @param commands executes a command and returns its reply, see {@link FakeRedisData#execute}
+     */
+    FakeLua(Function<List<byte[]>, Object> commands) {
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                Object reply = commands.apply(command(args));
+                if (reply instanceof FakeRedis.ErrorReply error) {
+                    throw new LuaError(table("err", error.message()));
+                }
+                return toLua(reply);
+            }
+        });
+        redis.set("pcall", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                Object reply = commands.apply(command(args));
+                return reply instanceof FakeRedis.ErrorReply error ? table("err", error.message()) : toLua(reply);
+            }
+        });
+        redis.set("error_reply", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue message) {
+                return table("err", message.checkjstring());
+            }
+        });
+        redis.set("status_reply", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue status) {
+                return table("ok", status.checkjstring());
+            }
+        });
+        globals.set("redis", redis);
+        globals.set("unpack", globals.get("table").get("unpack"));
+        globals.set("bit", bit());
+    }
+
+    /**
+     * Compiles the body of a script
+     * @throws LuaError if the body is not valid Lua
+     */
+    LuaValue compile(byte[] body) {
+        return globals.load(new ByteArrayInputStream(body), "@user_script", "t", globals);
+    }
+
+    /**
+     * Runs a compiled script
+     * @return reply of the script, {@link FakeRedis.ErrorReply} if it failed
+     */
+    Object run(LuaValue script, List<byte[]> keys, List<byte[]> args) {
+        globals.set("KEYS", strings(keys));
+        globals.set("ARGV", strings(args));
+        try {
+            return toReply(script.call());
+        } catch (LuaError e) {
+            LuaValue error = e.getMessageObject();
+            if (error != null && error.istable() && error.get("err").isstring()) {
+                return new FakeRedis.ErrorReply(error.get("err").tojstring());
+            }
+            return new FakeRedis.ErrorReply("ERR " + e.getMessage());
+        }
+    }
+
+    private static List<byte[]> command(Varargs args) {
+        if (args.narg() == 0) {
+            throw new LuaError(table("err", "ERR Please specify at least one argument for this redis lib call"));
+        }
+        List<byte[]> command = new ArrayList<>(args.narg());
+        for (int i = 1; i <= args.narg(); i++) {
+            LuaValue arg = args.arg(i);
+            if (!arg.isstring()) {
+                throw new LuaError(table("err", "ERR Lua redis lib command arguments must be strings or integers"));
+            }
+            command.add(arg instanceof LuaString string ? bytes(string) : SafeEncoder.encode(arg.tojstring()));
+        }
+        return command;
+    }
+
+    private static LuaValue toLua(Object reply) {
+        return switch (reply) {
+            case null -> LuaValue.FALSE;
+            case byte[] bulk -> LuaString.valueOf(bulk);
+            case Long integer -> LuaInteger.valueOf(integer);
+            case FakeRedis.Status status -> table("ok", status.text());
+            case List<?> array -> {
+                LuaTable table = new LuaTable();
+                for (int i = 0; i < array.size(); i++) {
+                    table.set(i + 1, toLua(array.get(i)));
+                }
+                yield table;
+            }
+            default -> throw new IllegalStateException("Reply of the fake has no Lua type: " + reply);
+        };
+    }
+
+    private static Object toReply(LuaValue value) {
+        if (value instanceof LuaString string) {
+            return bytes(string);
+        }
+        if (value.isnumber()) {
+            return (long) value.todouble();
+        }
+        if (value.isboolean()) {
+            return value.toboolean() ? 1L : null;
+        }
+        if (!value.istable()) {
+            return null;
+        }
+        if (value.get("err").isstring()) {
+            return new FakeRedis.ErrorReply(value.get("err").tojstring());
+        }
+        if (value.get("ok").isstring()) {
+            return new FakeRedis.Status(value.get("ok").tojstring());
+        }
+        List<Object> array = new ArrayList<>();
+        for (int i = 1; !value.get(i).isnil(); i++) {
+            array.add(toReply(value.get(i)));
+        }
+        return array;
+    }
+
+    private static LuaTable bit() {
+        LuaTable bit = new LuaTable();
+        bit.set("tobit", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue x) {
+                return LuaInteger.valueOf(toBit(x));
+            }
+        });
+        bit.set("bnot", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue x) {
+                return LuaInteger.valueOf(~toBit(x));
+            }
+        });
+        bit.set("band", new BitFunction() {
+            @Override
+            int apply(int a, int b) {
+                return a & b;
+            }
+        });
+        bit.set("bor", new BitFunction() {
+            @Override
+            int apply(int a, int b) {
+                return a | b;
+            }
+        });
+        bit.set("bxor", new BitFunction() {
+            @Override
+            int apply(int a, int b) {
+                return a ^ b;
+            }
+        });
+        return bit;
+    }
+
+    /**
+     * Operation of the bit library folded over all its arguments
+     */
+    private abstract static class BitFunction extends VarArgFunction {
+
+        abstract int apply(int a, int b);
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            int result = toBit(args.checkvalue(1));
+            for (int i = 2; i <= args.narg(); i++) {
+                result = apply(result, toBit(args.arg(i)));
+            }
+            return LuaInteger.valueOf(result);
+        }
+    }
+
+    /**
+     * Wraps a number to 32 bits the way bit.tobit does
+     */
+    private static int toBit(LuaValue x) {
+        return (int) (long) x.checkdouble();
+    }
+
+    private static LuaTable table(String field, String text) {
+        LuaTable table = new LuaTable();
+        table.set(field, text);
+        return table;
+    }
+
+    private static LuaTable strings(List<byte[]> values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, LuaString.valueOf(values.get(i)));
+        }
+        return table;
+    }
+
+    private static byte[] bytes(LuaString string) {
+        byte[] bytes = new byte[string.length()];
+        string.copyInto(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
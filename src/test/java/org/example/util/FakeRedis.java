@@ -0,0 +1,512 @@
+package org.example.util;
+
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for a single instance of redis, so maps can be tested and benchmarked without redis-server.
+ * {@link #client()} returns a regular {@link JedisPooled} whose connections talk RESP2 to this object instead of
+ * a socket, so pipelines, connection pooling and error handling of the client are the real ones.
+ * <p>
+ * Commands a client flushes together are one round trip: they are executed when the client flushes,
+ * after the injected latency, and their replies are ready when the client reads. {@link #roundTrips()} and
+ * {@link #commandCount(String)} count what clients sent, connection handshakes (CLIENT SETINFO) excluded,
+ * so tests can assert how many round trips an operation takes.
+ * <p>
+ * Supported are the commands redis maps use: strings (GET, SET, INCR), hashes (HGET, HSET, HSETNX, HDEL, HEXISTS,
+ * HLEN, HMGET, HGETALL, HINCRBY, HGETDEL, HSCAN), sorted sets (ZADD, ZREM, ZRANGEBYSCORE, ZRANGEBYLEX),
+ * streams (XADD, XREVRANGE, XREAD with BLOCK), DEL, EXISTS, CLUSTER SLOTS and INFO replication as set by {@link #clusterSlots} and {@link #replicaLag}, READONLY
+ * and Lua scripts, run by an embedded interpreter, see {@link FakeLua}. CLIENT TRACKING and pub/sub are not supported,
+ * so neither is the near cache
+ */
+public final class FakeRedis {
+    private static final Set<String> HANDSHAKE = Set.of("CLIENT", "HELLO", "AUTH", "SELECT");
+
+    /**
+     * Simple string reply, e.g. OK
+     */
+    record Status(String text) {
+    }
+
+    /**
+     * Error reply, the first word is the error code, e.g. WRONGTYPE
+     */
+    record ErrorReply(String message) {
+    }
+
+    private final FakeRedisData data;
+    private final Random random;
+    private final LongAdder roundTrips = new LongAdder();
+    private final Map<String, LongAdder> commandCounts = new ConcurrentHashMap<>();
+    private final Map<String, Duration> commandLatencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final AtomicInteger stalls = new AtomicInteger();
+    private volatile Duration stall = Duration.ZERO;
+    private volatile Duration latency = Duration.ZERO;
+    private volatile Duration jitter = Duration.ZERO;
+    private volatile double failureRate;
+
+    /**
+     * Initializes an empty fake with no latency, jitter is drawn from a fixed seed
+     */
+    public FakeRedis() {
+        this(42);
+    }
+
+    /**
+     * Initializes an empty fake with no latency
+     * @param seed seed of the random jitter, random failures and random fields
+     */
+    public FakeRedis(long seed) {
+        this.random = new Random(seed);
+        this.data = new FakeRedisData(new Random(seed));
+    }
+
+    /**
+     * Creates a client of this fake with a pool of up to 64 connections
+     * @return client, has to be closed
+     */
+    public JedisPooled client() {
+        ConnectionPoolConfig pool = new ConnectionPoolConfig();
+        pool.setMaxTotal(64);
+        pool.setMaxIdle(64);
+        return client(pool);
+    }
+
+    /**
+     * Creates a client of this fake
+     * @param pool settings of the connection pool of the client
+     * @return client, has to be closed
+     */
+    public JedisPooled client(ConnectionPoolConfig pool) {
+        return new JedisPooled(pool, FakeSocket::new, DefaultJedisClientConfig.builder().build());
+    }
+
+    /**
+     * Sets the latency of every round trip, the time a real client waits for the network and the server
+     * @param latency fixed part of the latency
+     * @param jitter upper bound of a uniformly distributed random part added to the fixed one
+     * @return this fake
+     */
+    public FakeRedis latency(Duration latency, Duration jitter) {
+        this.latency = Objects.requireNonNull(latency, "latency");
+        this.jitter = Objects.requireNonNull(jitter, "jitter");
+        return this;
+    }
+
+    /**
+     * Sets the time the server spends on every command of a kind, added to the latency of round trips carrying it
+     * @param command name of the command, e.g. HSCAN
+     * @param latency time spent per command
+     * @return this fake
+     */
+    public FakeRedis latency(String command, Duration latency) {
+        commandLatencies.put(command.toUpperCase(Locale.ROOT), latency);
+        return this;
+    }
+
+    /**
+     * Makes every command fail with an error reply with the probability
+     * @param failureRate probability of a failure, from 0 to 1
+     * @return this fake
+     */
+    public FakeRedis failureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failure rate has to be between 0 and 1: " + failureRate);
+        }
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Makes the next commands of a kind fail with an error reply, without executing them
+     * @param command name of the command, e.g. EVALSHA
+     * @param times number of commands that fail
+     * @return this fake
+     */
+    public FakeRedis failNext(String command, int times) {
+        failures.computeIfAbsent(command.toUpperCase(Locale.ROOT), c -> new AtomicInteger()).addAndGet(times);
+        return this;
+    }
+
+    /**
+     * Makes the next round trips fail as if the connection was dropped before the commands reached the server,
+     * the client sees a connection error and discards the connection
+     * @param times number of round trips that fail
+     * @return this fake
+     */
+    public FakeRedis disconnectNext(int times) {
+        disconnects.addAndGet(times);
+        return this;
+    }
+
+    /**
+     * Makes the next round trips take longer, like a server stalled by a slow command or a pause,
+     * while the round trips made at the same time on other connections are not affected
+     * @param times number of round trips that stall
+     * @param stall time added to each of them
+     * @return this fake
+     */
+    public FakeRedis stallNext(int times, Duration stall) {
+        this.stall = Objects.requireNonNull(stall, "stall");
+        stalls.addAndGet(times);
+        return this;
+    }
+
+    /**
+     * Returns number of round trips made by clients of this fake
+     * @return number of round trips
+     */
+    public long roundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * Returns number of commands of a kind sent by clients of this fake
+     * @param command name of the command, e.g. HGET
+     * @return number of commands
+     */
+    public long commandCount(String command) {
+        LongAdder count = commandCounts.get(command.toUpperCase(Locale.ROOT));
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * Returns number of commands sent by clients of this fake
+     * @return number of commands
+     */
+    public long commandCount() {
+        return commandCounts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Resets counts of round trips and commands
+     */
+    public void resetCounts() {
+        roundTrips.reset();
+        commandCounts.clear();
+    }
+
+    /**
+     * Removes all keys, loaded scripts stay loaded
+     */
+    public void flushAll() {
+        data.flushAll();
+    }
+
+    /**
+     * Moves the clock of the fake forward, so hash fields expire without waiting and TIME reports a later time
+     * @param duration time to be skipped
+     */
+    public void advanceTime(Duration duration) {
+        data.advanceTime(duration.toMillis());
+    }
+
+    /**
+     * Makes the fake behave like an older redis that does not know some commands, e.g. HPEXPIRE, HPTTL
+     * and HPERSIST of redis before 7.4. Scripts get the same error clients do
+     * @param commands names of the commands
+     * @return this fake
+     */
+    public FakeRedis disable(String... commands) {
+        data.disable(List.of(commands));
+        return this;
+    }
+
+    /**
+     * Makes CLUSTER SLOTS report that one master with its replicas serves every slot, so replica reads can be
+     * routed among fakes; each fake keeps its own keyspace, nothing is replicated
+     * @param master "host:port" of the master
+     * @param replicas "host:port" of the replicas
+     * @return this fake
+     */
+    public FakeRedis clusterSlots(String master, String... replicas) {
+        data.clusterSlots(master, List.of(replicas));
+        return this;
+    }
+
+    /**
+     * Makes INFO replication report an online replica of this fake whose offset is behind master_repl_offset
+     * @param replica "host:port" of the replica
+     * @param bytes lag of the replica in bytes of the replication stream
+     * @return this fake
+     */
+    public FakeRedis replicaLag(String replica, long bytes) {
+        data.replicaLag(replica, bytes);
+        return this;
+    }
+
+    /**
+     * Returns number of keys, companion keys of hashes included
+     * @return number of keys
+     */
+    public int keyCount() {
+        return data.size();
+    }
+
+    /**
+     * Executes commands a client flushed together and encodes their replies
+     */
+    private byte[] roundTrip(List<List<byte[]>> commands) throws IOException {
+        List<String> names = new ArrayList<>(commands.size());
+        for (List<byte[]> command : commands) {
+            names.add(SafeEncoder.encode(command.get(0)).toUpperCase(Locale.ROOT));
+        }
+        boolean handshake = HANDSHAKE.containsAll(names);
+        if (!handshake) {
+            roundTrips.increment();
+            names.forEach(name -> commandCounts.computeIfAbsent(name, n -> new LongAdder()).increment());
+            if (disconnects.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IOException("Injected disconnect");
+            }
+            pause(names);
+        }
+        ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        for (int i = 0; i < commands.size(); i++) {
+            Object reply = !handshake && fails(names.get(i))
+                    ? new ErrorReply("ERR injected failure of " + names.get(i))
+                    : data.execute(commands.get(i));
+            encode(reply, replies);
+        }
+        return replies.toByteArray();
+    }
+
+    private void pause(List<String> names) {
+        long nanos = latency.toNanos();
+        if (stalls.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            nanos += stall.toNanos();
+        }
+        long jitterNanos = jitter.toNanos();
+        if (jitterNanos > 0) {
+            synchronized (random) {
+                nanos += (long) (random.nextDouble() * jitterNanos);
+            }
+        }
+        for (String name : names) {
+            Duration commandLatency = commandLatencies.get(name);
+            if (commandLatency != null) {
+                nanos += commandLatency.toNanos();
+            }
+        }
+        long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private boolean fails(String name) {
+        AtomicInteger pending = failures.get(name);
+        if (pending != null && pending.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return true;
+        }
+        if (failureRate == 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < failureRate;
+        }
+    }
+
+    private static void encode(Object reply, ByteArrayOutputStream out) {
+        if (reply == null) {
+            out.writeBytes("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof byte[] bytes) {
+            out.writeBytes(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(bytes);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Long number) {
+            out.writeBytes((":" + number + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof List<?> list) {
+            out.writeBytes(("*" + list.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object element : list) {
+                encode(element, out);
+            }
+        } else if (reply instanceof Status status) {
+            out.writeBytes(("+" + status.text() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof ErrorReply error) {
+            out.writeBytes(("-" + error.message() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else {
+            throw new IllegalStateException("Cannot encode reply " + reply);
+        }
+    }
+
+    /**
+     * Parses the arrays of bulk strings clients send commands as
+     */
+    private static List<List<byte[]>> decode(byte[] requests) throws IOException {
+        List<List<byte[]>> commands = new ArrayList<>();
+        int[] position = {0};
+        while (position[0] < requests.length) {
+            int count = (int) readNumber(requests, position, '*');
+            List<byte[]> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = (int) readNumber(requests, position, '$');
+                command.add(Arrays.copyOfRange(requests, position[0], position[0] + length));
+                position[0] += length + 2;
+            }
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private static long readNumber(byte[] requests, int[] position, char type) throws IOException {
+        if (requests[position[0]] != type) {
+            throw new IOException("Unexpected request byte " + (char) requests[position[0]] + ", expected " + type);
+        }
+        int end = position[0] + 1;
+        while (requests[end] != '\r') {
+            end++;
+        }
+        long number = Long.parseLong(new String(requests, position[0] + 1, end - position[0] - 1,
+                StandardCharsets.US_ASCII));
+        position[0] = end + 2;
+        return number;
+    }
+
+    /**
+     * Connection of a client: bytes written are requests, a flush makes a round trip whose replies are read back
+     */
+    private final class FakeSocket extends Socket {
+        private final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        private byte[] replies = new byte[0];
+        private int position;
+        private boolean closed;
+        private int timeout;
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                requests.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                requests.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (closed) {
+                    throw new IOException("Socket is closed");
+                }
+                if (requests.size() == 0) {
+                    return;
+                }
+                byte[] sent = requests.toByteArray();
+                requests.reset();
+                byte[] received;
+                try {
+                    received = roundTrip(decode(sent));
+                } catch (IOException e) {
+                    closed = true;
+                    throw e;
+                }
+                byte[] pending = Arrays.copyOfRange(replies, position, replies.length + received.length);
+                System.arraycopy(received, 0, pending, replies.length - position, received.length);
+                replies = pending;
+                position = 0;
+            }
+        };
+
+        private final InputStream input = new InputStream() {
+            @Override
+            public int read() {
+                return position < replies.length ? replies[position++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= replies.length) {
+                    return -1;
+                }
+                int n = Math.min(len, replies.length - position);
+                System.arraycopy(replies, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return replies.length - position;
+            }
+        };
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int getSoTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isBound() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            return closed;
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            return closed;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return InetSocketAddress.createUnresolved("fake-redis", 6379);
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            return InetSocketAddress.createUnresolved("localhost", 0);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,1003 @@
+package org.example.util;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Keyspace of {@link FakeRedis} and the commands it understands. Commands are executed one at a time under the lock
+ * of the keyspace, so each one is atomic the same way it is in redis.
+ * <p>
+ * Scripts are run by {@link FakeLua}, so the Lua text of {@link Scripts} is what gets tested. EVALSHA replies NOSCRIPT
+ * until the script was sent with EVAL or SCRIPT LOAD, so the first call of a script costs the same two round trips
+ * it costs against redis.
+ * <p>
+ * Hash fields with a time to live are removed lazily, when the hash is accessed after its fields expired.
+ * The clock of the keyspace is the system clock moved forward by {@link #advanceTime}
+ */
+final class FakeRedisData {
+    private static final FakeRedis.Status OK = new FakeRedis.Status("OK");
+    private static final long REPLICATION_OFFSET = 1_000_000;
+    private static final String WRONG_TYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    /**
+     * Reply to a command that failed, thrown by the commands and caught by {@link #execute}
+     */
+    private static final class CommandException extends RuntimeException {
+        CommandException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Binary key of the keyspace, hashes and sorted sets, ordered the way redis compares strings
+     */
+    private record Bytes(byte[] array) implements Comparable<Bytes> {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bytes other && Arrays.equals(array, other.array);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(array);
+        }
+
+        @Override
+        public int compareTo(Bytes other) {
+            return Arrays.compareUnsigned(array, other.array);
+        }
+
+        @Override
+        public String toString() {
+            return SafeEncoder.encode(array);
+        }
+    }
+
+    /**
+     * Member of a sorted set, ordered by score and then by member
+     */
+    private record Scored(double score, Bytes member) implements Comparable<Scored> {
+
+        @Override
+        public int compareTo(Scored other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : member.compareTo(other.member);
+        }
+    }
+
+    private static final class SortedSet {
+        private final Map<Bytes, Double> scores = new HashMap<>();
+        private final TreeSet<Scored> order = new TreeSet<>();
+    }
+
+    /**
+     * Entry of a stream, its id is millis-sequence
+     */
+    private record StreamEntry(long millis, long sequence, List<byte[]> fields) {
+
+        byte[] id() {
+            return SafeEncoder.encode(millis + "-" + sequence);
+        }
+
+        boolean isAfter(long[] id) {
+            return millis > id[0] || (millis == id[0] && sequence > id[1]);
+        }
+    }
+
+    private static final class Stream {
+        private final List<StreamEntry> entries = new ArrayList<>();
+        private long lastMillis;
+        private long lastSequence;
+    }
+
+    private final Map<Bytes, Object> keyspace = new HashMap<>();
+    private final Map<Bytes, Map<Bytes, Long>> deadlines = new HashMap<>();
+    private final FakeLua lua = new FakeLua(this::execute);
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+    private final Random random;
+    private final Map<String, Long> replicaLags = new LinkedHashMap<>();
+    private final Set<String> disabled = new HashSet<>();
+    private List<Object> clusterSlots;
+    private long clockOffset;
+
+    /**
+     * Initializes an empty keyspace
+     * @param random source of the fields HRANDFIELD returns
+     */
+    FakeRedisData(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Executes a command
+     * @param command name of the command followed by its arguments
+     * @return reply: byte[] for a bulk string, Long for an integer, List for an array, NULL for a missing value,
+     * {@link FakeRedis.Status} or {@link FakeRedis.ErrorReply}
+     */
+    synchronized Object execute(List<byte[]> command) {
+        String name = SafeEncoder.encode(command.get(0)).toUpperCase(Locale.ROOT);
+        List<byte[]> args = command.subList(1, command.size());
+        if (disabled.contains(name)) {
+            return new FakeRedis.ErrorReply("ERR unknown command '" + name.toLowerCase(Locale.ROOT) + "'");
+        }
+        try {
+            return dispatch(name, args);
+        } catch (CommandException e) {
+            return new FakeRedis.ErrorReply(e.getMessage());
+        } catch (IndexOutOfBoundsException e) {
+            return new FakeRedis.ErrorReply("ERR wrong number of arguments for '" + name.toLowerCase(Locale.ROOT)
+                    + "' command");
+        }
+    }
+
+    /**
+     * Removes all keys, loaded scripts stay loaded
+     */
+    synchronized void flushAll() {
+        keyspace.clear();
+        deadlines.clear();
+    }
+
+    /**
+     * Returns number of keys
+     */
+    synchronized int size() {
+        for (Bytes key : List.copyOf(deadlines.keySet())) {
+            hash(key.array());
+        }
+        return keyspace.size();
+    }
+
+    /**
+     * Moves the clock forward
+     * @param millis milliseconds to be skipped
+     */
+    synchronized void advanceTime(long millis) {
+        clockOffset += millis;
+    }
+
+    /**
+     * Makes commands unknown, for clients and scripts alike
+     * @param commands names of the commands
+     */
+    synchronized void disable(Collection<String> commands) {
+        commands.forEach(command -> disabled.add(command.toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * Makes CLUSTER SLOTS report that one master with its replicas serves every slot
+     * @param master "host:port" of the master
+     * @param replicas "host:port" of the replicas
+     */
+    synchronized void clusterSlots(String master, List<String> replicas) {
+        List<Object> range = new ArrayList<>(List.of(0L, 16383L, node(master)));
+        replicas.forEach(replica -> range.add(node(replica)));
+        clusterSlots = List.of(range);
+    }
+
+    /**
+     * Makes INFO replication report an online replica of this instance
+     * @param replica "host:port" of the replica
+     * @param bytes how far the offset of the replica is behind master_repl_offset
+     */
+    synchronized void replicaLag(String replica, long bytes) {
+        replicaLags.put(replica, bytes);
+    }
+
+    private static List<Object> node(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        return List.of(SafeEncoder.encode(hostAndPort.substring(0, colon)),
+                Long.parseLong(hostAndPort.substring(colon + 1)), SafeEncoder.encode("id-" + hostAndPort));
+    }
+
+    private Object info() {
+        StringBuilder info = new StringBuilder("# Replication\r\nrole:master\r\nconnected_slaves:")
+                .append(replicaLags.size()).append("\r\n");
+        int i = 0;
+        for (Map.Entry<String, Long> replica : replicaLags.entrySet()) {
+            int colon = replica.getKey().lastIndexOf(':');
+            info.append("slave").append(i++).append(":ip=").append(replica.getKey(), 0, colon)
+                    .append(",port=").append(replica.getKey().substring(colon + 1))
+                    .append(",state=online,offset=").append(REPLICATION_OFFSET - replica.getValue())
+                    .append(",lag=0\r\n");
+        }
+        info.append("master_repl_offset:").append(REPLICATION_OFFSET).append("\r\n");
+        return SafeEncoder.encode(info.toString());
+    }
+
+    private long now() {
+        return System.currentTimeMillis() + clockOffset;
+    }
+
+    private Object dispatch(String name, List<byte[]> args) {
+        return switch (name) {
+            case "PING" -> new FakeRedis.Status("PONG");
+            case "CLIENT" -> client(args);
+            case "SELECT", "AUTH", "READONLY" -> OK;
+            case "INFO" -> info();
+            case "CLUSTER" -> {
+                if (clusterSlots == null || !SafeEncoder.encode(args.get(0)).equalsIgnoreCase("SLOTS")) {
+                    throw new CommandException("ERR This instance has cluster support disabled");
+                }
+                yield clusterSlots;
+            }
+            case "FLUSHALL", "FLUSHDB" -> {
+                flushAll();
+                yield OK;
+            }
+            case "DBSIZE" -> (long) size();
+            case "TIME" -> {
+                Instant now = Instant.now().plusMillis(clockOffset);
+                yield List.of(SafeEncoder.encode(Long.toString(now.getEpochSecond())),
+                        SafeEncoder.encode(Long.toString(now.getNano() / 1000)));
+            }
+            case "DEL", "UNLINK" -> del(args);
+            case "EXISTS" -> args.stream().filter(key -> {
+                hashIfPresent(key);
+                return keyspace.containsKey(new Bytes(key));
+            }).count();
+            case "GET" -> get(args.get(0));
+            case "INCR" -> dispatch("INCRBY", List.of(args.get(0), SafeEncoder.encode("1")));
+            case "INCRBY" -> {
+                byte[] old = get(args.get(0));
+                long value = Math.addExact(old != null ? parseLong(old) : 0, parseLong(args.get(1)));
+                set(args.get(0), SafeEncoder.encode(Long.toString(value)));
+                yield value;
+            }
+            case "SET" -> {
+                if (args.size() != 2) {
+                    throw new CommandException("ERR options of SET are not supported by the fake");
+                }
+                set(args.get(0), args.get(1));
+                yield OK;
+            }
+            case "HGET" -> hget(args.get(0), args.get(1));
+            case "HSET" -> {
+                if (args.size() < 3 || args.size() % 2 == 0) {
+                    throw new IndexOutOfBoundsException();
+                }
+                long added = 0;
+                for (int i = 1; i < args.size(); i += 2) {
+                    added += hset(args.get(0), args.get(i), args.get(i + 1));
+                }
+                yield added;
+            }
+            case "HSETNX" -> hget(args.get(0), args.get(1)) == null ? hset(args.get(0), args.get(1), args.get(2)) : 0L;
+            case "HDEL" -> hdel(args.get(0), args.subList(1, args.size()));
+            case "HEXISTS" -> hget(args.get(0), args.get(1)) != null ? 1L : 0L;
+            case "HLEN" -> (long) hash(args.get(0)).size();
+            case "HMGET" -> {
+                List<byte[]> values = new ArrayList<>();
+                for (byte[] field : args.subList(1, args.size())) {
+                    values.add(hget(args.get(0), field));
+                }
+                yield values;
+            }
+            case "HGETALL", "HKEYS", "HVALS" -> {
+                List<byte[]> reply = new ArrayList<>();
+                hash(args.get(0)).forEach((field, value) -> {
+                    if (!name.equals("HVALS")) {
+                        reply.add(field.array());
+                    }
+                    if (!name.equals("HKEYS")) {
+                        reply.add(value);
+                    }
+                });
+                yield reply;
+            }
+            case "HINCRBY" -> hincrBy(args.get(0), args.get(1), parseLong(args.get(2)));
+            case "HPEXPIRE" -> {
+                long ttl = parseLong(args.get(1));
+                List<Long> reply = new ArrayList<>();
+                for (byte[] field : fields(args, 2)) {
+                    reply.add(hpexpire(args.get(0), field, ttl));
+                }
+                yield reply;
+            }
+            case "HPTTL" -> {
+                List<Long> reply = new ArrayList<>();
+                for (byte[] field : fields(args, 1)) {
+                    reply.add(hpttl(args.get(0), field));
+                }
+                yield reply;
+            }
+            case "HPERSIST" -> {
+                List<Long> reply = new ArrayList<>();
+                for (byte[] field : fields(args, 1)) {
+                    reply.add(hpersist(args.get(0), field));
+                }
+                yield reply;
+            }
+            case "HRANDFIELD" -> hrandfield(args);
+            case "HGETDEL" -> hgetdel(args);
+            case "HSCAN" -> hscan(args);
+            case "ZADD" -> {
+                long added = 0;
+                for (int i = 1; i < args.size(); i += 2) {
+                    added += zadd(args.get(0), parseScore(args.get(i)), args.get(i + 1));
+                }
+                yield added;
+            }
+            case "ZREM" -> {
+                long removed = 0;
+                for (byte[] member : args.subList(1, args.size())) {
+                    removed += zrem(args.get(0), member);
+                }
+                yield removed;
+            }
+            case "ZCARD" -> (long) sortedSet(args.get(0)).scores.size();
+            case "ZSCORE" -> {
+                Double score = sortedSet(args.get(0)).scores.get(new Bytes(args.get(1)));
+                yield score != null ? formatScore(score) : null;
+            }
+            case "ZRANGE" -> zrange(args);
+            case "ZLEXCOUNT" -> {
+                long count = 0;
+                for (Bytes member : sortedSet(args.get(0)).scores.keySet()) {
+                    if (aboveLexMin(member.array(), args.get(1)) && belowLexMax(member.array(), args.get(2))) {
+                        count++;
+                    }
+                }
+                yield count;
+            }
+            case "ZRANGEBYSCORE" -> zrangeByScore(args);
+            case "ZRANGEBYLEX" -> zrangeByLex(args);
+            case "XADD" -> xadd(args);
+            case "XREVRANGE" -> xrevrange(args);
+            case "XREAD" -> xread(args);
+            case "EVAL" -> eval(sha1(args.get(0)), args, true);
+            case "EVALSHA" -> eval(SafeEncoder.encode(args.get(0)).toLowerCase(Locale.ROOT), args, false);
+            case "SCRIPT" -> script(args);
+            default -> throw new CommandException("ERR unknown command '" + name.toLowerCase(Locale.ROOT)
+                    + "', the fake does not support it");
+        };
+    }
+
+    private Object client(List<byte[]> args) {
+        String subcommand = SafeEncoder.encode(args.get(0)).toUpperCase(Locale.ROOT);
+        return switch (subcommand) {
+            case "SETINFO", "SETNAME" -> OK;
+            case "ID" -> 1L;
+            default -> throw new CommandException("ERR CLIENT " + subcommand + " is not supported by the fake");
+        };
+    }
+
+    private long del(List<byte[]> keys) {
+        long removed = 0;
+        for (byte[] key : keys) {
+            hashIfPresent(key);
+            if (removeKey(new Bytes(key)) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private Object removeKey(Bytes key) {
+        deadlines.remove(key);
+        return keyspace.remove(key);
+    }
+
+    /**
+     * Removes expired fields if the key holds a hash
+     */
+    private void hashIfPresent(byte[] key) {
+        if (keyspace.get(new Bytes(key)) instanceof TreeMap<?, ?>) {
+            hash(key);
+        }
+    }
+
+    private byte[] get(byte[] key) {
+        Object value = keyspace.get(new Bytes(key));
+        if (value != null && !(value instanceof byte[])) {
+            throw new CommandException(WRONG_TYPE);
+        }
+        return (byte[]) value;
+    }
+
+    private void set(byte[] key, byte[] value) {
+        deadlines.remove(new Bytes(key));
+        keyspace.put(new Bytes(key), value);
+    }
+
+    /**
+     * Returns the hash without its expired fields, an empty one that is not stored if the key does not exist
+     */
+    @SuppressWarnings("unchecked")
+    private TreeMap<Bytes, byte[]> hash(byte[] key) {
+        Bytes k = new Bytes(key);
+        Object value = keyspace.get(k);
+        if (value == null) {
+            return new TreeMap<>();
+        }
+        if (!(value instanceof TreeMap<?, ?>)) {
+            throw new CommandException(WRONG_TYPE);
+        }
+        TreeMap<Bytes, byte[]> hash = (TreeMap<Bytes, byte[]>) value;
+        Map<Bytes, Long> expiring = deadlines.get(k);
+        if (expiring != null) {
+            long now = now();
+            expiring.entrySet().removeIf(e -> e.getValue() <= now && hash.remove(e.getKey()) != null);
+            if (expiring.isEmpty()) {
+                deadlines.remove(k);
+            }
+            if (hash.isEmpty()) {
+                removeKey(k);
+                return new TreeMap<>();
+            }
+        }
+        return hash;
+    }
+
+    private TreeMap<Bytes, byte[]> storedHash(byte[] key) {
+        TreeMap<Bytes, byte[]> hash = hash(key);
+        keyspace.putIfAbsent(new Bytes(key), hash);
+        return hash;
+    }
+
+    private byte[] hget(byte[] key, byte[] field) {
+        return hash(key).get(new Bytes(field));
+    }
+
+    private long hset(byte[] key, byte[] field, byte[] value) {
+        TreeMap<Bytes, byte[]> hash = storedHash(key);
+        persist(key, field);
+        return hash.put(new Bytes(field), value) == null ? 1 : 0;
+    }
+
+    private long hdel(byte[] key, List<byte[]> fields) {
+        if (fields.isEmpty()) {
+            throw new IndexOutOfBoundsException();
+        }
+        TreeMap<Bytes, byte[]> hash = hash(key);
+        long removed = 0;
+        for (byte[] field : fields) {
+            persist(key, field);
+            if (hash.remove(new Bytes(field)) != null) {
+                removed++;
+            }
+        }
+        if (hash.isEmpty()) {
+            removeKey(new Bytes(key));
+        }
+        return removed;
+    }
+
+    private long hincrBy(byte[] key, byte[] field, long delta) {
+        byte[] old = hget(key, field);
+        long value;
+        try {
+            value = old != null ? Long.parseLong(SafeEncoder.encode(old)) : 0;
+        } catch (NumberFormatException e) {
+            throw new CommandException("ERR hash value is not an integer");
+        }
+        try {
+            value = Math.addExact(value, delta);
+        } catch (ArithmeticException e) {
+            throw new CommandException("ERR increment or decrement would overflow");
+        }
+        Long deadline = deadline(key, field);
+        hset(key, field, SafeEncoder.encode(Long.toString(value)));
+        if (deadline != null) {
+            deadlines.computeIfAbsent(new Bytes(key), k -> new HashMap<>()).put(new Bytes(field), deadline);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the fields of a hash field command: the arguments from the index on are FIELDS numfields field [field ...]
+     */
+    private static List<byte[]> fields(List<byte[]> args, int from) {
+        if (!SafeEncoder.encode(args.get(from)).equalsIgnoreCase("FIELDS")
+                || parseLong(args.get(from + 1)) != args.size() - from - 2) {
+            throw new CommandException("ERR the fake supports no options of hash field expiration");
+        }
+        return args.subList(from + 2, args.size());
+    }
+
+    private Long deadline(byte[] key, byte[] field) {
+        Map<Bytes, Long> expiring = deadlines.get(new Bytes(key));
+        return expiring != null ? expiring.get(new Bytes(field)) : null;
+    }
+
+    /**
+     * HPEXPIRE of a single field: -2 if the field is missing, 2 if the field was removed right away, 1 otherwise
+     */
+    private long hpexpire(byte[] key, byte[] field, long ttl) {
+        if (hget(key, field) == null) {
+            return -2;
+        }
+        if (ttl <= 0) {
+            hdel(key, List.of(field));
+            return 2;
+        }
+        deadlines.computeIfAbsent(new Bytes(key), k -> new HashMap<>()).put(new Bytes(field), now() + ttl);
+        return 1;
+    }
+
+    /**
+     * HPTTL of a single field: -2 if the field is missing, -1 if it does not expire, milliseconds left otherwise
+     */
+    private long hpttl(byte[] key, byte[] field) {
+        if (hget(key, field) == null) {
+            return -2;
+        }
+        Long deadline = deadline(key, field);
+        return deadline != null ? deadline - now() : -1;
+    }
+
+    /**
+     * HPERSIST of a single field: -2 if the field is missing, -1 if it does not expire, 1 otherwise
+     */
+    private long hpersist(byte[] key, byte[] field) {
+        if (hget(key, field) == null) {
+            return -2;
+        }
+        return persist(key, field) ? 1 : -1;
+    }
+
+    private boolean persist(byte[] key, byte[] field) {
+        Bytes k = new Bytes(key);
+        Map<Bytes, Long> expiring = deadlines.get(k);
+        if (expiring == null || expiring.remove(new Bytes(field)) == null) {
+            return false;
+        }
+        if (expiring.isEmpty()) {
+            deadlines.remove(k);
+        }
+        return true;
+    }
+
+    /**
+     * HRANDFIELD key [count [WITHVALUES]], a positive count returns distinct fields, a negative one may repeat them
+     */
+    private Object hrandfield(List<byte[]> args) {
+        List<Map.Entry<Bytes, byte[]>> entries = new ArrayList<>(hash(args.get(0)).entrySet());
+        if (args.size() == 1) {
+            return entries.isEmpty() ? null : entries.get(random.nextInt(entries.size())).getKey().array();
+        }
+        long count = parseLong(args.get(1));
+        boolean withValues = args.size() > 2 && SafeEncoder.encode(args.get(2)).equalsIgnoreCase("WITHVALUES");
+        List<Map.Entry<Bytes, byte[]>> picked = new ArrayList<>();
+        if (count >= 0) {
+            Collections.shuffle(entries, random);
+            picked = entries.subList(0, (int) Math.min(count, entries.size()));
+        } else if (!entries.isEmpty()) {
+            for (long i = 0; i < -count; i++) {
+                picked.add(entries.get(random.nextInt(entries.size())));
+            }
+        }
+        List<byte[]> reply = new ArrayList<>();
+        for (Map.Entry<Bytes, byte[]> entry : picked) {
+            reply.add(entry.getKey().array());
+            if (withValues) {
+                reply.add(entry.getValue());
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * HGETDEL key FIELDS numfields field [field ...]
+     */
+    private List<byte[]> hgetdel(List<byte[]> args) {
+        if (!SafeEncoder.encode(args.get(1)).equalsIgnoreCase("FIELDS")
+                || parseLong(args.get(2)) != args.size() - 3) {
+            throw new CommandException("ERR syntax error");
+        }
+        List<byte[]> fields = args.subList(3, args.size());
+        List<byte[]> values = new ArrayList<>(fields.size());
+        for (byte[] field : fields) {
+            values.add(hget(args.get(0), field));
+        }
+        hdel(args.get(0), fields);
+        return values;
+    }
+
+    /**
+     * HSCAN key cursor [COUNT count]. Fields are returned in byte order and the cursor is the last returned field,
+     * so every field present during the whole scan is returned exactly once, however the hash changes
+     */
+    private List<Object> hscan(List<byte[]> args) {
+        int count = 10;
+        for (int i = 2; i < args.size(); i += 2) {
+            String option = SafeEncoder.encode(args.get(i)).toUpperCase(Locale.ROOT);
+            if (!option.equals("COUNT")) {
+                throw new CommandException("ERR HSCAN " + option + " is not supported by the fake");
+            }
+            count = (int) parseLong(args.get(i + 1));
+        }
+        String cursor = SafeEncoder.encode(args.get(1));
+        TreeMap<Bytes, byte[]> hash = hash(args.get(0));
+        NavigableMap<Bytes, byte[]> rest = cursor.equals("0")
+                ? hash
+                : hash.tailMap(new Bytes(HexFormat.of().parseHex(cursor.substring(1))), false);
+        List<byte[]> page = new ArrayList<>();
+        Bytes last = null;
+        for (Map.Entry<Bytes, byte[]> entry : rest.entrySet()) {
+            if (page.size() / 2 == count) {
+                break;
+            }
+            page.add(entry.getKey().array());
+            page.add(entry.getValue());
+            last = entry.getKey();
+        }
+        boolean complete = last == null || rest.tailMap(last, false).isEmpty();
+        String next = complete ? "0" : "c" + HexFormat.of().formatHex(last.array());
+        return List.of(SafeEncoder.encode(next), page);
+    }
+
+    private SortedSet sortedSet(byte[] key) {
+        Object value = keyspace.get(new Bytes(key));
+        if (value == null) {
+            return new SortedSet();
+        }
+        if (!(value instanceof SortedSet set)) {
+            throw new CommandException(WRONG_TYPE);
+        }
+        return set;
+    }
+
+    private Stream stream(byte[] key) {
+        Object value = keyspace.get(new Bytes(key));
+        if (value == null) {
+            return new Stream();
+        }
+        if (!(value instanceof Stream stream)) {
+            throw new CommandException(WRONG_TYPE);
+        }
+        return stream;
+    }
+
+    /**
+     * XADD key [MAXLEN [~|=] length] * field value..., trimming is exact and ids are generated only
+     */
+    private Object xadd(List<byte[]> args) {
+        int position = 1;
+        long maxLength = -1;
+        if (SafeEncoder.encode(args.get(position)).equalsIgnoreCase("MAXLEN")) {
+            position++;
+            String bound = SafeEncoder.encode(args.get(position));
+            if (bound.equals("~") || bound.equals("=")) {
+                position++;
+            }
+            maxLength = parseLong(args.get(position++));
+        }
+        if (!SafeEncoder.encode(args.get(position++)).equals("*")) {
+            throw new CommandException("ERR explicit stream ids are not supported by the fake");
+        }
+        Stream stream = stream(args.get(0));
+        keyspace.putIfAbsent(new Bytes(args.get(0)), stream);
+        long millis = Math.max(now(), stream.lastMillis);
+        long sequence = millis == stream.lastMillis ? stream.lastSequence + 1 : 0;
+        StreamEntry entry = new StreamEntry(millis, sequence, List.copyOf(args.subList(position, args.size())));
+        stream.entries.add(entry);
+        stream.lastMillis = millis;
+        stream.lastSequence = sequence;
+        if (maxLength >= 0 && stream.entries.size() > maxLength) {
+            stream.entries.subList(0, (int) (stream.entries.size() - maxLength)).clear();
+        }
+        // wakes up blocked XREADs
+        notifyAll();
+        return entry.id();
+    }
+
+    /**
+     * XREVRANGE key + - [COUNT count], only the whole stream can be read
+     */
+    private Object xrevrange(List<byte[]> args) {
+        if (!SafeEncoder.encode(args.get(1)).equals("+") || !SafeEncoder.encode(args.get(2)).equals("-")) {
+            throw new CommandException("ERR the fake supports XREVRANGE of the whole stream only");
+        }
+        long count = args.size() > 4 ? parseLong(args.get(4)) : Long.MAX_VALUE;
+        List<StreamEntry> entries = stream(args.get(0)).entries;
+        List<Object> reply = new ArrayList<>();
+        for (int i = entries.size() - 1; i >= 0 && reply.size() < count; i--) {
+            reply.add(List.of(entries.get(i).id(), entries.get(i).fields()));
+        }
+        return reply;
+    }
+
+    /**
+     * XREAD [COUNT count] [BLOCK millis] STREAMS key... id..., a blocked read waits for XADD without holding the lock
+     */
+    private Object xread(List<byte[]> args) {
+        long count = Long.MAX_VALUE;
+        long block = -1;
+        int position = 0;
+        while (!SafeEncoder.encode(args.get(position)).equalsIgnoreCase("STREAMS")) {
+            switch (SafeEncoder.encode(args.get(position)).toUpperCase(Locale.ROOT)) {
+                case "COUNT" -> count = parseLong(args.get(position + 1));
+                case "BLOCK" -> block = parseLong(args.get(position + 1));
+                default -> throw new CommandException("ERR syntax error");
+            }
+            position += 2;
+        }
+        List<byte[]> streams = args.subList(position + 1, args.size());
+        int keys = streams.size() / 2;
+        long[][] from = new long[keys][];
+        for (int i = 0; i < keys; i++) {
+            String id = SafeEncoder.encode(streams.get(keys + i));
+            Stream stream = stream(streams.get(i));
+            from[i] = id.equals("$")
+                    ? new long[]{stream.lastMillis, stream.lastSequence}
+                    : Arrays.stream(id.split("-", 2)).mapToLong(Long::parseLong).toArray();
+            if (from[i].length == 1) {
+                from[i] = new long[]{from[i][0], 0};
+            }
+        }
+        long deadline = System.currentTimeMillis() + block;
+        while (true) {
+            List<Object> reply = new ArrayList<>();
+            for (int i = 0; i < keys; i++) {
+                List<Object> entries = new ArrayList<>();
+                for (StreamEntry entry : stream(streams.get(i)).entries) {
+                    if (entries.size() < count && entry.isAfter(from[i])) {
+                        entries.add(List.of(entry.id(), entry.fields()));
+                    }
+                }
+                if (!entries.isEmpty()) {
+                    reply.add(List.of(streams.get(i), entries));
+                }
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (!reply.isEmpty() || block < 0 || (block > 0 && left <= 0)) {
+                return reply.isEmpty() ? null : reply;
+            }
+            try {
+                wait(block == 0 ? 0 : left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private long zadd(byte[] key, double score, byte[] member) {
+        SortedSet set = sortedSet(key);
+        keyspace.putIfAbsent(new Bytes(key), set);
+        Bytes m = new Bytes(member);
+        Double old = set.scores.put(m, score);
+        if (old != null) {
+            set.order.remove(new Scored(old, m));
+        }
+        set.order.add(new Scored(score, m));
+        return old == null ? 1 : 0;
+    }
+
+    private long zrem(byte[] key, byte[] member) {
+        SortedSet set = sortedSet(key);
+        Bytes m = new Bytes(member);
+        Double old = set.scores.remove(m);
+        if (old == null) {
+            return 0;
+        }
+        set.order.remove(new Scored(old, m));
+        if (set.scores.isEmpty()) {
+            removeKey(new Bytes(key));
+        }
+        return 1;
+    }
+
+    /**
+     * ZRANGEBYSCORE key min max, bounds are numbers, -inf, +inf, or numbers prefixed with ( to be exclusive
+     */
+    private List<byte[]> zrangeByScore(List<byte[]> args) {
+        if (args.size() != 3) {
+            throw new CommandException("ERR options of ZRANGEBYSCORE are not supported by the fake");
+        }
+        List<byte[]> members = new ArrayList<>();
+        for (Scored scored : sortedSet(args.get(0)).order) {
+            if (withinScores(scored.score(), args.get(1), args.get(2))) {
+                members.add(scored.member().array());
+            }
+        }
+        return members;
+    }
+
+    private static boolean withinScores(double score, byte[] min, byte[] max) {
+        String from = SafeEncoder.encode(min);
+        String to = SafeEncoder.encode(max);
+        boolean aboveMin = from.startsWith("(")
+                ? score > parseScore(SafeEncoder.encode(from.substring(1)))
+                : score >= parseScore(min);
+        boolean belowMax = to.startsWith("(")
+                ? score < parseScore(SafeEncoder.encode(to.substring(1)))
+                : score <= parseScore(max);
+        return aboveMin && belowMax;
+    }
+
+    /**
+     * ZRANGE key start stop [BYSCORE|BYLEX] [REV] [LIMIT offset count] [WITHSCORES], with REV and BYSCORE or BYLEX
+     * start is the upper bound
+     */
+    private List<byte[]> zrange(List<byte[]> args) {
+        String by = "RANK";
+        boolean rev = false;
+        boolean withScores = false;
+        long offset = 0;
+        long count = -1;
+        for (int i = 3; i < args.size(); i++) {
+            String option = SafeEncoder.encode(args.get(i)).toUpperCase(Locale.ROOT);
+            switch (option) {
+                case "BYSCORE", "BYLEX" -> by = option;
+                case "REV" -> rev = true;
+                case "WITHSCORES" -> withScores = true;
+                case "LIMIT" -> {
+                    if (i + 2 >= args.size()) {
+                        throw new CommandException("ERR syntax error");
+                    }
+                    offset = parseLong(args.get(++i));
+                    count = parseLong(args.get(++i));
+                }
+                default -> throw new CommandException("ERR syntax error");
+            }
+        }
+        SortedSet set = sortedSet(args.get(0));
+        List<Scored> matched = new ArrayList<>(rev ? set.order.descendingSet() : set.order);
+        byte[] min = args.get(rev ? 2 : 1);
+        byte[] max = args.get(rev ? 1 : 2);
+        switch (by) {
+            case "BYSCORE" -> matched.removeIf(scored -> !withinScores(scored.score(), min, max));
+            case "BYLEX" -> matched.removeIf(scored ->
+                    !aboveLexMin(scored.member().array(), min) || !belowLexMax(scored.member().array(), max));
+            default -> {
+                if (count >= 0 || offset > 0) {
+                    throw new CommandException("ERR syntax error, LIMIT is only supported in combination with either BYSCORE or BYLEX");
+                }
+                long start = parseLong(args.get(1));
+                long stop = parseLong(args.get(2));
+                start = Math.max(start < 0 ? start + matched.size() : start, 0);
+                stop = Math.min(stop < 0 ? stop + matched.size() : stop, matched.size() - 1);
+                matched = start <= stop ? matched.subList((int) start, (int) stop + 1) : List.of();
+            }
+        }
+        if (offset > 0 || count >= 0) {
+            int from = (int) Math.min(offset, matched.size());
+            int to = count >= 0 ? (int) Math.min(from + count, matched.size()) : matched.size();
+            matched = matched.subList(from, to);
+        }
+        List<byte[]> reply = new ArrayList<>();
+        for (Scored scored : matched) {
+            reply.add(scored.member().array());
+            if (withScores) {
+                reply.add(formatScore(scored.score()));
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * ZRANGEBYLEX key min max, bounds are -, +, or strings prefixed with [ to be inclusive or ( to be exclusive
+     */
+    private List<byte[]> zrangeByLex(List<byte[]> args) {
+        if (args.size() != 3) {
+            throw new CommandException("ERR options of ZRANGEBYLEX are not supported by the fake");
+        }
+        byte[] min = args.get(1);
+        byte[] max = args.get(2);
+        List<byte[]> members = new ArrayList<>();
+        for (Scored scored : sortedSet(args.get(0)).order) {
+            byte[] member = scored.member().array();
+            if (aboveLexMin(member, min) && belowLexMax(member, max)) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    private static boolean aboveLexMin(byte[] member, byte[] bound) {
+        if (bound.length == 1 && bound[0] == '-') {
+            return true;
+        }
+        if (bound.length == 1 && bound[0] == '+') {
+            return false;
+        }
+        int compared = Arrays.compareUnsigned(member, 0, member.length, bound, 1, bound.length);
+        return switch (bound[0]) {
+            case '[' -> compared >= 0;
+            case '(' -> compared > 0;
+            default -> throw new CommandException("ERR min or max not valid string range item");
+        };
+    }
+
+    private static boolean belowLexMax(byte[] member, byte[] bound) {
+        if (bound.length == 1 && bound[0] == '+') {
+            return true;
+        }
+        if (bound.length == 1 && bound[0] == '-') {
+            return false;
+        }
+        int compared = Arrays.compareUnsigned(member, 0, member.length, bound, 1, bound.length);
+        return switch (bound[0]) {
+            case '[' -> compared <= 0;
+            case '(' -> compared < 0;
+            default -> throw new CommandException("ERR min or max not valid string range item");
+        };
+    }
+
+    /**
+     * EVAL body numkeys key... arg... or EVALSHA sha numkeys key... arg...
+     */
+    private Object eval(String sha, List<byte[]> args, boolean withBody) {
+        LuaValue script = withBody ? load(args.get(0)) : scripts.get(sha);
+        if (script == null) {
+            throw new CommandException("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        int numKeys = (int) parseLong(args.get(1));
+        return lua.run(script, args.subList(2, 2 + numKeys), args.subList(2 + numKeys, args.size()));
+    }
+
+    private LuaValue load(byte[] body) {
+        return scripts.computeIfAbsent(sha1(body), sha -> {
+            try {
+                return lua.compile(body);
+            } catch (LuaError e) {
+                throw new CommandException("ERR Error compiling script (new function): " + e.getMessage());
+            }
+        });
+    }
+
+    private Object script(List<byte[]> args) {
+        String subcommand = SafeEncoder.encode(args.get(0)).toUpperCase(Locale.ROOT);
+        switch (subcommand) {
+            case "LOAD" -> {
+                load(args.get(1));
+                return SafeEncoder.encode(sha1(args.get(1)));
+            }
+            case "EXISTS" -> {
+                List<Long> exists = new ArrayList<>();
+                for (byte[] sha : args.subList(1, args.size())) {
+                    exists.add(scripts.containsKey(SafeEncoder.encode(sha).toLowerCase(Locale.ROOT)) ? 1L : 0L);
+                }
+                return exists;
+            }
+            case "FLUSH" -> {
+                scripts.clear();
+                return OK;
+            }
+            default -> throw new CommandException("ERR SCRIPT " + subcommand + " is not supported by the fake");
+        }
+    }
+
+    private static long parseLong(byte[] value) {
+        try {
+            return Long.parseLong(SafeEncoder.encode(value));
+        } catch (NumberFormatException e) {
+            throw new CommandException("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static double parseScore(byte[] value) {
+        String score = SafeEncoder.encode(value);
+        try {
+            return switch (score.toLowerCase(Locale.ROOT)) {
+                case "-inf" -> Double.NEGATIVE_INFINITY;
+                case "+inf", "inf" -> Double.POSITIVE_INFINITY;
+                default -> Double.parseDouble(score);
+            };
+        } catch (NumberFormatException e) {
+            throw new CommandException("ERR value is not a valid float");
+        }
+    }
+
+    private static byte[] formatScore(double score) {
+        boolean integral = score == Math.rint(score) && Math.abs(score) < 1e17;
+        return SafeEncoder.encode(integral ? Long.toString((long) score) : Double.toString(score));
+    }
+
+    private static String sha1(byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
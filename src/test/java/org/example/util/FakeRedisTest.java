@@ -0,0 +1,155 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class FakeRedisTest {
+
+    private FakeRedis redis;
+    private JedisPooled client;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = new FakeRedis();
+        client = redis.client();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        client.close();
+    }
+
+    @Test
+    @DisplayName("Tests that hash commands behave the way redis does")
+    public void hashCommands_successful() {
+        Assertions.assertEquals(2, client.hset("hash", Map.of("a", "1", "b", "2")));
+        Assertions.assertEquals("1", client.hget("hash", "a"));
+        Assertions.assertEquals(0, client.hsetnx("hash", "a", "3"));
+        Assertions.assertEquals(12, client.hincrBy("hash", "b", 10));
+        Assertions.assertEquals(List.of("1", "12"), client.hmget("hash", "a", "b"));
+        Assertions.assertTrue(client.hexists("hash", "a"));
+        Assertions.assertEquals(2, client.hdel("hash", "a", "b", "c"));
+        Assertions.assertFalse(client.exists("hash"));
+        client.set("string", "x");
+        Assertions.assertThrows(JedisDataException.class, () -> client.hget("string", "a"));
+    }
+
+    @Test
+    @DisplayName("Tests that HSCAN returns every field present during the whole scan once, however the hash changes")
+    public void hscan_concurrentRemovals_everyFieldOnce() {
+        for (int i = 0; i < 100; i++) {
+            client.hset("hash", "field" + i, "v");
+        }
+        Set<String> seen = new HashSet<>();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<Map.Entry<String, String>> page = client.hscan("hash", cursor, new ScanParams().count(7));
+            for (Map.Entry<String, String> entry : page.getResult()) {
+                Assertions.assertTrue(seen.add(entry.getKey()));
+                client.hdel("hash", entry.getKey());
+            }
+            cursor = page.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        Assertions.assertEquals(100, seen.size());
+    }
+
+    @Test
+    @DisplayName("Tests that the Lua of a script is run and EVALSHA needs the script to be loaded first")
+    public void evalsha_notLoaded_noScript() {
+        List<byte[]> keys = List.of(SafeEncoder.encode("hash"));
+        List<byte[]> args = List.of(SafeEncoder.encode("a"), SafeEncoder.encode("1"));
+
+        Object first = Scripts.PUT.eval(client, keys, args);
+        Object second = Scripts.PUT.eval(client, keys, List.of(SafeEncoder.encode("a"), SafeEncoder.encode("2")));
+
+        Assertions.assertNull(first);
+        Assertions.assertEquals("1", SafeEncoder.encode((byte[]) second));
+        Assertions.assertEquals(1, redis.commandCount("EVAL"));
+        Assertions.assertEquals(2, redis.commandCount("EVALSHA"));
+    }
+
+    @Test
+    @DisplayName("Tests that replies and Lua values are converted by the rules of redis")
+    public void eval_conversions_sameAsRedis() {
+        client.hset("hash", "a", "1");
+
+        Object reply = client.eval("""
+                local missing = redis.call('HGET', KEYS[1], 'b')
+                local status = redis.call('SET', 'key', 'value')
+                local failed = redis.pcall('HINCRBY', KEYS[1], 'a', 'x')
+                return {redis.call('HGET', KEYS[1], 'a'), 3.7, missing == false, status.ok, failed.err ~= nil,
+                        bit.tobit(2147483648), nil, 'after nil'}
+                """, 1, "hash");
+        List<Object> values = new ArrayList<>();
+        for (Object value : (List<?>) reply) {
+            values.add(value instanceof byte[] bytes ? SafeEncoder.encode(bytes) : value);
+        }
+
+        Assertions.assertEquals(List.of("1", 3L, 1L, "OK", 1L, -2147483648L), values);
+        JedisDataException error = Assertions.assertThrows(JedisDataException.class,
+                () -> client.eval("return redis.error_reply('OVERFLOW a')"));
+        Assertions.assertEquals("OVERFLOW a", error.getMessage());
+        Assertions.assertThrows(JedisDataException.class, () -> client.eval("redis.call('HINCRBY', 'hash', 'a', 'x')"));
+    }
+
+    @Test
+    @DisplayName("Tests that commands flushed together are one round trip")
+    public void pipeline_oneRoundTrip() {
+        client.hget("hash", "a");
+        redis.resetCounts();
+
+        List<Response<String>> responses = new ArrayList<>();
+        try (AbstractPipeline pipeline = client.pipelined()) {
+            for (int i = 0; i < 10; i++) {
+                pipeline.hset("hash", "field" + i, "v" + i);
+                responses.add(pipeline.hget("hash", "field" + i));
+            }
+            pipeline.sync();
+        }
+
+        Assertions.assertEquals(1, redis.roundTrips());
+        Assertions.assertEquals(10, redis.commandCount("HSET"));
+        Assertions.assertEquals("v9", responses.get(9).get());
+    }
+
+    @Test
+    @DisplayName("Tests that injected latency delays every round trip")
+    public void latency_delaysRoundTrips() {
+        redis.latency(Duration.ofMillis(5), Duration.ofMillis(1));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            client.hget("hash", "a");
+        }
+
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+    }
+
+    @Test
+    @DisplayName("Tests that injected failures fail the next commands and injected disconnects break connections")
+    public void failures_injected() {
+        redis.failNext("HGET", 1).disconnectNext(1);
+
+        Assertions.assertThrows(JedisConnectionException.class, () -> client.hget("hash", "a"));
+        Assertions.assertThrows(JedisDataException.class, () -> client.hget("hash", "a"));
+        Assertions.assertNull(client.hget("hash", "a"));
+
+        redis.failureRate(1);
+        Assertions.assertThrows(JedisDataException.class, () -> client.hlen("hash"));
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+public class GetBatcherTest {
+
+    private FakeRedis fake;
+    private JedisPooled client;
+
+    @BeforeEach
+    public void beforeEach() {
+        fake = new FakeRedis();
+        client = fake.client();
+        client.hset("map", Map.of("1", "1", "2", "2", "3", "3"));
+    }
+
+    @AfterEach
+    public void afterEach() {
+        client.close();
+    }
+
+    /**
+     * Runs calls on threads released at the same moment and returns their results
+     */
+    private static <T> List<T> concurrently(int threads, Callable<T> call) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return call.call();
+                }));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that the first get of an idle hash is sent alone and the gets behind it share one HMGET")
+    public void concurrentGetsOfSameKey_coalesced() throws Exception {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map")
+                .batchGets(Duration.ofMillis(100), 100)
+                .build()) {
+            fake.latency(Duration.ofMillis(50), Duration.ZERO);
+            fake.resetCounts();
+
+            List<Integer> values = concurrently(8, () -> map.get("1"));
+
+            Assertions.assertEquals(List.of(1, 1, 1, 1, 1, 1, 1, 1), values);
+            Assertions.assertEquals(0, fake.commandCount("HGET"));
+            Assertions.assertEquals(2, fake.commandCount("HMGET"));
+            Assertions.assertEquals(new GetBatchStats(8, 6, 2), map.getBatchStats());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a batch reaching maxBatch distinct keys is sent before its window passes")
+    public void fullBatch_sentBeforeWindow() throws Exception {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map")
+                .batchGets(Duration.ofSeconds(10), 3)
+                .build()) {
+            fake.latency(Duration.ofMillis(50), Duration.ZERO);
+            long started = System.nanoTime();
+            ConcurrentLinkedQueue<String> keys = new ConcurrentLinkedQueue<>(List.of("1", "2", "4", "5"));
+
+            List<Boolean> found = concurrently(4, () -> map.containsKey(keys.poll()));
+
+            Assertions.assertTrue(System.nanoTime() - started < Duration.ofSeconds(5).toNanos());
+            Assertions.assertEquals(2, found.stream().filter(f -> f).count());
+            Assertions.assertEquals(2, map.getBatchStats().batches());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a failed HMGET fails every call of its batch")
+    public void failedBatch_failsAllCalls() {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map")
+                .batchGets(Duration.ofMillis(1), 100)
+                .build()) {
+            fake.failNext("HMGET", 1);
+
+            Assertions.assertThrows(JedisDataException.class, () -> map.get("1"));
+            Assertions.assertEquals(2, map.get("2"));
+            Assertions.assertEquals(3, map.getOrDefault("3", 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that batching rejects bounded maps and invalid windows, and stats require it")
+    public void invalidConfiguration_rejected() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisMap.builder(client, "map").batchGets(Duration.ZERO, 10));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisMap.builder(client, "map").batchGets(Duration.ofMillis(1), 1000));
+        RedisMap.Builder<String, Integer> builder = RedisMap.builder(client, "map")
+                .batchGets(Duration.ofMillis(1), 10)
+                .maxEntries(10, EvictionPolicy.LRU);
+        Assertions.assertThrows(IllegalStateException.class, builder::build);
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map").build()) {
+            Assertions.assertThrows(IllegalStateException.class, map::getBatchStats);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.util;
+
+import org.example.util.RedisMapListener.Operation;
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.commands.JedisBinaryCommands;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.HostAndPort;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InstrumentationTest {
+
+    private final List<RedisMapListener.Event> events = new ArrayList<>();
+    private final RedisMapMetrics metrics = new RedisMapMetrics();
+    private Instrumentation instrumentation;
+    private JedisBinaryCommands commands;
+
+    @BeforeEach
+    public void beforeEach() {
+        instrumentation = new Instrumentation("map", event -> {
+            events.add(event);
+            metrics.onOperation(event);
+        }, false);
+        // replies to HGET with a 5 byte value and fails HDEL with a redirect
+        JedisBinaryCommands stub = (JedisBinaryCommands) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JedisBinaryCommands.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "hget" -> new byte[5];
+                    case "hdel" -> throw new JedisMovedDataException("MOVED", new HostAndPort("localhost", 1), 1);
+                    default -> null;
+                });
+        commands = instrumentation.wrap(stub, Operation.ITERATE);
+    }
+
+    @Test
+    @DisplayName("Tests that commands of an operation are counted into its event, nested operations included")
+    public void call_commandsCounted() {
+        byte[] value = instrumentation.call(Operation.GET, () -> {
+            commands.hget(new byte[3], new byte[2]);
+            return instrumentation.call(Operation.GET, () -> commands.hget(new byte[3], new byte[2]));
+        });
+
+        Assertions.assertEquals(5, value.length);
+        Assertions.assertEquals(1, events.size());
+        RedisMapListener.Event event = events.get(0);
+        Assertions.assertEquals(Operation.GET, event.operation());
+        Assertions.assertEquals(2, event.roundTrips());
+        Assertions.assertEquals(10, event.bytesSent());
+        Assertions.assertEquals(10, event.bytesReceived());
+        Assertions.assertNull(event.error());
+    }
+
+    @Test
+    @DisplayName("Tests that failed operations are counted as errors and redirects")
+    public void call_redirected_errorCounted() {
+        Assertions.assertThrows(JedisMovedDataException.class,
+                () -> instrumentation.run(Operation.DELETE, () -> commands.hdel(new byte[3], new byte[2])));
+
+        RedisMapMetrics.Stats stats = metrics.stats(Operation.DELETE);
+        Assertions.assertEquals(1, stats.calls());
+        Assertions.assertEquals(1, stats.errors());
+        Assertions.assertEquals(1, stats.redirects());
+        Assertions.assertEquals(1, stats.roundTrips());
+        Assertions.assertEquals(Operation.DELETE, metrics.stats().keySet().iterator().next());
+    }
+
+    @Test
+    @DisplayName("Tests that a command sent outside of any operation is reported as its own operation")
+    public void wrap_standaloneCommand_reported() {
+        commands.hget(new byte[1], new byte[1]);
+
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(Operation.ITERATE, events.get(0).operation());
+        Assertions.assertEquals(1, events.get(0).roundTrips());
+    }
+
+    @Test
+    @DisplayName("Tests that disabled instrumentation does not wrap commands nor report operations")
+    public void disabled_noEvents() {
+        JedisBinaryCommands raw = commands;
+
+        Assertions.assertSame(raw, Instrumentation.DISABLED.wrap(raw, null));
+        Assertions.assertEquals(1, Instrumentation.DISABLED.call(Operation.GET, () -> 1));
+        Assertions.assertEquals(1, Instrumentation.DISABLED.callInt(Operation.GET_INT, () -> 1));
+        Assertions.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that int operations are reported like the others")
+    public void callInt_reported() {
+        int value = instrumentation.callInt(Operation.ADD_AND_GET, () -> commands.hget(new byte[3], new byte[2]).length);
+
+        Assertions.assertEquals(5, value);
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(Operation.ADD_AND_GET, events.get(0).operation());
+        Assertions.assertEquals(1, events.get(0).roundTrips());
+    }
+
+    @Test
+    @DisplayName("Tests that payload sizes of nested arguments and replies are summed")
+    public void sizeOf_nested() {
+        Assertions.assertEquals(6, Instrumentation.sizeOf(new Object[]{new byte[1], List.of(new byte[2], "abc")}));
+        Assertions.assertEquals(0, Instrumentation.sizeOf(42L));
+    }
+}
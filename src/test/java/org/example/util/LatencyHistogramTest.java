@@ -0,0 +1,53 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Tests that small values are recorded exactly")
+    public void valueAt_smallValues_exact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+
+        Assertions.assertEquals(25, histogram.valueAt(0.5));
+        Assertions.assertEquals(50, histogram.valueAt(1));
+        Assertions.assertEquals(1, histogram.valueAt(0));
+    }
+
+    @Test
+    @DisplayName("Tests that percentiles of large values are within the precision of a bucket")
+    public void valueAt_largeValues_withinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        Assertions.assertEquals(500_000_000, histogram.valueAt(0.5), 500_000_000 * 0.035);
+        Assertions.assertEquals(990_000_000, histogram.valueAt(0.99), 990_000_000 * 0.035);
+        Assertions.assertTrue(histogram.valueAt(0.99) >= 990_000_000);
+    }
+
+    @Test
+    @DisplayName("Tests that every value falls into a bucket that covers it, up to Long.MAX_VALUE")
+    public void indexOf_bucketCoversValue() {
+        for (long value : new long[]{0, 63, 64, 65, 127, 128, 1_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assertions.assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that reset drops recorded values")
+    public void reset_empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+
+        histogram.reset();
+
+        Assertions.assertEquals(0, histogram.valueAt(0.5));
+    }
+}
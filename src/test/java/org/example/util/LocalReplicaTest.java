@@ -0,0 +1,153 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+public class LocalReplicaTest {
+
+    private FakeRedis fake;
+    private JedisPooled client;
+
+    @BeforeEach
+    public void beforeEach() {
+        fake = new FakeRedis();
+        client = fake.client();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        client.close();
+    }
+
+    private RedisMap<String, Integer> map(Duration maxStaleness) {
+        return RedisMap.builder(client, "map").localReplica(maxStaleness).build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that get, getAll, containsKey, size and iteration of a loaded map do not go to redis")
+    public void loaded_readsServedFromMemory() {
+        client.hset("map", Map.of("1", "1", "2", "2"));
+        try (RedisMap<String, Integer> map = map(Duration.ofSeconds(5))) {
+            fake.resetCounts();
+
+            Assertions.assertEquals(1, map.get("1"));
+            Assertions.assertEquals(Map.of("2", 2), map.getAll(List.of("2", "3")));
+            Assertions.assertFalse(map.containsKey("3"));
+            Assertions.assertEquals(2, map.size());
+            Assertions.assertEquals(Set.of("1", "2"), map.keySet());
+
+            for (String command : List.of("HGET", "HMGET", "HEXISTS", "HLEN", "HSCAN")) {
+                Assertions.assertEquals(0, fake.commandCount(command), command);
+            }
+            LocalReplicaStats stats = map.localReplicaStats();
+            Assertions.assertEquals(2, stats.entries());
+            Assertions.assertEquals(1, stats.loads());
+            Assertions.assertEquals(6, stats.localReads());
+            Assertions.assertEquals(0, stats.remoteReads());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that puts, removals, increments and clear of another map are applied once synced")
+    public void writesOfAnotherMap_appliedAfterSync() {
+        client.hset("map", Map.of("1", "1", "2", "2"));
+        try (RedisMap<String, Integer> reader = map(Duration.ofSeconds(5));
+             RedisMap<String, Integer> writer = map(Duration.ofSeconds(5))) {
+            writer.put("3", 3);
+            writer.remove("1");
+            writer.addAndGet("2", 5);
+            writer.putAll(Map.of("4", 4, "5", 5));
+            reader.syncReplica();
+
+            Assertions.assertEquals(Map.of("2", 7, "3", 3, "4", 4, "5", 5), Map.copyOf(reader));
+            Assertions.assertEquals(5, reader.localReplicaStats().changes());
+
+            writer.clear();
+            reader.syncReplica();
+
+            Assertions.assertTrue(reader.isEmpty());
+            Assertions.assertEquals(0, reader.localReplicaStats().entries());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a hash whose feed skipped changes, e.g. after trimming, is loaded again")
+    public void feedSkippedChanges_reloaded() throws InterruptedException {
+        client.hset("map", Map.of("1", "1"));
+        try (RedisMap<String, Integer> map = map(Duration.ofSeconds(5))) {
+            client.hset("map", "2", "2");
+            for (int i = 0; i < 10; i++) {
+                client.incr(Shards.companionKey("map", "change-count"));
+            }
+            map.put("3", 3);
+            map.syncReplica();
+
+            Assertions.assertEquals(Map.of("1", 1, "2", 2, "3", 3), Map.copyOf(map));
+            // sync returns once the hash is not fresh, the load may still be scanning it
+            await(() -> map.localReplicaStats().loads() >= 2);
+            Assertions.assertEquals(2, map.localReplicaStats().loads());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a hash is loaded again after its feed could not be read")
+    public void disconnect_reloaded() throws InterruptedException {
+        client.hset("map", Map.of("1", "1"));
+        try (RedisMap<String, Integer> map = map(Duration.ofSeconds(5))) {
+            fake.disconnectNext(1);
+            await(() -> map.localReplicaStats().loads() >= 2);
+            map.put("2", 2);
+            map.syncReplica();
+
+            Assertions.assertEquals(Map.of("1", 1, "2", 2), Map.copyOf(map));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that reads go to redis while the feed is read slower than the maximum staleness allows")
+    public void stale_readsGoToRedis() throws InterruptedException {
+        client.hset("map", Map.of("1", "1"));
+        try (RedisMap<String, Integer> map = map(Duration.ofMillis(200))) {
+            fake.latency("XREAD", Duration.ofMillis(500));
+            await(() -> map.localReplicaStats().staleness().compareTo(Duration.ofMillis(200)) > 0);
+            client.hset("map", "1", "2");
+
+            Assertions.assertEquals(2, map.get("1"));
+            Assertions.assertEquals(1, map.localReplicaStats().remoteReads());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a local replica requires thread safe commands, excludes near cache and stats require it")
+    public void unsupportedCombinations_rejected() {
+        try (Jedis jedis = new Jedis()) {
+            RedisMap.Builder<String, Integer> builder = RedisMap.builder(jedis, "map").localReplica(Duration.ofSeconds(1));
+            Assertions.assertThrows(IllegalStateException.class, builder::build);
+        }
+        RedisMap.Builder<String, Integer> builder = RedisMap.builder(client, "map")
+                .localReplica(Duration.ofSeconds(1))
+                .nearCache(10);
+        Assertions.assertThrows(IllegalStateException.class, builder::build);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RedisMap.builder(client, "map").localReplica(Duration.ofMillis(10)));
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map").build()) {
+            Assertions.assertThrows(IllegalStateException.class, map::localReplicaStats);
+            Assertions.assertThrows(IllegalStateException.class, map::syncReplica);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+
+public class LuaScriptTest {
+
+    @Test
+    @DisplayName("Tests that script digest is calculated the same way redis does it")
+    public void sha_matchesRedis() {
+        Assertions.assertEquals("e0e1f9fabfc9d4800c877a703b823ac0578ff8db", new LuaScript("return 1").sha());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+
+public class NearCacheTest {
+
+    private NearCache cache;
+
+    @BeforeEach
+    public void beforeEach() {
+        cache = new NearCache(2);
+        cache.setActive(true);
+    }
+
+    @Test
+    @DisplayName("Tests that stored values and absent fields are served from the cache")
+    public void store_lookup_successful() {
+        cache.store("1", 1, cache.epoch());
+        cache.store("2", null, cache.epoch());
+
+        Assertions.assertEquals(1, cache.lookup("1"));
+        Assertions.assertSame(NearCache.ABSENT, cache.lookup("2"));
+        Assertions.assertNull(cache.lookup("3"));
+
+        NearCache.Stats stats = cache.stats();
+        Assertions.assertEquals(2, stats.hits());
+        Assertions.assertEquals(1, stats.misses());
+        Assertions.assertEquals(2, stats.size());
+    }
+
+    @Test
+    @DisplayName("Tests that least recently used field is evicted when the cache is full")
+    public void store_full_leastRecentlyUsedEvicted() {
+        cache.store("1", 1, cache.epoch());
+        cache.store("2", 2, cache.epoch());
+        cache.lookup("1");
+        cache.store("3", 3, cache.epoch());
+
+        Assertions.assertEquals(1, cache.lookup("1"));
+        Assertions.assertNull(cache.lookup("2"));
+        Assertions.assertEquals(3, cache.lookup("3"));
+        Assertions.assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    @DisplayName("Tests that a value read before an invalidation is not cached")
+    public void store_invalidatedDuringRead_notCached() {
+        long epoch = cache.epoch();
+        cache.invalidateAll();
+        cache.store("1", 1, epoch);
+
+        Assertions.assertNull(cache.lookup("1"));
+        Assertions.assertEquals(1, cache.stats().invalidations());
+    }
+
+    @Test
+    @DisplayName("Tests that invalidation drops cached fields")
+    public void invalidate_successful() {
+        cache.store("1", 1, cache.epoch());
+        cache.store("2", 2, cache.epoch());
+
+        cache.invalidate("1");
+        Assertions.assertNull(cache.lookup("1"));
+        Assertions.assertEquals(2, cache.lookup("2"));
+
+        cache.invalidateAll();
+        Assertions.assertNull(cache.lookup("2"));
+    }
+
+    @Test
+    @DisplayName("Tests that inactive cache is bypassed")
+    public void lookup_inactive_bypassed() {
+        cache.store("1", 1, cache.epoch());
+        cache.setActive(false);
+
+        Assertions.assertNull(cache.lookup("1"));
+        cache.store("1", 1, cache.epoch());
+        Assertions.assertEquals(0, cache.stats().size());
+    }
+}
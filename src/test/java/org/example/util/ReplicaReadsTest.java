@@ -0,0 +1,135 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.util.Pool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Routes reads between two fakes standing in for a master and its replica, the replica is not kept in sync,
+ * so which node served a read shows in its value
+ */
+public class ReplicaReadsTest {
+
+    private static final String MASTER = "127.0.0.1:7001";
+    private static final String REPLICA = "127.0.0.1:7004";
+
+    private FakeRedis masterFake;
+    private FakeRedis replicaFake;
+    private JedisPooled master;
+    private JedisPooled replica;
+    private Supplier<Map<String, Pool<Connection>>> nodes;
+
+    @BeforeEach
+    public void beforeEach() {
+        masterFake = new FakeRedis().clusterSlots(MASTER, REPLICA);
+        replicaFake = new FakeRedis();
+        master = masterFake.client();
+        replica = replicaFake.client();
+        nodes = () -> Map.of(MASTER, master.getPool(), REPLICA, replica.getPool());
+        master.hset("map", Map.of("1", "1", "2", "2"));
+        replica.hset("map", Map.of("1", "100"));
+    }
+
+    @AfterEach
+    public void afterEach() {
+        master.close();
+        replica.close();
+    }
+
+    private RedisMap<String, Integer> map(ReadFrom readFrom) {
+        return RedisMap.builder(master, "map")
+                .readFrom(readFrom)
+                .replicaNodes(nodes, () -> master.getPool().getResource())
+                .build();
+    }
+
+    @Test
+    @DisplayName("Tests that get, getAll, containsKey and size are served by the replica, iteration and writes by the master")
+    public void preferReplica_readsServedByReplica() {
+        try (RedisMap<String, Integer> map = map(ReadFrom.PREFER_REPLICA)) {
+            Assertions.assertEquals(100, map.get("1"));
+            Assertions.assertEquals(Map.of("1", 100), map.getAll(List.of("1", "2")));
+            Assertions.assertFalse(map.containsKey("2"));
+            Assertions.assertEquals(1, map.size());
+            Assertions.assertEquals(Set.of("1", "2"), Set.copyOf(map.keySet()));
+
+            map.put("3", 3);
+
+            Assertions.assertEquals("3", master.hget("map", "3"));
+            ReplicaReadStats stats = map.replicaReadStats();
+            Assertions.assertEquals(0, stats.masterReads());
+            Assertions.assertTrue(stats.replicaReads() >= 4);
+            Assertions.assertEquals(1, stats.replicas());
+            Assertions.assertEquals(1, replicaFake.commandCount("READONLY"));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that round robin spreads reads evenly over the replica and the master")
+    public void roundRobin_alternates() {
+        try (RedisMap<String, Integer> map = map(ReadFrom.ROUND_ROBIN)) {
+            int fromReplica = 0;
+            for (int i = 0; i < 4; i++) {
+                if (map.get("1") == 100) {
+                    fromReplica++;
+                }
+            }
+
+            Assertions.assertEquals(2, fromReplica);
+            Assertions.assertEquals(new ReplicaReadStats(2, 2, 0, 1), map.replicaReadStats());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a read the replica fails to serve falls back to the master")
+    public void replicaDisconnected_fallsBackToMaster() {
+        try (RedisMap<String, Integer> map = map(ReadFrom.PREFER_REPLICA)) {
+            replicaFake.disconnectNext(1);
+
+            Assertions.assertEquals(1, map.get("1"));
+            Assertions.assertEquals(100, map.get("1"));
+            ReplicaReadStats stats = map.replicaReadStats();
+            Assertions.assertEquals(1, stats.fallbacks());
+            Assertions.assertEquals(1, stats.masterReads());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a replica whose offset is more than maxLagBytes behind the master is skipped until it catches up")
+    public void maxLag_laggingReplicaSkipped() {
+        masterFake.replicaLag(REPLICA, 5000);
+        try (ReplicaReads reads = new ReplicaReads("map", Pipelines.binary(master), nodes,
+                () -> master.getPool().getResource(), ReadFrom.PREFER_REPLICA, 1024)) {
+            byte[] key = "map".getBytes();
+
+            Assertions.assertArrayEquals("1".getBytes(), reads.commands().hget(key, "1".getBytes()));
+            Assertions.assertEquals(0, reads.stats().replicas());
+
+            masterFake.replicaLag(REPLICA, 100);
+            reads.refresh();
+
+            Assertions.assertArrayEquals("100".getBytes(), reads.commands().hget(key, "1".getBytes()));
+            Assertions.assertEquals(new ReplicaReadStats(1, 1, 0, 1), reads.stats());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that routing to replicas is rejected for a single instance and with near cache, stats require routing")
+    public void singleInstance_rejected() {
+        RedisMap.Builder<String, Integer> builder = RedisMap.builder(master, "map").readFrom(ReadFrom.PREFER_REPLICA);
+        Assertions.assertThrows(IllegalStateException.class, builder::build);
+        builder.replicaNodes(nodes, () -> master.getPool().getResource()).nearCache(10);
+        Assertions.assertThrows(IllegalStateException.class, builder::build);
+
+        try (RedisMap<String, Integer> map = map(ReadFrom.MASTER)) {
+            Assertions.assertEquals(1, map.get("1"));
+            Assertions.assertThrows(IllegalStateException.class, map::replicaReadStats);
+        }
+    }
+}
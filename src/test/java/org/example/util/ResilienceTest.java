@@ -0,0 +1,101 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.time.Duration;
+
+public class ResilienceTest {
+
+    private FakeRedis fake;
+    private JedisPooled client;
+
+    @BeforeEach
+    public void beforeEach() {
+        fake = new FakeRedis();
+        client = fake.client();
+        client.hset("map", "1", "1");
+    }
+
+    @AfterEach
+    public void afterEach() {
+        client.close();
+    }
+
+    @Test
+    @DisplayName("Tests that a read stuck on a stalled connection is answered by its hedge and hedging is counted")
+    public void hedgeReads_stalledReadAnsweredByHedge() {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map").hedgeReads(0.99).build()) {
+            for (int i = 0; i < Resilience.MIN_SAMPLES; i++) {
+                map.get("1");
+            }
+            fake.stallNext(1, Duration.ofSeconds(2));
+
+            long started = System.nanoTime();
+            Assertions.assertEquals(1, map.get("1"));
+
+            Assertions.assertTrue(System.nanoTime() - started < Duration.ofSeconds(1).toNanos());
+            ResilienceStats stats = map.resilienceStats();
+            Assertions.assertEquals(Resilience.MIN_SAMPLES + 1, stats.reads());
+            Assertions.assertTrue(stats.hedges() >= 1);
+            Assertions.assertTrue(stats.hedgeWins() >= 1);
+            Assertions.assertTrue(stats.hedgeRate() > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a command past its deadline fails without waiting for the stalled server")
+    public void deadline_exceededFailsFast() {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map")
+                .deadline(Duration.ofMillis(100))
+                .build()) {
+            fake.stallNext(1, Duration.ofSeconds(2));
+
+            long started = System.nanoTime();
+            Assertions.assertThrows(JedisConnectionException.class, () -> map.get("1"));
+
+            Assertions.assertTrue(System.nanoTime() - started < Duration.ofSeconds(1).toNanos());
+            Assertions.assertEquals(1, map.get("1"));
+            Assertions.assertEquals(1, map.resilienceStats().deadlinesExceeded());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that the circuit opens after failures in a row, rejects commands and closes after a trial")
+    public void circuitBreaker_opensAndCloses() throws InterruptedException {
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map")
+                .circuitBreaker(3, Duration.ofMillis(100))
+                .build()) {
+            fake.disconnectNext(3);
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertThrows(JedisConnectionException.class, () -> map.get("1"));
+            }
+            long roundTrips = fake.roundTrips();
+
+            Assertions.assertThrows(JedisConnectionException.class, () -> map.put("1", 2));
+
+            Assertions.assertEquals(roundTrips, fake.roundTrips());
+            Assertions.assertEquals(1, map.resilienceStats().rejected());
+            Assertions.assertEquals(1, map.resilienceStats().openCircuits());
+
+            Thread.sleep(150);
+
+            Assertions.assertEquals(1, map.get("1"));
+            Assertions.assertEquals(0, map.resilienceStats().openCircuits());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that deadlines require thread safe commands and stats require the feature")
+    public void deadlineOverSingleConnection_rejected() {
+        try (Jedis jedis = new Jedis()) {
+            RedisMap.Builder<String, Integer> builder = RedisMap.builder(jedis, "map").deadline(Duration.ofSeconds(1));
+            Assertions.assertThrows(IllegalStateException.class, builder::build);
+        }
+        try (RedisMap<String, Integer> map = RedisMap.builder(client, "map").build()) {
+            Assertions.assertThrows(IllegalStateException.class, map::resilienceStats);
+        }
+    }
+}
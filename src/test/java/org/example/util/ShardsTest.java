@@ -0,0 +1,75 @@
+package org.example.util;
+
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.List;
+
+public class ShardsTest {
+
+    @Test
+    @DisplayName("Tests that a single shard is stored exactly under the hash key")
+    public void single_keyUnchanged() {
+        try (Shards shards = Shards.of("MAP", 1, true)) {
+            Assertions.assertEquals(List.of("MAP"), shards.keys());
+            Assertions.assertArrayEquals(SafeEncoder.encode("MAP"), shards.keyFor(SafeEncoder.encode("1")));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that shard keys are placed into evenly spread slots")
+    public void of_slotsSpread() {
+        try (Shards shards = Shards.of("MAP", 5, false)) {
+            Assertions.assertEquals(5, shards.count());
+            for (int i = 0; i < shards.count(); i++) {
+                int slot = JedisClusterCRC16.getSlot(shards.keys().get(i));
+                Assertions.assertTrue(slot >= 16384 * i / 5 && slot < 16384 * (i + 1) / 5);
+                Assertions.assertTrue(shards.keys().get(i).startsWith("MAP:{"));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that fields are routed to the same shard every time")
+    public void keyFor_stable() {
+        try (Shards first = Shards.of("MAP", 4, false); Shards second = Shards.of("MAP", 4, true)) {
+            Assertions.assertEquals(first.keys(), second.keys());
+            for (int i = 0; i < 100; i++) {
+                byte[] field = SafeEncoder.encode(String.valueOf(i));
+                Assertions.assertArrayEquals(first.keyFor(field), second.keyFor(field));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that operations over all shards return results in the order of shards")
+    public void map_resultsOrdered() {
+        try (Shards shards = Shards.of("MAP", 8, true)) {
+            Assertions.assertEquals(shards.keys(), shards.map(key -> key));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that hash keys with a hash tag cannot be sharded")
+    public void of_hashTag_throws() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Shards.of("{MAP}", 2, false));
+    }
+
+    @Test
+    @DisplayName("Tests that companion keys are placed into the slot of their key")
+    public void companionKey_sameSlot() {
+        for (String key : List.of("MAP", "MAP:{0.3}", "a{b}c", "{MAP")) {
+            String companion = Shards.companionKey(key, "values");
+            Assertions.assertEquals(JedisClusterCRC16.getSlot(key), JedisClusterCRC16.getSlot(companion), key);
+            Assertions.assertNotEquals(key, companion);
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that keys with an empty hash tag cannot have companion keys")
+    public void companionKey_brokenTag_throws() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Shards.companionKey("{}MAP", "values"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Shards.companionKey("MAP}{", "values"));
+    }
+}
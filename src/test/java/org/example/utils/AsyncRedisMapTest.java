@@ -0,0 +1,164 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.AsyncRedisMap;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class AsyncRedisMapTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+    private AsyncRedisMap<String, Integer> asyncMap;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        asyncMap = map.async();
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        asyncMap.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that async operations see the same data as blocking ones")
+    public void put_async_visibleThroughMap() {
+        Assertions.assertNull(asyncMap.put("1", 1).join());
+        Assertions.assertEquals(1, asyncMap.put("1", 2).join());
+        Assertions.assertEquals(2, map.get("1"));
+        Assertions.assertTrue(asyncMap.containsKey("1").join());
+        Assertions.assertEquals(2, asyncMap.remove("1").join());
+        Assertions.assertNull(asyncMap.get("1").join());
+        Assertions.assertEquals(5, asyncMap.getOrDefault("1", 5).join());
+    }
+
+    @Test
+    @DisplayName("Tests that many concurrent operations are all completed")
+    public void set_concurrent_allCompleted() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(asyncMap.set(String.valueOf(i), i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        Assertions.assertEquals(1000, asyncMap.size().join());
+        Assertions.assertEquals(999, asyncMap.get("999").join());
+    }
+
+    @Test
+    @DisplayName("Tests that putAll and clear are applied to the whole map")
+    public void putAll_clear_successful() {
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(String.valueOf(i), i);
+        }
+        asyncMap.putAll(entries).join();
+        Assertions.assertEquals(entries, map);
+
+        asyncMap.clear().join();
+        Assertions.assertTrue(asyncMap.isEmpty().join());
+    }
+
+    @Test
+    @DisplayName("Tests that operations submitted after close fail")
+    public void get_closed_failed() {
+        asyncMap.close();
+        CompletableFuture<Integer> future = asyncMap.get("1");
+        Assertions.assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    @DisplayName("Tests that operations on the same key are applied in the order they were submitted")
+    public void putThenGet_notJoined_inOrder() {
+        List<CompletableFuture<Integer>> gets = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String key = String.valueOf(i % 50);
+            asyncMap.set(key, i);
+            gets.add(asyncMap.get(key));
+            asyncMap.remove(key);
+        }
+
+        for (int i = 0; i < gets.size(); i++) {
+            Assertions.assertEquals(i, gets.get(i).join());
+        }
+        Assertions.assertTrue(asyncMap.isEmpty().join());
+    }
+
+    @Test
+    @DisplayName("Tests that operations racing with close are all completed, by redis or with a failure")
+    public void set_racingClose_allCompleted() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Thread submitter = Thread.ofVirtual().start(() -> {
+            CompletableFuture<Void> future;
+            do {
+                future = asyncMap.set(String.valueOf(futures.size()), futures.size());
+                futures.add(future);
+            } while (!future.isCompletedExceptionally());
+        });
+        Thread.sleep(1);
+        asyncMap.close();
+        submitter.join();
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        Assertions.assertThrows(Exception.class, () -> all.get(1, TimeUnit.MINUTES));
+        Assertions.assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+    }
+
+    @Test
+    @DisplayName("Tests that a batch whose connection is dropped fails and the dispatcher goes on with the next one")
+    public void set_disconnected_failedAndRecovered() {
+        Assumptions.assumeTrue(TestRedis.FAKE, "Disconnects are injected by the fake");
+        redis.fake().disconnectNext(1);
+
+        Assertions.assertThrows(CompletionException.class, () -> asyncMap.set("1", 1).join());
+        asyncMap.set("1", 2).join();
+        Assertions.assertEquals(2, asyncMap.get("1").join());
+    }
+
+    @Test
+    @DisplayName("Tests that a batch that gets no connection from the pool fails and the dispatcher goes on")
+    public void get_poolExhausted_failedAndRecovered() {
+        Assumptions.assumeTrue(TestRedis.FAKE, "The pool of a fake client is configured by the test");
+        ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+        poolConfig.setMaxTotal(1);
+        poolConfig.setMaxWait(Duration.ofMillis(50));
+        try (JedisPooled client = redis.fake().client(poolConfig);
+             RedisMap<String, Integer> single = RedisMap.of(client, RedisConfiguration.REDIS_HASH_KEY);
+             AsyncRedisMap<String, Integer> async = new AsyncRedisMap<>(single, 1, 1)) {
+            try (Connection held = client.getPool().getResource()) {
+                Assertions.assertThrows(CompletionException.class, () -> async.get("1").join());
+            }
+            Assertions.assertNull(async.get("1").join());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a single connection, shared by dispatchers and blocking callers, is rejected")
+    public void singleConnection_rejected() {
+        try (Jedis jedis = new Jedis(); RedisMap<String, Integer> single = RedisMap.of(jedis, "map")) {
+            Assertions.assertThrows(IllegalArgumentException.class, single::async);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new AsyncRedisMap<>(single, 1, 1));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.BatchStats;
+import org.example.util.Codecs;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapBatchTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        map.clear();
+        map.putAll(Map.of("1", 1, "2", 2));
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.clear();
+        map.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that puts, removes and increments are applied in one round trip and return old values in order")
+    public void batch_appliesWritesAndReturnsOldValues() {
+        // loads the script, so the batch below is a single EVALSHA
+        map.batch(b -> b.remove("9"));
+        if (redis.fake() != null) {
+            redis.fake().resetCounts();
+        }
+
+        List<Integer> old = map.batch(b -> b.put("1", 10).remove("2").incr("3", 5).incr("3", 1).put("2", 20));
+
+        if (redis.fake() != null) {
+            Assertions.assertEquals(1, redis.fake().roundTrips());
+        }
+        Assertions.assertEquals(Arrays.asList(1, 2, null, 5, null), old);
+        Assertions.assertEquals(Map.of("1", 10, "2", 20, "3", 6), map);
+    }
+
+    @Test
+    @DisplayName("Tests that a batch whose read value was changed by another client is collected again")
+    public void conditionalBatch_conflictRetried() {
+        RedisMap<String, Integer> other = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        AtomicInteger attempts = new AtomicInteger();
+
+        List<Integer> old = map.batch(b -> {
+            int balance = b.get("1");
+            if (attempts.getAndIncrement() == 0) {
+                other.put("1", 100);
+            }
+            b.put("1", balance - 1).incr("2", 1);
+        });
+
+        Assertions.assertEquals(List.of(100, 2), old);
+        Assertions.assertEquals(99, map.get("1"));
+        Assertions.assertEquals(new BatchStats(1, 2, 1, 0), map.batchStats());
+        Assertions.assertEquals(0.5, map.batchStats().conflictRate());
+    }
+
+    @Test
+    @DisplayName("Tests that a batch that keeps conflicting gives up after its retries and writes nothing")
+    public void conditionalBatch_retriesExhausted() {
+        RedisMap<String, Integer> other = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> map.batch(2, b -> {
+            Integer value = b.get("1");
+            other.put("1", value + 1);
+            b.put("2", value);
+        }));
+
+        Assertions.assertEquals(2, map.get("2"));
+        Assertions.assertEquals(new BatchStats(0, 3, 3, 1), map.batchStats());
+    }
+
+    @Test
+    @DisplayName("Tests that an overflowing increment fails the whole batch before anything is written")
+    public void overflow_nothingWritten() {
+        map.put("3", Integer.MAX_VALUE);
+
+        Assertions.assertThrows(ArithmeticException.class, () -> map.batch(b -> b.put("1", 10).incr("3", 1)));
+
+        Assertions.assertEquals(1, map.get("1"));
+        Assertions.assertEquals(Integer.MAX_VALUE, map.get("3"));
+    }
+
+    @Test
+    @DisplayName("Tests that keys of a batch must share a hash and that maps with companions or other codecs reject batches")
+    public void unsupported_rejected() {
+        try (RedisMap<String, Integer> sharded = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":sharded")
+                .shards(16)
+                .build();
+             RedisMap<String, Integer> indexed = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":indexed")
+                     .valueIndex()
+                     .build();
+             RedisMap<String, Integer> fixed = new RedisMap<>(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":fixed",
+                     Codecs.utf8(), Codecs.fixedInt())) {
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> sharded.batch(b -> b.put("1", 1).put("2", 2).put("3", 3).put("4", 4)));
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> indexed.batch(b -> b.put("1", 1)));
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> fixed.batch(b -> b.incr("1", 1)));
+            Assertions.assertEquals(List.of(), map.batch(b -> b.get("1")));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.EvictionPolicy;
+import org.example.util.EvictionStats;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster,
+ * which has to be redis 7.4 or newer for the tests of time to live
+ */
+public class RedisMapBoundedTest {
+
+    private TestRedis redis;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .maxEntries(1, EvictionPolicy.LRU)
+                .build()) {
+            map.clear();
+        }
+    }
+
+    @AfterEach
+    public void afterEach() {
+        redis.close();
+    }
+
+    /**
+     * Lets the time pass, the clock of the fake is moved forward instead of waiting
+     */
+    private void elapse(Duration duration) throws InterruptedException {
+        if (redis.fake() != null) {
+            redis.fake().advanceTime(duration);
+        } else {
+            Thread.sleep(duration.toMillis());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that an entry put with time to live expires while the other entries stay")
+    public void putWithTtl_expires() throws InterruptedException {
+        RedisMap<String, Integer> map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        map.put("1", 1, Duration.ofMillis(100));
+        map.put("2", 2);
+
+        Assertions.assertEquals(1, map.get("1"));
+
+        elapse(Duration.ofMillis(200));
+
+        Assertions.assertNull(map.get("1"));
+        Assertions.assertEquals(Map.of("2", 2), map);
+    }
+
+    @Test
+    @DisplayName("Tests that every write of a map with expireAfterWrite expires, rewriting an entry restarts its time")
+    public void expireAfterWrite_everyWriteExpires() throws InterruptedException {
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .expireAfterWrite(Duration.ofMillis(100))
+                .build()) {
+            map.put("1", 1);
+            map.putAll(Map.of("2", 2, "3", 3));
+            map.addAndGet("4", 4);
+            map.put("5", 5, Duration.ofMillis(500));
+
+            elapse(Duration.ofMillis(60));
+            map.put("1", 10);
+            elapse(Duration.ofMillis(60));
+
+            Assertions.assertEquals(Map.of("1", 10, "5", 5), map);
+
+            elapse(Duration.ofMillis(500));
+
+            Assertions.assertTrue(map.isEmpty());
+        }
+    }
+
+    /**
+     * Makes the fake behave like redis before 7.4, which bounded maps without time to live have to work with
+     */
+    private void withoutHashFieldExpiration() {
+        if (redis.fake() != null) {
+            redis.fake().disable("HPEXPIRE", "HPTTL", "HPERSIST");
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a write over maxEntries evicts the least recently used entry and counts the eviction")
+    public void maxEntriesLru_evictsLeastRecentlyUsed() throws InterruptedException {
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .maxEntries(3, EvictionPolicy.LRU)
+                .build()) {
+            withoutHashFieldExpiration();
+            long evictions = map.evictionStats().evictions();
+            for (String key : List.of("1", "2", "3")) {
+                map.put(key, Integer.parseInt(key));
+                elapse(Duration.ofMillis(2));
+            }
+            map.get("1");
+            elapse(Duration.ofMillis(2));
+
+            map.put("4", 4);
+
+            Assertions.assertEquals(Set.of("1", "3", "4"), map.keySet());
+            Assertions.assertEquals(new EvictionStats(evictions + 1, 3, 3), map.evictionStats());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a write over maxEntries evicts the least frequently used entry, reads of getAll count too")
+    public void maxEntriesLfu_evictsLeastFrequentlyUsed() {
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .maxEntries(3, EvictionPolicy.LFU)
+                .build()) {
+            withoutHashFieldExpiration();
+            long evictions = map.evictionStats().evictions();
+            map.putAll(Map.of("1", 1, "2", 2, "3", 3));
+            map.get("1");
+            map.get("1");
+            map.getAll(List.of("2", "3"));
+            map.get("3");
+
+            map.put("4", 4);
+            map.put("5", 5);
+
+            Assertions.assertEquals(Set.of("1", "3", "5"), map.keySet());
+            Assertions.assertEquals(evictions + 2, map.evictionStats().evictions());
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that evicted entries are removed from the value index")
+    public void maxEntriesValueIndex_evictedUnindexed() {
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .maxEntries(2, EvictionPolicy.LFU)
+                .valueIndex()
+                .build()) {
+            map.put("1", 1);
+            map.put("2", 2);
+            map.get("2");
+            map.put("3", 3);
+
+            Assertions.assertFalse(map.containsValue(1));
+            Assertions.assertTrue(map.containsValue(2));
+            Assertions.assertEquals(List.of("2", "3"), map.keysWithValueBetween(0, 10));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that expiry cannot be combined with companions redis does not update on expiry")
+    public void expiryWithValueIndex_rejected() {
+        RedisMap.Builder<String, Integer> builder = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .expireAfterWrite(Duration.ofSeconds(1))
+                .valueIndex();
+        Assertions.assertThrows(IllegalStateException.class, builder::build);
+
+        try (RedisMap<String, Integer> map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .contentDigest()
+                .build()) {
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> map.put("1", 1, Duration.ofSeconds(1)));
+            Assertions.assertThrows(IllegalStateException.class, map::evictionStats);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Shares one map among many more threads than the pool has connections and checks that no update is lost.
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ * and -Dredis.tests.backend=single against a single instance of redis
+ */
+public class RedisMapConcurrencyTest {
+    private static final int KEYS = 10;
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.clear();
+        map.close();
+        redis.close();
+    }
+
+    /**
+     * Runs a task on every thread of an executor at once, the task gets the index of its thread
+     */
+    private static <T> List<T> concurrently(ExecutorService executor, int threads, Task<T> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        try (executor) {
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.run(thread);
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(1, TimeUnit.MINUTES));
+            }
+            return results;
+        }
+    }
+
+    private interface Task<T> {
+        T run(int thread) throws Exception;
+    }
+
+    @Test
+    @DisplayName("Tests that increments of hundreds of virtual threads sharing one map are all applied")
+    public void addAndGet_virtualThreads_noLostUpdates() throws Exception {
+        concurrently(Executors.newVirtualThreadPerTaskExecutor(), 500, thread -> {
+            for (int i = 0; i < 20; i++) {
+                map.addAndGet(String.valueOf((thread + i) % KEYS), 1);
+            }
+            return null;
+        });
+
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            expected.put(String.valueOf(i), 1000);
+        }
+        Assertions.assertEquals(expected, map);
+    }
+
+    @Test
+    @DisplayName("Tests that of threads racing with putIfAbsent for the same keys exactly one wins each key")
+    public void putIfAbsent_platformThreads_oneWinnerPerKey() throws Exception {
+        List<List<String>> won = concurrently(Executors.newFixedThreadPool(32), 32, thread -> {
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                if (map.putIfAbsent(String.valueOf(i), thread) == null) {
+                    keys.add(String.valueOf(i));
+                }
+            }
+            return keys;
+        });
+
+        Assertions.assertEquals(100, won.stream().mapToInt(List::size).sum());
+        for (int thread = 0; thread < won.size(); thread++) {
+            for (String key : won.get(thread)) {
+                Assertions.assertEquals(thread, map.get(key));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that merges recomputed in optimistic loops under contention count every call exactly once")
+    public void merge_virtualThreads_countedOnce() throws Exception {
+        concurrently(Executors.newVirtualThreadPerTaskExecutor(), 64, thread -> {
+            for (int i = 0; i < 25; i++) {
+                map.merge(String.valueOf(i % 4), 1, Integer::sum);
+            }
+            return null;
+        });
+
+        Assertions.assertEquals(Map.of("0", 448, "1", 384, "2", 384, "3", 384), map);
+    }
+
+    @Test
+    @DisplayName("Tests that conditional batches moving amounts between keys keep their sum whatever the interleaving")
+    public void conditionalBatches_platformThreads_sumKept() throws Exception {
+        Map<String, Integer> accounts = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            accounts.put(String.valueOf(i), 100);
+        }
+        map.putAll(accounts);
+
+        concurrently(Executors.newFixedThreadPool(16), 16, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20; i++) {
+                String from = String.valueOf(random.nextInt(5));
+                String to = String.valueOf((Integer.parseInt(from) + 1 + random.nextInt(4)) % 5);
+                map.batch(1000, b -> {
+                    int balance = b.get(from);
+                    b.put(from, balance - 1).incr(to, 1);
+                });
+            }
+            return null;
+        });
+
+        Assertions.assertEquals(500, map.values().stream().mapToInt(Integer::intValue).sum());
+        Assertions.assertEquals(320, map.batchStats().batches());
+    }
+}
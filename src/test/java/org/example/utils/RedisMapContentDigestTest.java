@@ -0,0 +1,77 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapContentDigestTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+    private RedisMap<String, Integer> other;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .contentDigest()
+                .build();
+        other = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":other")
+                .contentDigest()
+                .valueIndex()
+                .build();
+        map.clear();
+        other.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        other.clear();
+        map.close();
+        other.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that hash code kept by redis matches hash code of an equal HashMap after every kind of write")
+    public void hashCode_matchesHashMap() {
+        Map<String, Integer> expected = new HashMap<>();
+        map.put("1", 1);
+        map.putAll(Map.of("2", 2, "3", 3, "4", 4));
+        map.merge("2", 10, Integer::sum);
+        map.addAndGet("3", -7);
+        map.remove("4");
+        map.replace("1", 1, 100);
+        map.putAllInt(List.of("5"), new int[]{5});
+        expected.putAll(Map.of("1", 100, "2", 12, "3", -4, "5", 5));
+
+        Assertions.assertEquals(expected.hashCode(), map.hashCode());
+        Assertions.assertEquals(expected, map);
+
+        map.clear();
+
+        Assertions.assertEquals(0, map.hashCode());
+    }
+
+    @Test
+    @DisplayName("Tests that maps of the same size but different content are told apart")
+    public void equals_differentContent_false() {
+        map.putAll(Map.of("1", 1, "2", 2));
+        other.putAll(Map.of("1", 1, "2", 3));
+
+        Assertions.assertNotEquals(map, other);
+
+        other.put("2", 2);
+
+        Assertions.assertEquals(map, other);
+        Assertions.assertEquals(map.hashCode(), other.hashCode());
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.example.util.RedisMapListener.Operation;
+import org.example.util.RedisMapMetrics;
+import org.junit.jupiter.api.*;
+
+import java.util.Map;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapMetricsTest {
+
+    private TestRedis redis;
+    private RedisMapMetrics metrics;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        metrics = new RedisMapMetrics();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .listener(metrics)
+                .jfrEvents()
+                .build();
+        // loads the put script, so a put below is a single EVALSHA
+        map.put("0", 0);
+        map.clear();
+        metrics.reset();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that every operation is counted once with its round trips")
+    public void operations_counted() {
+        map.put("1", 1);
+        map.get("1");
+        map.get("2");
+        map.putAll(Map.of("3", 3, "4", 4));
+        map.size();
+
+        Assertions.assertEquals(1, metrics.stats(Operation.PUT).calls());
+        Assertions.assertEquals(1, metrics.stats(Operation.PUT).roundTrips());
+        Assertions.assertEquals(2, metrics.stats(Operation.GET).calls());
+        Assertions.assertEquals(1, metrics.stats(Operation.GET).roundTripsPerCall());
+        Assertions.assertEquals(4, metrics.stats(Operation.SIZE).roundTrips());
+        Assertions.assertTrue(metrics.stats(Operation.PUT_ALL).bytesSent() > 0);
+        Assertions.assertTrue(metrics.stats(Operation.GET).p99().toNanos() > 0);
+    }
+
+    @Test
+    @DisplayName("Tests that pages fetched by an iterator are counted as iterate operations")
+    public void iterator_pagesCounted() {
+        map.put("1", 1);
+        metrics.reset();
+
+        map.keySet().forEach(key -> {
+        });
+
+        Assertions.assertEquals(4, metrics.stats(Operation.ITERATE).calls());
+        Assertions.assertFalse(metrics.stats().containsKey(Operation.PUT));
+    }
+}
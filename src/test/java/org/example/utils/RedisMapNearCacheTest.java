@@ -0,0 +1,119 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.NearCache;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requires the redis cluster, runs with -Dredis.tests.backend=cluster and is skipped otherwise,
+ * since the fake of redis supports neither client tracking nor pub/sub
+ */
+public class RedisMapNearCacheTest {
+
+    private TestRedis redis;
+    private JedisCluster cluster;
+    private RedisMap<String, Integer> map;
+    private RedisMap<String, Integer> otherClient;
+
+    @BeforeEach
+    public void beforeEach() {
+        Assumptions.assumeTrue(TestRedis.CLUSTER, "Near cache is invalidated by the redis cluster");
+        redis = TestRedis.open();
+        cluster = (JedisCluster) redis.commands();
+        map = RedisMap.builder(cluster, RedisConfiguration.REDIS_HASH_KEY)
+                .nearCache(100)
+                .build();
+        otherClient = RedisMap.of(cluster, RedisConfiguration.REDIS_HASH_KEY);
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        if (map != null) {
+            map.close();
+        }
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that repeated reads are served from near cache")
+    public void get_repeated_servedLocally() {
+        map.put("1", 1);
+
+        Assertions.assertEquals(1, map.get("1"));
+        Assertions.assertEquals(1, map.get("1"));
+        Assertions.assertTrue(map.containsKey("1"));
+        Assertions.assertFalse(map.containsKey("2"));
+        Assertions.assertFalse(map.containsKey("2"));
+
+        NearCache.Stats stats = map.nearCacheStats();
+        Assertions.assertEquals(2, stats.misses());
+        Assertions.assertEquals(3, stats.hits());
+    }
+
+    @Test
+    @DisplayName("Tests that writes made through the map are visible right away")
+    public void put_ownWrite_visible() {
+        map.put("1", 1);
+        Assertions.assertEquals(1, map.get("1"));
+        map.put("1", 2);
+        Assertions.assertEquals(2, map.get("1"));
+        map.remove("1");
+        Assertions.assertNull(map.get("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that writes made by other clients invalidate near cache")
+    public void put_otherClient_invalidated() throws InterruptedException {
+        map.put("1", 1);
+        Assertions.assertEquals(1, map.get("1"));
+
+        otherClient.put("1", 2);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(2).equals(map.get("1")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, map.get("1"));
+        Assertions.assertTrue(map.nearCacheStats().invalidations() > 0);
+    }
+
+    @Test
+    @DisplayName("Tests that killing the connection that turned tracking on does not leave stale values cached")
+    public void put_trackerKilled_notStale() throws InterruptedException {
+        map.put("1", 1);
+        Assertions.assertEquals(1, map.get("1"));
+
+        // pub/sub subscribers are not of type normal, so only the tracker and pooled connections are killed
+        for (ConnectionPool pool : cluster.getClusterNodes().values()) {
+            try (Connection connection = pool.getResource()) {
+                connection.executeCommand(new CommandArguments(Protocol.Command.CLIENT).add("KILL")
+                        .add("TYPE").add("normal").add("SKIPME").add("yes"));
+            }
+        }
+        Thread.sleep(2000);
+        otherClient.put("1", 2);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(2).equals(map.get("1")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(2, map.get("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that near cache stats are not available without near cache")
+    public void nearCacheStats_disabled_throws() {
+        Assertions.assertThrows(IllegalStateException.class, otherClient::nearCacheStats);
+    }
+}
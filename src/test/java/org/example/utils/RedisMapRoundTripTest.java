@@ -0,0 +1,99 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.FakeRedis;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guards the number of round trips operations take, counted by the in-process fake of redis, so it does not run
+ * against redis. Scripts are loaded before counting, the first call of a script costs an extra EVAL
+ */
+public class RedisMapRoundTripTest {
+
+    private TestRedis redis;
+    private FakeRedis fake;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        Assumptions.assumeTrue(TestRedis.FAKE, "Round trips are counted by the fake");
+        redis = TestRedis.open();
+        fake = redis.fake();
+        map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        map.put("0", 0);
+        map.putIfAbsent("0", 0);
+        map.replace("0", 0, 0);
+        map.addAndGet("0", 0);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    private long roundTrips(Runnable operation) {
+        fake.resetCounts();
+        operation.run();
+        return fake.roundTrips();
+    }
+
+    @Test
+    @DisplayName("Tests that single key operations take one round trip")
+    public void singleKeyOperations_oneRoundTrip() {
+        Assertions.assertEquals(1, roundTrips(() -> map.get("1")));
+        Assertions.assertEquals(1, roundTrips(() -> map.put("1", 1)));
+        Assertions.assertEquals(1, roundTrips(() -> map.containsKey("1")));
+        Assertions.assertEquals(1, roundTrips(() -> map.putIfAbsent("1", 2)));
+        Assertions.assertEquals(1, roundTrips(() -> map.replace("1", 1, 2)));
+        Assertions.assertEquals(1, roundTrips(() -> map.addAndGet("1", 5)));
+        Assertions.assertEquals(1, roundTrips(() -> map.remove("1")));
+        Assertions.assertEquals(1, roundTrips(() -> map.size()));
+    }
+
+    @Test
+    @DisplayName("Tests that bulk operations take one round trip per hash, chunks of large inputs are pipelined")
+    public void bulkOperations_oneRoundTripPerHash() {
+        Map<String, Integer> entries = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            entries.put(String.valueOf(i), i);
+            keys.add(String.valueOf(i));
+        }
+
+        Assertions.assertEquals(1, roundTrips(() -> map.putAll(entries)));
+        Assertions.assertEquals(1, roundTrips(() -> map.getAll(keys)));
+        Assertions.assertEquals(4, fake.commandCount("HMGET"));
+        Assertions.assertEquals(1, roundTrips(() -> map.removeAll(keys)));
+
+        try (RedisMap<String, Integer> sharded = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .build()) {
+            Assertions.assertEquals(4, roundTrips(() -> sharded.putAll(entries)));
+            Assertions.assertEquals(4, roundTrips(sharded::size));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that buffered writes are flushed in a single pipeline")
+    public void writeBehind_flushOneRoundTrip() {
+        try (RedisMap<String, Integer> buffered = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .writeBehind(1000, Duration.ofHours(1))
+                .build()) {
+            Assertions.assertEquals(0, roundTrips(() -> {
+                for (int i = 0; i < 100; i++) {
+                    buffered.set(String.valueOf(i), i);
+                }
+            }));
+            Assertions.assertEquals(1, roundTrips(buffered::flush));
+        }
+    }
+}
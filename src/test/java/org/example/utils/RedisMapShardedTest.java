@@ -0,0 +1,61 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapShardedTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(5)
+                .build();
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that point operations work on sharded map")
+    public void putGetRemove_successful() {
+        Assertions.assertNull(map.put("1", 1));
+        Assertions.assertEquals(1, map.put("1", 2));
+        Assertions.assertEquals(2, map.get("1"));
+        Assertions.assertTrue(map.containsKey("1"));
+        Assertions.assertTrue(map.containsValue(2));
+        Assertions.assertEquals(2, map.remove("1"));
+        Assertions.assertFalse(map.containsKey("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that operations over the whole map merge all shards")
+    public void bulkOperations_mergeShards() {
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            expected.put(String.valueOf(i), i);
+        }
+        map.putAll(expected);
+
+        Assertions.assertEquals(100, map.size());
+        Assertions.assertEquals(expected.keySet(), map.keySet());
+        Assertions.assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+        Assertions.assertEquals(expected, map);
+
+        map.clear();
+        Assertions.assertTrue(map.isEmpty());
+    }
+}
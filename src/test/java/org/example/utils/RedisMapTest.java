@@ -3,34 +3,28 @@ package org.example.utils;
 import org.example.config.RedisConfiguration;
 import org.example.util.RedisMap;
 import org.junit.jupiter.api.*;
-import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.util.KeyValue;
 
 import java.util.*;
 
-import static org.example.config.RedisConfiguration.NODES;
-
 /**
- * At the moment requires redis cluster to be running for the tests to pass
- * I would not do it in real life code and I would either mock it, or more likely make these integration tests
- * In order to run the tests you need to remove the @Disabled annotation and launch redis cluster
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
  */
-@Disabled
 public class RedisMapTest {
 
-    private JedisCluster cluster;
-    private RedisMap map;
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
 
     @BeforeEach
     public void beforeEach() {
-        cluster = new JedisCluster(NODES);
-        map = new RedisMap(cluster, RedisConfiguration.REDIS_HASH_KEY);
+        redis = TestRedis.open();
+        map = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
         map.clear();
     }
 
     @AfterEach
     public void afterEach() {
-        cluster.close();
+        redis.close();
     }
 
     @Test
@@ -140,10 +134,12 @@ public class RedisMapTest {
     @DisplayName("Tests that containsValue method works correctly")
     public void containsValue_successful() {
         Assertions.assertFalse(map.containsValue("1"));
+        Assertions.assertFalse(map.containsValue(1));
         map.put("1", 1);
-        Assertions.assertTrue(map.containsValue("1"));
-        map.remove("1", 1);
         Assertions.assertFalse(map.containsValue("1"));
+        Assertions.assertTrue(map.containsValue(1));
+        map.remove("1", 1);
+        Assertions.assertFalse(map.containsValue(1));
     }
 
     @Test
@@ -317,4 +313,233 @@ public class RedisMapTest {
 
         Assertions.assertFalse(expected.equals(map));
     }
+
+    @Test
+    @DisplayName("Tests that views page through all entries")
+    public void views_manyEntries_allReturned() {
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.put(String.valueOf(i), i);
+        }
+        map.putAll(expected);
+
+        try (RedisMap<String, Integer> smallPages = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY).scanCount(10).build()) {
+            Assertions.assertEquals(expected.keySet(), new HashSet<>(smallPages.keySet()));
+            Assertions.assertEquals(new HashSet<>(expected.values()), new HashSet<>(smallPages.values()));
+            Assertions.assertEquals(expected.entrySet(), new HashSet<>(smallPages.entrySet()));
+            Assertions.assertEquals(expected.values().stream().mapToLong(Integer::longValue).sum(),
+                    smallPages.values().stream().mapToLong(Integer::longValue).sum());
+            Assertions.assertEquals(expected.hashCode(), smallPages.hashCode());
+            Assertions.assertEquals(smallPages, expected);
+            Assertions.assertTrue(smallPages.containsValue(999));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that views are backed by redis")
+    public void views_live() {
+        Set<String> keys = map.keySet();
+        Assertions.assertTrue(keys.isEmpty());
+        map.put("1", 1);
+        map.put("2", 2);
+        Assertions.assertEquals(2, keys.size());
+        Assertions.assertTrue(keys.contains("1"));
+
+        Assertions.assertTrue(keys.remove("1"));
+        Assertions.assertFalse(map.containsKey("1"));
+
+        Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+        Map.Entry<String, Integer> entry = entries.next();
+        entry.setValue(3);
+        Assertions.assertEquals(3, map.get("2"));
+        entries.remove();
+        Assertions.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that forEach visits every entry")
+    public void forEach_successful() {
+        map.put("1", 1);
+        map.put("2", 2);
+        Map<String, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        Assertions.assertEquals(visited, map);
+    }
+
+    @Test
+    @DisplayName("Tests that set and delete work without returning old values")
+    public void setDelete_successful() {
+        map.set("1", 1);
+        Assertions.assertEquals(1, map.get("1"));
+        map.set("1", 2);
+        Assertions.assertEquals(2, map.get("1"));
+        map.delete("1");
+        Assertions.assertFalse(map.containsKey("1"));
+        map.delete("1");
+        Assertions.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that primitive methods read and write the same entries as boxed ones")
+    public void intMethods_successful() {
+        map.putInt("1", 1);
+        Assertions.assertEquals(1, map.get("1"));
+        Assertions.assertEquals(1, map.getInt("1", -1));
+        Assertions.assertEquals(-1, map.getInt("2", -1));
+
+        map.putAllInt(List.of("2", "3"), new int[]{2, 3});
+        Assertions.assertArrayEquals(new int[]{3, 0, 1, 2}, map.getAllInt(List.of("3", "4", "1", "2"), 0));
+
+        Map<String, Integer> visited = new HashMap<>();
+        map.forEachInt(visited::put);
+        Assertions.assertEquals(Map.of("1", 1, "2", 2, "3", 3), visited);
+    }
+
+    @Test
+    @DisplayName("Tests that addAndGet increments atomically and treats a missing entry as 0")
+    public void addAndGet_successful() {
+        Assertions.assertEquals(5, map.addAndGet("1", 5));
+        Assertions.assertEquals(3, map.addAndGet("1", -2));
+        Assertions.assertEquals(3, map.get("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that addAndGet writes nothing when the addition overflows int, in either direction")
+    public void addAndGet_overflow_throws() {
+        map.putInt("1", Integer.MAX_VALUE);
+        map.putInt("2", -1);
+        Assertions.assertThrows(ArithmeticException.class, () -> map.addAndGet("1", 1));
+        Assertions.assertThrows(ArithmeticException.class, () -> map.addAndGet("2", Integer.MIN_VALUE));
+        Assertions.assertEquals(Integer.MAX_VALUE, map.getInt("1", 0));
+        Assertions.assertEquals(-1, map.getInt("2", 0));
+        Assertions.assertEquals(Integer.MIN_VALUE, map.addAndGet("3", Integer.MIN_VALUE));
+    }
+
+    @Test
+    @DisplayName("Tests that putIfAbsent and replace only write when the entry is missing or present respectively")
+    public void putIfAbsent_replace_successful() {
+        Assertions.assertNull(map.putIfAbsent("1", 1));
+        Assertions.assertEquals(1, map.putIfAbsent("1", 2));
+        Assertions.assertEquals(1, map.get("1"));
+
+        Assertions.assertNull(map.replace("2", 2));
+        Assertions.assertFalse(map.containsKey("2"));
+        Assertions.assertEquals(1, map.replace("1", 3));
+        Assertions.assertEquals(3, map.get("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that conditional replace and remove compare the current value")
+    public void replaceRemove_conditional_successful() {
+        map.put("1", 1);
+        Assertions.assertFalse(map.replace("1", 2, 3));
+        Assertions.assertTrue(map.replace("1", 1, 3));
+        Assertions.assertEquals(3, map.get("1"));
+
+        Assertions.assertFalse(map.remove("1", 1));
+        Assertions.assertTrue(map.remove("1", 3));
+        Assertions.assertFalse(map.containsKey("1"));
+    }
+
+    @Test
+    @DisplayName("Tests that compute methods store, update and remove entries")
+    public void compute_successful() {
+        Assertions.assertEquals(1, map.computeIfAbsent("1", k -> 1));
+        Assertions.assertEquals(1, map.computeIfAbsent("1", k -> 2));
+        Assertions.assertNull(map.computeIfAbsent("2", k -> null));
+        Assertions.assertFalse(map.containsKey("2"));
+
+        Assertions.assertEquals(2, map.computeIfPresent("1", (k, v) -> v + 1));
+        Assertions.assertNull(map.computeIfPresent("2", (k, v) -> v + 1));
+        Assertions.assertFalse(map.containsKey("2"));
+
+        Assertions.assertEquals(5, map.compute("2", (k, v) -> v == null ? 5 : v + 1));
+        Assertions.assertNull(map.compute("2", (k, v) -> null));
+        Assertions.assertEquals(Map.of("1", 2), map);
+    }
+
+    @Test
+    @DisplayName("Tests that concurrent merges from several clients are not lost")
+    public void merge_concurrent_noLostUpdates() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                RedisMap<String, Integer> client = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+                for (int i = 0; i < 100; i++) {
+                    client.merge("1", 1, Integer::sum);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(400, map.get("1"));
+        Assertions.assertNull(map.merge("1", 1, (a, b) -> null));
+        Assertions.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that replaceAll replaces every value across several pages")
+    public void replaceAll_manyEntries_successful() {
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(String.valueOf(i), i);
+            expected.put(String.valueOf(i), i * 2);
+        }
+        map.replaceAll((k, v) -> v * 2);
+        Assertions.assertEquals(expected, map);
+    }
+
+    @Test
+    @DisplayName("Tests that getAll returns present keys only, also when the keys are split into several chunks")
+    public void getAll_manyKeys_successful() {
+        Map<String, Integer> expected = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            keys.add(String.valueOf(i));
+            if (i % 2 == 0) {
+                expected.put(String.valueOf(i), i);
+            }
+        }
+        map.putAll(expected);
+
+        Map<String, Integer> values = map.getAll(keys);
+
+        Assertions.assertEquals(expected, values);
+        Assertions.assertEquals("0", values.keySet().iterator().next());
+        Assertions.assertEquals(Map.of(), map.getAll(List.of()));
+    }
+
+    @Test
+    @DisplayName("Tests that removeAll deletes all given keys and counts only present ones")
+    public void removeAll_manyKeys_successful() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            map.put(String.valueOf(i), i);
+            keys.add(String.valueOf(i));
+        }
+        keys.add("missing");
+
+        Assertions.assertEquals(1200, map.removeAll(keys));
+        Assertions.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that removals through views are made in redis")
+    public void views_removeIfRetainAll_successful() {
+        for (int i = 0; i < 10; i++) {
+            map.put(String.valueOf(i), i);
+        }
+
+        Assertions.assertTrue(map.keySet().removeIf(k -> k.equals("0")));
+        Assertions.assertTrue(map.values().removeIf(v -> v == 1));
+        Assertions.assertTrue(map.entrySet().removeIf(e -> e.getValue() == 2));
+        Assertions.assertTrue(map.keySet().removeAll(List.of("3", "4")));
+        Assertions.assertTrue(map.values().removeAll(List.of(5)));
+        Assertions.assertTrue(map.keySet().retainAll(List.of("6", "7", "8")));
+        Assertions.assertFalse(map.keySet().removeIf(k -> k.equals("9")));
+        Assertions.assertTrue(map.entrySet().retainAll(Set.of(Map.entry("6", 6), Map.entry("7", 70))));
+
+        Assertions.assertEquals(Map.of("6", 6), map);
+    }
 }
@@ -0,0 +1,152 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.Codecs;
+import org.example.util.RedisMap;
+import org.example.util.RedisMapTransfer;
+import org.example.util.TransferStats;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapTransferTest {
+
+    @TempDir
+    private Path directory;
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .build();
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.clear();
+        map.close();
+        redis.close();
+    }
+
+    private static Map<String, Integer> entries(int count) {
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            entries.put("key" + i, i);
+        }
+        return entries;
+    }
+
+    @Test
+    @DisplayName("Tests that a stream is imported in pipelines of maxInFlight batches and progress is reported")
+    public void importStream_pipelinedBatches() {
+        Map<String, Integer> expected = entries(10_000);
+        List<TransferStats> reports = new ArrayList<>();
+        if (redis.fake() != null) {
+            redis.fake().resetCounts();
+        }
+
+        TransferStats stats = map.transfer()
+                .batchSize(100)
+                .maxInFlight(10)
+                .progress(Duration.ZERO, reports::add)
+                .importFrom(expected.entrySet().stream());
+
+        if (redis.fake() != null) {
+            // 100 full batches and at most 4 partial ones, one per hash
+            Assertions.assertTrue(redis.fake().commandCount("HSET") <= 104);
+            Assertions.assertTrue(redis.fake().roundTrips() <= 11);
+        }
+        Assertions.assertEquals(expected, map);
+        Assertions.assertEquals(10_000, stats.entries());
+        Assertions.assertTrue(stats.bytes() > 10_000 * 5);
+        Assertions.assertEquals(stats, reports.get(reports.size() - 1));
+        Assertions.assertTrue(reports.size() > 2);
+    }
+
+    @Test
+    @DisplayName("Tests that a binary export imported into an empty map restores it, including long and binary values")
+    public void exportBinary_importRestores() throws IOException {
+        Path file = directory.resolve("map.bin");
+        Map<String, Integer> expected = entries(3000);
+        map.putAll(expected);
+
+        TransferStats exported = map.transfer().batchSize(250).exportTo(file, RedisMapTransfer.Format.BINARY);
+        map.clear();
+        TransferStats imported = map.transfer().importFrom(file);
+
+        Assertions.assertEquals(3000, exported.entries());
+        Assertions.assertEquals(exported.entries(), imported.entries());
+        Assertions.assertEquals(exported.bytes(), imported.bytes());
+        Assertions.assertEquals(expected, map);
+
+        try (RedisMap<byte[], byte[]> raw = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":raw",
+                Codecs.bytes(), Codecs.bytes()).build()) {
+            byte[] large = new byte[3 << 20];
+            large[large.length - 1] = (byte) 0xFF;
+            raw.put(new byte[]{0, (byte) 0x80}, large);
+            raw.transfer().exportTo(file, RedisMapTransfer.Format.BINARY);
+            raw.clear();
+
+            raw.transfer().importFrom(file);
+
+            Assertions.assertArrayEquals(large, raw.get(new byte[]{0, (byte) 0x80}));
+            raw.clear();
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that a CSV export has a header and quotes fields that need it")
+    public void exportCsv_quoted() throws IOException {
+        Path file = directory.resolve("map.csv");
+        map.put("plain", 1);
+        map.put("with,comma", 2);
+        map.put("with \"quote\"", 3);
+
+        map.transfer().exportTo(file, RedisMapTransfer.Format.CSV);
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assertions.assertEquals("key,value", lines.get(0));
+        Assertions.assertEquals(List.of("\"with \"\"quote\"\"\",3", "\"with,comma\",2", "plain,1"),
+                lines.subList(1, lines.size()).stream().sorted().toList());
+    }
+
+    @Test
+    @DisplayName("Tests that importing a file that is not a binary export fails without writing anything")
+    public void importForeignFile_rejected() throws IOException {
+        Path file = directory.resolve("map.csv");
+        Files.writeString(file, "key,value\n1,1\n");
+
+        Assertions.assertThrows(IOException.class, () -> map.transfer().importFrom(file));
+        Assertions.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Tests that imports keep companions of maps with a value index up to date")
+    public void importIndexed_indexUpdated() {
+        try (RedisMap<String, Integer> indexed = RedisMap.builder(redis.commands(),
+                RedisConfiguration.REDIS_HASH_KEY + ":indexed").valueIndex().build()) {
+            indexed.transfer().batchSize(7).importFrom(IntStream.range(0, 100).mapToObj(i -> Map.entry("k" + i, i % 10)));
+
+            Assertions.assertEquals(100, indexed.size());
+            Assertions.assertEquals(10, indexed.keysWithValue(3).size());
+            indexed.clear();
+        }
+    }
+}
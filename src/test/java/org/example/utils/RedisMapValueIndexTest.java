@@ -0,0 +1,142 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.Codecs;
+import org.example.util.RedisMap;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapValueIndexTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .valueIndex()
+                .build();
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that containsValue follows puts, overwrites and removals")
+    public void containsValue_indexed_successful() {
+        map.put("1", 1);
+        map.put("2", 1);
+        map.put("3", 3);
+
+        Assertions.assertTrue(map.containsValue(1));
+        Assertions.assertTrue(map.containsValue(3));
+        Assertions.assertFalse(map.containsValue(2));
+
+        map.put("3", 2);
+        map.remove("1");
+
+        Assertions.assertTrue(map.containsValue(1));
+        Assertions.assertTrue(map.containsValue(2));
+        Assertions.assertFalse(map.containsValue(3));
+
+        map.delete("2");
+
+        Assertions.assertFalse(map.containsValue(1));
+    }
+
+    @Test
+    @DisplayName("Tests that keys of a value and of a range of values are found")
+    public void keysWithValue_successful() {
+        map.putAll(Map.of("1", 10, "2", 20, "3", 10, "4", 30));
+
+        Assertions.assertEquals(Set.of("1", "3"), Set.copyOf(map.keysWithValue(10)));
+        Assertions.assertEquals(List.of(), map.keysWithValue(15));
+        Assertions.assertEquals(Set.of("1", "2", "3"), Set.copyOf(map.keysWithValueBetween(10, 20)));
+    }
+
+    @Test
+    @DisplayName("Tests that compound operations and increments keep the index in sync")
+    public void compoundOperations_indexUpdated() {
+        map.putIfAbsent("1", 1);
+        map.replace("1", 1, 2);
+        map.merge("1", 5, Integer::sum);
+        map.addAndGet("2", 4);
+        map.replaceAll((key, value) -> value + 1);
+        Assertions.assertThrows(ArithmeticException.class, () -> map.addAndGet("2", Integer.MAX_VALUE));
+
+        Assertions.assertEquals(List.of("1"), map.keysWithValue(8));
+        Assertions.assertEquals(List.of("2"), map.keysWithValue(5));
+        Assertions.assertFalse(map.containsValue(2));
+
+        Assertions.assertTrue(map.remove("1", 8));
+        Assertions.assertFalse(map.containsValue(8));
+    }
+
+    @Test
+    @DisplayName("Tests that clear removes the index together with the hashes")
+    public void clear_indexRemoved() {
+        map.putAllInt(List.of("1", "2"), new int[]{1, 2});
+
+        map.clear();
+
+        Assertions.assertFalse(map.containsValue(1));
+        Assertions.assertEquals(List.of(), map.keysWithValueBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Tests that flushed write behind batches update the index")
+    public void writeBehind_flushed_indexUpdated() {
+        try (RedisMap<String, Integer> buffered = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .shards(4)
+                .valueIndex()
+                .writeBehind(100, Duration.ofHours(1))
+                .build()) {
+            buffered.set("1", 1);
+            buffered.set("2", 2);
+            buffered.delete("2");
+
+            Assertions.assertTrue(buffered.containsValue(1));
+            Assertions.assertFalse(map.containsValue(2));
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that values which are not numbers are indexed by their bytes")
+    public void keysWithValue_strings_successful() {
+        try (RedisMap<String, String> strings = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":strings",
+                        Codecs.utf8(), Codecs.utf8())
+                .valueIndex()
+                .build()) {
+            strings.clear();
+            strings.put("1", "a");
+            strings.put("2", "ab");
+            strings.put("3", "a");
+
+            Assertions.assertEquals(Set.of("1", "3"), Set.copyOf(strings.keysWithValue("a")));
+            Assertions.assertTrue(strings.containsValue("ab"));
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> strings.keysWithValueBetween("a", "b"));
+            strings.clear();
+        }
+    }
+
+    @Test
+    @DisplayName("Tests that lookups by value require the index")
+    public void keysWithValue_noIndex_throws() {
+        RedisMap<String, Integer> plain = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> plain.keysWithValue(1));
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisMap;
+import org.example.util.WriteBehindStats;
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisMapWriteBehindTest {
+
+    private TestRedis redis;
+    private RedisMap<String, Integer> map;
+    private RedisMap<String, Integer> otherClient;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY)
+                .writeBehind(100, Duration.ofHours(1))
+                .build();
+        otherClient = RedisMap.of(redis.commands(), RedisConfiguration.REDIS_HASH_KEY);
+        map.clear();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.close();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that buffered writes are visible through the map before they are flushed")
+    public void set_buffered_visibleThroughMap() {
+        map.set("1", 1);
+        map.set("2", 2);
+        map.delete("2");
+
+        Assertions.assertEquals(1, map.get("1"));
+        Assertions.assertNull(map.get("2"));
+        Assertions.assertFalse(map.containsKey("2"));
+        Assertions.assertNull(otherClient.get("1"));
+        Assertions.assertEquals(1, map.put("1", 3));
+        Assertions.assertEquals(3, map.remove("1"));
+        Assertions.assertEquals(2, map.writeBehindStats().pendingWrites());
+    }
+
+    @Test
+    @DisplayName("Tests that flush writes coalesced writes to redis")
+    public void flush_successful() {
+        for (int i = 0; i < 10; i++) {
+            map.set("1", i);
+        }
+        map.set("2", 2);
+        map.flush();
+
+        Assertions.assertEquals(9, otherClient.get("1"));
+        Assertions.assertEquals(2, otherClient.get("2"));
+        WriteBehindStats stats = map.writeBehindStats();
+        Assertions.assertEquals(0, stats.pendingWrites());
+        Assertions.assertEquals(2, stats.flushedWrites());
+    }
+
+    @Test
+    @DisplayName("Tests that reaching batch size triggers a flush")
+    public void set_batchFull_flushed() throws InterruptedException {
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(String.valueOf(i), i);
+        }
+        map.putAll(entries);
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (otherClient.size() < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(entries, otherClient);
+    }
+
+    @Test
+    @DisplayName("Tests that a failed background flush is reported in the stats and its writes are retried")
+    public void set_backgroundFlushFailed_reportedAndRetried() throws InterruptedException {
+        Assumptions.assumeTrue(TestRedis.FAKE, "Failures are injected by the fake");
+        redis.fake().failNext("HSET", 1);
+        Map<String, Integer> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put(String.valueOf(i), i);
+        }
+        map.putAll(entries);
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (map.writeBehindStats().failedFlushes() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        WriteBehindStats stats = map.writeBehindStats();
+        Assertions.assertEquals(1, stats.failedFlushes());
+        Assertions.assertNotNull(stats.lastFailure());
+        Assertions.assertEquals(100, stats.pendingWrites());
+        Assertions.assertEquals(99, map.get("99"));
+
+        map.flush();
+        Assertions.assertEquals(entries, otherClient);
+    }
+
+    @Test
+    @DisplayName("Tests that close releases resources of the map even if the final flush fails")
+    public void close_flushFailed_resourcesReleased() {
+        Assumptions.assumeTrue(TestRedis.FAKE, "Failures are injected by the fake");
+        RedisMap<String, Integer> sharded = RedisMap.builder(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + "_SHARDED")
+                .shards(4)
+                .writeBehind(100, Duration.ofHours(1))
+                .build();
+        sharded.set("1", 1);
+        redis.fake().failNext("HSET", 1);
+
+        Assertions.assertThrows(JedisDataException.class, sharded::close);
+        // the executor of the shards is shut down, so operations over all of them are rejected
+        Assertions.assertThrows(RejectedExecutionException.class, sharded::size);
+    }
+
+    @Test
+    @DisplayName("Tests that operations over the whole map see buffered writes")
+    public void size_buffered_flushedFirst() {
+        map.set("1", 1);
+        map.set("2", 2);
+        Assertions.assertEquals(2, map.size());
+        Assertions.assertEquals(Map.of("1", 1, "2", 2), map);
+    }
+
+    @Test
+    @DisplayName("Tests that clear discards buffered writes")
+    public void clear_buffered_discarded() {
+        map.set("1", 1);
+        map.clear();
+        map.flush();
+        Assertions.assertTrue(otherClient.isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.RedisSortedMap;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Runs against an in-process fake of redis, -Dredis.tests.backend=cluster runs it against the redis cluster
+ */
+public class RedisSortedMapTest {
+
+    private TestRedis redis;
+    private RedisSortedMap map;
+
+    @BeforeEach
+    public void beforeEach() {
+        redis = TestRedis.open();
+        map = new RedisSortedMap(redis.commands(), RedisConfiguration.REDIS_HASH_KEY + ":sorted", 2);
+        map.clear();
+        map.putAll(Map.of("apple", 5, "banana", 3, "cherry", 8, "date", 1, "elderberry", 8));
+    }
+
+    @AfterEach
+    public void afterEach() {
+        map.clear();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Tests that the map behaves like a TreeMap of the same entries, iterated page by page")
+    public void navigation_sameAsTreeMap() {
+        NavigableMap<String, Integer> expected = new TreeMap<>(map.comparator());
+        expected.putAll(Map.of("apple", 5, "banana", 3, "cherry", 8, "date", 1, "elderberry", 8));
+
+        Assertions.assertEquals(expected, map);
+        Assertions.assertEquals(List.copyOf(expected.keySet()), List.copyOf(map.keySet()));
+        Assertions.assertEquals(List.copyOf(expected.descendingKeySet()), List.copyOf(map.descendingKeySet()));
+        Assertions.assertEquals("apple", map.firstKey());
+        Assertions.assertEquals("elderberry", map.lastKey());
+        Assertions.assertEquals("cherry", map.ceilingKey("c"));
+        Assertions.assertEquals("cherry", map.ceilingKey("cherry"));
+        Assertions.assertEquals("date", map.higherKey("cherry"));
+        Assertions.assertEquals("banana", map.floorKey("c"));
+        Assertions.assertEquals("banana", map.lowerKey("cherry"));
+        Assertions.assertNull(map.lowerKey("apple"));
+        Assertions.assertNull(map.ceilingKey("f"));
+        Assertions.assertEquals(Map.entry("date", 1), map.floorEntry("dz"));
+        Assertions.assertEquals(8, map.get("cherry"));
+        Assertions.assertNull(map.get("fig"));
+    }
+
+    @Test
+    @DisplayName("Tests that sub, head, tail and descending views see only their range and are counted by redis")
+    public void views_limitedToRange() {
+        RedisSortedMap sub = map.subMap("b", "d");
+
+        Assertions.assertEquals(Map.of("banana", 3, "cherry", 8), sub);
+        Assertions.assertEquals(2, sub.size());
+        Assertions.assertEquals(List.of("apple", "banana"), List.copyOf(map.headMap("cherry").keySet()));
+        Assertions.assertEquals(List.of("date", "elderberry"), List.copyOf(map.tailMap("cherry", false).keySet()));
+        Assertions.assertEquals(List.of("cherry", "banana"), List.copyOf(map.descendingMap().subMap("d", "b").keySet()));
+        Assertions.assertEquals("cherry", sub.lowerKey("zzz"));
+        Assertions.assertNull(sub.get("apple"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sub.put("date", 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sub.headMap("e"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.subMap("d", "b"));
+
+        sub.clear();
+
+        Assertions.assertEquals(List.of("apple", "date", "elderberry"), List.copyOf(map.keySet()));
+    }
+
+    @Test
+    @DisplayName("Tests that writes update both the key and value order, and polls and iterator removal remove from both")
+    public void writes_keepIndexesInSync() {
+        Assertions.assertEquals(5, map.put("apple", 10));
+        Assertions.assertEquals(1, map.remove("date"));
+        Assertions.assertEquals(Map.entry("apple", 10), map.pollFirstEntry());
+        Assertions.assertEquals(Map.entry("elderberry", 8), map.pollLastEntry());
+        Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator();
+        iterator.next().setValue(4);
+        iterator.next();
+        iterator.remove();
+
+        Assertions.assertEquals(Map.of("banana", 4), map);
+        Assertions.assertEquals(Map.of("banana", 4), map.topByValue(10));
+    }
+
+    @Test
+    @DisplayName("Tests that top, bottom and value range queries return only the requested entries in value order")
+    public void byValue_orderedAndPaginated() {
+        Map<String, Integer> top = map.topByValue(3);
+        Map<String, Integer> bottom = map.bottomByValue(2);
+        List<String> pages = new ArrayList<>();
+        for (int offset = 0; offset < 4; offset += 2) {
+            pages.addAll(map.byValue(3, 8, offset, 2).keySet());
+        }
+
+        Assertions.assertEquals(List.of("elderberry", "cherry", "apple"), List.copyOf(top.keySet()));
+        Assertions.assertEquals(new LinkedHashMap<>(Map.of("elderberry", 8, "cherry", 8, "apple", 5)), top);
+        Assertions.assertEquals(List.of("date", "banana"), List.copyOf(bottom.keySet()));
+        Assertions.assertEquals(List.of("banana", "apple", "cherry", "elderberry"), pages);
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> map.headMap("c").topByValue(1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> map.topByValue(0));
+    }
+}
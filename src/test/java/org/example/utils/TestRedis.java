@@ -0,0 +1,52 @@
+package org.example.utils;
+
+import org.example.config.RedisConfiguration;
+import org.example.util.FakeRedis;
+import redis.clients.jedis.UnifiedJedis;
+
+/**
+ * Backend of the map tests: a fresh in-process {@link FakeRedis} by default, the redis cluster of
+ * {@link RedisConfiguration} when run with -Dredis.tests.backend=cluster, or its single instance of redis
+ * with -Dredis.tests.backend=single
+ */
+final class TestRedis implements AutoCloseable {
+    static final boolean CLUSTER = "cluster".equalsIgnoreCase(System.getProperty("redis.tests.backend"));
+    static final boolean SINGLE = "single".equalsIgnoreCase(System.getProperty("redis.tests.backend"));
+    static final boolean FAKE = !CLUSTER && !SINGLE;
+
+    private final FakeRedis fake;
+    private final UnifiedJedis commands;
+
+    private TestRedis(FakeRedis fake, UnifiedJedis commands) {
+        this.fake = fake;
+        this.commands = commands;
+    }
+
+    static TestRedis open() {
+        if (CLUSTER) {
+            return new TestRedis(null, RedisConfiguration.CURRENT.createCluster());
+        }
+        if (SINGLE) {
+            return new TestRedis(null, RedisConfiguration.CURRENT.createSingle());
+        }
+        FakeRedis fake = new FakeRedis();
+        return new TestRedis(fake, fake.client());
+    }
+
+    UnifiedJedis commands() {
+        return commands;
+    }
+
+    /**
+     * Returns the fake backend
+     * @return fake backend, or NULL when the tests run against redis
+     */
+    FakeRedis fake() {
+        return fake;
+    }
+
+    @Override
+    public void close() {
+        commands.close();
+    }
+}